@@ -18,14 +18,21 @@ LOCAL_SRC_FILES := \
         feature_mos/src/mosaic/AlignFeatures.cpp \
         feature_mos/src/mosaic/Blend.cpp \
         feature_mos/src/mosaic/Delaunay.cpp \
+        feature_mos/src/mosaic/FrameConvert.cpp \
+        feature_mos/src/mosaic/FrameConvertSSE2.cpp \
+        feature_mos/src/mosaic/FrameStore.cpp \
         feature_mos/src/mosaic/ImageUtils.cpp \
         feature_mos/src/mosaic/Mosaic.cpp \
+        feature_mos/src/mosaic/MosaicArena.cpp \
+        feature_mos/src/mosaic/LiveMosaic.cpp \
         feature_mos/src/mosaic/Pyramid.cpp \
+        feature_mos/src/mosaic/PyramidSSE2.cpp \
         feature_mos/src/mosaic_renderer/Renderer.cpp \
         feature_mos/src/mosaic_renderer/WarpRenderer.cpp \
         feature_mos/src/mosaic_renderer/SurfaceTextureRenderer.cpp \
         feature_mos/src/mosaic_renderer/YVURenderer.cpp \
         feature_mos/src/mosaic_renderer/FrameBuffer.cpp \
+        feature_mos/src/mosaic_renderer/FrameReader.cpp \
         feature_stab/db_vlvm/db_feature_detection.cpp \
         feature_stab/db_vlvm/db_feature_matching.cpp \
         feature_stab/db_vlvm/db_framestitching.cpp \
@@ -36,23 +43,42 @@ LOCAL_SRC_FILES := \
         feature_stab/db_vlvm/db_utilities_indexing.cpp \
         feature_stab/db_vlvm/db_utilities_linalg.cpp \
         feature_stab/db_vlvm/db_utilities_poly.cpp \
+        feature_stab/db_vlvm/db_worker_group.cpp \
         feature_stab/src/dbreg/dbreg.cpp \
         feature_stab/src/dbreg/dbstabsmooth.cpp \
         feature_stab/src/dbreg/vp_motionmodel.c
 
 ifeq ($(TARGET_ARCH), arm)
         LOCAL_SDK_VERSION := 9
+        # NEON is optional on ARMv7; FrameConvert checks for it at run time.
+        # The NEON files are built, but not used by default; see
+        # FrameConvert.cpp.
+        ifneq ($(filter armv7-a%,$(TARGET_ARCH_VARIANT)),)
+                LOCAL_SRC_FILES += feature_mos/src/mosaic/FrameConvertNeon.cpp.neon \
+                        feature_mos/src/mosaic/PyramidNeon.cpp.neon
+        else
+                LOCAL_SRC_FILES += feature_mos/src/mosaic/FrameConvertNeon.cpp \
+                        feature_mos/src/mosaic/PyramidNeon.cpp
+        endif
+endif
+
+ifeq ($(TARGET_ARCH), arm64)
+        LOCAL_SRC_FILES += feature_mos/src/mosaic/FrameConvertNeon.cpp \
+                feature_mos/src/mosaic/PyramidNeon.cpp
 endif
 
 ifeq ($(TARGET_ARCH), x86)
         LOCAL_SDK_VERSION := 9
+        # The x86 ABI includes SSSE3.
+        LOCAL_CFLAGS += -mssse3
+        LOCAL_SRC_FILES += feature_mos/src/mosaic/FrameConvertSSSE3.cpp
 endif
 
 ifeq ($(TARGET_ARCH), mips)
         LOCAL_SDK_VERSION := 9
 endif
 
-LOCAL_LDFLAGS := -llog -lGLESv2
+LOCAL_LDFLAGS := -llog -lGLESv2 -lEGL
 
 LOCAL_MODULE_TAGS := optional
 
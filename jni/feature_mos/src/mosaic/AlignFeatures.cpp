@@ -52,6 +52,11 @@ char* Align::getRegProfileString()
   return reg.profile_string;
 }
 
+int Align::setThreadCount(int count)
+{
+  return reg.SetThreadCount(count);
+}
+
 int Align::initialize(int width, int height, bool _quarter_res, float _thresh_still)
 {
   int    nr_corners = DEFAULT_NR_CORNERS;
@@ -69,6 +69,11 @@ public:
   int getLastTRS(double trs[3][3]);
   char* getRegProfileString();
 
+  // Sets the number of threads used to detect corners and score the
+  // alignment hypotheses. Returns the number actually used. The alignment
+  // does not depend on it.
+  int setThreadCount(int count);
+
 protected:
 
   db_FrameToReferenceRegistration reg;
@@ -19,6 +19,9 @@
 // $Id: Blend.cpp,v 1.22 2011/06/24 04:22:14 mbansal Exp $
 
 #include <string.h>
+#include <limits.h>
+#include <pthread.h>
+#include <time.h>
 
 #include "Interp.h"
 #include "Blend.h"
@@ -29,16 +32,186 @@
 #include "Log.h"
 #define LOG_TAG "BLEND"
 
-Blend::Blend()
+static double NowSeconds()
 {
+    struct timespec t;
+    clock_gettime(CLOCK_MONOTONIC, &t);
+    return t.tv_sec + t.tv_nsec / 1e9;
+}
+
+Blend::Blend(MosaicArena *arena)
+{
+  m_arena = arena;
+  m_pFrameYPyr = m_pFrameUPyr = m_pFrameVPyr = NULL;
   m_wb.blendingType = BLEND_TYPE_NONE;
+  memset(&m_times, 0, sizeof(m_times));
+  m_nThreads = 1;
+  m_minStripWidth = 0.0f;
+  m_nBlended = 0;
+  m_progressCallback = NULL;
+  m_progressArg = NULL;
+  for (int i = 0; i < MAX_THREADS; i++)
+  {
+      m_pSlotYPyr[i] = m_pSlotUPyr[i] = m_pSlotVPyr[i] = NULL;
+  }
 }
 
 Blend::~Blend()
 {
-    if (m_pFrameVPyr) free(m_pFrameVPyr);
-    if (m_pFrameUPyr) free(m_pFrameUPyr);
-    if (m_pFrameYPyr) free(m_pFrameYPyr);
+    PyramidShort::freeImage(m_pFrameVPyr, m_arena);
+    PyramidShort::freeImage(m_pFrameUPyr, m_arena);
+    PyramidShort::freeImage(m_pFrameYPyr, m_arena);
+
+    // Slot 0 is the frame pyramids above.
+    for (int i = 1; i < MAX_THREADS; i++)
+    {
+        PyramidShort::freeImage(m_pSlotVPyr[i], m_arena);
+        PyramidShort::freeImage(m_pSlotUPyr[i], m_arena);
+        PyramidShort::freeImage(m_pSlotYPyr[i], m_arena);
+    }
+}
+
+void Blend::setThreadCount(int count)
+{
+    if (count < 1) count = 1;
+    if (count > MAX_THREADS) count = MAX_THREADS;
+    m_nThreads = count;
+}
+
+void Blend::setMinStripWidth(float fraction)
+{
+    if (!(fraction > 0.0f)) fraction = 0.0f;
+    if (fraction > MAX_STRIP_WIDTH_FRACTION) fraction = MAX_STRIP_WIDTH_FRACTION;
+    m_minStripWidth = fraction;
+}
+
+void Blend::setProgressCallback(ProgressCallback callback, void *arg)
+{
+    m_progressCallback = callback;
+    m_progressArg = arg;
+}
+
+// Makes sure the first count slots have frame pyramids. Returns the number
+// of slots that do, which is less than count if memory runs out.
+int Blend::AllocateSlots(int count)
+{
+    m_pSlotYPyr[0] = m_pFrameYPyr;
+    m_pSlotUPyr[0] = m_pFrameUPyr;
+    m_pSlotVPyr[0] = m_pFrameVPyr;
+
+    for (int i = 1; i < count; i++)
+    {
+        if (m_pSlotYPyr[i] != NULL) continue;
+
+        PyramidShort *y = PyramidShort::allocatePyramidPacked(m_wb.nlevs, (unsigned short) width, (unsigned short) height, BORDER, m_arena);
+        PyramidShort *u = PyramidShort::allocatePyramidPacked(m_wb.nlevsC, (unsigned short) width, (unsigned short) height, BORDER, m_arena);
+        PyramidShort *v = PyramidShort::allocatePyramidPacked(m_wb.nlevsC, (unsigned short) width, (unsigned short) height, BORDER, m_arena);
+        if (!y || !u || !v)
+        {
+            PyramidShort::freeImage(y, m_arena);
+            PyramidShort::freeImage(u, m_arena);
+            PyramidShort::freeImage(v, m_arena);
+            LOGE("Could not allocate pyramids for blending thread %d", i);
+            return i;
+        }
+        m_pSlotYPyr[i] = y;
+        m_pSlotUPyr[i] = u;
+        m_pSlotVPyr[i] = v;
+    }
+    return count;
+}
+
+// A piece of work for one blending thread.
+//
+// The threads split the mosaic into horizontal strips: a thread only writes
+// the pixels whose row in imgMos (at level 0) is in [rowStart, rowEnd), at
+// every pyramid level. ComputeMask and ProcessPyramidForThisFrame only read
+// and write the imgMos pixel and the mosaic pyramid pixel they are working
+// on, so each pixel goes through the same operations in the same order as
+// in a single-threaded run, and the output is the same.
+struct Blend::BlendJob
+{
+    static const int FILL = 0;   // Lay one frame into its slot pyramids.
+    static const int MASK = 1;   // ComputeMask for the sites, in order.
+    static const int BLEND = 2;  // ProcessPyramidForThisFrame for the sites.
+
+    Blend *blend;
+    int phase;
+    int rowStart, rowEnd;
+
+    // FILL
+    MosaicFrame *frame;
+    int slot;
+
+    // MASK and BLEND. In BLEND, site k uses slot k.
+    int firstSite, numSites;
+    YUVinfo *imgMos;
+    MosaicRect *rect;
+    bool *cancelComputation;
+
+    int ret;
+};
+
+void *Blend::RunJob(void *arg)
+{
+    BlendJob *job = (BlendJob *) arg;
+    Blend *b = job->blend;
+
+    job->ret = BLEND_RET_OK;
+    switch (job->phase)
+    {
+        case BlendJob::FILL:
+            job->ret = b->FillFramePyramid(job->frame, b->m_pSlotYPyr[job->slot],
+                    b->m_pSlotUPyr[job->slot], b->m_pSlotVPyr[job->slot]);
+            break;
+        case BlendJob::MASK:
+            for (int k = 0; k < job->numSites; k++)
+            {
+                if (*job->cancelComputation) break;
+                int site_idx = job->firstSite + k;
+                CSite *csite = b->m_AllSites + site_idx;
+                MosaicFrame *mb = csite->getMb();
+                b->ComputeMask(csite, mb->vcrect, mb->brect, *job->rect,
+                        *job->imgMos, site_idx, job->rowStart, job->rowEnd);
+            }
+            break;
+        case BlendJob::BLEND:
+            for (int k = 0; k < job->numSites; k++)
+            {
+                int site_idx = job->firstSite + k;
+                CSite *csite = b->m_AllSites + site_idx;
+                MosaicFrame *mb = csite->getMb();
+                b->ProcessPyramidForThisFrame(csite, mb->vcrect, mb->brect,
+                        *job->rect, *job->imgMos, mb->trs, site_idx,
+                        b->m_pSlotYPyr[k], b->m_pSlotUPyr[k], b->m_pSlotVPyr[k],
+                        job->rowStart, job->rowEnd);
+            }
+            break;
+    }
+    return NULL;
+}
+
+// Runs the jobs in parallel and waits for all of them. The first job runs
+// on the calling thread.
+void Blend::RunJobs(BlendJob *jobs, int count)
+{
+    pthread_t threads[MAX_THREADS];
+    bool started[MAX_THREADS];
+
+    for (int i = 1; i < count; i++)
+    {
+        started[i] = (pthread_create(&threads[i], NULL, RunJob, &jobs[i]) == 0);
+    }
+    RunJob(&jobs[0]);
+    for (int i = 1; i < count; i++)
+    {
+        // The jobs write disjoint data, so one that could not get a thread
+        // can run here.
+        if (started[i])
+            pthread_join(threads[i], NULL);
+        else
+            RunJob(&jobs[i]);
+    }
 }
 
 int Blend::initialize(int blendingType, int stripType, int frame_width, int frame_height)
@@ -61,9 +234,9 @@ int Blend::initialize(int blendingType, int stripType, int frame_width, int fram
     m_pFrameUPyr = NULL;
     m_pFrameVPyr = NULL;
 
-    m_pFrameYPyr = PyramidShort::allocatePyramidPacked(m_wb.nlevs, (unsigned short) width, (unsigned short) height, BORDER);
-    m_pFrameUPyr = PyramidShort::allocatePyramidPacked(m_wb.nlevsC, (unsigned short) (width), (unsigned short) (height), BORDER);
-    m_pFrameVPyr = PyramidShort::allocatePyramidPacked(m_wb.nlevsC, (unsigned short) (width), (unsigned short) (height), BORDER);
+    m_pFrameYPyr = PyramidShort::allocatePyramidPacked(m_wb.nlevs, (unsigned short) width, (unsigned short) height, BORDER, m_arena);
+    m_pFrameUPyr = PyramidShort::allocatePyramidPacked(m_wb.nlevsC, (unsigned short) (width), (unsigned short) (height), BORDER, m_arena);
+    m_pFrameVPyr = PyramidShort::allocatePyramidPacked(m_wb.nlevsC, (unsigned short) (width), (unsigned short) (height), BORDER, m_arena);
 
     if (!m_pFrameYPyr || !m_pFrameUPyr || !m_pFrameVPyr)
     {
@@ -106,18 +279,26 @@ int Blend::runBlend(MosaicFrame **oframes, MosaicFrame **rframes,
 
     MosaicFrame **frames;
 
-    // For THIN strip mode, accept all frames for blending
-    if (m_wb.stripType == STRIP_TYPE_THIN)
+    // For THIN strip mode, accept all frames for blending unless a minimum
+    // strip width is set.
+    if (m_wb.stripType == STRIP_TYPE_THIN && m_minStripWidth == 0.0f)
     {
         frames = oframes;
     }
-    else // For WIDE strip mode, first select the relevant frames to blend.
+    else // Otherwise, first select the relevant frames to blend.
     {
-        SelectRelevantFrames(oframes, frames_size, rframes, frames_size);
+        int count = frames_size;
+        SelectRelevantFrames(oframes, count, rframes, frames_size);
         frames = rframes;
+        LOGV("Blending %d of %d frames", frames_size, count);
     }
+    m_nBlended = frames_size;
+
+    memset(&m_times, 0, sizeof(m_times));
 
+    double t0 = NowSeconds();
     ComputeBlendParameters(frames, frames_size, true);
+    m_times.computeBlendParameters = NowSeconds() - t0;
     numCenters = frames_size;
 
     if (numCenters == 0)
@@ -138,10 +319,7 @@ int Blend::runBlend(MosaicFrame **oframes, MosaicFrame **rframes,
     global_rect.lft = global_rect.bot = 2e30; // min values
     global_rect.rgt = global_rect.top = -2e30; // max values
     MosaicFrame *mb = NULL;
-    double halfwidth = width / 2.0;
-    double halfheight = height / 2.0;
-
-    double z, x0, y0, x1, y1, x2, y2, x3, y3;
+    double x0, y0, x1, y1, x2, y2, x3, y3;
 
     // Corners of the left-most and right-most frames respectively in the
     // mosaic coordinate system.
@@ -281,8 +459,10 @@ int Blend::runBlend(MosaicFrame **oframes, MosaicFrame **rframes,
     }
 
     // Do merging and blending :
+    t0 = NowSeconds();
     ret = DoMergeAndBlend(frames, numCenters, width, height, *imgMos, fullRect,
             cropping_rect, progress, cancelComputation);
+    m_times.doMergeAndBlend = NowSeconds() - t0;
 
     if (m_wb.blendingType == BLEND_TYPE_HORZ)
         CropFinalMosaic(*imgMos, cropping_rect);
@@ -328,7 +508,8 @@ int Blend::MosaicSizeCheck(float sizeMultiplier, float heightMultiplier) {
    return BLEND_RET_OK;
 }
 
-int Blend::FillFramePyramid(MosaicFrame *mb)
+int Blend::FillFramePyramid(MosaicFrame *mb, PyramidShort *frameYPyr,
+        PyramidShort *frameUPyr, PyramidShort *frameVPyr)
 {
     ImageType mbY, mbU, mbV;
     // Lay this image, centered into the temporary buffer
@@ -340,9 +521,9 @@ int Blend::FillFramePyramid(MosaicFrame *mb)
 
     for(h=0; h<height; h++)
     {
-        ImageTypeShort yptr = m_pFrameYPyr->ptr[h];
-        ImageTypeShort uptr = m_pFrameUPyr->ptr[h];
-        ImageTypeShort vptr = m_pFrameVPyr->ptr[h];
+        ImageTypeShort yptr = frameYPyr->ptr[h];
+        ImageTypeShort uptr = frameUPyr->ptr[h];
+        ImageTypeShort vptr = frameVPyr->ptr[h];
 
         for(w=0; w<width; w++)
         {
@@ -353,14 +534,14 @@ int Blend::FillFramePyramid(MosaicFrame *mb)
     }
 
     // Spread the image through the border
-    PyramidShort::BorderSpread(m_pFrameYPyr, BORDER, BORDER, BORDER, BORDER);
-    PyramidShort::BorderSpread(m_pFrameUPyr, BORDER, BORDER, BORDER, BORDER);
-    PyramidShort::BorderSpread(m_pFrameVPyr, BORDER, BORDER, BORDER, BORDER);
+    PyramidShort::BorderSpread(frameYPyr, BORDER, BORDER, BORDER, BORDER);
+    PyramidShort::BorderSpread(frameUPyr, BORDER, BORDER, BORDER, BORDER);
+    PyramidShort::BorderSpread(frameVPyr, BORDER, BORDER, BORDER, BORDER);
 
     // Generate Laplacian pyramids
-    if (!PyramidShort::BorderReduce(m_pFrameYPyr, m_wb.nlevs) || !PyramidShort::BorderExpand(m_pFrameYPyr, m_wb.nlevs, -1) ||
-            !PyramidShort::BorderReduce(m_pFrameUPyr, m_wb.nlevsC) || !PyramidShort::BorderExpand(m_pFrameUPyr, m_wb.nlevsC, -1) ||
-            !PyramidShort::BorderReduce(m_pFrameVPyr, m_wb.nlevsC) || !PyramidShort::BorderExpand(m_pFrameVPyr, m_wb.nlevsC, -1))
+    if (!PyramidShort::BorderReduce(frameYPyr, m_wb.nlevs, m_arena) || !PyramidShort::BorderExpand(frameYPyr, m_wb.nlevs, -1, m_arena) ||
+            !PyramidShort::BorderReduce(frameUPyr, m_wb.nlevsC, m_arena) || !PyramidShort::BorderExpand(frameUPyr, m_wb.nlevsC, -1, m_arena) ||
+            !PyramidShort::BorderReduce(frameVPyr, m_wb.nlevsC, m_arena) || !PyramidShort::BorderExpand(frameVPyr, m_wb.nlevsC, -1, m_arena))
     {
         LOGE("Error: Could not generate Laplacian pyramids");
         return BLEND_RET_ERROR;
@@ -371,6 +552,14 @@ int Blend::FillFramePyramid(MosaicFrame *mb)
     }
 }
 
+void Blend::FreeMosaicPyramids()
+{
+    PyramidShort::freeImage(m_pMosaicVPyr, m_arena);
+    PyramidShort::freeImage(m_pMosaicUPyr, m_arena);
+    PyramidShort::freeImage(m_pMosaicYPyr, m_arena);
+    m_pMosaicYPyr = m_pMosaicUPyr = m_pMosaicVPyr = NULL;
+}
+
 int Blend::DoMergeAndBlend(MosaicFrame **frames, int nsite,
              int width, int height, YUVinfo &imgMos, MosaicRect &rect,
              MosaicRect &cropping_rect, float &progress, bool &cancelComputation)
@@ -379,40 +568,59 @@ int Blend::DoMergeAndBlend(MosaicFrame **frames, int nsite,
     m_pMosaicUPyr = NULL;
     m_pMosaicVPyr = NULL;
 
-    m_pMosaicYPyr = PyramidShort::allocatePyramidPacked(m_wb.nlevs,(unsigned short)rect.Width(),(unsigned short)rect.Height(),BORDER);
-    m_pMosaicUPyr = PyramidShort::allocatePyramidPacked(m_wb.nlevsC,(unsigned short)rect.Width(),(unsigned short)rect.Height(),BORDER);
-    m_pMosaicVPyr = PyramidShort::allocatePyramidPacked(m_wb.nlevsC,(unsigned short)rect.Width(),(unsigned short)rect.Height(),BORDER);
+    m_pMosaicYPyr = PyramidShort::allocatePyramidPacked(m_wb.nlevs,(unsigned short)rect.Width(),(unsigned short)rect.Height(),BORDER,m_arena);
+    m_pMosaicUPyr = PyramidShort::allocatePyramidPacked(m_wb.nlevsC,(unsigned short)rect.Width(),(unsigned short)rect.Height(),BORDER,m_arena);
+    m_pMosaicVPyr = PyramidShort::allocatePyramidPacked(m_wb.nlevsC,(unsigned short)rect.Width(),(unsigned short)rect.Height(),BORDER,m_arena);
     if (!m_pMosaicYPyr || !m_pMosaicUPyr || !m_pMosaicVPyr)
     {
       LOGE("Error: Could not allocate pyramids for blending");
+      FreeMosaicPyramids();
       return BLEND_RET_ERROR_MEMORY;
     }
 
     MosaicFrame *mb;
 
     CSite *esite = m_AllSites + nsite;
-    int site_idx;
+
+    // Each thread blends a horizontal strip of the mosaic, and lays one frame
+    // into its own pyramids at a time.
+    int nthreads = m_nThreads;
+    if (nthreads > imgMos.Y.height) nthreads = imgMos.Y.height;
+    nthreads = AllocateSlots(nthreads);
+
+    BlendJob jobs[MAX_THREADS];
+    for (int w = 0; w < nthreads; w++)
+    {
+        jobs[w].blend = this;
+        // The first and last strips also own the border rows of the pyramids.
+        jobs[w].rowStart = (w == 0) ? INT_MIN : imgMos.Y.height * w / nthreads;
+        jobs[w].rowEnd = (w == nthreads - 1) ? INT_MAX : imgMos.Y.height * (w + 1) / nthreads;
+        jobs[w].imgMos = &imgMos;
+        jobs[w].rect = &rect;
+        jobs[w].cancelComputation = &cancelComputation;
+    }
 
     // First go through each frame and for each mosaic pixel determine which frame it should come from
-    site_idx = 0;
     for(CSite *csite = m_AllSites; csite < esite; csite++)
     {
-        if(cancelComputation)
-        {
-            if (m_pMosaicVPyr) free(m_pMosaicVPyr);
-            if (m_pMosaicUPyr) free(m_pMosaicUPyr);
-            if (m_pMosaicYPyr) free(m_pMosaicYPyr);
-            return BLEND_RET_CANCELLED;
-        }
-
         mb = csite->getMb();
 
         mb->vcrect = mb->brect;
         ClipBlendRect(csite, mb->vcrect);
+    }
 
-        ComputeMask(csite, mb->vcrect, mb->brect, rect, imgMos, site_idx);
+    for (int w = 0; w < nthreads; w++)
+    {
+        jobs[w].phase = BlendJob::MASK;
+        jobs[w].firstSite = 0;
+        jobs[w].numSites = nsite;
+    }
+    RunJobs(jobs, nthreads);
 
-        site_idx++;
+    if(cancelComputation)
+    {
+        FreeMosaicPyramids();
+        return BLEND_RET_CANCELLED;
     }
 
     ////////// imgMos.Y, imgMos.V, imgMos.U are used as follows //////////////
@@ -550,34 +758,64 @@ int Blend::DoMergeAndBlend(MosaicFrame **frames, int nsite,
 
     }
 
-    // Now perform the actual blending using the frame assignment determined above
-    site_idx = 0;
-    for(CSite *csite = m_AllSites; csite < esite; csite++)
+    // Now perform the actual blending using the frame assignment determined
+    // above, nthreads frames at a time: the threads first lay one frame each
+    // into their pyramids, then blend all of them in order, each in its strip.
+    for (int first = 0; first < nsite; first += nthreads)
     {
         if(cancelComputation)
         {
-            if (m_pMosaicVPyr) free(m_pMosaicVPyr);
-            if (m_pMosaicUPyr) free(m_pMosaicUPyr);
-            if (m_pMosaicYPyr) free(m_pMosaicYPyr);
+            FreeMosaicPyramids();
             return BLEND_RET_CANCELLED;
         }
 
-        mb = csite->getMb();
-
+        int count = (nsite - first < nthreads) ? nsite - first : nthreads;
 
-        if(FillFramePyramid(mb)!=BLEND_RET_OK)
-            return BLEND_RET_ERROR;
+        for (int w = 0; w < count; w++)
+        {
+            jobs[w].phase = BlendJob::FILL;
+            jobs[w].frame = m_AllSites[first + w].getMb();
+            jobs[w].slot = w;
+        }
+        double t0 = NowSeconds();
+        RunJobs(jobs, count);
+        m_times.fillFramePyramid += NowSeconds() - t0;
 
-        ProcessPyramidForThisFrame(csite, mb->vcrect, mb->brect, rect, imgMos, mb->trs, site_idx);
+        for (int w = 0; w < count; w++)
+        {
+            if (jobs[w].ret != BLEND_RET_OK)
+            {
+                FreeMosaicPyramids();
+                return BLEND_RET_ERROR;
+            }
+        }
 
-        progress += TIME_PERCENT_BLEND/nsite;
+        for (int w = 0; w < nthreads; w++)
+        {
+            jobs[w].phase = BlendJob::BLEND;
+            jobs[w].firstSite = first;
+            jobs[w].numSites = count;
+        }
+        RunJobs(jobs, nthreads);
 
-        site_idx++;
+        for (int k = 0; k < count; k++)
+        {
+            progress += TIME_PERCENT_BLEND/nsite;
+        }
+        if (m_progressCallback != NULL)
+            m_progressCallback(progress, m_progressArg);
     }
 
 
     // Blend
-    PerformFinalBlending(imgMos, cropping_rect);
+    double t0 = NowSeconds();
+    int ret = PerformFinalBlending(imgMos, cropping_rect);
+    m_times.performFinalBlending = NowSeconds() - t0;
+
+    FreeMosaicPyramids();
+
+    if (ret != BLEND_RET_OK)
+        return ret;
 
     if (cropping_rect.Width() <= 0 || cropping_rect.Height() <= 0)
     {
@@ -586,11 +824,9 @@ int Blend::DoMergeAndBlend(MosaicFrame **frames, int nsite,
         return BLEND_RET_ERROR;
     }
 
-    if (m_pMosaicVPyr) free(m_pMosaicVPyr);
-    if (m_pMosaicUPyr) free(m_pMosaicUPyr);
-    if (m_pMosaicYPyr) free(m_pMosaicYPyr);
-
     progress += TIME_PERCENT_FINAL;
+    if (m_progressCallback != NULL)
+        m_progressCallback(progress, m_progressArg);
 
     return BLEND_RET_OK;
 }
@@ -650,16 +886,20 @@ int Blend::PerformFinalBlending(YUVinfo &imgMos, MosaicRect &cropping_rect)
     ImageType uimg;
     ImageType vimg;
 
-    int cx = (int)imgMos.Y.width/2;
-    int cy = (int)imgMos.Y.height/2;
-
     // 2D boolean array that contains true wherever the mosaic image data is
-    // invalid (i.e. in the gray border).
-    bool **b = new bool*[imgMos.Y.height];
+    // invalid (i.e. in the gray border). One block: the row pointers, then
+    // the rows. Every entry is written below, so it is not cleared.
+    bool **b = (bool **) MosaicArena::allocateFrom(m_arena,
+            imgMos.Y.height * (sizeof(bool *) + imgMos.Y.width), false);
+    if (b == NULL)
+    {
+      LOGE("Error: Could not allocate the final blending mask");
+      return BLEND_RET_ERROR_MEMORY;
+    }
 
     for(int j=0; j<imgMos.Y.height; j++)
     {
-        b[j] = new bool[imgMos.Y.width];
+        b[j] = (bool *) (b + imgMos.Y.height) + j * imgMos.Y.width;
     }
 
     // Copy the resulting image into the full image using the mask
@@ -797,12 +1037,7 @@ int Blend::PerformFinalBlending(YUVinfo &imgMos, MosaicRect &cropping_rect)
 
     RoundingCroppingSizeToMultipleOf8(cropping_rect);
 
-    for(int j=0; j<imgMos.Y.height; j++)
-    {
-        delete b[j];
-    }
-
-    delete b;
+    MosaicArena::releaseTo(m_arena, b);
 
     return BLEND_RET_OK;
 }
@@ -817,11 +1052,11 @@ void Blend::RoundingCroppingSizeToMultipleOf8(MosaicRect &rect) {
     rect.right -= residue;
 }
 
-void Blend::ComputeMask(CSite *csite, BlendRect &vcrect, BlendRect &brect, MosaicRect &rect, YUVinfo &imgMos, int site_idx)
+void Blend::ComputeMask(CSite *csite, BlendRect &vcrect, BlendRect &brect, MosaicRect &rect, YUVinfo &imgMos, int site_idx,
+        int rowStart, int rowEnd)
 {
     PyramidShort *dptr = m_pMosaicYPyr;
 
-    int nC = m_wb.nlevsC;
     int l = (int) ((vcrect.lft - rect.left));
     int b = (int) ((vcrect.bot - rect.top));
     int r = (int) ((vcrect.rgt - rect.left));
@@ -847,6 +1082,9 @@ void Blend::ComputeMask(CSite *csite, BlendRect &vcrect, BlendRect &brect, Mosai
     else if (t >= dptr->height + BORDER)
         t = dptr->height + BORDER - 1;
 
+    if (b < rowStart) b = rowStart;
+    if (t >= rowEnd) t = rowEnd - 1;
+
     // Walk the Region of interest and populate the pyramid
     for (int j = b; j <= t; j++)
     {
@@ -867,7 +1105,6 @@ void Blend::ComputeMask(CSite *csite, BlendRect &vcrect, BlendRect &brect, Mosai
                 continue;
 
             // scan the neighbors to see if this is a valid position
-            unsigned char mask = (unsigned char) 255;
             SEdgeVector *ce;
             int ecnt;
             for (ce = csite->getNeighbor(), ecnt = csite->getNumNeighbors(); ecnt--; ce++)
@@ -887,16 +1124,17 @@ void Blend::ComputeMask(CSite *csite, BlendRect &vcrect, BlendRect &brect, Mosai
     }
 }
 
-void Blend::ProcessPyramidForThisFrame(CSite *csite, BlendRect &vcrect, BlendRect &brect, MosaicRect &rect, YUVinfo &imgMos, double trs[3][3], int site_idx)
+void Blend::ProcessPyramidForThisFrame(CSite *csite, BlendRect &vcrect, BlendRect &brect, MosaicRect &rect, YUVinfo &imgMos, double trs[3][3], int site_idx,
+        PyramidShort *frameYPyr, PyramidShort *frameUPyr, PyramidShort *frameVPyr, int rowStart, int rowEnd)
 {
     // Put the Region of interest (for all levels) into m_pMosaicYPyr
     double inv_trs[3][3];
     inv33d(trs, inv_trs);
 
     // Process each pyramid level
-    PyramidShort *sptr = m_pFrameYPyr;
-    PyramidShort *suptr = m_pFrameUPyr;
-    PyramidShort *svptr = m_pFrameVPyr;
+    PyramidShort *sptr = frameYPyr;
+    PyramidShort *suptr = frameUPyr;
+    PyramidShort *svptr = frameVPyr;
 
     PyramidShort *dptr = m_pMosaicYPyr;
     PyramidShort *duptr = m_pMosaicUPyr;
@@ -935,6 +1173,8 @@ void Blend::ProcessPyramidForThisFrame(CSite *csite, BlendRect &vcrect, BlendRec
         for (int j = b; j <= t; j++)
         {
             int jj = (j << dscale);
+            if (jj < rowStart || jj >= rowEnd)
+                continue;
             double sj = jj + rect.top;
 
             for (int i = l; i <= r; i++)
@@ -1216,7 +1456,23 @@ void Blend::SelectRelevantFrames(MosaicFrame **frames, int frames_size,
     MosaicFrame *last = frames[frames_size-1];
     MosaicFrame *mb;
 
-    double fxpos = first->trs[0][2], fypos = first->trs[1][2];
+    if (frames_size == 1)
+    {
+        relevant_frames[0] = first;
+        relevant_frames_size = 1;
+        return;
+    }
+
+    // The separation a frame center needs from the last selected one in
+    // either direction: the minimum strip width, and at least
+    // STRIP_SEPARATION_THRESHOLD_PXLS for wide strips.
+    double minDeltaX = m_minStripWidth * last->width;
+    double minDeltaY = m_minStripWidth * last->height;
+    if (m_wb.stripType == STRIP_TYPE_WIDE)
+    {
+        minDeltaX = max(minDeltaX, STRIP_SEPARATION_THRESHOLD_PXLS);
+        minDeltaY = max(minDeltaY, STRIP_SEPARATION_THRESHOLD_PXLS);
+    }
 
     double midX = last->width / 2.0;
     double midY = last->height / 2.0;
@@ -1237,10 +1493,8 @@ void Blend::SelectRelevantFrames(MosaicFrame **frames, int frames_size,
         currY = ProjY(mb->trs, midX, midY, z, 1.0);
         double deltaX = currX - prevX;
         double deltaY = currY - prevY;
-        double center2centerDist = sqrt(deltaY * deltaY + deltaX * deltaX);
 
-        if (fabs(deltaX) > STRIP_SEPARATION_THRESHOLD_PXLS ||
-                fabs(deltaY) > STRIP_SEPARATION_THRESHOLD_PXLS)
+        if (fabs(deltaX) > minDeltaX || fabs(deltaY) > minDeltaY)
         {
             relevant_frames[relevant_frames_size] = mb;
             relevant_frames_size++;
@@ -38,6 +38,11 @@ const float TIME_PERCENT_FINAL = 5.0;
 // STRIP_TYPE_WIDE mode.
 const float STRIP_SEPARATION_THRESHOLD_PXLS = 10;
 
+// The largest minimum strip width, as a fraction of the frame size, that
+// setMinStripWidth() accepts. Beyond it the strips of the selected frames
+// would no longer be covered by the frames next to them.
+const float MAX_STRIP_WIDTH_FRACTION = 0.5f;
+
 // This threshold determines the number of pixels on either side of the strip
 // to cross-fade using the images contributing to each seam.
 const float STRIP_CROSS_FADE_WIDTH_PXLS = 2;
@@ -68,16 +73,61 @@ public:
   static const int BLEND_RET_ERROR_MEMORY = 1;
   static const int BLEND_RET_CANCELLED    = -2;
 
-  Blend();
+  static const int MAX_THREADS = 8;
+
+  // The pyramids, their scratch images and the final mask come from arena
+  // if it is not NULL. It must outlive the blender.
+  Blend(MosaicArena *arena = NULL);
   ~Blend();
 
   int initialize(int blendingType, int stripType, int frame_width, int frame_height);
 
+  // Sets the number of threads runBlend() uses (1 by default). The result
+  // does not depend on the number of threads. Each thread other than the
+  // first needs its own frame pyramids.
+  void setThreadCount(int count);
+
+  // Sets the minimum width of the strip a frame must add to the mosaic to be
+  // blended, as a fraction of the frame width (or height for a vertical
+  // sweep), clamped to [0, MAX_STRIP_WIDTH_FRACTION]. A frame whose center
+  // is closer than that to the center of the last selected frame is dropped
+  // before its pyramid is built, so the blending cost follows the sweep
+  // angle rather than the number of frames. The first and last frames are
+  // always blended. 0 (the default) keeps the selection of the strip type:
+  // all frames for thin strips, a 10 pixel separation for wide ones. Larger
+  // values are faster but give wider strips, whose seams show more of the
+  // alignment error.
+  void setMinStripWidth(float fraction);
+
+  // The number of frames the last runBlend() blended.
+  int getBlendedFrameCount() const { return m_nBlended; }
+
+  // Called by runBlend() with the new value of its progress each time it
+  // adds to it, on the thread that called runBlend().
+  typedef void (*ProgressCallback)(float progress, void *arg);
+
+  // Sets the function runBlend() reports its progress to; NULL for none.
+  void setProgressCallback(ProgressCallback callback, void *arg);
+
   int runBlend(MosaicFrame **frames, MosaicFrame **rframes, int frames_size, ImageType &imageMosaicYVU,
         int &mosaicWidth, int &mosaicHeight, float &progress, bool &cancelComputation);
 
+  // Wall-clock seconds spent in the stages of the last runBlend().
+  // fillFramePyramid and performFinalBlending are part of doMergeAndBlend.
+  struct StageTimes
+  {
+      double computeBlendParameters;
+      double fillFramePyramid;
+      double doMergeAndBlend;
+      double performFinalBlending;
+  };
+
+  const StageTimes &getStageTimes() const { return m_times; }
+
 protected:
 
+  MosaicArena *m_arena;
+
   PyramidShort *m_pFrameYPyr;
   PyramidShort *m_pFrameUPyr;
   PyramidShort *m_pFrameVPyr;
@@ -86,11 +136,28 @@ protected:
   PyramidShort *m_pMosaicUPyr;
   PyramidShort *m_pMosaicVPyr;
 
+  // Frame pyramids of the blending threads. Slot 0 is m_pFrame?Pyr; the
+  // others are allocated on first use.
+  int m_nThreads;
+  PyramidShort *m_pSlotYPyr[MAX_THREADS];
+  PyramidShort *m_pSlotUPyr[MAX_THREADS];
+  PyramidShort *m_pSlotVPyr[MAX_THREADS];
+
   CDelaunay m_Triangulator;
   CSite *m_AllSites;
 
   BlendParams m_wb;
 
+  StageTimes m_times;
+
+  // See setMinStripWidth() and getBlendedFrameCount().
+  float m_minStripWidth;
+  int m_nBlended;
+
+  // See setProgressCallback().
+  ProgressCallback m_progressCallback;
+  void *m_progressArg;
+
   // Height and width of individual frames
   int width, height;
 
@@ -105,10 +172,14 @@ protected:
   void AlignToMiddleFrame(MosaicFrame **frames, int frames_size);
 
   int  DoMergeAndBlend(MosaicFrame **frames, int nsite,  int width, int height, YUVinfo &imgMos, MosaicRect &rect, MosaicRect &cropping_rect, float &progress, bool &cancelComputation);
-  void ComputeMask(CSite *csite, BlendRect &vcrect, BlendRect &brect, MosaicRect &rect, YUVinfo &imgMos, int site_idx);
-  void ProcessPyramidForThisFrame(CSite *csite, BlendRect &vcrect, BlendRect &brect, MosaicRect &rect, YUVinfo &imgMos, double trs[3][3], int site_idx);
+  // ComputeMask and ProcessPyramidForThisFrame only write the pixels whose
+  // row in imgMos (at level 0) is in [rowStart, rowEnd).
+  void ComputeMask(CSite *csite, BlendRect &vcrect, BlendRect &brect, MosaicRect &rect, YUVinfo &imgMos, int site_idx,
+        int rowStart, int rowEnd);
+  void ProcessPyramidForThisFrame(CSite *csite, BlendRect &vcrect, BlendRect &brect, MosaicRect &rect, YUVinfo &imgMos, double trs[3][3], int site_idx,
+        PyramidShort *frameYPyr, PyramidShort *frameUPyr, PyramidShort *frameVPyr, int rowStart, int rowEnd);
 
-  int  FillFramePyramid(MosaicFrame *mb);
+  int  FillFramePyramid(MosaicFrame *mb, PyramidShort *frameYPyr, PyramidShort *frameUPyr, PyramidShort *frameVPyr);
 
   // TODO: need to add documentation about the parameters
   void ComputeBlendParameters(MosaicFrame **frames, int frames_size, int is360);
@@ -119,6 +190,12 @@ protected:
   void CropFinalMosaic(YUVinfo &imgMos, MosaicRect &cropping_rect);
 
 private:
+   struct BlendJob;
+   int AllocateSlots(int count);
+   void FreeMosaicPyramids();
+   static void RunJobs(BlendJob *jobs, int count);
+   static void *RunJob(void *arg);
+
    static const float LIMIT_SIZE_MULTIPLIER = 5.0f * 2.0f;
    static const float LIMIT_HEIGHT_MULTIPLIER = 2.5f;
    int MosaicSizeCheck(float sizeMultiplier, float heightMultiplier);
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+///////////////////////////////////////////////////
+// FrameConvert.cpp
+// The scalar conversions and the choice of the level.
+
+#include <pthread.h>
+#include <stdio.h>
+#include <string.h>
+
+#if defined(__i386__) || defined(__x86_64__)
+#include <cpuid.h>
+#endif
+
+#include "FrameConvertImpl.h"
+
+static void yvu420spToYvu444Scalar(ImageType out, ImageType in, int width, int height)
+{
+    int frameSize = width * height;
+
+    memcpy(out, in, frameSize);
+
+    for (int j = 0; j < height; j += 2)
+    {
+        ImageType iuvp = in + frameSize + (j >> 1) * width;
+        ImageType ovp = out + frameSize + j * width;
+        ImageType oup = ovp + frameSize;
+
+        for (int i = 0; i < width; i += 2)
+        {
+            unsigned char v = *iuvp++;
+            unsigned char u = *iuvp++;
+
+            *ovp++ = v;
+            *oup++ = u;
+
+            *ovp++ = v;
+            *oup++ = u;
+        }
+        // The odd row has the same chroma.
+        memcpy(ovp, ovp - width, width);
+        memcpy(oup, oup - width, width);
+    }
+}
+
+static void downsampleScalar(ImageType out, ImageType in, int width, int height,
+        int factor)
+{
+    // Plane by plane, so a height that is not a multiple of the factor
+    // starts each plane at its first row.
+    for (int p = 0; p < 3; p++)
+    {
+        for (int j = p * height; j < (p + 1) * height; j += factor)
+        {
+            ImageType imp = in + j * width;
+            ImageType outp = out + (j / factor) * (width / factor);
+
+            for (int i = 0; i < width; i += factor)
+            {
+                *outp++ = imp[i];
+            }
+        }
+    }
+}
+
+static void downsample4Scalar(ImageType out, ImageType in, int width, int height)
+{
+    downsampleScalar(out, in, width, height, 4);
+}
+
+static void yvu444ToRgbScalar(ImageType out, ImageType in, int width, int height)
+{
+    int frameSize = width * height;
+    ImageType yp = in;
+    ImageType vp = in + frameSize;
+    ImageType up = vp + frameSize;
+
+    for (int i = 0; i < frameSize; i++, out += 3)
+    {
+        yvuToRgbPixel(out, yp[i], vp[i], up[i]);
+    }
+}
+
+static void yvuaToYvu444Scalar(ImageType out, ImageType in, int width, int height)
+{
+    int planeSize = width * height;
+    ImageType yp = out;
+    ImageType vp = out + planeSize;
+    ImageType up = vp + planeSize;
+
+    for (int i = 0; i < planeSize; i++)
+    {
+        *yp++ = *in++;
+        *vp++ = *in++;
+        *up++ = *in++;
+        in++;   // Alpha
+    }
+}
+
+static const FrameConvertImpl sScalar = {
+    yvu420spToYvu444Scalar,
+    downsample4Scalar,
+    yvu444ToRgbScalar,
+    yvuaToYvu444Scalar,
+};
+
+static const FrameConvert::Level FALLBACK[FrameConvert::LEVEL_COUNT] = {
+    FrameConvert::LEVEL_SCALAR,
+    FrameConvert::LEVEL_SCALAR,
+    FrameConvert::LEVEL_SSE2,
+    FrameConvert::LEVEL_SCALAR,
+};
+
+// The levels picked on first use. The NEON versions have not been run on an
+// ARM CPU yet, so they are only used through setLevel(), e.g. by
+// convert_test_host and pyramid_test_host, until those pass on ARM.
+static const bool DEFAULT_LEVELS[FrameConvert::LEVEL_COUNT] = {
+    true, true, true, false
+};
+
+static const char *LEVEL_NAMES[FrameConvert::LEVEL_COUNT] = {
+    "scalar", "sse2", "ssse3", "neon"
+};
+
+static pthread_once_t sOnce = PTHREAD_ONCE_INIT;
+static FrameConvert::Level sLevel = FrameConvert::LEVEL_SCALAR;
+static FrameConvertImpl sActive = sScalar;
+
+static const FrameConvertImpl *getImpl(FrameConvert::Level level)
+{
+    switch (level)
+    {
+        case FrameConvert::LEVEL_SCALAR: return &sScalar;
+        case FrameConvert::LEVEL_SSE2: return getFrameConvertSSE2();
+        case FrameConvert::LEVEL_SSSE3: return getFrameConvertSSSE3();
+        case FrameConvert::LEVEL_NEON: return getFrameConvertNeon();
+        default: return NULL;
+    }
+}
+
+#if defined(__arm__)
+// Reads AT_HWCAP from the auxiliary vector; getauxval() is not in older
+// C libraries.
+static bool cpuHasNeon()
+{
+    const unsigned long AT_HWCAP_TYPE = 16;
+    const unsigned long HWCAP_NEON_BIT = 1 << 12;
+
+    FILE *f = fopen("/proc/self/auxv", "rb");
+    if (f == NULL) return false;
+    unsigned long entry[2];
+    bool neon = false;
+    while (fread(entry, sizeof(entry), 1, f) == 1 && entry[0] != 0)
+    {
+        if (entry[0] == AT_HWCAP_TYPE)
+        {
+            neon = (entry[1] & HWCAP_NEON_BIT) != 0;
+            break;
+        }
+    }
+    fclose(f);
+    return neon;
+}
+#endif
+
+static bool cpuHas(FrameConvert::Level level)
+{
+    switch (level)
+    {
+        case FrameConvert::LEVEL_SCALAR:
+            return true;
+#if defined(__i386__) || defined(__x86_64__)
+        case FrameConvert::LEVEL_SSE2:
+        case FrameConvert::LEVEL_SSSE3:
+        {
+            unsigned int eax, ebx, ecx, edx;
+            if (!__get_cpuid(1, &eax, &ebx, &ecx, &edx)) return false;
+            return (level == FrameConvert::LEVEL_SSE2) ? (edx & bit_SSE2) != 0
+                    : (ecx & bit_SSSE3) != 0;
+        }
+#elif defined(__arm__)
+        case FrameConvert::LEVEL_NEON:
+            return cpuHasNeon();
+#elif defined(__aarch64__)
+        case FrameConvert::LEVEL_NEON:
+            return true;
+#endif
+        default:
+            return false;
+    }
+}
+
+// Takes each conversion from the highest level down the fallbacks that
+// has it.
+static void use(FrameConvert::Level level)
+{
+    FrameConvertImpl active = {NULL, NULL, NULL, NULL};
+    for (FrameConvert::Level l = level; ; l = FALLBACK[l])
+    {
+        const FrameConvertImpl *impl = getImpl(l);
+        if (impl != NULL)
+        {
+            if (active.yvu420spToYvu444 == NULL) active.yvu420spToYvu444 = impl->yvu420spToYvu444;
+            if (active.downsample4 == NULL) active.downsample4 = impl->downsample4;
+            if (active.yvu444ToRgb == NULL) active.yvu444ToRgb = impl->yvu444ToRgb;
+            if (active.yvuaToYvu444 == NULL) active.yvuaToYvu444 = impl->yvuaToYvu444;
+        }
+        if (l == FrameConvert::LEVEL_SCALAR) break;
+    }
+    sActive = active;
+    sLevel = level;
+}
+
+static void useBest()
+{
+    for (int l = FrameConvert::LEVEL_COUNT - 1; l > FrameConvert::LEVEL_SCALAR; l--)
+    {
+        if (DEFAULT_LEVELS[l] && FrameConvert::isSupported((FrameConvert::Level) l))
+        {
+            use((FrameConvert::Level) l);
+            return;
+        }
+    }
+    use(FrameConvert::LEVEL_SCALAR);
+}
+
+bool FrameConvert::isSupported(Level level)
+{
+    return level >= LEVEL_SCALAR && level < LEVEL_COUNT
+            && getImpl(level) != NULL && cpuHas(level);
+}
+
+FrameConvert::Level FrameConvert::getLevel()
+{
+    pthread_once(&sOnce, useBest);
+    return sLevel;
+}
+
+bool FrameConvert::setLevel(Level level)
+{
+    pthread_once(&sOnce, useBest);
+    if (!isSupported(level)) return false;
+    use(level);
+    return true;
+}
+
+const char *FrameConvert::getLevelName(Level level)
+{
+    return (level >= LEVEL_SCALAR && level < LEVEL_COUNT) ? LEVEL_NAMES[level] : "unknown";
+}
+
+void FrameConvert::yvu420spToYvu444(ImageType out, ImageType in, int width, int height)
+{
+    pthread_once(&sOnce, useBest);
+    sActive.yvu420spToYvu444(out, in, width, height);
+}
+
+void FrameConvert::downsample(ImageType out, ImageType in, int width, int height, int factor)
+{
+    pthread_once(&sOnce, useBest);
+    if (factor == 4)
+    {
+        sActive.downsample4(out, in, width, height);
+    }
+    else
+    {
+        downsampleScalar(out, in, width, height, factor);
+    }
+}
+
+void FrameConvert::yvu444ToRgb(ImageType out, ImageType in, int width, int height)
+{
+    pthread_once(&sOnce, useBest);
+    sActive.yvu444ToRgb(out, in, width, height);
+}
+
+void FrameConvert::yvuaToYvu444(ImageType out, ImageType in, int width, int height)
+{
+    pthread_once(&sOnce, useBest);
+    sActive.yvuaToYvu444(out, in, width, height);
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+///////////////////////////////////////////////////
+// FrameConvert.h
+
+#ifndef FRAME_CONVERT_H
+#define FRAME_CONVERT_H
+
+#include "ImageUtils.h"
+
+/**
+ *  Conversions of camera frames into the planar YVU images the mosaic
+ *  works on, and back.
+ *
+ *  Each conversion has a scalar version and, depending on the build,
+ *  SSE2/SSSE3 or NEON versions. The fastest level the CPU supports is
+ *  picked on first use, except NEON, which is only used when set with
+ *  setLevel() until it has been checked on an ARM CPU. All levels give
+ *  exactly the same output as the scalar one.
+ */
+class FrameConvert {
+
+public:
+
+  enum Level {
+    LEVEL_SCALAR = 0,
+    LEVEL_SSE2,
+    LEVEL_SSSE3,
+    LEVEL_NEON,
+    LEVEL_COUNT
+  };
+
+  /**
+   *  Convert a YUV420SP (NV21) frame to YVU 4:4:4 planar. Each chroma
+   *  sample is repeated for its 2x2 pixels.
+   */
+  static void yvu420spToYvu444(ImageType out, ImageType in, int width, int height);
+
+  /**
+   *  Keep every factor-th pixel of every factor-th row of the three planes
+   *  of a YVU image. out is (width / factor) x (height / factor).
+   */
+  static void downsample(ImageType out, ImageType in, int width, int height, int factor);
+
+  /**
+   *  Convert a YVU 4:4:4 planar image to interleaved RGB.
+   */
+  static void yvu444ToRgb(ImageType out, ImageType in, int width, int height);
+
+  /**
+   *  Convert interleaved YVUA (as read back from the GPU) to YVU 4:4:4
+   *  planar. Alpha is dropped.
+   */
+  static void yvuaToYvu444(ImageType out, ImageType in, int width, int height);
+
+  /**
+   *  The level in use.
+   */
+  static Level getLevel();
+
+  /**
+   *  Use the given level, e.g. to compare them. Returns false and keeps the
+   *  current level if the level is not built in or the CPU lacks it.
+   */
+  static bool setLevel(Level level);
+
+  static bool isSupported(Level level);
+
+  static const char *getLevelName(Level level);
+};
+
+#endif
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+///////////////////////////////////////////////////
+// FrameConvertImpl.h
+// The implementations behind FrameConvert; only for FrameConvert*.cpp.
+
+#ifndef FRAME_CONVERT_IMPL_H
+#define FRAME_CONVERT_IMPL_H
+
+#include <stddef.h>
+
+#include "FrameConvert.h"
+
+// A NULL entry means the level uses the one below it: SSSE3 falls back to
+// SSE2, SSE2 and NEON to scalar.
+struct FrameConvertImpl {
+    void (*yvu420spToYvu444)(ImageType out, ImageType in, int width, int height);
+    // Only for a factor of 4.
+    void (*downsample4)(ImageType out, ImageType in, int width, int height);
+    void (*yvu444ToRgb)(ImageType out, ImageType in, int width, int height);
+    void (*yvuaToYvu444)(ImageType out, ImageType in, int width, int height);
+};
+
+// Each returns NULL if the level is not built in. Only the SSSE3 and NEON
+// files are compiled with the flags for their instructions.
+const FrameConvertImpl *getFrameConvertSSE2();
+const FrameConvertImpl *getFrameConvertSSSE3();
+const FrameConvertImpl *getFrameConvertNeon();
+
+// The fixed-point YVU to RGB of the preview: 8-bit inputs, 10 fractional
+// bits. Results are clamped to [0, 255].
+const int RGB_Y_OFFSET = 16;
+const int RGB_Y_SCALE = 1192;
+const int RGB_R_FROM_V = 1634;
+const int RGB_G_FROM_V = -833;
+const int RGB_G_FROM_U = -400;
+const int RGB_B_FROM_U = 2066;
+const int RGB_SHIFT = 10;
+
+// One pixel of yvu444ToRgb(), for the scalar code and the ends of rows.
+inline void yvuToRgbPixel(ImageType rgb, int y, int v, int u)
+{
+    y -= RGB_Y_OFFSET;
+    if (y < 0) y = 0;
+    v -= 128;
+    u -= 128;
+
+    int y1192 = RGB_Y_SCALE * y;
+    int r = (y1192 + RGB_R_FROM_V * v);
+    int g = (y1192 + RGB_G_FROM_V * v + RGB_G_FROM_U * u);
+    int b = (y1192 + RGB_B_FROM_U * u);
+
+    // Clamp to the 18 bits of the fixed-point result.
+    if (r < 0) r = 0; else if (r > 262143) r = 262143;
+    if (g < 0) g = 0; else if (g > 262143) g = 262143;
+    if (b < 0) b = 0; else if (b > 262143) b = 262143;
+
+    rgb[0] = r >> RGB_SHIFT;
+    rgb[1] = g >> RGB_SHIFT;
+    rgb[2] = b >> RGB_SHIFT;
+}
+
+#endif
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+///////////////////////////////////////////////////
+// FrameConvertNeon.cpp
+// The NEON conversions. They work on 16 pixels at a time and leave the
+// ends of rows to scalar code that matches FrameConvert.cpp.
+
+#include <string.h>
+
+#include "FrameConvertImpl.h"
+
+#if defined(__ARM_NEON__) || defined(__ARM_NEON)
+
+#include <arm_neon.h>
+
+static void yvu420spToYvu444Neon(ImageType out, ImageType in, int width, int height)
+{
+    int frameSize = width * height;
+
+    memcpy(out, in, frameSize);
+
+    for (int j = 0; j < height; j += 2)
+    {
+        ImageType iuvp = in + frameSize + (j >> 1) * width;
+        ImageType ovp = out + frameSize + j * width;
+        ImageType oup = ovp + frameSize;
+
+        int i = 0;
+        for (; i + 16 <= width; i += 16)
+        {
+            uint16x8_t vu = vreinterpretq_u16_u8(vld1q_u8(iuvp + i));
+            // Copy the low byte (V) up, and the high byte (U) down.
+            vst1q_u8(ovp + i, vreinterpretq_u8_u16(vsliq_n_u16(vu, vu, 8)));
+            vst1q_u8(oup + i, vreinterpretq_u8_u16(vsriq_n_u16(vu, vu, 8)));
+        }
+        for (; i < width; i += 2)
+        {
+            ovp[i] = ovp[i + 1] = iuvp[i];
+            oup[i] = oup[i + 1] = iuvp[i + 1];
+        }
+        ovp += i;
+        oup += i;
+        memcpy(ovp, ovp - width, width);
+        memcpy(oup, oup - width, width);
+    }
+}
+
+static void downsample4Neon(ImageType out, ImageType in, int width, int height)
+{
+    int outWidth = width / 4;
+    for (int p = 0; p < 3; p++)
+    {
+        for (int j = p * height; j < (p + 1) * height; j += 4)
+        {
+            ImageType imp = in + j * width;
+            ImageType outp = out + (j / 4) * outWidth;
+
+            int k = 0;
+            for (; k + 16 <= outWidth; k += 16)
+            {
+                vst1q_u8(outp + k, vld4q_u8(imp + 4 * k).val[0]);
+            }
+            for (int i = 4 * k; i < width; i += 4)
+            {
+                outp[k++] = imp[i];
+            }
+        }
+    }
+}
+
+// r, g or b of 8 pixels from y * RGB_Y_SCALE and two chroma terms,
+// narrowed with the same clamping as the scalar code.
+static inline uint8x8_t narrowRgb(int32x4_t lo, int32x4_t hi)
+{
+    return vqmovun_s16(vcombine_s16(vqshrn_n_s32(lo, RGB_SHIFT),
+            vqshrn_n_s32(hi, RGB_SHIFT)));
+}
+
+static inline void yvuToRgb8(int16x8_t y, int16x8_t v, int16x8_t u, uint8x8x3_t &rgb)
+{
+    int16x4_t yLo = vget_low_s16(y), yHi = vget_high_s16(y);
+    int16x4_t vLo = vget_low_s16(v), vHi = vget_high_s16(v);
+    int16x4_t uLo = vget_low_s16(u), uHi = vget_high_s16(u);
+
+    int32x4_t yLo32 = vmull_n_s16(yLo, RGB_Y_SCALE);
+    int32x4_t yHi32 = vmull_n_s16(yHi, RGB_Y_SCALE);
+
+    rgb.val[0] = narrowRgb(vmlal_n_s16(yLo32, vLo, RGB_R_FROM_V),
+            vmlal_n_s16(yHi32, vHi, RGB_R_FROM_V));
+    rgb.val[1] = narrowRgb(
+            vmlal_n_s16(vmlal_n_s16(yLo32, vLo, RGB_G_FROM_V), uLo, RGB_G_FROM_U),
+            vmlal_n_s16(vmlal_n_s16(yHi32, vHi, RGB_G_FROM_V), uHi, RGB_G_FROM_U));
+    rgb.val[2] = narrowRgb(vmlal_n_s16(yLo32, uLo, RGB_B_FROM_U),
+            vmlal_n_s16(yHi32, uHi, RGB_B_FROM_U));
+}
+
+static void yvu444ToRgbNeon(ImageType out, ImageType in, int width, int height)
+{
+    int frameSize = width * height;
+    ImageType yp = in;
+    ImageType vp = in + frameSize;
+    ImageType up = vp + frameSize;
+
+    const uint8x16_t offset = vdupq_n_u8(RGB_Y_OFFSET);
+    const int16x8_t c128 = vdupq_n_s16(128);
+
+    int i = 0;
+    for (; i + 16 <= frameSize; i += 16, out += 48)
+    {
+        uint8x16_t y8 = vqsubq_u8(vld1q_u8(yp + i), offset);
+        uint8x16_t v8 = vld1q_u8(vp + i);
+        uint8x16_t u8 = vld1q_u8(up + i);
+
+        uint8x8x3_t lo, hi;
+        yvuToRgb8(vreinterpretq_s16_u16(vmovl_u8(vget_low_u8(y8))),
+                vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(vget_low_u8(v8))), c128),
+                vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(vget_low_u8(u8))), c128), lo);
+        yvuToRgb8(vreinterpretq_s16_u16(vmovl_u8(vget_high_u8(y8))),
+                vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(vget_high_u8(v8))), c128),
+                vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(vget_high_u8(u8))), c128), hi);
+        vst3_u8(out, lo);
+        vst3_u8(out + 24, hi);
+    }
+    for (; i < frameSize; i++, out += 3)
+    {
+        yvuToRgbPixel(out, yp[i], vp[i], up[i]);
+    }
+}
+
+static void yvuaToYvu444Neon(ImageType out, ImageType in, int width, int height)
+{
+    int planeSize = width * height;
+    ImageType yp = out;
+    ImageType vp = out + planeSize;
+    ImageType up = vp + planeSize;
+
+    int i = 0;
+    for (; i + 16 <= planeSize; i += 16, in += 64)
+    {
+        uint8x16x4_t yvua = vld4q_u8(in);
+        vst1q_u8(yp + i, yvua.val[0]);
+        vst1q_u8(vp + i, yvua.val[1]);
+        vst1q_u8(up + i, yvua.val[2]);
+    }
+    for (; i < planeSize; i++, in += 4)
+    {
+        yp[i] = in[0];
+        vp[i] = in[1];
+        up[i] = in[2];
+    }
+}
+
+static const FrameConvertImpl sNeon = {
+    yvu420spToYvu444Neon,
+    downsample4Neon,
+    yvu444ToRgbNeon,
+    yvuaToYvu444Neon,
+};
+
+const FrameConvertImpl *getFrameConvertNeon()
+{
+    return &sNeon;
+}
+
+#else
+
+const FrameConvertImpl *getFrameConvertNeon()
+{
+    return NULL;
+}
+
+#endif
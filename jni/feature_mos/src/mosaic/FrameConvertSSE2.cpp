@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+///////////////////////////////////////////////////
+// FrameConvertSSE2.cpp
+// The SSE2 conversions. They work on 16 pixels at a time and leave the
+// ends of rows to scalar code that matches FrameConvert.cpp.
+
+#include <string.h>
+
+#include "FrameConvertImpl.h"
+
+#if defined(__SSE2__)
+
+#include "FrameConvertSSE2.h"
+
+// Two VU pairs per 16-bit lane: each byte is repeated for its two pixels.
+static void yvu420spToYvu444SSE2(ImageType out, ImageType in, int width, int height)
+{
+    int frameSize = width * height;
+    const __m128i lowBytes = _mm_set1_epi16(0x00FF);
+    const __m128i highBytes = _mm_set1_epi16((short) 0xFF00);
+
+    memcpy(out, in, frameSize);
+
+    for (int j = 0; j < height; j += 2)
+    {
+        ImageType iuvp = in + frameSize + (j >> 1) * width;
+        ImageType ovp = out + frameSize + j * width;
+        ImageType oup = ovp + frameSize;
+
+        int i = 0;
+        for (; i + 16 <= width; i += 16)
+        {
+            __m128i vu = _mm_loadu_si128((const __m128i *) (iuvp + i));
+            __m128i v = _mm_or_si128(_mm_and_si128(vu, lowBytes), _mm_slli_epi16(vu, 8));
+            __m128i u = _mm_or_si128(_mm_and_si128(vu, highBytes), _mm_srli_epi16(vu, 8));
+            _mm_storeu_si128((__m128i *) (ovp + i), v);
+            _mm_storeu_si128((__m128i *) (oup + i), u);
+        }
+        for (; i < width; i += 2)
+        {
+            ovp[i] = ovp[i + 1] = iuvp[i];
+            oup[i] = oup[i + 1] = iuvp[i + 1];
+        }
+        ovp += i;
+        oup += i;
+        memcpy(ovp, ovp - width, width);
+        memcpy(oup, oup - width, width);
+    }
+}
+
+// The low bytes of the 32-bit lanes of four vectors.
+static inline __m128i packLowBytes(__m128i a, __m128i b, __m128i c, __m128i d)
+{
+    const __m128i mask = _mm_set1_epi32(0xFF);
+    a = _mm_and_si128(a, mask);
+    b = _mm_and_si128(b, mask);
+    c = _mm_and_si128(c, mask);
+    d = _mm_and_si128(d, mask);
+    return _mm_packus_epi16(_mm_packs_epi32(a, b), _mm_packs_epi32(c, d));
+}
+
+static void downsample4SSE2(ImageType out, ImageType in, int width, int height)
+{
+    int outWidth = width / 4;
+    for (int p = 0; p < 3; p++)
+    {
+        for (int j = p * height; j < (p + 1) * height; j += 4)
+        {
+            ImageType imp = in + j * width;
+            ImageType outp = out + (j / 4) * outWidth;
+
+            int k = 0;
+            for (; k + 16 <= outWidth; k += 16)
+            {
+                const __m128i *src = (const __m128i *) (imp + 4 * k);
+                __m128i x = packLowBytes(_mm_loadu_si128(src), _mm_loadu_si128(src + 1),
+                        _mm_loadu_si128(src + 2), _mm_loadu_si128(src + 3));
+                _mm_storeu_si128((__m128i *) (outp + k), x);
+            }
+            for (int i = 4 * k; i < width; i += 4)
+            {
+                outp[k++] = imp[i];
+            }
+        }
+    }
+}
+
+static void yvu444ToRgbSSE2(ImageType out, ImageType in, int width, int height)
+{
+    int frameSize = width * height;
+    ImageType yp = in;
+    ImageType vp = in + frameSize;
+    ImageType up = vp + frameSize;
+
+    int i = 0;
+    for (; i + 16 <= frameSize; i += 16, out += 48)
+    {
+        __m128i r, g, b;
+        yvuToRgb16SSE2(yp + i, vp + i, up + i, r, g, b);
+
+        unsigned char rgb[3][16] __attribute__((aligned(16)));
+        _mm_store_si128((__m128i *) rgb[0], r);
+        _mm_store_si128((__m128i *) rgb[1], g);
+        _mm_store_si128((__m128i *) rgb[2], b);
+        for (int k = 0; k < 16; k++)
+        {
+            out[3 * k] = rgb[0][k];
+            out[3 * k + 1] = rgb[1][k];
+            out[3 * k + 2] = rgb[2][k];
+        }
+    }
+    for (; i < frameSize; i++, out += 3)
+    {
+        yvuToRgbPixel(out, yp[i], vp[i], up[i]);
+    }
+}
+
+static void yvuaToYvu444SSE2(ImageType out, ImageType in, int width, int height)
+{
+    int planeSize = width * height;
+    ImageType yp = out;
+    ImageType vp = out + planeSize;
+    ImageType up = vp + planeSize;
+    const __m128i lowBytes = _mm_set1_epi16(0x00FF);
+
+    int i = 0;
+    for (; i + 16 <= planeSize; i += 16, in += 64)
+    {
+        const __m128i *src = (const __m128i *) in;
+        __m128i a = _mm_loadu_si128(src);
+        __m128i b = _mm_loadu_si128(src + 1);
+        __m128i c = _mm_loadu_si128(src + 2);
+        __m128i d = _mm_loadu_si128(src + 3);
+
+        // Split YVUA into YU and VA pairs, then the pairs into planes.
+        __m128i yu0 = _mm_packus_epi16(_mm_and_si128(a, lowBytes), _mm_and_si128(b, lowBytes));
+        __m128i yu1 = _mm_packus_epi16(_mm_and_si128(c, lowBytes), _mm_and_si128(d, lowBytes));
+        __m128i va0 = _mm_packus_epi16(_mm_srli_epi16(a, 8), _mm_srli_epi16(b, 8));
+        __m128i va1 = _mm_packus_epi16(_mm_srli_epi16(c, 8), _mm_srli_epi16(d, 8));
+
+        _mm_storeu_si128((__m128i *) (yp + i), _mm_packus_epi16(
+                _mm_and_si128(yu0, lowBytes), _mm_and_si128(yu1, lowBytes)));
+        _mm_storeu_si128((__m128i *) (vp + i), _mm_packus_epi16(
+                _mm_and_si128(va0, lowBytes), _mm_and_si128(va1, lowBytes)));
+        _mm_storeu_si128((__m128i *) (up + i), _mm_packus_epi16(
+                _mm_srli_epi16(yu0, 8), _mm_srli_epi16(yu1, 8)));
+    }
+    for (; i < planeSize; i++, in += 4)
+    {
+        yp[i] = in[0];
+        vp[i] = in[1];
+        up[i] = in[2];
+    }
+}
+
+static const FrameConvertImpl sSSE2 = {
+    yvu420spToYvu444SSE2,
+    downsample4SSE2,
+    yvu444ToRgbSSE2,
+    yvuaToYvu444SSE2,
+};
+
+const FrameConvertImpl *getFrameConvertSSE2()
+{
+    return &sSSE2;
+}
+
+#else
+
+const FrameConvertImpl *getFrameConvertSSE2()
+{
+    return NULL;
+}
+
+#endif
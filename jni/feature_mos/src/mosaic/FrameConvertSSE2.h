@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+///////////////////////////////////////////////////
+// FrameConvertSSE2.h
+// The YVU to RGB arithmetic shared by the SSE2 and SSSE3 conversions.
+// Only include it where __SSE2__ is defined.
+
+#ifndef FRAME_CONVERT_SSE2_H_
+#define FRAME_CONVERT_SSE2_H_
+
+#include <emmintrin.h>
+
+#include "FrameConvertImpl.h"
+
+// r, g and b of 8 pixels, with 16-bit y (offset removed), v and u.
+static inline void yvuToRgb8(__m128i y, __m128i v, __m128i u,
+        __m128i &r, __m128i &g, __m128i &b)
+{
+    const __m128i rCoef = _mm_set1_epi32((RGB_R_FROM_V << 16) | RGB_Y_SCALE);
+    const __m128i gCoef = _mm_set1_epi32((RGB_G_FROM_V << 16) | RGB_Y_SCALE);
+    const __m128i gCoefU = _mm_set1_epi32(RGB_G_FROM_U & 0xFFFF);
+    const __m128i bCoef = _mm_set1_epi32((RGB_B_FROM_U << 16) | RGB_Y_SCALE);
+    const __m128i zero = _mm_setzero_si128();
+
+    __m128i yvLo = _mm_unpacklo_epi16(y, v);
+    __m128i yvHi = _mm_unpackhi_epi16(y, v);
+    __m128i yuLo = _mm_unpacklo_epi16(y, u);
+    __m128i yuHi = _mm_unpackhi_epi16(y, u);
+    __m128i u0Lo = _mm_unpacklo_epi16(u, zero);
+    __m128i u0Hi = _mm_unpackhi_epi16(u, zero);
+
+    // Arithmetic shifts and saturating packs clamp like the scalar code.
+    r = _mm_packs_epi32(
+            _mm_srai_epi32(_mm_madd_epi16(yvLo, rCoef), RGB_SHIFT),
+            _mm_srai_epi32(_mm_madd_epi16(yvHi, rCoef), RGB_SHIFT));
+    g = _mm_packs_epi32(
+            _mm_srai_epi32(_mm_add_epi32(_mm_madd_epi16(yvLo, gCoef),
+                    _mm_madd_epi16(u0Lo, gCoefU)), RGB_SHIFT),
+            _mm_srai_epi32(_mm_add_epi32(_mm_madd_epi16(yvHi, gCoef),
+                    _mm_madd_epi16(u0Hi, gCoefU)), RGB_SHIFT));
+    b = _mm_packs_epi32(
+            _mm_srai_epi32(_mm_madd_epi16(yuLo, bCoef), RGB_SHIFT),
+            _mm_srai_epi32(_mm_madd_epi16(yuHi, bCoef), RGB_SHIFT));
+}
+
+// r, g and b of the 16 pixels at yp, vp and up.
+static inline void yvuToRgb16SSE2(ImageType yp, ImageType vp, ImageType up,
+        __m128i &r, __m128i &g, __m128i &b)
+{
+    const __m128i zero = _mm_setzero_si128();
+    const __m128i c128 = _mm_set1_epi16(128);
+
+    __m128i y8 = _mm_subs_epu8(_mm_loadu_si128((const __m128i *) yp),
+            _mm_set1_epi8(RGB_Y_OFFSET));
+    __m128i v8 = _mm_loadu_si128((const __m128i *) vp);
+    __m128i u8 = _mm_loadu_si128((const __m128i *) up);
+
+    __m128i rLo, gLo, bLo, rHi, gHi, bHi;
+    yvuToRgb8(_mm_unpacklo_epi8(y8, zero),
+            _mm_sub_epi16(_mm_unpacklo_epi8(v8, zero), c128),
+            _mm_sub_epi16(_mm_unpacklo_epi8(u8, zero), c128), rLo, gLo, bLo);
+    yvuToRgb8(_mm_unpackhi_epi8(y8, zero),
+            _mm_sub_epi16(_mm_unpackhi_epi8(v8, zero), c128),
+            _mm_sub_epi16(_mm_unpackhi_epi8(u8, zero), c128), rHi, gHi, bHi);
+    r = _mm_packus_epi16(rLo, rHi);
+    g = _mm_packus_epi16(gLo, gHi);
+    b = _mm_packus_epi16(bLo, bHi);
+}
+
+#endif
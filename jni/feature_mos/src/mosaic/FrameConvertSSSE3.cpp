@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+///////////////////////////////////////////////////
+// FrameConvertSSSE3.cpp
+// SSSE3 only adds a byte shuffle, which interleaves the RGB output of the
+// preview conversion. The other conversions use SSE2.
+
+#include "FrameConvertImpl.h"
+
+#if defined(__SSSE3__)
+
+#include <tmmintrin.h>
+
+#include "FrameConvertSSE2.h"
+
+#define Z -1
+
+// Moves the bytes of r, g and b to their places in the 48 bytes of 16
+// RGB pixels: one mask per output vector and channel, Z clears the byte.
+static const signed char RGB_SHUFFLE[3][3][16] __attribute__((aligned(16))) = {
+    {
+        { 0, Z, Z, 1, Z, Z, 2, Z, Z, 3, Z, Z, 4, Z, Z, 5 },
+        { Z, 0, Z, Z, 1, Z, Z, 2, Z, Z, 3, Z, Z, 4, Z, Z },
+        { Z, Z, 0, Z, Z, 1, Z, Z, 2, Z, Z, 3, Z, Z, 4, Z },
+    },
+    {
+        { Z, Z, 6, Z, Z, 7, Z, Z, 8, Z, Z, 9, Z, Z, 10, Z },
+        { 5, Z, Z, 6, Z, Z, 7, Z, Z, 8, Z, Z, 9, Z, Z, 10 },
+        { Z, 5, Z, Z, 6, Z, Z, 7, Z, Z, 8, Z, Z, 9, Z, Z },
+    },
+    {
+        { Z, 11, Z, Z, 12, Z, Z, 13, Z, Z, 14, Z, Z, 15, Z, Z },
+        { Z, Z, 11, Z, Z, 12, Z, Z, 13, Z, Z, 14, Z, Z, 15, Z },
+        { 10, Z, Z, 11, Z, Z, 12, Z, Z, 13, Z, Z, 14, Z, Z, 15 },
+    },
+};
+
+#undef Z
+
+static void yvu444ToRgbSSSE3(ImageType out, ImageType in, int width, int height)
+{
+    int frameSize = width * height;
+    ImageType yp = in;
+    ImageType vp = in + frameSize;
+    ImageType up = vp + frameSize;
+
+    __m128i masks[3][3];
+    for (int o = 0; o < 3; o++)
+    {
+        for (int c = 0; c < 3; c++)
+        {
+            masks[o][c] = _mm_load_si128((const __m128i *) RGB_SHUFFLE[o][c]);
+        }
+    }
+
+    int i = 0;
+    for (; i + 16 <= frameSize; i += 16, out += 48)
+    {
+        __m128i r, g, b;
+        yvuToRgb16SSE2(yp + i, vp + i, up + i, r, g, b);
+        for (int o = 0; o < 3; o++)
+        {
+            __m128i x = _mm_or_si128(
+                    _mm_or_si128(_mm_shuffle_epi8(r, masks[o][0]),
+                            _mm_shuffle_epi8(g, masks[o][1])),
+                    _mm_shuffle_epi8(b, masks[o][2]));
+            _mm_storeu_si128((__m128i *) (out + 16 * o), x);
+        }
+    }
+    for (; i < frameSize; i++, out += 3)
+    {
+        yvuToRgbPixel(out, yp[i], vp[i], up[i]);
+    }
+}
+
+static const FrameConvertImpl sSSSE3 = {
+    NULL,
+    NULL,
+    yvu444ToRgbSSSE3,
+    NULL,
+};
+
+const FrameConvertImpl *getFrameConvertSSSE3()
+{
+    return &sSSSE3;
+}
+
+#else
+
+const FrameConvertImpl *getFrameConvertSSSE3()
+{
+    return NULL;
+}
+
+#endif
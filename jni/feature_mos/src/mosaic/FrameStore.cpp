@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+///////////////////////////////////////////////////
+// FrameStore.cpp
+
+#include <errno.h>
+#include <fcntl.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <unistd.h>
+
+#include "FrameStore.h"
+#include "Log.h"
+#define LOG_TAG "FRAME_STORE"
+
+// The layout of a file backing a store: this header, the transforms, then
+// from headerBytes on the frames, frameStride bytes apart. Both offsets are
+// multiples of the page size.
+struct FrameStore::Header
+{
+    char magic[8];
+    int width;
+    int height;
+    int capacity;
+    int count;
+    unsigned long long headerBytes;
+    unsigned long long frameStride;
+};
+
+static const char MAGIC[8] = "MOSFRM1";
+
+// ImageUtils::allocateImage() allocates this much more than the frame, and
+// some readers rely on it.
+static const size_t FRAME_PADDING = 256;
+
+// Bionic only has posix_fallocate() from API level 21 on.
+#if !defined(__ANDROID__) || (defined(__ANDROID_API__) && __ANDROID_API__ >= 21)
+#define HAVE_POSIX_FALLOCATE 1
+#endif
+
+static size_t roundUp(size_t n, size_t multiple)
+{
+    return (n + multiple - 1) / multiple * multiple;
+}
+
+// Allocates the disk space of length bytes of the file from offset on, so
+// that writing to those pages of a mapping cannot crash for lack of space.
+// The data already there is kept. Returns 0 or an errno value.
+static int reserve(int fd, off_t offset, size_t length)
+{
+#ifdef HAVE_POSIX_FALLOCATE
+    int err = posix_fallocate(fd, offset, length);
+    if (err != EINVAL && err != EOPNOTSUPP && err != ENOSYS)
+        return err;
+#endif
+    // Write one byte of every block back, which makes the file system
+    // allocate the whole block.
+    struct stat st;
+    size_t block = (fstat(fd, &st) == 0 && st.st_blksize > 0) ? st.st_blksize : 4096;
+    for (size_t i = 0; i < length; i += block)
+    {
+        unsigned char b;
+        ssize_t n = pread(fd, &b, 1, offset + i);
+        if (n == 1)
+            n = pwrite(fd, &b, 1, offset + i);
+        if (n != 1)
+            return (n < 0) ? errno : EIO;
+    }
+    return 0;
+}
+
+FrameStore::FrameStore()
+{
+    width = height = 0;
+    frameBytes = 0;
+    frames = NULL;
+    capacity = 0;
+    allocated = 0;
+    header = NULL;
+    base = NULL;
+    mappedBytes = 0;
+    fd = -1;
+    path = NULL;
+}
+
+FrameStore::~FrameStore()
+{
+    clear();
+}
+
+bool FrameStore::initialize(int width, int height, int capacity, const char *path)
+{
+    clear();
+
+    this->width = width;
+    this->height = height;
+    frameBytes = (size_t) width * height * ImageUtils::IMAGE_TYPE_NUM_CHANNELS;
+
+    // Only the slots are allocated here; they cost a pointer each.
+    frames = new ImageType[capacity];
+    for (int i = 0; i < capacity; i++)
+        frames[i] = ImageUtils::IMAGE_TYPE_NOIMAGE;
+    this->capacity = capacity;
+
+    size_t headerBytes = sizeof(Header) + capacity * 9 * sizeof(float);
+
+    if (path != NULL)
+    {
+        size_t page = sysconf(_SC_PAGESIZE);
+        size_t fileHeaderBytes = roundUp(headerBytes, page);
+        size_t frameStride = roundUp(frameBytes + FRAME_PADDING, page);
+        size_t size = fileHeaderBytes + capacity * frameStride;
+
+        // The file is sparse: a frame takes disk space when get() first
+        // returns it.
+        int file = ::open(path, O_RDWR | O_CREAT | O_TRUNC, 0600);
+        if (file >= 0 && ftruncate(file, size) == 0 && map(file, size))
+        {
+            header = (Header *) base;
+            header->width = width;
+            header->height = height;
+            header->capacity = capacity;
+            header->count = 0;
+            header->headerBytes = fileHeaderBytes;
+            header->frameStride = frameStride;
+            memcpy(header->magic, MAGIC, sizeof(MAGIC));
+            fd = file;
+            this->path = strdup(path);
+        }
+        else
+        {
+            LOGE("Cannot map %s (%s), keeping the frames in memory", path,
+                    strerror(errno));
+            if (file >= 0)
+            {
+                close(file);
+                unlink(path);
+            }
+        }
+    }
+
+    if (header == NULL)
+    {
+        header = (Header *) calloc(1, headerBytes);
+        if (header == NULL)
+        {
+            clear();
+            return false;
+        }
+        header->width = width;
+        header->height = height;
+        header->capacity = capacity;
+    }
+    return true;
+}
+
+bool FrameStore::open(const char *path)
+{
+    clear();
+
+    int file = ::open(path, O_RDWR);
+    if (file < 0)
+        return false;
+
+    struct stat st;
+    Header h;
+    bool valid = fstat(file, &st) == 0 &&
+            pread(file, &h, sizeof(h), 0) == (ssize_t) sizeof(h) &&
+            memcmp(h.magic, MAGIC, sizeof(MAGIC)) == 0 &&
+            h.width > 0 && h.height > 0 && h.capacity > 0 &&
+            h.count >= 0 && h.count <= h.capacity &&
+            h.headerBytes >= sizeof(Header) + h.capacity * 9 * sizeof(float) &&
+            h.frameStride >= (unsigned long long) h.width * h.height *
+                    ImageUtils::IMAGE_TYPE_NUM_CHANNELS + FRAME_PADDING &&
+            (unsigned long long) st.st_size >=
+                    h.headerBytes + h.capacity * h.frameStride;
+
+    if (!valid || !map(file, h.headerBytes + h.capacity * h.frameStride))
+    {
+        LOGE("%s is not a frame store", path);
+        close(file);
+        return false;
+    }
+
+    width = h.width;
+    height = h.height;
+    frameBytes = (size_t) width * height * ImageUtils::IMAGE_TYPE_NUM_CHANNELS;
+    capacity = h.capacity;
+    frames = new ImageType[capacity];
+    for (int i = 0; i < capacity; i++)
+        frames[i] = ImageUtils::IMAGE_TYPE_NOIMAGE;
+    header = (Header *) base;
+    fd = file;
+    this->path = strdup(path);
+
+    for (int i = 0; i < header->count; i++)
+        get(i);
+    return true;
+}
+
+ImageType FrameStore::get(int k)
+{
+    if (k < 0 || k >= capacity)
+        return ImageUtils::IMAGE_TYPE_NOIMAGE;
+
+    if (frames[k] == ImageUtils::IMAGE_TYPE_NOIMAGE)
+    {
+        if (base != NULL)
+        {
+            // Reserve the disk space now: writing to a page of the mapping
+            // that has none would crash instead of failing here.
+            off_t offset = header->headerBytes + k * header->frameStride;
+            int err = reserve(fd, offset, header->frameStride);
+            if (err == 0)
+                frames[k] = base + offset;
+            else
+                LOGE("Cannot store frame %d: %s", k, strerror(err));
+        }
+        else
+        {
+            frames[k] = ImageUtils::allocateImage(width, height,
+                    ImageUtils::IMAGE_TYPE_NUM_CHANNELS);
+        }
+        if (frames[k] == ImageUtils::IMAGE_TYPE_NOIMAGE)
+        {
+            LOGE("Cannot allocate frame %d of %dx%d", k, width, height);
+            return ImageUtils::IMAGE_TYPE_NOIMAGE;
+        }
+        allocated++;
+    }
+    return frames[k];
+}
+
+ImageType FrameStore::peek(int k) const
+{
+    if (k < 0 || k >= capacity)
+        return ImageUtils::IMAGE_TYPE_NOIMAGE;
+    return frames[k];
+}
+
+void FrameStore::setCount(int count)
+{
+    if (header != NULL)
+        header->count = (count < 0) ? 0 : (count > capacity) ? capacity : count;
+}
+
+int FrameStore::getCount() const
+{
+    return (header != NULL) ? header->count : 0;
+}
+
+void FrameStore::setTransform(int k, const float trs[9])
+{
+    if (k >= 0 && k < capacity)
+        memcpy(getTransforms() + 9 * k, trs, 9 * sizeof(float));
+}
+
+bool FrameStore::getTransform(int k, float trs[9]) const
+{
+    if (k < 0 || k >= capacity)
+        return false;
+    memcpy(trs, getTransforms() + 9 * k, 9 * sizeof(float));
+    return true;
+}
+
+float *FrameStore::getTransforms() const
+{
+    return (float *) (header + 1);
+}
+
+void FrameStore::releaseFrom(int k)
+{
+    for (int i = (k < 0) ? 0 : k; i < capacity; i++)
+    {
+        if (frames[i] != ImageUtils::IMAGE_TYPE_NOIMAGE)
+        {
+            // A mapped frame keeps its data in the file; only the memory
+            // is given back.
+            if (base != NULL)
+                madvise(frames[i], header->frameStride, MADV_DONTNEED);
+            else
+                ImageUtils::freeImage(frames[i]);
+            frames[i] = ImageUtils::IMAGE_TYPE_NOIMAGE;
+            allocated--;
+        }
+    }
+}
+
+void FrameStore::detach()
+{
+    if (base != NULL)
+    {
+        // Only this process opens the file again, and it sees the dirty
+        // pages either way; do not wait for them to reach the disk, as this
+        // runs in onPause().
+        msync(base, mappedBytes, MS_ASYNC);
+        // Keep the file.
+        free(path);
+        path = NULL;
+    }
+    clear();
+}
+
+void FrameStore::clear()
+{
+    if (base != NULL)
+    {
+        for (int i = 0; i < capacity; i++)
+            frames[i] = ImageUtils::IMAGE_TYPE_NOIMAGE;
+        allocated = 0;
+        header = NULL;
+        unmap();
+        close(fd);
+        fd = -1;
+    }
+    else
+    {
+        releaseFrom(0);
+        free(header);
+        header = NULL;
+    }
+
+    if (path != NULL)
+    {
+        unlink(path);
+        free(path);
+        path = NULL;
+    }
+
+    delete[] frames;
+    frames = NULL;
+    capacity = 0;
+}
+
+bool FrameStore::map(int file, size_t size)
+{
+    void *p = mmap(NULL, size, PROT_READ | PROT_WRITE, MAP_SHARED, file, 0);
+    if (p == MAP_FAILED)
+        return false;
+    base = (unsigned char *) p;
+    mappedBytes = size;
+    return true;
+}
+
+void FrameStore::unmap()
+{
+    munmap(base, mappedBytes);
+    base = NULL;
+    mappedBytes = 0;
+}
+
+int FrameStore::getCapacityForBudget(size_t budget, size_t frameBytes,
+        int minFrames, int maxFrames)
+{
+    size_t n = (frameBytes > 0) ? budget / frameBytes : maxFrames;
+    if (n < (size_t) minFrames)
+        return minFrames;
+    if (n > (size_t) maxFrames)
+        return maxFrames;
+    return (int) n;
+}
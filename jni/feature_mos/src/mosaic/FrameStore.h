@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+///////////////////////////////////////////////////
+// FrameStore.h
+
+#ifndef FRAME_STORE_H
+#define FRAME_STORE_H
+
+#include <stddef.h>
+
+#include "ImageUtils.h"
+
+/**
+ *  The YVU24 frames of one resolution captured for a mosaic.
+ *
+ *  The store has a fixed number of slots, but a frame is only allocated
+ *  the first time its slot is used, so a short sweep costs only the frames
+ *  it captured. Allocated frames are kept for the next mosaic until they
+ *  are released.
+ *
+ *  The store can be backed by a file instead of the heap. The frames, the
+ *  number of frames captured and the alignment transform of each frame are
+ *  then mapped from the file, so the kernel can write them back and drop
+ *  them from memory during a long sweep, and they outlive the store: a
+ *  detached file can be opened again, e.g. to stitch a sweep that was
+ *  interrupted.
+ *
+ *  A slot is written by one thread and can then be read by others: get()
+ *  allocates, peek() never does.
+ */
+class FrameStore {
+
+public:
+
+  FrameStore();
+  ~FrameStore();
+
+  /**
+   *  Frees all the frames and sets up capacity empty slots of
+   *  width x height frames. If path is not NULL the frames are mapped from
+   *  that file, which is created or truncated; if it cannot be, they are
+   *  allocated from the heap. Returns false if the slots cannot be set up.
+   */
+  bool initialize(int width, int height, int capacity, const char *path = NULL);
+
+  /**
+   *  Frees all the frames and maps those of a file written by a store that
+   *  was detached. Returns false, leaving the store empty, if the file is
+   *  missing or not a frame store.
+   */
+  bool open(const char *path);
+
+  /**
+   *  Returns the frame in slot k, allocating it if needed. Returns NULL if
+   *  k is out of range or the allocation fails.
+   */
+  ImageType get(int k);
+
+  /**
+   *  Returns the frame in slot k, or NULL if it is not allocated.
+   */
+  ImageType peek(int k) const;
+
+  /**
+   *  The number of slots holding captured frames, and the transform of the
+   *  frame in slot k (3x3, row major). They are only kept here; they do not
+   *  change which slots are allocated.
+   */
+  void setCount(int count);
+  int getCount() const;
+  void setTransform(int k, const float trs[9]);
+  bool getTransform(int k, float trs[9]) const;
+
+  /**
+   *  Frees the frames in slots k and above.
+   */
+  void releaseFrom(int k);
+
+  /**
+   *  Schedules the frames to be written back to the file without waiting,
+   *  unmaps them and drops the slots, but keeps the file. Does the same as
+   *  clear() for a store that is not backed by a file.
+   */
+  void detach();
+
+  /**
+   *  Frees all the frames, drops the slots and deletes the file backing
+   *  them, if any.
+   */
+  void clear();
+
+  bool isFileBacked() const { return base != NULL; }
+  int getWidth() const { return width; }
+  int getHeight() const { return height; }
+  int getCapacity() const { return capacity; }
+  int getAllocatedFrames() const { return allocated; }
+  size_t getFrameBytes() const { return frameBytes; }
+  size_t getAllocatedBytes() const { return allocated * frameBytes; }
+
+  /**
+   *  The number of frames of frameBytes each that fit in budget bytes,
+   *  clamped to [minFrames, maxFrames].
+   */
+  static int getCapacityForBudget(size_t budget, size_t frameBytes,
+          int minFrames, int maxFrames);
+
+private:
+
+  struct Header;
+
+  bool map(int fd, size_t size);
+  void unmap();
+  float *getTransforms() const;
+
+  int width;
+  int height;
+  size_t frameBytes;
+
+  ImageType *frames;
+  int capacity;
+  int allocated;
+
+  // The count and the transforms. In the file, or on the heap.
+  Header *header;
+
+  // The mapping of the file, its size, descriptor and name.
+  unsigned char *base;
+  size_t mappedBytes;
+  int fd;
+  char *path;
+};
+
+#endif
@@ -27,7 +27,7 @@
 
 void ImageUtils::rgba2yvu(ImageType out, ImageType in, int width, int height)
 {
-  int r,g,b, a;
+  int r,g,b;
   ImageType yimg = out;
   ImageType vimg = yimg + width*height;
   ImageType uimg = vimg + width*height;
@@ -38,7 +38,7 @@ void ImageUtils::rgba2yvu(ImageType out, ImageType in, int width, int height)
       r = (*image++);
       g = (*image++);
       b = (*image++);
-      a = (*image++);
+      image++; // alpha
 
       if (r < 0) r = 0;
       if (r > 255) r = 255;
@@ -115,8 +115,7 @@ void ImageUtils::rgb2yvu(ImageType out, ImageType in, int width, int height)
 
 ImageType ImageUtils::rgb2gray(ImageType in, int width, int height)
 {
-  int r,g,b, nr, ng, nb, val;
-  ImageType gray = NULL;
+  int r,g,b;
   ImageType image = in;
   ImageType out = ImageUtils::allocateImage(width, height, 1);
   ImageType outCopy = out;
@@ -145,8 +144,7 @@ ImageType ImageUtils::rgb2gray(ImageType in, int width, int height)
 
 ImageType ImageUtils::rgb2gray(ImageType out, ImageType in, int width, int height)
 {
-  int r,g,b, nr, ng, nb, val;
-  ImageType gray = out;
+  int r,g,b;
   ImageType image = in;
   ImageType outCopy = out;
 
@@ -282,7 +280,8 @@ ImageType ImageUtils::readBinaryPPM(const char *filename, int &width, int &heigh
 {
 
   FILE *imgin = NULL;
-  int mval=0, format=0, eret;
+  int mval=0, format=0;
+  size_t size;
   ImageType ret = IMAGE_TYPE_NOIMAGE;
 
   imgin = fopen(filename, "r");
@@ -291,16 +290,28 @@ ImageType ImageUtils::readBinaryPPM(const char *filename, int &width, int &heigh
     return ret;
   }
 
-  eret = fscanf(imgin, "P%d\n", &format);
-  if (format != 6) {
+  if (fscanf(imgin, "P%d\n", &format) != 1 || format != 6) {
     fprintf(stderr, "Error: readBinaryPPM only supports PPM format (P6)\n");
+    fclose(imgin);
     return ret;
   }
 
-  eret = fscanf(imgin, "%d %d\n", &width, &height);
-  eret = fscanf(imgin, "%d\n", &mval);
+  if (fscanf(imgin, "%d %d\n", &width, &height) != 2 ||
+      fscanf(imgin, "%d\n", &mval) != 1) {
+    fprintf(stderr, "Error: %s has no valid PPM header\n", filename);
+    fclose(imgin);
+    return ret;
+  }
   ret  = allocateImage(width, height, IMAGE_TYPE_NUM_CHANNELS);
-  eret = fread(ret, sizeof(ImageTypeBase), IMAGE_TYPE_NUM_CHANNELS*width*height, imgin);
+  // The "\n" after the header also skips pixel bytes that look like white
+  // space, so the data can come up a few bytes short. The golden images are
+  // made from data read this way.
+  size = (size_t) IMAGE_TYPE_NUM_CHANNELS*width*height;
+  if (fread(ret, sizeof(ImageTypeBase), size, imgin) == 0) {
+    fprintf(stderr, "Error: %s has no pixel data\n", filename);
+    freeImage(ret);
+    ret = IMAGE_TYPE_NOIMAGE;
+  }
 
   fclose(imgin);
 
@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+///////////////////////////////////////////////////
+// LiveMosaic.cpp
+
+#include <math.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "LiveMosaic.h"
+#include "trsMatrix.h"
+#include "Log.h"
+#define LOG_TAG "LIVE_MOSAIC"
+
+// A frame that still does not fit after the canvas has been shrunk this
+// many times is dropped.
+static const int MAX_SHRINKS = 8;
+
+// Mosaic coordinates beyond this come from a broken transform.
+static const double MAX_COORDINATE = 1e7;
+
+static inline unsigned char clamp255(int v)
+{
+    return (v < 0) ? 0 : (v > 255) ? 255 : (unsigned char) v;
+}
+
+LiveMosaic::LiveMosaic()
+{
+    pthread_mutex_init(&lock, NULL);
+    canvas = NULL;
+    canvasWidth = canvasHeight = 0;
+    frameWidth = frameHeight = 0;
+    scale = 1;
+    originX = originY = 0.0;
+    frames = 0;
+    memset(&covered, 0, sizeof(covered));
+    lastX = lastY = 0.0;
+}
+
+LiveMosaic::~LiveMosaic()
+{
+    free(canvas);
+    pthread_mutex_destroy(&lock);
+}
+
+bool LiveMosaic::initialize(int frameWidth, int frameHeight, int canvasWidth, int canvasHeight)
+{
+    pthread_mutex_lock(&lock);
+    free(canvas);
+    canvas = NULL;
+    if (canvasWidth >= frameWidth && canvasHeight >= frameHeight && frameWidth > 0 &&
+            frameHeight > 0)
+    {
+        canvas = (unsigned char *) malloc((size_t) canvasWidth * canvasHeight * BYTES_PER_PIXEL);
+    }
+    if (canvas == NULL)
+    {
+        LOGE("Could not allocate a %dx%d canvas", canvasWidth, canvasHeight);
+        this->canvasWidth = this->canvasHeight = 0;
+        pthread_mutex_unlock(&lock);
+        return false;
+    }
+    this->frameWidth = frameWidth;
+    this->frameHeight = frameHeight;
+    this->canvasWidth = canvasWidth;
+    this->canvasHeight = canvasHeight;
+    pthread_mutex_unlock(&lock);
+
+    reset();
+    return true;
+}
+
+void LiveMosaic::release()
+{
+    pthread_mutex_lock(&lock);
+    free(canvas);
+    canvas = NULL;
+    canvasWidth = canvasHeight = 0;
+    frames = 0;
+    pthread_mutex_unlock(&lock);
+}
+
+void LiveMosaic::reset()
+{
+    pthread_mutex_lock(&lock);
+    if (canvas != NULL)
+        memset(canvas, 0, (size_t) canvasWidth * canvasHeight * BYTES_PER_PIXEL);
+    scale = 1;
+    originX = (canvasWidth - frameWidth) / 2;
+    originY = (canvasHeight - frameHeight) / 2;
+    frames = 0;
+    memset(&covered, 0, sizeof(covered));
+    pthread_mutex_unlock(&lock);
+}
+
+int LiveMosaic::getFrameCount()
+{
+    pthread_mutex_lock(&lock);
+    int n = frames;
+    pthread_mutex_unlock(&lock);
+    return n;
+}
+
+int LiveMosaic::getScale()
+{
+    pthread_mutex_lock(&lock);
+    int s = scale;
+    pthread_mutex_unlock(&lock);
+    return s;
+}
+
+// Maps frame point (x, y) to the mosaic. Returns false if it is out of
+// reach or behind the camera.
+static bool toMosaic(const double trs[3][3], double x, double y, double &mx, double &my)
+{
+    double z = trs[2][0] * x + trs[2][1] * y + trs[2][2];
+    if (!(z > 0.0))
+        return false;
+    mx = (trs[0][0] * x + trs[0][1] * y + trs[0][2]) / z;
+    my = (trs[1][0] * x + trs[1][1] * y + trs[1][2]) / z;
+    return fabs(mx) < MAX_COORDINATE && fabs(my) < MAX_COORDINATE;
+}
+
+void LiveMosaic::addFrame(ImageType yvu, const float trs[9])
+{
+    double m[3][3];
+    for (int i = 0; i < 9; i++)
+        m[i / 3][i % 3] = trs[i];
+
+    pthread_mutex_lock(&lock);
+    Box frame;
+    double centerX, centerY;
+    if (canvas == NULL || yvu == NULL ||
+            !toMosaic(m, frameWidth / 2.0, frameHeight / 2.0, centerX, centerY) ||
+            !makeRoom(m, frame))
+    {
+        pthread_mutex_unlock(&lock);
+        return;
+    }
+
+    draw(yvu, m, centerX, centerY, frame);
+
+    if (frames == 0)
+    {
+        covered = frame;
+    }
+    else
+    {
+        if (frame.left < covered.left) covered.left = frame.left;
+        if (frame.top < covered.top) covered.top = frame.top;
+        if (frame.right > covered.right) covered.right = frame.right;
+        if (frame.bottom > covered.bottom) covered.bottom = frame.bottom;
+    }
+
+    lastX = centerX;
+    lastY = centerY;
+    frames++;
+    pthread_mutex_unlock(&lock);
+}
+
+// Sets frame to the box of the canvas the frame falls on, shifting or
+// shrinking the content first if needed so that the box is in the canvas.
+// Returns false if it cannot be.
+bool LiveMosaic::makeRoom(const double trs[3][3], Box &frame)
+{
+    double x[4], y[4];
+    if (!toMosaic(trs, 0.0, 0.0, x[0], y[0]) ||
+            !toMosaic(trs, frameWidth, 0.0, x[1], y[1]) ||
+            !toMosaic(trs, 0.0, frameHeight, x[2], y[2]) ||
+            !toMosaic(trs, frameWidth, frameHeight, x[3], y[3]))
+    {
+        LOGE("Dropped a frame with a degenerate transform");
+        return false;
+    }
+    double minX = x[0], maxX = x[0], minY = y[0], maxY = y[0];
+    for (int i = 1; i < 4; i++)
+    {
+        if (x[i] < minX) minX = x[i];
+        if (x[i] > maxX) maxX = x[i];
+        if (y[i] < minY) minY = y[i];
+        if (y[i] > maxY) maxY = y[i];
+    }
+
+    for (int shrinks = 0; shrinks <= MAX_SHRINKS; )
+    {
+        frame.left = (int) floor(originX + minX / scale);
+        frame.top = (int) floor(originY + minY / scale);
+        frame.right = (int) ceil(originX + maxX / scale);
+        frame.bottom = (int) ceil(originY + maxY / scale);
+
+        if (frame.left >= 0 && frame.top >= 0 && frame.right <= canvasWidth &&
+                frame.bottom <= canvasHeight)
+            return true;
+
+        Box all = frame;
+        if (frames > 0)
+        {
+            if (covered.left < all.left) all.left = covered.left;
+            if (covered.top < all.top) all.top = covered.top;
+            if (covered.right > all.right) all.right = covered.right;
+            if (covered.bottom > all.bottom) all.bottom = covered.bottom;
+        }
+        if (all.right - all.left > canvasWidth || all.bottom - all.top > canvasHeight)
+        {
+            shrink();
+            shrinks++;
+            continue;
+        }
+
+        // Leave all the room on the side the frame went off, where the next
+        // frames probably go too.
+        int dx = 0, dy = 0;
+        if (all.left < 0)
+            dx = canvasWidth - all.right;
+        else if (all.right > canvasWidth)
+            dx = -all.left;
+        if (all.top < 0)
+            dy = canvasHeight - all.bottom;
+        else if (all.bottom > canvasHeight)
+            dy = -all.top;
+        shift(dx, dy);
+    }
+    LOGE("Dropped a frame that does not fit the canvas");
+    return false;
+}
+
+// Halves the size of the content, which ends up in the top left quarter of
+// the canvas.
+void LiveMosaic::shrink()
+{
+    int w = canvasWidth / 2;
+    int h = canvasHeight / 2;
+    size_t stride = (size_t) canvasWidth * BYTES_PER_PIXEL;
+
+    // Row j only reads rows 2j and 2j + 1, so it can be written in place.
+    for (int j = 0; j < h; j++)
+    {
+        unsigned char *out = canvas + j * stride;
+        const unsigned char *in0 = canvas + 2 * j * stride;
+        const unsigned char *in1 = in0 + stride;
+        for (int i = 0; i < w * BYTES_PER_PIXEL; i += BYTES_PER_PIXEL)
+        {
+            for (int c = 0; c < BYTES_PER_PIXEL; c++)
+            {
+                int k = 2 * i + c;
+                out[i + c] = (unsigned char) ((in0[k] + in0[k + BYTES_PER_PIXEL] +
+                        in1[k] + in1[k + BYTES_PER_PIXEL] + 2) >> 2);
+            }
+        }
+        memset(out + w * BYTES_PER_PIXEL, 0, stride - w * BYTES_PER_PIXEL);
+    }
+    memset(canvas + h * stride, 0, (canvasHeight - h) * stride);
+
+    scale *= 2;
+    originX /= 2;
+    originY /= 2;
+    covered.left /= 2;
+    covered.top /= 2;
+    covered.right = (covered.right + 1) / 2;
+    covered.bottom = (covered.bottom + 1) / 2;
+    LOGV("Canvas shrunk to 1/%d", scale);
+}
+
+// Moves the content by (dx, dy) pixels. It must stay in the canvas.
+void LiveMosaic::shift(int dx, int dy)
+{
+    if (frames == 0)
+    {
+        // Nothing to move.
+        originX += dx;
+        originY += dy;
+        return;
+    }
+
+    size_t stride = (size_t) canvasWidth * BYTES_PER_PIXEL;
+    int width = covered.right - covered.left;
+    size_t rowBytes = (size_t) width * BYTES_PER_PIXEL;
+    int first = (dy > 0) ? covered.bottom - 1 : covered.top;
+    int step = (dy > 0) ? -1 : 1;
+    for (int n = covered.bottom - covered.top, j = first; n--; j += step)
+    {
+        unsigned char *from = canvas + j * stride + covered.left * BYTES_PER_PIXEL;
+        unsigned char *to = from + dy * (ptrdiff_t) stride + dx * BYTES_PER_PIXEL;
+        memmove(to, from, rowBytes);
+        // Rows are moved in the direction of dy, away from those still to
+        // be moved, so clearing what is left behind never clears moved
+        // pixels.
+        int vacated = (dy != 0) ? width : (dx > 0) ? dx : -dx;
+        if (vacated > width) vacated = width;
+        if (dy != 0 || dx > 0)
+            memset(from, 0, vacated * BYTES_PER_PIXEL);
+        else
+            memset(from + (width - vacated) * BYTES_PER_PIXEL, 0, vacated * BYTES_PER_PIXEL);
+    }
+
+    originX += dx;
+    originY += dy;
+    covered.left += dx;
+    covered.right += dx;
+    covered.top += dy;
+    covered.bottom += dy;
+}
+
+void LiveMosaic::draw(ImageType yvu, const double trs[3][3], double centerX,
+        double centerY, const Box &frame)
+{
+    double inv[3][3];
+    inv33d(trs, inv);
+
+    // Canvas pixel (i, j) has its center at mosaic point
+    // (x0 + i * scale, y0 + j * scale).
+    double x0 = (0.5 - originX) * scale;
+    double y0 = (0.5 - originY) * scale;
+
+    // The frame only covers its side of the bisector of the segment
+    // between its center and the previous one.
+    double dirX = 0.0, dirY = 0.0, midX = 0.0, midY = 0.0;
+    if (frames > 0)
+    {
+        dirX = centerX - lastX;
+        dirY = centerY - lastY;
+        midX = (centerX + lastX) / 2.0;
+        midY = (centerY + lastY) / 2.0;
+    }
+
+    int planeSize = frameWidth * frameHeight;
+    const unsigned char *Y = yvu;
+    const unsigned char *V = Y + planeSize;
+    const unsigned char *U = V + planeSize;
+
+    for (int j = frame.top; j < frame.bottom; j++)
+    {
+        double my = y0 + j * scale;
+        double mx = x0 + frame.left * scale;
+        // Everything below is linear in i along the row.
+        double nx = inv[0][0] * mx + inv[0][1] * my + inv[0][2];
+        double ny = inv[1][0] * mx + inv[1][1] * my + inv[1][2];
+        double nz = inv[2][0] * mx + inv[2][1] * my + inv[2][2];
+        double side = (mx - midX) * dirX + (my - midY) * dirY;
+        double dnx = inv[0][0] * scale, dny = inv[1][0] * scale, dnz = inv[2][0] * scale;
+        double dside = dirX * scale;
+
+        unsigned char *out = canvas + ((size_t) j * canvasWidth + frame.left) * BYTES_PER_PIXEL;
+        for (int i = frame.left; i < frame.right; i++, out += BYTES_PER_PIXEL,
+                nx += dnx, ny += dny, nz += dnz, side += dside)
+        {
+            if (side < 0.0)
+                continue;
+            double fx = nx / nz, fy = ny / nz;
+            if (!(fx >= 0.0 && fy >= 0.0 && fx < frameWidth && fy < frameHeight))
+                continue;
+            int k = (int) fy * frameWidth + (int) fx;
+
+            // As ImageUtils::yvu2rgb(), in fixed point.
+            int c = 298 * (Y[k] - 16) + 128;
+            int u = U[k] - 128;
+            int v = V[k] - 128;
+            out[0] = clamp255((c + 409 * v) >> 8);
+            out[1] = clamp255((c - 100 * u - 208 * v) >> 8);
+            out[2] = clamp255((c + 516 * u) >> 8);
+            out[3] = 255;
+        }
+    }
+}
+
+bool LiveMosaic::copyTo(unsigned char *out, size_t size, int &width, int &height)
+{
+    pthread_mutex_lock(&lock);
+    if (canvas == NULL || frames == 0)
+    {
+        pthread_mutex_unlock(&lock);
+        return false;
+    }
+    width = covered.right - covered.left;
+    height = covered.bottom - covered.top;
+    size_t rowBytes = (size_t) width * BYTES_PER_PIXEL;
+    if (out != NULL && size >= rowBytes * height)
+    {
+        for (int j = 0; j < height; j++)
+        {
+            memcpy(out + j * rowBytes, canvas + ((size_t) (covered.top + j) * canvasWidth +
+                    covered.left) * BYTES_PER_PIXEL, rowBytes);
+        }
+    }
+    pthread_mutex_unlock(&lock);
+    return true;
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+///////////////////////////////////////////////////
+// LiveMosaic.h
+
+#ifndef LIVE_MOSAIC_H
+#define LIVE_MOSAIC_H
+
+#include <pthread.h>
+#include <stddef.h>
+
+#include "ImageUtils.h"
+
+/**
+ *  A low-resolution preview of a mosaic, built one frame at a time as the
+ *  frames are aligned instead of blended at the end.
+ *
+ *  Each frame is warped by its transform onto an RGBA canvas of fixed size.
+ *  It only covers the pixels on its side of the line halfway between its
+ *  center and that of the previous frame, so, as in the final mosaic, each
+ *  frame shows the strip around its center. There is no blending and no
+ *  cylindrical unwarping.
+ *
+ *  The first frame is placed in the middle of the canvas. When a frame
+ *  would fall off the canvas the content is moved away from that edge, and
+ *  once the mosaic no longer fits, it is shrunk by half. The canvas thus
+ *  always shows the whole sweep, at a scale of one mosaic pixel per canvas
+ *  pixel or less.
+ *
+ *  The methods can be called from any thread.
+ */
+class LiveMosaic {
+
+public:
+
+  LiveMosaic();
+  ~LiveMosaic();
+
+  /**
+   *  Frees the canvas and allocates a clear one of canvasWidth x
+   *  canvasHeight pixels for frames of frameWidth x frameHeight. Returns
+   *  false if it cannot be allocated.
+   */
+  bool initialize(int frameWidth, int frameHeight, int canvasWidth, int canvasHeight);
+
+  /**
+   *  Frees the canvas.
+   */
+  void release();
+
+  /**
+   *  Clears the canvas for a new mosaic.
+   */
+  void reset();
+
+  /**
+   *  Adds a YVU 4:4:4 planar frame. trs (3x3, row major) maps the frame to
+   *  the mosaic, i.e. to the first frame.
+   */
+  void addFrame(ImageType yvu, const float trs[9]);
+
+  /**
+   *  Copies the part of the canvas the frames cover to out, as rows of
+   *  width RGBA pixels, if it holds that many bytes. Returns false if no
+   *  frame was added; width and height are set otherwise, even if out is
+   *  too small.
+   */
+  bool copyTo(unsigned char *out, size_t size, int &width, int &height);
+
+  int getFrameCount();
+
+  // Mosaic pixels per canvas pixel along each axis.
+  int getScale();
+
+private:
+
+  static const int BYTES_PER_PIXEL = 4;
+
+  // [left, right) x [top, bottom) in canvas pixels.
+  struct Box
+  {
+      int left, top, right, bottom;
+  };
+
+  bool makeRoom(const double trs[3][3], Box &frame);
+  void shrink();
+  void shift(int dx, int dy);
+  void draw(ImageType yvu, const double trs[3][3], double centerX, double centerY,
+        const Box &frame);
+
+  pthread_mutex_t lock;
+
+  unsigned char *canvas;
+  int canvasWidth;
+  int canvasHeight;
+  int frameWidth;
+  int frameHeight;
+
+  // Mosaic point (x, y) is canvas point (originX + x / scale,
+  // originY + y / scale).
+  int scale;
+  double originX;
+  double originY;
+
+  int frames;
+  Box covered;
+  // Center of the last frame, in mosaic coordinates.
+  double lastX;
+  double lastY;
+};
+
+#endif
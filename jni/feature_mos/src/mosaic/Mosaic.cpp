@@ -20,6 +20,7 @@
 // Author(s): zkira
 // $Id: Mosaic.cpp,v 1.20 2011/06/24 04:22:14 mbansal Exp $
 
+#include <new>
 #include <stdio.h>
 #include <string.h>
 
@@ -29,32 +30,58 @@
 #include "Log.h"
 #define LOG_TAG "MOSAIC"
 
-Mosaic::Mosaic()
+Mosaic::Mosaic(MosaicArena *arena)
 {
     initialized = false;
     imageMosaicYVU = NULL;
     frames_size = 0;
     max_frames = 200;
+    frames = rframes = NULL;
+    owned_frames = NULL;
+    owned_size = 0;
+    aligner = NULL;
+    blender = NULL;
+    owns_arena = (arena == NULL);
+    this->arena = owns_arena ? new MosaicArena() : arena;
 }
 
 Mosaic::~Mosaic()
 {
-    for (int i = 0; i < frames_size; i++)
+    // The slots past frames_size can hold frames too, e.g. one that was
+    // rejected; growFrames() leaves the new ones NULL.
+    for (int i = 0; i < max_frames && frames != NULL; i++)
     {
         if (frames[i])
-            delete frames[i];
+            freeFrame(frames[i]);
     }
-    delete frames;
-    delete rframes;
+    delete[] frames;
+    delete[] rframes;
 
     for (int j = 0; j < owned_size; j++)
         delete owned_frames[j];
-    delete owned_frames;
+    delete[] owned_frames;
 
     if (aligner != NULL)
         delete aligner;
+    // The blender frees its pyramids to the arena.
     if (blender != NULL)
         delete blender;
+    if (owns_arena)
+        delete arena;
+}
+
+MosaicFrame *Mosaic::newFrame()
+{
+    void *block = arena->allocate(sizeof(MosaicFrame), false);
+    if (block == NULL)
+        return NULL;
+    return new (block) MosaicFrame(this->width, this->height, false);
+}
+
+void Mosaic::freeFrame(MosaicFrame *frame)
+{
+    frame->~MosaicFrame();
+    arena->release(frame);
 }
 
 int Mosaic::initialize(int blendingType, int stripType, int width, int height, int nframes, bool quarter_res, float thresh_still)
@@ -76,22 +103,19 @@ int Mosaic::initialize(int blendingType, int stripType, int width, int height, i
     mosaicWidth = mosaicHeight = 0;
     imageMosaicYVU = NULL;
 
+    // The frame lists start with room for max_frames and grow as needed.
+    if (nframes > max_frames)
+        max_frames = nframes;
     frames = new MosaicFrame *[max_frames];
     rframes = new MosaicFrame *[max_frames];
 
-    if(nframes>-1)
+    for(int i=0; i<max_frames; i++)
     {
-        for(int i=0; i<nframes; i++)
-        {
-            frames[i] = new MosaicFrame(this->width,this->height,false); // Do no allocate memory for YUV data
-        }
+        frames[i] = NULL;
     }
-    else
+    for(int i=0; i<nframes; i++)
     {
-        for(int i=0; i<max_frames; i++)
-        {
-            frames[i] = NULL;
-        }
+        frames[i] = newFrame(); // Do no allocate memory for YUV data
     }
 
     owned_frames = new ImageType[max_frames];
@@ -108,7 +132,7 @@ int Mosaic::initialize(int blendingType, int stripType, int width, int height, i
             blendingType == Blend::BLEND_TYPE_PAN ||
             blendingType == Blend::BLEND_TYPE_CYLPAN ||
             blendingType == Blend::BLEND_TYPE_HORZ) {
-        blender = new Blend();
+        blender = new Blend(arena);
         blender->initialize(blendingType, stripType, width, height);
     } else {
         blender = NULL;
@@ -121,6 +145,30 @@ int Mosaic::initialize(int blendingType, int stripType, int width, int height, i
     return MOSAIC_RET_OK;
 }
 
+void Mosaic::setBlendThreads(int count)
+{
+    if (blender != NULL)
+        blender->setThreadCount(count);
+}
+
+void Mosaic::setAlignThreads(int count)
+{
+    if (aligner != NULL)
+        aligner->setThreadCount(count);
+}
+
+void Mosaic::setMinStripWidth(float fraction)
+{
+    if (blender != NULL)
+        blender->setMinStripWidth(fraction);
+}
+
+void Mosaic::setProgressCallback(Blend::ProgressCallback callback, void *arg)
+{
+    if (blender != NULL)
+        blender->setProgressCallback(callback, arg);
+}
+
 int Mosaic::addFrameRGB(ImageType imageRGB)
 {
     ImageType imageYVU;
@@ -139,12 +187,40 @@ int Mosaic::addFrameRGB(ImageType imageRGB)
     return ret;
 }
 
+void Mosaic::growFrames()
+{
+    int capacity = 2 * max_frames;
+    MosaicFrame **newFrames = new MosaicFrame *[capacity];
+    MosaicFrame **newRframes = new MosaicFrame *[capacity];
+    ImageType *newOwned = new ImageType[capacity];
+
+    for (int i = 0; i < capacity; i++)
+    {
+        newFrames[i] = (i < max_frames) ? frames[i] : NULL;
+        newOwned[i] = (i < owned_size) ? owned_frames[i] : NULL;
+    }
+
+    delete[] frames;
+    delete[] rframes;
+    delete[] owned_frames;
+    frames = newFrames;
+    rframes = newRframes;
+    owned_frames = newOwned;
+    max_frames = capacity;
+    LOGV("Room for %d frames", max_frames);
+}
+
 int Mosaic::addFrame(ImageType imageYVU)
 {
+    if (frames_size >= max_frames)
+        growFrames();
+
     if(frames[frames_size]==NULL)
-        frames[frames_size] = new MosaicFrame(this->width,this->height,false);
+        frames[frames_size] = newFrame();
 
     MosaicFrame *frame = frames[frames_size];
+    if (frame == NULL)
+        return MOSAIC_RET_ERROR;
 
     frame->image = imageYVU;
 
@@ -157,13 +233,6 @@ int Mosaic::addFrame(ImageType imageYVU)
         align_flag = aligner->addFrame(frame->image);
         aligner->getLastTRS(frame->trs);
 
-        if (frames_size >= max_frames)
-        {
-            LOGV("WARNING: More frames than preallocated, ignoring."
-                 "Increase maximum number of frames (-f <max_frames>) to avoid this");
-            return MOSAIC_RET_ERROR;
-        }
-
         switch (align_flag)
         {
             case Align::ALIGN_RET_OK:
@@ -27,6 +27,7 @@
 #include "AlignFeatures.h"
 #include "Blend.h"
 #include "MosaicTypes.h"
+#include "MosaicArena.h"
 
 /*! \mainpage Mosaic
 
@@ -79,7 +80,13 @@ class Mosaic
 
 public:
 
-  Mosaic();
+   /*!
+    *   \param arena        Where the frames and the blending memory come
+    *                       from. If NULL, the mosaic has an arena of its own;
+    *                       passing one that outlives the mosaic lets the next
+    *                       mosaic reuse the memory of this one.
+    */
+  Mosaic(MosaicArena *arena = NULL);
   ~Mosaic();
 
    /*!
@@ -118,6 +125,36 @@ public:
     */
   int createMosaic(float &progress, bool &cancelComputation);
 
+   /*!
+    *   Sets the number of threads used by the final blending. The output
+    *   does not depend on it.
+    *   \param count        Number of threads, clamped to [1, Blend::MAX_THREADS].
+    */
+  void setBlendThreads(int count);
+
+   /*!
+    *   Sets the number of threads used to align each frame. The output
+    *   does not depend on it.
+    *   \param count        Number of threads, clamped to [1, DB_MAX_WORKERS].
+    */
+  void setAlignThreads(int count);
+
+   /*!
+    *   Sets the minimum width of the strip a frame must add to the mosaic
+    *   to be blended. Frames that add less are dropped before blending.
+    *   \param fraction     Fraction of the frame width (height for a vertical
+    *                       sweep), clamped to [0, MAX_STRIP_WIDTH_FRACTION].
+    *                       0 keeps the selection of the strip type.
+    */
+  void setMinStripWidth(float fraction);
+
+   /*!
+    *   Sets the function createMosaic() reports its progress to, on the
+    *   thread that called it, each time the progress changes.
+    *   \param callback     Called with the progress and arg; NULL for none.
+    */
+  void setProgressCallback(Blend::ProgressCallback callback, void *arg);
+
     /*!
     *   Obtains the resulting mosaic and its dimensions.
     *   \param width        Width of the resulting mosaic (returned)
@@ -132,6 +169,18 @@ public:
     */
   Align* getAligner() { return aligner; }
 
+    /*!
+    *   Provides access to the internal blending object pointer.
+    *   \return             Pointer to the blender object, NULL if the blending type is unknown.
+    */
+  Blend* getBlender() { return blender; }
+
+    /*!
+    *   Provides access to the arena the mosaic allocates from.
+    *   \return             Pointer to the arena.
+    */
+  MosaicArena* getArena() { return arena; }
+
     /*!
     *   Obtain initialization state.
     *
@@ -181,6 +230,21 @@ protected:
   int frames_size;
   int max_frames;
 
+  /**
+    * Doubles max_frames, the room in frames, rframes and owned_frames.
+    */
+  void growFrames();
+
+  /**
+    * A MosaicFrame from the arena, without image memory; NULL if memory
+    * runs out.
+    */
+  MosaicFrame *newFrame();
+  void freeFrame(MosaicFrame *frame);
+
+  MosaicArena *arena;
+  bool owns_arena;
+
   /**
     * Implicitly created frames, should be freed by Mosaic.
     */
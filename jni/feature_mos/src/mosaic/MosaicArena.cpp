@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+///////////////////////////////////////////////////
+// MosaicArena.cpp
+
+#include <stdlib.h>
+#include <string.h>
+
+#include "MosaicArena.h"
+
+// Each block starts with this header, padded so the data stays aligned
+// like malloc() memory. Pooled blocks are linked through next.
+struct MosaicArena::Block
+{
+    union
+    {
+        struct
+        {
+            int sizeClass;      // -1 if the block is not pooled
+            size_t size;        // of the data
+            Block *next;
+        } h;
+        double align[4];
+    };
+};
+
+// Four classes per power of two: 4, 5, 6 and 7 times 2^n, from MIN_SIZE
+// (64 = 4 * 2^4) to MAX_SIZE (256 MB = 4 * 2^26).
+static const int FIRST_SHIFT = 4;
+static const int CLASS_COUNT = (26 - FIRST_SHIFT + 1) * 4;
+
+MosaicArena::MosaicArena(size_t maxPooledBytes)
+{
+    this->maxPooledBytes = maxPooledBytes;
+    pthread_mutex_init(&lock, NULL);
+    pool = new Block *[CLASS_COUNT];
+    for (int c = 0; c < CLASS_COUNT; c++)
+        pool[c] = NULL;
+    memset(&stats, 0, sizeof(stats));
+}
+
+MosaicArena::~MosaicArena()
+{
+    trim();
+    delete[] pool;
+    pthread_mutex_destroy(&lock);
+}
+
+size_t MosaicArena::getClassSize(int c)
+{
+    return (size_t) (4 + (c & 3)) << (FIRST_SHIFT + (c >> 2));
+}
+
+// The smallest class that fits the size, or -1 if it is too large.
+int MosaicArena::getClass(size_t size)
+{
+    if (size > MAX_SIZE)
+        return -1;
+    int c = 0;
+    // Skip whole powers of two, then the classes within one.
+    while (getClassSize(c + 4) <= size && c + 4 < CLASS_COUNT)
+        c += 4;
+    while (getClassSize(c) < size)
+        c++;
+    return c;
+}
+
+void *MosaicArena::allocate(size_t size, bool clear)
+{
+    int c = getClass(size);
+    size_t blockSize = (c < 0) ? size : getClassSize(c);
+    Block *block = NULL;
+
+    pthread_mutex_lock(&lock);
+    if (c >= 0 && pool[c] != NULL)
+    {
+        block = pool[c];
+        pool[c] = block->h.next;
+        stats.pooledBytes -= blockSize;
+        stats.reuseHits++;
+    }
+    stats.allocations++;
+    stats.inUseBytes += blockSize;
+    if (stats.inUseBytes + stats.pooledBytes > stats.peakBytes)
+        stats.peakBytes = stats.inUseBytes + stats.pooledBytes;
+    pthread_mutex_unlock(&lock);
+
+    if (block == NULL)
+    {
+        block = (Block *) (clear ? calloc(1, sizeof(Block) + blockSize)
+                : malloc(sizeof(Block) + blockSize));
+        if (block == NULL)
+        {
+            pthread_mutex_lock(&lock);
+            stats.inUseBytes -= blockSize;
+            pthread_mutex_unlock(&lock);
+            return NULL;
+        }
+        block->h.sizeClass = c;
+        block->h.size = blockSize;
+    }
+    else if (clear)
+    {
+        // Only what was asked for; the rest of the class is never read.
+        memset(block + 1, 0, size);
+    }
+    return block + 1;
+}
+
+void MosaicArena::release(void *data)
+{
+    if (data == NULL)
+        return;
+    Block *block = (Block *) data - 1;
+
+    pthread_mutex_lock(&lock);
+    stats.inUseBytes -= block->h.size;
+    bool keep = block->h.sizeClass >= 0
+            && stats.pooledBytes + block->h.size <= maxPooledBytes;
+    if (keep)
+    {
+        block->h.next = pool[block->h.sizeClass];
+        pool[block->h.sizeClass] = block;
+        stats.pooledBytes += block->h.size;
+    }
+    pthread_mutex_unlock(&lock);
+
+    if (!keep)
+        free(block);
+}
+
+void MosaicArena::trim()
+{
+    pthread_mutex_lock(&lock);
+    for (int c = 0; c < CLASS_COUNT; c++)
+    {
+        while (pool[c] != NULL)
+        {
+            Block *block = pool[c];
+            pool[c] = block->h.next;
+            free(block);
+        }
+    }
+    stats.pooledBytes = 0;
+    pthread_mutex_unlock(&lock);
+}
+
+MosaicArena::Stats MosaicArena::getStats()
+{
+    pthread_mutex_lock(&lock);
+    Stats s = stats;
+    pthread_mutex_unlock(&lock);
+    return s;
+}
+
+void MosaicArena::resetPeak()
+{
+    pthread_mutex_lock(&lock);
+    stats.peakBytes = stats.inUseBytes + stats.pooledBytes;
+    pthread_mutex_unlock(&lock);
+}
+
+void *MosaicArena::allocateFrom(MosaicArena *arena, size_t size, bool clear)
+{
+    if (arena != NULL)
+        return arena->allocate(size, clear);
+    return clear ? calloc(1, size) : malloc(size);
+}
+
+void MosaicArena::releaseTo(MosaicArena *arena, void *block)
+{
+    if (arena != NULL)
+        arena->release(block);
+    else
+        free(block);
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+///////////////////////////////////////////////////
+// MosaicArena.h
+
+#ifndef MOSAIC_ARENA_H
+#define MOSAIC_ARENA_H
+
+#include <pthread.h>
+#include <stddef.h>
+
+/**
+ *  A pool of the blocks a mosaic allocates again for every stitch: the
+ *  mosaic and frame pyramids, their scratch images, the final blending
+ *  mask and the MosaicFrame records.
+ *
+ *  Sizes are rounded up to a size class. There are four classes per power
+ *  of two, from MIN_SIZE to MAX_SIZE, so a block is at most 25% larger than
+ *  requested. Larger blocks are allocated directly and never pooled. The
+ *  pool keeps at most maxPooledBytes of released blocks; blocks released
+ *  beyond that are freed.
+ *
+ *  The arena counts the allocations, how many of them reused a pooled
+ *  block, and the peak of the bytes in use plus the bytes pooled. It can be
+ *  used from several threads.
+ */
+class MosaicArena {
+
+public:
+
+  static const size_t MIN_SIZE = 64;
+  static const size_t MAX_SIZE = 256 * 1024 * 1024;
+  static const size_t DEFAULT_MAX_POOLED_BYTES = 64 * 1024 * 1024;
+
+  struct Stats
+  {
+      size_t inUseBytes;
+      size_t pooledBytes;
+      size_t peakBytes;
+      long allocations;
+      long reuseHits;
+  };
+
+  MosaicArena(size_t maxPooledBytes = DEFAULT_MAX_POOLED_BYTES);
+  ~MosaicArena();
+
+  /**
+   *  Returns a block of at least size bytes, aligned like malloc(), or
+   *  NULL if memory runs out. It is zeroed if clear is true; otherwise its
+   *  content is undefined.
+   */
+  void *allocate(size_t size, bool clear);
+
+  /**
+   *  Gives a block back to the pool. NULL is ignored.
+   */
+  void release(void *block);
+
+  /**
+   *  Frees the pooled blocks, e.g. when the camera leaves panorama mode.
+   */
+  void trim();
+
+  Stats getStats();
+  void resetPeak();
+
+  /**
+   *  allocate() and release() of the arena, or calloc()/malloc() and
+   *  free() if it is NULL.
+   */
+  static void *allocateFrom(MosaicArena *arena, size_t size, bool clear);
+  static void releaseTo(MosaicArena *arena, void *block);
+
+private:
+
+  struct Block;
+
+  static int getClass(size_t size);
+  static size_t getClassSize(int c);
+
+  size_t maxPooledBytes;
+  pthread_mutex_t lock;
+
+  // Guarded by lock.
+  Block **pool;
+  Stats stats;
+};
+
+#endif
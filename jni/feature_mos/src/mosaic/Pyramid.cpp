@@ -16,23 +16,103 @@
 
 // pyramid.cpp
 
+#include <pthread.h>
 #include <stdio.h>
 #include <string.h>
 
-#include "Pyramid.h"
+#include "PyramidImpl.h"
+
+static void reduceRowScalarKernel(ImageTypeShort s, const ImageTypeShortBase *p, int n)
+{
+    reduceRowScalar(s, p, n);
+}
+
+static void reduceColumnsScalarKernel(ImageTypeShort s, const ImageTypeShortBase *p,
+        int pitch, int n)
+{
+    reduceColumnsScalar(s, p, pitch, n);
+}
+
+static void expandColumnsScalarKernel(ImageTypeShort even, ImageTypeShort odd,
+        const ImageTypeShortBase *p, int pitch, int n)
+{
+    expandColumnsScalar(even, odd, p, pitch, n);
+}
+
+static void expandRowScalarKernel(ImageTypeShort out, const ImageTypeShortBase *s, int n,
+        int mode)
+{
+    expandRowScalar(out, s, n, mode);
+}
+
+static const PyramidKernels sScalar = {
+    reduceRowScalarKernel,
+    reduceColumnsScalarKernel,
+    expandColumnsScalarKernel,
+    expandRowScalarKernel,
+};
+
+static pthread_once_t sOnce = PTHREAD_ONCE_INIT;
+static FrameConvert::Level sLevel = FrameConvert::LEVEL_SCALAR;
+static PyramidKernels sKernels = sScalar;
+
+static void use(FrameConvert::Level level)
+{
+    const PyramidKernels *kernels = NULL;
+    switch (level)
+    {
+        case FrameConvert::LEVEL_SSE2:
+        case FrameConvert::LEVEL_SSSE3:
+            kernels = getPyramidKernelsSSE2();
+            break;
+        case FrameConvert::LEVEL_NEON:
+            kernels = getPyramidKernelsNeon();
+            break;
+        default:
+            break;
+    }
+    sKernels = (kernels != NULL) ? *kernels : sScalar;
+    sLevel = level;
+}
+
+static void useBest()
+{
+    use(FrameConvert::getLevel());
+}
+
+static const PyramidKernels &getKernels()
+{
+    pthread_once(&sOnce, useBest);
+    return sKernels;
+}
+
+FrameConvert::Level PyramidShort::getLevel()
+{
+    pthread_once(&sOnce, useBest);
+    return sLevel;
+}
+
+bool PyramidShort::setLevel(FrameConvert::Level level)
+{
+    pthread_once(&sOnce, useBest);
+    if (!FrameConvert::isSupported(level)) return false;
+    use(level);
+    return true;
+}
 
 // We allocate the entire pyramid into one contiguous storage. This makes
 // cleanup easier than fragmented stuff. In addition, we added a "pitch"
 // field, so pointer manipulation is much simpler when it would be faster.
 PyramidShort *PyramidShort::allocatePyramidPacked(real levels,
-        real width, real height, real border)
+        real width, real height, real border, MosaicArena *arena)
 {
     real border2 = (real) (border << 1);
     int lines, size = calcStorage(width, height, border2, levels, &lines);
 
-    PyramidShort *img = (PyramidShort *) calloc(sizeof(PyramidShort) * levels
+    PyramidShort *img = (PyramidShort *) MosaicArena::allocateFrom(arena,
+            sizeof(PyramidShort) * levels
             + sizeof(short *) * lines +
-            + sizeof(short) * size, 1);
+            + sizeof(short) * size, true);
 
     if (img) {
         PyramidShort *curr, *last;
@@ -59,14 +139,16 @@ PyramidShort *PyramidShort::allocatePyramidPacked(real levels,
 }
 
 // Allocate an image of type short
-PyramidShort *PyramidShort::allocateImage(real width, real height, real border)
+PyramidShort *PyramidShort::allocateImage(real width, real height, real border,
+        MosaicArena *arena, bool clear)
 {
     real border2 = (real) (border << 1);
-    PyramidShort *img = (PyramidShort *)
-        calloc(sizeof(PyramidShort) + sizeof(short *) * (height + border2) +
-                sizeof(short) * (width + border2) * (height + border2), 1);
+    PyramidShort *img = (PyramidShort *) MosaicArena::allocateFrom(arena,
+        sizeof(PyramidShort) + sizeof(short *) * (height + border2) +
+                sizeof(short) * (width + border2) * (height + border2), clear);
 
     if (img) {
+        img->numChannels = 0;
         short **y = (short **) &img[1];
         short *position = (short *) &y[height + border2];
         img->width = width;
@@ -86,10 +168,10 @@ PyramidShort *PyramidShort::allocateImage(real width, real height, real border)
 }
 
 // Free the images
-void PyramidShort::freeImage(PyramidShort *image)
+void PyramidShort::freeImage(PyramidShort *image, MosaicArena *arena)
 {
     if (image != NULL)
-        free(image);
+        MosaicArena::releaseTo(arena, image);
 }
 
 // Calculate amount of storage needed taking into account the borders, etc.
@@ -145,48 +227,44 @@ void PyramidShort::BorderSpread(PyramidShort *pyr, int left, int right,
     }
 }
 
+// Both passes go down the image together: each row of scr is filtered
+// vertically just before the horizontal pass needs it, so scr is read back
+// while it is still in the cache. The BorderSpread(scr, 0, 0, 3, 3) of the
+// vertical result is folded in by reading the edge rows instead of copies.
 void PyramidShort::BorderExpandOdd(PyramidShort *in, PyramidShort *out, PyramidShort *scr,
         int mode)
 {
-    int i,j;
+    const PyramidKernels &kernels = getKernels();
     int off = in->border / 2;
+    int columns = scr->width + (scr->border << 1);
+    int top = 3 - scr->border;
+    int bottom = scr->height + scr->border - 4;
 
-    // Vertical Filter
-    for (j = -off; j < in->height + off; j++) {
-        int j2 = j * 2;
-        int limit = scr->width + scr->border;
-        for (i = -scr->border; i < limit; i++) {
-            int t1 = in->ptr[j][i];
-            int t2 = in->ptr[j+1][i];
-            scr->ptr[j2][i] = (short)
-                ((6 * t1 + (in->ptr[j-1][i] + t2) + 4) >> 3);
-            scr->ptr[j2+1][i] = (short)((t1 + t2 + 1) >> 1);
-        }
-    }
-
-    BorderSpread(scr, 0, 0, 3, 3);
+    // Vertical Filter, one row of in at a time, into two rows of scr.
+    int next = -off;
+    int last = in->height + off;
 
     // Horizontal Filter
     int limit = out->height + out->border;
-    for (j = -out->border; j < limit; j++) {
-        for (i = -off; i < scr->width + off; i++) {
-            int i2 = i * 2;
-            int t1 = scr->ptr[j][i];
-            int t2 = scr->ptr[j][i+1];
-            out->ptr[j][i2] = (short) (out->ptr[j][i2] +
-                    (mode * ((6 * t1 +
-                              scr->ptr[j][i-1] + t2 + 4) >> 3)));
-            out->ptr[j][i2+1] = (short) (out->ptr[j][i2+1] +
-                    (mode * ((t1 + t2 + 1) >> 1)));
+    for (int j = -out->border; j < limit; j++) {
+        int row = j;
+        if (row > bottom) row = bottom;
+        if (row < top) row = top;
+        for (; next <= (row >> 1) && next < last; next++) {
+            kernels.expandColumns(scr->ptr[2 * next] - scr->border,
+                    scr->ptr[2 * next + 1] - scr->border,
+                    in->ptr[next] - scr->border, in->pitch, columns);
         }
+        kernels.expandRow(out->ptr[j] - 2 * off, scr->ptr[row] - off,
+                scr->width + 2 * off, mode);
     }
-
 }
 
-int PyramidShort::BorderExpand(PyramidShort *pyr, int nlev, int mode)
+int PyramidShort::BorderExpand(PyramidShort *pyr, int nlev, int mode, MosaicArena *arena)
 {
     PyramidShort *tpyr = pyr + nlev - 1;
-    PyramidShort *scr = allocateImage(pyr[1].width, pyr[0].height, pyr->border);
+    // Only the rows BorderExpandOdd writes are read back.
+    PyramidShort *scr = allocateImage(pyr[1].width, pyr[0].height, pyr->border, arena, false);
     if (scr == NULL) return 0;
 
     if (mode > 0) {
@@ -206,54 +284,48 @@ int PyramidShort::BorderExpand(PyramidShort *pyr, int nlev, int mode)
         }
     }
 
-    freeImage(scr);
+    freeImage(scr, arena);
     return 1;
 }
 
+// Like BorderExpandOdd, the horizontal filter of each row of scr (and
+// its spread into the border) runs just before the vertical filter needs
+// the row.
 void PyramidShort::BorderReduceOdd(PyramidShort *in, PyramidShort *out, PyramidShort *scr)
 {
-    ImageTypeShortBase *s, *ns, *ls, *p, *np;
-
+    const PyramidKernels &kernels = getKernels();
     int off = scr->border - 2;
-    s = scr->ptr[-scr->border] - (off >> 1);
-    ns = s + scr->pitch;
-    ls = scr->ptr[scr->height + scr->border - 1] + scr->pitch - (off >> 1);
     int width = scr->width + scr->border;
-    p = in->ptr[-scr->border] - off;
-    np = p + in->pitch;
-
-    // treat it as if the whole thing were the image
-    for (; s < ls; s = ns, ns += scr->pitch, p = np, np += in->pitch) {
-        for (int w = width; w--; s++, p += 2) {
-            *s = (short)((((int) p[-2]) + ((int) p[2]) + 8 +    // 1
-                        ((((int) p[-1]) + ((int) p[1])) << 2) + // 4
-                        ((int) *p) * 6) >> 4);          // 6
-        }
-    }
 
-    BorderSpread(scr, 5, 4 + ((in->width ^ 1) & 1), 0, 0); //
-
-    s = out->ptr[-(off >> 1)] - out->border;
-    ns = s + out->pitch;
-    ls = s + out->pitch * (out->height + off);
-    p = scr->ptr[-off] - out->border;
-    int pitch = scr->pitch;
-    int pitch2 = pitch << 1;
-    np = p + pitch2;
-    for (; s < ls; s = ns, ns += out->pitch, p = np, np += pitch2) {
-        for (int w = out->pitch; w--; s++, p++) {
-            *s = (short)((((int) p[-pitch2]) + ((int) p[pitch2]) + 8 + // 1
-                        ((((int) p[-pitch]) + ((int) p[pitch])) << 2) + // 4
-                        ((int) *p) * 6) >> 4);              // 6
+    // The BorderSpread(scr, 5, right, 0, 0) of each row.
+    int left = 5 - scr->border;
+    int right = scr->width + scr->border - (4 + ((in->width ^ 1) & 1)) - 1;
+    int end = scr->width + scr->border;
+
+    int next = -scr->border;
+    int rows = out->height + off;
+    for (int t = 0; t < rows; t++) {
+        // The center row, two rows of scr per row of out.
+        int row = 2 * t - off;
+        for (; next <= row + 2; next++) {
+            ImageTypeShort s = scr->ptr[next];
+            kernels.reduceRow(s - (off >> 1), in->ptr[next] - off, width);
+            for (int w = -scr->border; w < left; w++)
+                s[w] = s[left];
+            for (int w = right + 1; w < end; w++)
+                s[w] = s[right];
         }
+        kernels.reduceColumns(out->ptr[t - (off >> 1)] - out->border,
+                scr->ptr[row] - out->border, scr->pitch, out->pitch);
     }
     BorderSpread(out, 0, 0, 5, 5);
 
 }
 
-int PyramidShort::BorderReduce(PyramidShort *pyr, int nlev)
+int PyramidShort::BorderReduce(PyramidShort *pyr, int nlev, MosaicArena *arena)
 {
-    PyramidShort *scr = allocateImage(pyr[1].width, pyr[0].height, pyr->border);
+    // Only the rows BorderReduceOdd writes are read back.
+    PyramidShort *scr = allocateImage(pyr[1].width, pyr[0].height, pyr->border, arena, false);
     if (scr == NULL)
         return 0;
 
@@ -265,6 +337,6 @@ int PyramidShort::BorderReduce(PyramidShort *pyr, int nlev)
         scr->height = pyr[0].height;
     }
 
-    freeImage(scr);
+    freeImage(scr, arena);
     return 1;
 }
@@ -20,6 +20,8 @@
 #define PYRAMID_H
 
 #include "ImageUtils.h"
+#include "FrameConvert.h"
+#include "MosaicArena.h"
 
 typedef unsigned short int real;
 
@@ -37,18 +39,31 @@ public:
   real border;                      // border size
   real pitch;                       // Pitch.  Used for moving through image efficiently.
 
-  static PyramidShort *allocatePyramidPacked(real width, real height, real levels, real border = 0);
-  static PyramidShort *allocateImage(real width, real height, real border);
+  // The images come from the arena if it is not NULL, and must then be
+  // freed to it. Pyramids are cleared; images only if clear is true.
+  static PyramidShort *allocatePyramidPacked(real levels, real width, real height, real border = 0,
+          MosaicArena *arena = NULL);
+  static PyramidShort *allocateImage(real width, real height, real border,
+          MosaicArena *arena = NULL, bool clear = true);
   static void createPyramid(ImageType image, PyramidShort *pyramid, int last = 3 );
-  static void freeImage(PyramidShort *image);
+  static void freeImage(PyramidShort *image, MosaicArena *arena = NULL);
 
   static unsigned int calcStorage(real width, real height, real border2, int levels, int *lines);
 
   static void BorderSpread(PyramidShort *pyr, int left, int right, int top, int bot);
   static void BorderExpandOdd(PyramidShort *in, PyramidShort *out, PyramidShort *scr, int mode);
-  static int BorderExpand(PyramidShort *pyr, int nlev, int mode);
-  static int BorderReduce(PyramidShort *pyr, int nlev);
+  // The scratch image of BorderExpand and BorderReduce comes from the
+  // arena if it is not NULL.
+  static int BorderExpand(PyramidShort *pyr, int nlev, int mode, MosaicArena *arena = NULL);
+  static int BorderReduce(PyramidShort *pyr, int nlev, MosaicArena *arena = NULL);
   static void BorderReduceOdd(PyramidShort *in, PyramidShort *out, PyramidShort *scr);
+
+  // BorderReduceOdd and BorderExpandOdd filter with scalar, SSE2 or NEON
+  // kernels, whichever FrameConvert picked for this CPU; it does not pick
+  // NEON yet. All levels give exactly the same pyramids.
+  static FrameConvert::Level getLevel();
+  // Returns false and keeps the current level if the CPU lacks it.
+  static bool setLevel(FrameConvert::Level level);
 };
 
 #endif
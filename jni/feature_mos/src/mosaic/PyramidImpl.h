@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+///////////////////////////////////////////////////
+// PyramidImpl.h
+// The row kernels behind PyramidShort; only for Pyramid*.cpp.
+
+#ifndef PYRAMID_IMPL_H
+#define PYRAMID_IMPL_H
+
+#include <stddef.h>
+
+#include "Pyramid.h"
+
+// The 5-tap (1 4 6 4 1) / 16 filter of BorderReduceOdd and the 3-tap
+// (1 6 1) / 8 and (1 1) / 2 filters of BorderExpandOdd, one row at a time.
+// All sums are done in 32 bits, so every level gives exactly the scalar
+// results for any input.
+struct PyramidKernels {
+    // s[w] = (p[2w-2] + 4 p[2w-1] + 6 p[2w] + 4 p[2w+1] + p[2w+2] + 8) >> 4
+    void (*reduceRow)(ImageTypeShort s, const ImageTypeShortBase *p, int n);
+    // The same filter down the columns: the taps are p[x + k * pitch], k
+    // from -2 to 2.
+    void (*reduceColumns)(ImageTypeShort s, const ImageTypeShortBase *p, int pitch, int n);
+    // even[x] = (p[x - pitch] + 6 p[x] + p[x + pitch] + 4) >> 3
+    // odd[x] = (p[x] + p[x + pitch] + 1) >> 1
+    void (*expandColumns)(ImageTypeShort even, ImageTypeShort odd,
+            const ImageTypeShortBase *p, int pitch, int n);
+    // out[2i] += mode * ((s[i-1] + 6 s[i] + s[i+1] + 4) >> 3)
+    // out[2i+1] += mode * ((s[i] + s[i+1] + 1) >> 1)
+    // The vector versions only take a mode of 1 or -1.
+    void (*expandRow)(ImageTypeShort out, const ImageTypeShortBase *s, int n, int mode);
+};
+
+// Each returns NULL if the level is not built in. PyramidSSE2.cpp only
+// needs SSE2, so the SSSE3 level uses it too.
+const PyramidKernels *getPyramidKernelsSSE2();
+const PyramidKernels *getPyramidKernelsNeon();
+
+// The scalar kernels, also for the ends of rows.
+
+inline void reduceRowScalar(ImageTypeShort s, const ImageTypeShortBase *p, int n)
+{
+    for (int w = 0; w < n; w++, p += 2)
+    {
+        s[w] = (short)((((int) p[-2]) + ((int) p[2]) + 8 +    // 1
+                    ((((int) p[-1]) + ((int) p[1])) << 2) + // 4
+                    ((int) *p) * 6) >> 4);          // 6
+    }
+}
+
+inline void reduceColumnsScalar(ImageTypeShort s, const ImageTypeShortBase *p, int pitch, int n)
+{
+    int pitch2 = pitch << 1;
+    for (int x = 0; x < n; x++, p++)
+    {
+        s[x] = (short)((((int) p[-pitch2]) + ((int) p[pitch2]) + 8 + // 1
+                    ((((int) p[-pitch]) + ((int) p[pitch])) << 2) + // 4
+                    ((int) *p) * 6) >> 4);              // 6
+    }
+}
+
+inline void expandColumnsScalar(ImageTypeShort even, ImageTypeShort odd,
+        const ImageTypeShortBase *p, int pitch, int n)
+{
+    for (int x = 0; x < n; x++, p++)
+    {
+        int t1 = p[0];
+        int t2 = p[pitch];
+        even[x] = (short) ((6 * t1 + (p[-pitch] + t2) + 4) >> 3);
+        odd[x] = (short) ((t1 + t2 + 1) >> 1);
+    }
+}
+
+inline void expandRowScalar(ImageTypeShort out, const ImageTypeShortBase *s, int n, int mode)
+{
+    for (int i = 0; i < n; i++, out += 2)
+    {
+        int t1 = s[i];
+        int t2 = s[i + 1];
+        out[0] = (short) (out[0] + (mode * ((6 * t1 + s[i - 1] + t2 + 4) >> 3)));
+        out[1] = (short) (out[1] + (mode * ((t1 + t2 + 1) >> 1)));
+    }
+}
+
+#endif
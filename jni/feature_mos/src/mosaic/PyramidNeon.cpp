@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+///////////////////////////////////////////////////
+// PyramidNeon.cpp
+// The NEON pyramid kernels. They work on 8 samples at a time and leave the
+// ends of rows to the scalar kernels. vld2q_s16 picks the even and odd
+// samples apart for the horizontal filters, and the sums are widened to
+// 32 bits before the rounding narrowing shifts.
+
+#include "PyramidImpl.h"
+
+#if defined(__ARM_NEON__) || defined(__ARM_NEON)
+
+#include <arm_neon.h>
+
+// (a + 4 b + 6 c + 4 d + e + 8) >> 4 of 4 samples.
+static inline int16x4_t reduce4(int16x4_t a, int16x4_t b, int16x4_t c, int16x4_t d,
+        int16x4_t e)
+{
+    int32x4_t sum = vmull_n_s16(c, 6);
+    sum = vmlal_n_s16(sum, b, 4);
+    sum = vmlal_n_s16(sum, d, 4);
+    sum = vaddw_s16(sum, a);
+    sum = vaddw_s16(sum, e);
+    // The weights add up to 16, so the narrowing keeps the exact result.
+    return vrshrn_n_s32(sum, 4);
+}
+
+static inline int16x8_t reduce8(int16x8_t a, int16x8_t b, int16x8_t c, int16x8_t d,
+        int16x8_t e)
+{
+    return vcombine_s16(
+            reduce4(vget_low_s16(a), vget_low_s16(b), vget_low_s16(c), vget_low_s16(d),
+                    vget_low_s16(e)),
+            reduce4(vget_high_s16(a), vget_high_s16(b), vget_high_s16(c), vget_high_s16(d),
+                    vget_high_s16(e)));
+}
+
+// (m + 6 c + p + 4) >> 3 of 8 samples.
+static inline int16x8_t expand8(int16x8_t m, int16x8_t c, int16x8_t p)
+{
+    int32x4_t lo = vmlal_n_s16(vaddl_s16(vget_low_s16(m), vget_low_s16(p)), vget_low_s16(c), 6);
+    int32x4_t hi = vmlal_n_s16(vaddl_s16(vget_high_s16(m), vget_high_s16(p)), vget_high_s16(c), 6);
+    return vcombine_s16(vrshrn_n_s32(lo, 3), vrshrn_n_s32(hi, 3));
+}
+
+static void reduceRowNeon(ImageTypeShort s, const ImageTypeShortBase *p, int n)
+{
+    int w = 0;
+    for (; w + 8 <= n; w += 8, p += 16)
+    {
+        int16x8x2_t m = vld2q_s16(p - 2);   // p[2w-2], p[2w-1]
+        int16x8x2_t c = vld2q_s16(p);       // p[2w], p[2w+1]
+        // p[2w+2], without reading past p[16] like vld2q_s16(p + 2) would.
+        int16x8_t e = vextq_s16(c.val[0], vdupq_n_s16(p[16]), 1);
+        vst1q_s16(s + w, reduce8(m.val[0], m.val[1], c.val[0], c.val[1], e));
+    }
+    reduceRowScalar(s + w, p, n - w);
+}
+
+static void reduceColumnsNeon(ImageTypeShort s, const ImageTypeShortBase *p, int pitch, int n)
+{
+    int x = 0;
+    for (; x + 8 <= n; x += 8, p += 8)
+    {
+        vst1q_s16(s + x, reduce8(vld1q_s16(p - 2 * pitch), vld1q_s16(p - pitch), vld1q_s16(p),
+                vld1q_s16(p + pitch), vld1q_s16(p + 2 * pitch)));
+    }
+    reduceColumnsScalar(s + x, p, pitch, n - x);
+}
+
+static void expandColumnsNeon(ImageTypeShort even, ImageTypeShort odd,
+        const ImageTypeShortBase *p, int pitch, int n)
+{
+    int x = 0;
+    for (; x + 8 <= n; x += 8, p += 8)
+    {
+        int16x8_t t1 = vld1q_s16(p);
+        int16x8_t t2 = vld1q_s16(p + pitch);
+        vst1q_s16(even + x, expand8(vld1q_s16(p - pitch), t1, t2));
+        vst1q_s16(odd + x, vrhaddq_s16(t1, t2));
+    }
+    expandColumnsScalar(even + x, odd + x, p, pitch, n - x);
+}
+
+static void expandRowNeon(ImageTypeShort out, const ImageTypeShortBase *s, int n, int mode)
+{
+    if (mode != 1 && mode != -1)
+    {
+        expandRowScalar(out, s, n, mode);
+        return;
+    }
+
+    int i = 0;
+    // The sums wrap around like the scalar (short) casts.
+    for (; i + 8 <= n; i += 8, out += 16)
+    {
+        int16x8_t c = vld1q_s16(s + i);
+        int16x8_t p = vld1q_s16(s + i + 1);
+        int16x8x2_t o = vld2q_s16(out);
+        if (mode > 0)
+        {
+            o.val[0] = vaddq_s16(o.val[0], expand8(vld1q_s16(s + i - 1), c, p));
+            o.val[1] = vaddq_s16(o.val[1], vrhaddq_s16(c, p));
+        }
+        else
+        {
+            o.val[0] = vsubq_s16(o.val[0], expand8(vld1q_s16(s + i - 1), c, p));
+            o.val[1] = vsubq_s16(o.val[1], vrhaddq_s16(c, p));
+        }
+        vst2q_s16(out, o);
+    }
+    expandRowScalar(out, s + i, n - i, mode);
+}
+
+static const PyramidKernels sNeon = {
+    reduceRowNeon,
+    reduceColumnsNeon,
+    expandColumnsNeon,
+    expandRowNeon,
+};
+
+const PyramidKernels *getPyramidKernelsNeon()
+{
+    return &sNeon;
+}
+
+#else
+
+const PyramidKernels *getPyramidKernelsNeon()
+{
+    return NULL;
+}
+
+#endif
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+///////////////////////////////////////////////////
+// PyramidSSE2.cpp
+// The SSE2 pyramid kernels. They work on 8 samples at a time and leave the
+// ends of rows to the scalar kernels. _mm_madd_epi16 multiplies pairs of
+// 16-bit samples by their taps and adds them in 32 bits, which also picks
+// the even and odd samples apart for the horizontal reduce.
+
+#include "PyramidImpl.h"
+
+#if defined(__SSE2__)
+
+#include <emmintrin.h>
+
+// The taps (a, b) for the pairs of _mm_unpack*_epi16(x, y) or of 16-bit
+// samples in memory order.
+static inline __m128i taps(int a, int b)
+{
+    return _mm_set1_epi32((b << 16) | (a & 0xFFFF));
+}
+
+// (a + b + 1) >> 1 of signed samples: _mm_avg_epu16 on samples offset
+// by 0x8000.
+static inline __m128i averageSigned(__m128i a, __m128i b)
+{
+    const __m128i sign = _mm_set1_epi16((short) 0x8000);
+    return _mm_xor_si128(_mm_avg_epu16(_mm_xor_si128(a, sign), _mm_xor_si128(b, sign)), sign);
+}
+
+static inline __m128i loadu(const ImageTypeShortBase *p)
+{
+    return _mm_loadu_si128((const __m128i *) p);
+}
+
+static inline void storeu(ImageTypeShortBase *p, __m128i v)
+{
+    _mm_storeu_si128((__m128i *) p, v);
+}
+
+// Four outputs from p[-2] to p[8].
+static inline __m128i reduce4(const ImageTypeShortBase *p)
+{
+    __m128i sum = _mm_add_epi32(_mm_madd_epi16(loadu(p - 2), taps(1, 4)),
+            _mm_madd_epi16(loadu(p), taps(6, 4)));
+    sum = _mm_add_epi32(sum, _mm_madd_epi16(loadu(p + 1), taps(0, 1)));
+    return _mm_srai_epi32(_mm_add_epi32(sum, _mm_set1_epi32(8)), 4);
+}
+
+static void reduceRowSSE2(ImageTypeShort s, const ImageTypeShortBase *p, int n)
+{
+    int w = 0;
+    // The weights add up to 16, so the results fit in 16 bits and the
+    // saturating pack does not change them.
+    for (; w + 8 <= n; w += 8, p += 16)
+    {
+        storeu(s + w, _mm_packs_epi32(reduce4(p), reduce4(p + 8)));
+    }
+    reduceRowScalar(s + w, p, n - w);
+}
+
+static void reduceColumnsSSE2(ImageTypeShort s, const ImageTypeShortBase *p, int pitch, int n)
+{
+    const __m128i one = _mm_set1_epi16(1);
+    int x = 0;
+    for (; x + 8 <= n; x += 8, p += 8)
+    {
+        __m128i m2 = loadu(p - 2 * pitch);
+        __m128i m1 = loadu(p - pitch);
+        __m128i c = loadu(p);
+        __m128i p1 = loadu(p + pitch);
+        __m128i p2 = loadu(p + 2 * pitch);
+
+        __m128i lo = _mm_add_epi32(_mm_madd_epi16(_mm_unpacklo_epi16(m2, m1), taps(1, 4)),
+                _mm_madd_epi16(_mm_unpacklo_epi16(c, p1), taps(6, 4)));
+        lo = _mm_add_epi32(lo, _mm_madd_epi16(_mm_unpacklo_epi16(p2, one), taps(1, 8)));
+        __m128i hi = _mm_add_epi32(_mm_madd_epi16(_mm_unpackhi_epi16(m2, m1), taps(1, 4)),
+                _mm_madd_epi16(_mm_unpackhi_epi16(c, p1), taps(6, 4)));
+        hi = _mm_add_epi32(hi, _mm_madd_epi16(_mm_unpackhi_epi16(p2, one), taps(1, 8)));
+
+        storeu(s + x, _mm_packs_epi32(_mm_srai_epi32(lo, 4), _mm_srai_epi32(hi, 4)));
+    }
+    reduceColumnsScalar(s + x, p, pitch, n - x);
+}
+
+// (m + 6 c + p + 4) >> 3 of 8 samples.
+static inline __m128i expand8(__m128i m, __m128i c, __m128i p)
+{
+    const __m128i one = _mm_set1_epi16(1);
+    __m128i lo = _mm_add_epi32(_mm_madd_epi16(_mm_unpacklo_epi16(c, m), taps(6, 1)),
+            _mm_madd_epi16(_mm_unpacklo_epi16(p, one), taps(1, 4)));
+    __m128i hi = _mm_add_epi32(_mm_madd_epi16(_mm_unpackhi_epi16(c, m), taps(6, 1)),
+            _mm_madd_epi16(_mm_unpackhi_epi16(p, one), taps(1, 4)));
+    return _mm_packs_epi32(_mm_srai_epi32(lo, 3), _mm_srai_epi32(hi, 3));
+}
+
+static void expandColumnsSSE2(ImageTypeShort even, ImageTypeShort odd,
+        const ImageTypeShortBase *p, int pitch, int n)
+{
+    int x = 0;
+    for (; x + 8 <= n; x += 8, p += 8)
+    {
+        __m128i t0 = loadu(p - pitch);
+        __m128i t1 = loadu(p);
+        __m128i t2 = loadu(p + pitch);
+        storeu(even + x, expand8(t0, t1, t2));
+        storeu(odd + x, averageSigned(t1, t2));
+    }
+    expandColumnsScalar(even + x, odd + x, p, pitch, n - x);
+}
+
+static void expandRowSSE2(ImageTypeShort out, const ImageTypeShortBase *s, int n, int mode)
+{
+    if (mode != 1 && mode != -1)
+    {
+        expandRowScalar(out, s, n, mode);
+        return;
+    }
+
+    int i = 0;
+    // The sums wrap around like the scalar (short) casts.
+    for (; i + 8 <= n; i += 8, out += 16)
+    {
+        __m128i c = loadu(s + i);
+        __m128i p = loadu(s + i + 1);
+        __m128i even = expand8(loadu(s + i - 1), c, p);
+        __m128i odd = averageSigned(c, p);
+        __m128i lo = _mm_unpacklo_epi16(even, odd);
+        __m128i hi = _mm_unpackhi_epi16(even, odd);
+        if (mode > 0)
+        {
+            storeu(out, _mm_add_epi16(loadu(out), lo));
+            storeu(out + 8, _mm_add_epi16(loadu(out + 8), hi));
+        }
+        else
+        {
+            storeu(out, _mm_sub_epi16(loadu(out), lo));
+            storeu(out + 8, _mm_sub_epi16(loadu(out + 8), hi));
+        }
+    }
+    expandRowScalar(out, s + i, n - i, mode);
+}
+
+static const PyramidKernels sSSE2 = {
+    reduceRowSSE2,
+    reduceColumnsSSE2,
+    expandColumnsSSE2,
+    expandRowSSE2,
+};
+
+const PyramidKernels *getPyramidKernelsSSE2()
+{
+    return &sSSE2;
+}
+
+#else
+
+const PyramidKernels *getPyramidKernelsSSE2()
+{
+    return NULL;
+}
+
+#endif
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "FrameReader.h"
+
+#include <string.h>
+
+#include "mosaic/Log.h"
+#define LOG_TAG "FrameReader"
+
+// OpenGL ES 3 names; the library builds against the GLES2 headers.
+#ifndef GL_PIXEL_PACK_BUFFER
+#define GL_PIXEL_PACK_BUFFER 0x88EB
+#endif
+#ifndef GL_STREAM_READ
+#define GL_STREAM_READ 0x88E1
+#endif
+#ifndef GL_MAP_READ_BIT
+#define GL_MAP_READ_BIT 0x0001
+#endif
+
+typedef void* (GL_APIENTRYP MapBufferRangeProc)(GLenum target, GLintptr offset,
+        GLsizeiptr length, GLbitfield access);
+typedef GLboolean (GL_APIENTRYP UnmapBufferProc)(GLenum target);
+
+// Looked up once there is a GLES 3 context.
+static MapBufferRangeProc sMapBufferRange = NULL;
+static UnmapBufferProc sUnmapBuffer = NULL;
+
+static bool isGLES3()
+{
+    const char* version = (const char*) glGetString(GL_VERSION);
+    // "OpenGL ES N.M ..."
+    return version != NULL && strncmp(version, "OpenGL ES ", 10) == 0
+            && version[10] >= '3' && version[10] <= '9';
+}
+
+FrameReader::FrameReader()
+    : mMode(MODE_SYNC), mWidth(0), mHeight(0), mPending(false),
+      mPendingFrameBuffer(0), mPixelBuffer(0)
+{
+}
+
+FrameReader::~FrameReader() {
+}
+
+FrameReader::Mode FrameReader::Init(int width, int height, bool async) {
+    Release();
+    mWidth = width;
+    mHeight = height;
+    mMode = MODE_SYNC;
+    if (async) {
+        mMode = InitPixelBuffer() ? MODE_PIXEL_BUFFER : MODE_DEFERRED;
+    }
+    LOGI("Reading %dx%d frames in mode %d", width, height, mMode);
+    return mMode;
+}
+
+bool FrameReader::InitPixelBuffer() {
+    if (!isGLES3()) return false;
+    if (sMapBufferRange == NULL || sUnmapBuffer == NULL) {
+        sMapBufferRange = (MapBufferRangeProc) eglGetProcAddress("glMapBufferRange");
+        sUnmapBuffer = (UnmapBufferProc) eglGetProcAddress("glUnmapBuffer");
+        if (sMapBufferRange == NULL || sUnmapBuffer == NULL) return false;
+    }
+
+    glGenBuffers(1, &mPixelBuffer);
+    glBindBuffer(GL_PIXEL_PACK_BUFFER, mPixelBuffer);
+    glBufferData(GL_PIXEL_PACK_BUFFER, mWidth * mHeight * 4, NULL, GL_STREAM_READ);
+    glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+    if (!checkGlError("pixel buffer setup")) {
+        glDeleteBuffers(1, &mPixelBuffer);
+        mPixelBuffer = 0;
+        return false;
+    }
+    return true;
+}
+
+void FrameReader::Release() {
+    if (mPixelBuffer != 0) {
+        glDeleteBuffers(1, &mPixelBuffer);
+        mPixelBuffer = 0;
+    }
+    mPending = false;
+}
+
+bool FrameReader::Read(GLuint frameBufferName, unsigned char* out) {
+    switch (mMode) {
+        case MODE_SYNC:
+            glBindFramebuffer(GL_FRAMEBUFFER, frameBufferName);
+            glReadPixels(0, 0, mWidth, mHeight, GL_RGBA, GL_UNSIGNED_BYTE, out);
+            checkGlError("glReadPixels (FrameReader::Read())");
+            return true;
+        case MODE_DEFERRED:
+            // Read in Finish(), after the caller has drawn the next frame.
+            mPendingFrameBuffer = frameBufferName;
+            mPending = true;
+            return false;
+        case MODE_PIXEL_BUFFER:
+            glBindFramebuffer(GL_FRAMEBUFFER, frameBufferName);
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, mPixelBuffer);
+            // With a pixel pack buffer bound, the last argument is an offset
+            // into it and the call returns without waiting.
+            glReadPixels(0, 0, mWidth, mHeight, GL_RGBA, GL_UNSIGNED_BYTE, 0);
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+            mPending = checkGlError("glReadPixels to pixel buffer (FrameReader::Read())");
+            return false;
+    }
+    return false;
+}
+
+bool FrameReader::Finish(unsigned char* out) {
+    if (!mPending) return false;
+    mPending = false;
+
+    if (mMode == MODE_DEFERRED) {
+        glBindFramebuffer(GL_FRAMEBUFFER, mPendingFrameBuffer);
+        glReadPixels(0, 0, mWidth, mHeight, GL_RGBA, GL_UNSIGNED_BYTE, out);
+        return checkGlError("glReadPixels (FrameReader::Finish())");
+    }
+
+    int size = mWidth * mHeight * 4;
+    glBindBuffer(GL_PIXEL_PACK_BUFFER, mPixelBuffer);
+    void* data = sMapBufferRange(GL_PIXEL_PACK_BUFFER, 0, size, GL_MAP_READ_BIT);
+    bool ok = data != NULL;
+    if (ok) {
+        memcpy(out, data, size);
+        sUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+    } else {
+        checkGlError("glMapBufferRange (FrameReader::Finish())");
+    }
+    glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+    return ok;
+}
+
+void FrameReader::Discard() {
+    mPending = false;
+}
+
+FrameReader::Mode FrameReader::GetMode() const {
+    return mMode;
+}
+
+bool FrameReader::HasPendingFrame() const {
+    return mPending;
+}
@@ -0,0 +1,56 @@
+#pragma once
+
+#include "FrameBuffer.h"
+
+// Reads RGBA frames from a frame buffer back to CPU memory.
+//
+// In MODE_SYNC, Read() calls glReadPixels right away, which waits for the
+// GPU to finish drawing the frame. The asynchronous modes return the frame
+// one call later: Read() only starts the transfer and Finish() completes it,
+// so the caller can draw in between. With OpenGL ES 3, Read() copies into a
+// pixel buffer object and the GPU transfers it in the background
+// (MODE_PIXEL_BUFFER). GLES2 has no pixel buffers, so there Finish() reads
+// the frame buffer itself (MODE_DEFERRED); by then the frame has been
+// submitted for a while and the read does not wait for the new frame.
+class FrameReader {
+  public:
+    enum Mode {
+        MODE_SYNC = 0,
+        MODE_DEFERRED = 1,
+        MODE_PIXEL_BUFFER = 2
+    };
+
+    FrameReader();
+    virtual ~FrameReader();
+
+    // Needs the GL context. Returns the mode used: MODE_SYNC, or the best
+    // asynchronous mode of the context if async is true.
+    Mode Init(int width, int height, bool async);
+    // Deletes the GL objects; the context must still be current.
+    void Release();
+
+    // Reads the frame buffer into out in MODE_SYNC and returns true.
+    // Otherwise starts reading it, replacing a frame that was not finished,
+    // and returns false; out is not used.
+    bool Read(GLuint frameBufferName, unsigned char* out);
+
+    // Copies the frame started by the last Read() into out. Returns false
+    // if there is none.
+    bool Finish(unsigned char* out);
+
+    // Drops the frame started by the last Read(), e.g. when capture stops.
+    void Discard();
+
+    Mode GetMode() const;
+    bool HasPendingFrame() const;
+
+  private:
+    bool InitPixelBuffer();
+
+    Mode mMode;
+    int mWidth;
+    int mHeight;
+    bool mPending;
+    GLuint mPendingFrameBuffer;
+    GLuint mPixelBuffer;
+};
@@ -22,10 +22,15 @@
 #include <stdio.h>
 #include <stdlib.h>
 #include <time.h>
+#include <pthread.h>
+#include <unistd.h>
 #include <db_utilities_camera.h>
 
 #include "mosaic/AlignFeatures.h"
 #include "mosaic/Blend.h"
+#include "mosaic/FrameConvert.h"
+#include "mosaic/FrameStore.h"
+#include "mosaic/LiveMosaic.h"
 #include "mosaic/Mosaic.h"
 #include "mosaic/Log.h"
 #define LOG_TAG "FEATURE_MOS_JNI"
@@ -38,15 +43,32 @@ extern "C" {
 
 char buffer[1024];
 
-const int MAX_FRAMES = 100;
+// The number of frames a mosaic can have. Without a budget from
+// setFrameBudget() it is DEFAULT_MAX_FRAMES; otherwise as many as fit in the
+// budget, within [MIN_FRAMES, MAX_FRAMES]. Frames are allocated as they are
+// captured, not up front.
+const int DEFAULT_MAX_FRAMES = 100;
+const int MIN_FRAMES = 40;
+const int MAX_FRAMES = 400;
 
 static double mTx;
 
 int tWidth[NR];
 int tHeight[NR];
 
-ImageType tImage[NR][MAX_FRAMES];// = {{ImageUtils::IMAGE_TYPE_NOIMAGE}}; // YVU24 format image
+FrameStore tImage[NR]; // YVU24 format images
+static size_t frameBudget = 0;
+// If not empty, the frames are mapped from the files spillPath.lr and
+// spillPath.hr so that a sweep can be suspended and resumed.
+static char spillPath[512] = "";
 Mosaic *mosaic[NR] = {NULL,NULL};
+// The memory of each mosaic outlives it, so the next reset() reuses the
+// pyramids and frame records of the last sweep.
+static MosaicArena arena[NR];
+// The low-res mosaic shown while capturing, built from the LR frames as they
+// are aligned, LIVE_MOSAIC_SCALE times the LR frame size in each dimension.
+static LiveMosaic liveMosaic;
+static const int LIVE_MOSAIC_SCALE = 4;
 ImageType resultYVU = ImageUtils::IMAGE_TYPE_NOIMAGE;
 ImageType resultBGR = ImageUtils::IMAGE_TYPE_NOIMAGE;
 float gTRS[11]; // 9 elements of the transformation, 1 for frame-number, 1 for alignment error code.
@@ -63,6 +85,9 @@ int mosaicWidth=0, mosaicHeight=0;
 //int blendingType = Blend::BLEND_TYPE_CYLPAN;
 int blendingType = Blend::BLEND_TYPE_HORZ;
 int stripType = Blend::STRIP_TYPE_THIN;
+int blendThreads = 1;
+int alignThreads = 1;
+float minStripWidth = 0.0f;
 bool high_res = false;
 bool quarter_res[NR] = {false,false};
 float thresh_still[NR] = {5.0f,0.0f};
@@ -84,6 +109,19 @@ now_ms(void)
 
 static int frame_number_HR = 0;
 static int frame_number_LR = 0;
+static bool memory_allocated = false;
+
+// The HR frames accepted during the capture are aligned by a background
+// thread while the capture goes on, so createMosaic(true) only has to wait
+// for the last few frames before blending.
+static pthread_t align_thread;
+static pthread_mutex_t align_lock = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t align_cond = PTHREAD_COND_INITIALIZER;
+// Guarded by align_lock.
+static bool align_thread_running = false;
+static int align_queued = 0;    // HR frames handed to the thread
+static int align_done = 0;      // HR frames aligned (or skipped)
+static bool align_stop = false;
 
 int Init(int mID, int nmax)
 {
@@ -95,7 +133,7 @@ int Init(int mID, int nmax)
                 mosaic[mID] = NULL;
         }
 
-        mosaic[mID] = new Mosaic();
+        mosaic[mID] = new Mosaic(&arena[mID]);
 
         t0 = now_ms();
 
@@ -110,6 +148,9 @@ int Init(int mID, int nmax)
         {
                 mosaic[mID]->initialize(blendingType, stripType, tWidth[mID], tHeight[mID],
                         nmax, quarter_res[mID], thresh_still[mID]);
+                mosaic[mID]->setBlendThreads(blendThreads);
+                mosaic[mID]->setAlignThreads(alignThreads);
+                mosaic[mID]->setMinStripWidth(minStripWidth);
         }
 
         t1 = now_ms();
@@ -118,49 +159,146 @@ int Init(int mID, int nmax)
         return 1;
 }
 
-void GenerateQuarterResImagePlanar(ImageType im, int input_w, int input_h,
-        ImageType &out)
+int AddFrame(int mID, int k, float* trs1d);
+
+static void *AlignHRFrames(void *arg)
 {
-    ImageType imp;
-    ImageType outp;
+    pthread_mutex_lock(&align_lock);
+    while (true)
+    {
+        while (align_done == align_queued && !align_stop)
+            pthread_cond_wait(&align_cond, &align_lock);
+        if (align_done == align_queued)
+            break;
 
-    int count = 0;
+        int k = align_done;
+        pthread_mutex_unlock(&align_lock);
 
-    for (int j = 0; j < input_h; j += H2L_FACTOR)
-    {
-        imp = im + j * input_w;
-        outp = out + (j / H2L_FACTOR) * (input_w / H2L_FACTOR);
+        if (!gCancelComputation[HR])
+            AddFrame(HR, k, NULL);
 
-        for (int i = 0; i < input_w; i += H2L_FACTOR)
-        {
-            *outp++ = *(imp + i);
-            count++;
-        }
+        pthread_mutex_lock(&align_lock);
+        align_done++;
+        pthread_cond_broadcast(&align_cond);
     }
+    pthread_mutex_unlock(&align_lock);
+    return NULL;
+}
 
-    for (int j = input_h; j < 2 * input_h; j += H2L_FACTOR)
-    {
-        imp = im + j * input_w;
-        outp = out + (j / H2L_FACTOR) * (input_w / H2L_FACTOR);
+// Creates the HR mosaic and starts aligning frames into it as they come.
+void StartAligning()
+{
+    Init(HR, -1);
+
+    pthread_mutex_lock(&align_lock);
+    align_queued = align_done = 0;
+    align_stop = false;
+    align_thread_running =
+            (pthread_create(&align_thread, NULL, AlignHRFrames, NULL) == 0);
+    if (!align_thread_running)
+        LOGE("Could not start the HR alignment thread");
+    pthread_mutex_unlock(&align_lock);
+}
 
-        for (int i = 0; i < input_w; i += H2L_FACTOR)
-        {
-            *outp++ = *(imp + i);
-            count++;
-        }
+// Hands the frame_number_HR-th HR frame to the alignment thread.
+void QueueHRFrame()
+{
+    pthread_mutex_lock(&align_lock);
+    if (align_thread_running)
+    {
+        align_queued = frame_number_HR;
+        pthread_cond_signal(&align_cond);
     }
+    pthread_mutex_unlock(&align_lock);
+}
+
+// Passes the progress of createMosaic() to its Java listener, in whole
+// percents, on the thread of createMosaic().
+struct ProgressReporter
+{
+    JNIEnv *env;
+    jobject listener;
+    jmethodID onProgress;
+    int last;
+};
+
+static void ReportProgress(float progress, void *arg)
+{
+    ProgressReporter *reporter = (ProgressReporter *) arg;
+    if (reporter == NULL || reporter->listener == 0)
+        return;
+    int percent = int(progress);
+    if (percent == reporter->last)
+        return;
+    reporter->last = percent;
+    reporter->env->CallVoidMethod(reporter->listener, reporter->onProgress, (jint) percent);
+    // The exception is thrown when createMosaic() returns; report no more.
+    if (reporter->env->ExceptionCheck())
+        reporter->listener = 0;
+}
 
-    for (int j = 2 * input_h; j < 3 * input_h; j += H2L_FACTOR)
+// Stops the alignment thread. If drain is true, the queued frames are
+// aligned first and the progress of HR is updated, and passed to reporter,
+// meanwhile. Returns false if the thread was not running, i.e. the HR frames
+// are not aligned.
+bool StopAligning(bool drain, ProgressReporter *reporter = NULL)
+{
+    pthread_mutex_lock(&align_lock);
+    if (!align_thread_running)
     {
-        imp = im + j * input_w;
-        outp = out + (j / H2L_FACTOR) * (input_w / H2L_FACTOR);
+        pthread_mutex_unlock(&align_lock);
+        return false;
+    }
+    align_thread_running = false;
 
-        for (int i = 0; i < input_w; i += H2L_FACTOR)
+    if (drain)
+    {
+        while (align_done < align_queued)
         {
-            *outp++ = *(imp + i);
-            count++;
+            gProgress[HR] = TIME_PERCENT_ALIGN * align_done / align_queued;
+            // The listener runs Java code; do not keep the thread waiting.
+            pthread_mutex_unlock(&align_lock);
+            ReportProgress(gProgress[HR], reporter);
+            pthread_mutex_lock(&align_lock);
+            if (align_done < align_queued)
+                pthread_cond_wait(&align_cond, &align_lock);
         }
     }
+    else
+    {
+        align_queued = align_done;
+    }
+    align_stop = true;
+    pthread_cond_broadcast(&align_cond);
+    pthread_mutex_unlock(&align_lock);
+
+    pthread_join(align_thread, NULL);
+    return true;
+}
+
+// Returns the name of the file backing the frames of mID, or NULL if they
+// are kept in memory.
+static const char *GetSpillFile(int mID, char *name, size_t size)
+{
+    if (spillPath[0] == '\0')
+        return NULL;
+    snprintf(name, size, "%s.%s", spillPath, (mID == HR) ? "hr" : "lr");
+    return name;
+}
+
+// Keeps the frame just added to the LR mosaic, and its HR version, for the
+// final mosaic, and draws it on the live mosaic.
+static void CommitFrame()
+{
+    tImage[LR].setTransform(frame_number_LR, gTRS);
+    liveMosaic.addFrame(tImage[LR].peek(frame_number_LR), gTRS);
+
+    frame_number_LR++;
+    frame_number_HR++;
+    tImage[LR].setCount(frame_number_LR);
+    tImage[HR].setCount(frame_number_HR);
+
+    QueueHRFrame();
 }
 
 int AddFrame(int mID, int k, float* trs1d)
@@ -168,7 +306,7 @@ int AddFrame(int mID, int k, float* trs1d)
     double  t0, t1, time_c;
     double trs[3][3];
 
-    int ret_code = mosaic[mID]->addFrame(tImage[mID][k]);
+    int ret_code = mosaic[mID]->addFrame(tImage[mID].peek(k));
 
     mosaic[mID]->getAligner()->getLastTRS(trs);
 
@@ -189,13 +327,15 @@ int AddFrame(int mID, int k, float* trs1d)
     return ret_code;
 }
 
-int Finalize(int mID)
+int Finalize(int mID, ProgressReporter *reporter)
 {
     double  t0, t1, time_c;
 
     t0 = now_ms();
     // Create the mosaic
+    mosaic[mID]->setProgressCallback(ReportProgress, reporter);
     int ret = mosaic[mID]->createMosaic(gProgress[mID], gCancelComputation[mID]);
+    mosaic[mID]->setProgressCallback(NULL, NULL);
     t1 = now_ms();
     time_c = t1 - t0;
     LOGV("CreateMosaic: %g ms",time_c);
@@ -203,74 +343,11 @@ int Finalize(int mID)
     // Get back the result
     resultYVU = mosaic[mID]->getMosaic(mosaicWidth, mosaicHeight);
 
-    return ret;
-}
-
-void YUV420toYVU24(ImageType yvu24, ImageType yuv420sp, int width, int height)
-{
-    int frameSize = width * height;
-
-    ImageType oyp = yvu24;
-    ImageType ovp = yvu24+frameSize;
-    ImageType oup = yvu24+frameSize+frameSize;
-
-    for (int j = 0, yp = 0; j < height; j++)
-    {
-        unsigned char u = 0, v = 0;
-        int uvp = frameSize + (j >> 1) * width;
-        for (int i = 0; i < width; i++, yp++)
-        {
-            *oyp++ = yuv420sp[yp];
-            //int y = (0xff & (int)yuv420sp[yp]) -16;
-            //yvu24p[yp] = (y<0)?0:y;
-
-            if ((i & 1) == 0)
-            {
-                v = yuv420sp[uvp++];
-                u = yuv420sp[uvp++];
-            }
-
-            *ovp++ = v;
-            *oup++ = u;
-        }
-    }
-}
-
-void YUV420toYVU24_NEW(ImageType yvu24, ImageType yuv420sp, int width,
-        int height)
-{
-    int frameSize = width * height;
-
-    ImageType oyp = yvu24;
-    ImageType ovp = yvu24 + frameSize;
-    ImageType oup = yvu24 + frameSize + frameSize;
-
-    memcpy(yvu24, yuv420sp, frameSize * sizeof(unsigned char));
-
-    for (int j = 0; j < height; j += 2)
-    {
-        unsigned char u = 0, v = 0;
-        int uvp = frameSize + (j >> 1) * width;
-        ovp = yvu24 + frameSize + j * width;
-        oup = ovp + frameSize;
-
-        ImageType iuvp = yuv420sp + uvp;
-
-        for (int i = 0; i < width; i += 2)
-        {
-            v = *iuvp++;
-            u = *iuvp++;
-
-            *ovp++ = v;
-            *oup++ = u;
+    MosaicArena::Stats stats = arena[mID].getStats();
+    LOGV("Arena[%d]: peak %zu KB, %ld allocations, %ld reused", mID,
+            stats.peakBytes / 1024, stats.allocations, stats.reuseHits);
 
-            *ovp++ = v;
-            *oup++ = u;
-
-        }
-        memcpy(ovp, ovp - width, width * sizeof(unsigned char));
-        memcpy(oup, oup - width, width * sizeof(unsigned char));
-    }
+    return ret;
 }
 
 
@@ -282,85 +359,47 @@ JNIEXPORT void JNICALL Java_com_android_camera_Mosaic_allocateMosaicMemory(
     tWidth[LR] = int(width / H2L_FACTOR);
     tHeight[LR] = int(height / H2L_FACTOR);
 
-    for(int i=0; i<MAX_FRAMES; i++)
+    int maxFrames = DEFAULT_MAX_FRAMES;
+    if (frameBudget > 0)
     {
-            tImage[LR][i] = ImageUtils::allocateImage(tWidth[LR], tHeight[LR],
-                    ImageUtils::IMAGE_TYPE_NUM_CHANNELS);
-            tImage[HR][i] = ImageUtils::allocateImage(tWidth[HR], tHeight[HR],
-                    ImageUtils::IMAGE_TYPE_NUM_CHANNELS);
+        size_t frameBytes = (size_t) ImageUtils::IMAGE_TYPE_NUM_CHANNELS *
+                (tWidth[HR] * tHeight[HR] + tWidth[LR] * tHeight[LR]);
+        maxFrames = FrameStore::getCapacityForBudget(frameBudget, frameBytes,
+                MIN_FRAMES, MAX_FRAMES);
     }
+    LOGV("Up to %d frames of %dx%d", maxFrames, tWidth[HR], tHeight[HR]);
+
+    char name[sizeof(spillPath) + 4];
+    tImage[LR].initialize(tWidth[LR], tHeight[LR], maxFrames,
+            GetSpillFile(LR, name, sizeof(name)));
+    tImage[HR].initialize(tWidth[HR], tHeight[HR], maxFrames,
+            GetSpillFile(HR, name, sizeof(name)));
+
+    liveMosaic.initialize(tWidth[LR], tHeight[LR], LIVE_MOSAIC_SCALE * tWidth[LR],
+            LIVE_MOSAIC_SCALE * tHeight[LR]);
 
     AllocateTextureMemory(tWidth[HR], tHeight[HR], tWidth[LR], tHeight[LR]);
+    memory_allocated = true;
 }
 
 JNIEXPORT void JNICALL Java_com_android_camera_Mosaic_freeMosaicMemory(
         JNIEnv* env, jobject thiz)
 {
-    for(int i = 0; i < MAX_FRAMES; i++)
-    {
-        ImageUtils::freeImage(tImage[LR][i]);
-        ImageUtils::freeImage(tImage[HR][i]);
-    }
+    StopAligning(false);
+    memory_allocated = false;
+
+    tImage[LR].clear();
+    tImage[HR].clear();
+    arena[LR].trim();
+    arena[HR].trim();
+    liveMosaic.release();
 
     FreeTextureMemory();
 }
 
 
-void decodeYUV444SP(unsigned char* rgb, unsigned char* yuv420sp, int width,
-        int height)
-{
-    int frameSize = width * height;
-
-    for (int j = 0, yp = 0; j < height; j++)
-    {
-        int vp = frameSize + j * width, u = 0, v = 0;
-        int up = vp + frameSize;
-
-        for (int i = 0; i < width; i++, yp++, vp++, up++)
-        {
-            int y = (0xff & ((int) yuv420sp[yp])) - 16;
-            if (y < 0) y = 0;
-
-            v = (0xff & yuv420sp[vp]) - 128;
-            u = (0xff & yuv420sp[up]) - 128;
-
-            int y1192 = 1192 * y;
-            int r = (y1192 + 1634 * v);
-            int g = (y1192 - 833 * v - 400 * u);
-            int b = (y1192 + 2066 * u);
-
-            if (r < 0) r = 0; else if (r > 262143) r = 262143;
-            if (g < 0) g = 0; else if (g > 262143) g = 262143;
-            if (b < 0) b = 0; else if (b > 262143) b = 262143;
-
-            //rgb[yp] = 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
-            int p = j*width*3+i*3;
-            rgb[p+0] = (r<<6 & 0xFF0000)>>16;
-            rgb[p+1] = (g>>2 & 0xFF00)>>8;
-            rgb[p+2] =  b>>10 & 0xFF;
-        }
-    }
-}
-
 static int count = 0;
 
-void ConvertYVUAiToPlanarYVU(unsigned char *planar, unsigned char *in, int width,
-        int height)
-{
-    int planeSize = width * height;
-    unsigned char* Yptr = planar;
-    unsigned char* Vptr = planar + planeSize;
-    unsigned char* Uptr = Vptr + planeSize;
-
-    for (int i = 0; i < planeSize; i++)
-    {
-        *Yptr++ = *in++;
-        *Vptr++ = *in++;
-        *Uptr++ = *in++;
-        in++;   // Alpha
-    }
-}
-
 JNIEXPORT jfloatArray JNICALL Java_com_android_camera_Mosaic_setSourceImageFromGPU(
         JNIEnv* env, jobject thiz)
 {
@@ -368,12 +407,15 @@ JNIEXPORT jfloatArray JNICALL Java_com_android_camera_Mosaic_setSourceImageFromG
     t0 = now_ms();
     int ret_code = Mosaic::MOSAIC_RET_OK;
 
-    if(frame_number_HR<MAX_FRAMES && frame_number_LR<MAX_FRAMES)
+    ImageType imageLR = tImage[LR].get(frame_number_LR);
+    ImageType imageHR = tImage[HR].get(frame_number_HR);
+
+    if(imageLR != NULL && imageHR != NULL && mosaic[LR] != NULL)
     {
         double last_tx = mTx;
 
         sem_wait(&gPreviewImage_semaphore);
-        ConvertYVUAiToPlanarYVU(tImage[LR][frame_number_LR], gPreviewImage[LR],
+        FrameConvert::yvuaToYvu444(imageLR, gPreviewImage[LR],
                 tWidth[LR], tHeight[LR]);
 
         sem_post(&gPreviewImage_semaphore);
@@ -384,12 +426,11 @@ JNIEXPORT jfloatArray JNICALL Java_com_android_camera_Mosaic_setSourceImageFromG
         {
             // Copy into HR buffer only if this is a valid frame
             sem_wait(&gPreviewImage_semaphore);
-            ConvertYVUAiToPlanarYVU(tImage[HR][frame_number_HR], gPreviewImage[HR],
+            FrameConvert::yvuaToYvu444(imageHR, gPreviewImage[HR],
                     tWidth[HR], tHeight[HR]);
             sem_post(&gPreviewImage_semaphore);
 
-            frame_number_LR++;
-            frame_number_HR++;
+            CommitFrame();
         }
     }
     else
@@ -421,11 +462,14 @@ JNIEXPORT jfloatArray JNICALL Java_com_android_camera_Mosaic_setSourceImage(
 
     int ret_code = Mosaic::MOSAIC_RET_OK;
 
-    if(frame_number_HR<MAX_FRAMES && frame_number_LR<MAX_FRAMES)
+    ImageType imageLR = tImage[LR].get(frame_number_LR);
+    ImageType imageHR = tImage[HR].get(frame_number_HR);
+
+    if(imageLR != NULL && imageHR != NULL && mosaic[LR] != NULL)
     {
         jbyte *pixels = env->GetByteArrayElements(photo_data, 0);
 
-        YUV420toYVU24_NEW(tImage[HR][frame_number_HR], (ImageType)pixels,
+        FrameConvert::yvu420spToYvu444(imageHR, (ImageType)pixels,
                 tWidth[HR], tHeight[HR]);
 
         env->ReleaseByteArrayElements(photo_data, pixels, 0);
@@ -433,12 +477,12 @@ JNIEXPORT jfloatArray JNICALL Java_com_android_camera_Mosaic_setSourceImage(
         double last_tx = mTx;
 
         t0 = now_ms();
-        GenerateQuarterResImagePlanar(tImage[HR][frame_number_HR], tWidth[HR],
-                tHeight[HR], tImage[LR][frame_number_LR]);
+        FrameConvert::downsample(imageLR, imageHR,
+                tWidth[HR], tHeight[HR], H2L_FACTOR);
 
 
         sem_wait(&gPreviewImage_semaphore);
-        decodeYUV444SP(gPreviewImage[LR], tImage[LR][frame_number_LR],
+        FrameConvert::yvu444ToRgb(gPreviewImage[LR], imageLR,
                 gPreviewImageWidth[LR], gPreviewImageHeight[LR]);
         sem_post(&gPreviewImage_semaphore);
 
@@ -446,8 +490,7 @@ JNIEXPORT jfloatArray JNICALL Java_com_android_camera_Mosaic_setSourceImage(
 
         if(ret_code == Mosaic::MOSAIC_RET_OK || ret_code == Mosaic::MOSAIC_RET_FEW_INLIERS)
         {
-            frame_number_LR++;
-            frame_number_HR++;
+            CommitFrame();
         }
 
     }
@@ -470,6 +513,131 @@ JNIEXPORT jfloatArray JNICALL Java_com_android_camera_Mosaic_setSourceImage(
     return bytes;
 }
 
+JNIEXPORT void JNICALL Java_com_android_camera_Mosaic_setFrameBudget(
+        JNIEnv* env, jobject thiz, jlong bytes)
+{
+    frameBudget = (bytes > 0) ? (size_t) bytes : 0;
+}
+
+JNIEXPORT jint JNICALL Java_com_android_camera_Mosaic_getMaxFrames(
+        JNIEnv* env, jobject thiz)
+{
+    return (jint) tImage[HR].getCapacity();
+}
+
+JNIEXPORT void JNICALL Java_com_android_camera_Mosaic_setSpillFile(
+        JNIEnv* env, jobject thiz, jstring path)
+{
+    spillPath[0] = '\0';
+    if (path == 0)
+        return;
+
+    const char *chars = env->GetStringUTFChars(path, 0);
+    if (chars == 0)
+        return;
+    if (strlen(chars) < sizeof(spillPath))
+        strcpy(spillPath, chars);
+    else
+        LOGE("Spill file name is too long: %s", chars);
+    env->ReleaseStringUTFChars(path, chars);
+}
+
+JNIEXPORT jint JNICALL Java_com_android_camera_Mosaic_suspend(
+        JNIEnv* env, jobject thiz)
+{
+    StopAligning(false);
+
+    int frames = frame_number_HR;
+    if (!memory_allocated || frames == 0 ||
+            !tImage[LR].isFileBacked() || !tImage[HR].isFileBacked())
+        return 0;
+
+    // The mosaics only hold alignment state, which resume() rebuilds from
+    // the frames.
+    for (int mID = 0; mID < NR; mID++)
+    {
+        delete mosaic[mID];
+        mosaic[mID] = NULL;
+    }
+    tImage[LR].detach();
+    tImage[HR].detach();
+    arena[LR].trim();
+    arena[HR].trim();
+    liveMosaic.release();
+
+    FreeTextureMemory();
+    memory_allocated = false;
+    frame_number_LR = 0;
+    frame_number_HR = 0;
+
+    LOGV("Suspended a sweep of %d frames", frames);
+    return (jint) frames;
+}
+
+JNIEXPORT jint JNICALL Java_com_android_camera_Mosaic_resume(
+        JNIEnv* env, jobject thiz, jstring path, jint width, jint height)
+{
+    if (memory_allocated)
+        return 0;
+
+    Java_com_android_camera_Mosaic_setSpillFile(env, thiz, path);
+
+    char name[NR][sizeof(spillPath) + 4];
+    if (GetSpillFile(LR, name[LR], sizeof(name[LR])) == NULL ||
+            GetSpillFile(HR, name[HR], sizeof(name[HR])) == NULL)
+        return 0;
+
+    int frames = 0;
+    if (tImage[LR].open(name[LR]) && tImage[HR].open(name[HR]))
+        frames = tImage[HR].getCount();
+
+    // The preview size may have changed since the sweep was suspended.
+    if (frames == 0 || tImage[LR].getCount() != frames ||
+            tImage[HR].getWidth() != width || tImage[HR].getHeight() != height ||
+            tImage[LR].getWidth() != int(width / H2L_FACTOR) ||
+            tImage[LR].getHeight() != int(height / H2L_FACTOR))
+    {
+        tImage[LR].clear();
+        tImage[HR].clear();
+        unlink(name[LR]);
+        unlink(name[HR]);
+        return 0;
+    }
+
+    tWidth[HR] = width;
+    tHeight[HR] = height;
+    tWidth[LR] = tImage[LR].getWidth();
+    tHeight[LR] = tImage[LR].getHeight();
+    liveMosaic.initialize(tWidth[LR], tHeight[LR], LIVE_MOSAIC_SCALE * tWidth[LR],
+            LIVE_MOSAIC_SCALE * tHeight[LR]);
+    AllocateTextureMemory(tWidth[HR], tHeight[HR], tWidth[LR], tHeight[LR]);
+    memory_allocated = true;
+
+    gProgress[LR] = 0.0;
+    gProgress[HR] = 0.0;
+    gCancelComputation[LR] = false;
+    gCancelComputation[HR] = false;
+
+    // Align the LR frames again to rebuild the LR mosaic, and have the HR
+    // frames aligned in the background as if they had just been captured.
+    // The live mosaic only needs the transforms kept with the frames.
+    Init(LR, -1);
+    for (int k = 0; k < frames; k++)
+    {
+        AddFrame(LR, k, NULL);
+        tImage[LR].getTransform(k, gTRS);
+        liveMosaic.addFrame(tImage[LR].peek(k), gTRS);
+    }
+
+    frame_number_LR = frames;
+    frame_number_HR = frames;
+    StartAligning();
+    QueueHRFrame();
+
+    LOGV("Resumed a sweep of %d frames", frames);
+    return (jint) frames;
+}
+
 JNIEXPORT void JNICALL Java_com_android_camera_Mosaic_setBlendingType(
         JNIEnv* env, jobject thiz, jint type)
 {
@@ -482,11 +650,34 @@ JNIEXPORT void JNICALL Java_com_android_camera_Mosaic_setStripType(
     stripType = int(type);
 }
 
+JNIEXPORT void JNICALL Java_com_android_camera_Mosaic_setBlendThreads(
+        JNIEnv* env, jobject thiz, jint count)
+{
+    blendThreads = int(count);
+}
+
+JNIEXPORT void JNICALL Java_com_android_camera_Mosaic_setAlignThreads(
+        JNIEnv* env, jobject thiz, jint count)
+{
+    alignThreads = int(count);
+}
+
+JNIEXPORT void JNICALL Java_com_android_camera_Mosaic_setMinStripWidth(
+        JNIEnv* env, jobject thiz, jfloat fraction)
+{
+    minStripWidth = float(fraction);
+}
+
 JNIEXPORT void JNICALL Java_com_android_camera_Mosaic_reset(
         JNIEnv* env, jobject thiz)
 {
+    StopAligning(false);
+
     frame_number_HR = 0;
     frame_number_LR = 0;
+    tImage[LR].setCount(0);
+    tImage[HR].setCount(0);
+    liveMosaic.reset();
 
     gProgress[LR] = 0.0;
     gProgress[HR] = 0.0;
@@ -494,7 +685,10 @@ JNIEXPORT void JNICALL Java_com_android_camera_Mosaic_reset(
     gCancelComputation[LR] = false;
     gCancelComputation[HR] = false;
 
-    Init(LR,MAX_FRAMES);
+    Init(LR, -1);
+
+    if (memory_allocated)
+        StartAligning();
 }
 
 JNIEXPORT jint JNICALL Java_com_android_camera_Mosaic_reportProgress(
@@ -512,12 +706,28 @@ JNIEXPORT jint JNICALL Java_com_android_camera_Mosaic_reportProgress(
 }
 
 JNIEXPORT jint JNICALL Java_com_android_camera_Mosaic_createMosaic(
-        JNIEnv* env, jobject thiz, jboolean value)
+        JNIEnv* env, jobject thiz, jboolean value, jobject listener)
 {
     high_res = bool(value);
 
     int ret;
 
+    ProgressReporter reporter;
+    reporter.env = env;
+    reporter.listener = 0;
+    reporter.onProgress = 0;
+    reporter.last = -1;
+    if (listener != 0)
+    {
+        jclass type = env->GetObjectClass(listener);
+        reporter.onProgress = env->GetMethodID(type, "onProgress", "(I)V");
+        env->DeleteLocalRef(type);
+        if (reporter.onProgress != 0)
+            reporter.listener = listener;
+        else
+            env->ExceptionClear();
+    }
+
     if(high_res)
     {
         LOGV("createMosaic() - High-Res Mode");
@@ -526,14 +736,28 @@ JNIEXPORT jint JNICALL Java_com_android_camera_Mosaic_createMosaic(
         gProgress[HR] = 0.0;
         t0 = now_ms();
 
-        Init(HR, frame_number_HR);
-
-        for(int k = 0; k < frame_number_HR; k++)
+        // The low-res mosaic has been created by now, or is not wanted, so
+        // the LR frames and their mosaic are not needed any more; the next
+        // reset() creates them again.
+        delete mosaic[LR];
+        mosaic[LR] = NULL;
+        tImage[LR].releaseFrom(0);
+
+        // Most frames are usually aligned by now. Align them all here if
+        // they were not aligned in the background, or if this mosaic was
+        // already created once.
+        if (!StopAligning(true, &reporter))
         {
-            if (gCancelComputation[HR])
-                break;
-            AddFrame(HR, k, NULL);
-            gProgress[HR] += TIME_PERCENT_ALIGN/frame_number_HR;
+            Init(HR, frame_number_HR);
+
+            for(int k = 0; k < frame_number_HR; k++)
+            {
+                if (gCancelComputation[HR])
+                    break;
+                AddFrame(HR, k, NULL);
+                gProgress[HR] += TIME_PERCENT_ALIGN/frame_number_HR;
+                ReportProgress(gProgress[HR], &reporter);
+            }
         }
 
         if (gCancelComputation[HR])
@@ -543,14 +767,16 @@ JNIEXPORT jint JNICALL Java_com_android_camera_Mosaic_createMosaic(
         else
         {
             gProgress[HR] = TIME_PERCENT_ALIGN;
+            ReportProgress(gProgress[HR], &reporter);
 
             t1 = now_ms();
             time_c = t1 - t0;
             LOGV("AlignAll - %d frames [HR]: %g ms", frame_number_HR, time_c);
 
-            ret = Finalize(HR);
+            ret = Finalize(HR, &reporter);
 
             gProgress[HR] = 100.0;
+            ReportProgress(gProgress[HR], &reporter);
         }
 
         high_res = false;
@@ -558,11 +784,23 @@ JNIEXPORT jint JNICALL Java_com_android_camera_Mosaic_createMosaic(
     else
     {
         LOGV("createMosaic() - Low-Res Mode");
+        if (mosaic[LR] == NULL)
+            return (jint) Mosaic::MOSAIC_RET_ERROR;
+
         gProgress[LR] = TIME_PERCENT_ALIGN;
+        ReportProgress(gProgress[LR], &reporter);
+
+        ret = Finalize(LR, &reporter);
 
-        ret = Finalize(LR);
+        // The low-res frames are only needed for this mosaic. Drop them
+        // along with the mosaic that refers to them; the next reset()
+        // creates both again.
+        delete mosaic[LR];
+        mosaic[LR] = NULL;
+        tImage[LR].releaseFrom(0);
 
         gProgress[LR] = 100.0;
+        ReportProgress(gProgress[LR], &reporter);
     }
 
     return (jint) ret;
@@ -655,15 +893,105 @@ JNIEXPORT jbyteArray JNICALL Java_com_android_camera_Mosaic_getFinalMosaicNV21(
     if (bytes == 0) {
         LOGE("Error in creating the image.");
         ImageUtils::freeImage(resultYVU);
+        resultYVU = ImageUtils::IMAGE_TYPE_NOIMAGE;
         return 0;
     }
     env->SetByteArrayRegion(bytes, 0, imageSize, (jbyte*) resultYVU);
     env->SetByteArrayRegion(bytes, imageSize, 8, (jbyte*) dims);
     delete[] dims;
     ImageUtils::freeImage(resultYVU);
+    resultYVU = ImageUtils::IMAGE_TYPE_NOIMAGE;
     return bytes;
 }
 
+JNIEXPORT jintArray JNICALL Java_com_android_camera_Mosaic_getFinalMosaicSize(
+        JNIEnv* env, jobject thiz)
+{
+    if (resultYVU == ImageUtils::IMAGE_TYPE_NOIMAGE) return 0;
+
+    jint dims[2] = { mosaicWidth, mosaicHeight };
+    jintArray size = env->NewIntArray(2);
+    if (size == 0) return 0;
+    env->SetIntArrayRegion(size, 0, 2, dims);
+    return size;
+}
+
+// Copies rows [top, top + rows) of the mosaic into strip in the NV21 format:
+// the Y rows followed by the interleaved VU rows. Unlike getFinalMosaicNV21()
+// the mosaic is left untouched, so the strips can be read in any order and the
+// whole image can still be fetched afterwards.
+JNIEXPORT jint JNICALL Java_com_android_camera_Mosaic_getFinalMosaicNV21Strip(
+        JNIEnv* env, jobject thiz, jbyteArray strip, jint top, jint rows)
+{
+    if (resultYVU == ImageUtils::IMAGE_TYPE_NOIMAGE) return 0;
+    if (top < 0 || (top & 1) || top >= mosaicHeight) return 0;
+    if (rows > mosaicHeight - top) rows = mosaicHeight - top;
+    if (rows <= 0) return 0;
+
+    int width = mosaicWidth;
+    int chromaRows = (rows + 1) / 2;
+    if (env->GetArrayLength(strip) < width * (rows + chromaRows)) {
+        LOGE("Strip buffer is too small.");
+        return 0;
+    }
+
+    unsigned char *dst = (unsigned char *) env->GetPrimitiveArrayCritical(strip, 0);
+    if (dst == 0) return 0;
+
+    memcpy(dst, resultYVU + top * width, width * rows);
+
+    ImageType V = resultYVU + mosaicWidth * mosaicHeight;
+    ImageType U = V + mosaicWidth * mosaicHeight;
+    unsigned char *vu = dst + width * rows;
+    for (int j = 0; j < chromaRows; j++)
+    {
+        int src = (top + 2 * j) * width;
+        for (int i = 0; i + 1 < width; i += 2)
+        {
+            vu[i] = V[src + i];
+            vu[i + 1] = U[src + i];
+        }
+        vu += width;
+    }
+
+    env->ReleasePrimitiveArrayCritical(strip, dst, 0);
+    return rows;
+}
+
+// Copies the live mosaic into buffer, a direct buffer, as RGBA rows if it
+// has room for them. Returns {width, height}, or null if no frame has been
+// added yet.
+JNIEXPORT jintArray JNICALL Java_com_android_camera_Mosaic_copyLiveMosaic(
+        JNIEnv* env, jobject thiz, jobject buffer)
+{
+    unsigned char *out = NULL;
+    size_t capacity = 0;
+    if (buffer != 0)
+    {
+        out = (unsigned char *) env->GetDirectBufferAddress(buffer);
+        jlong bytes = env->GetDirectBufferCapacity(buffer);
+        if (out != NULL && bytes > 0)
+            capacity = (size_t) bytes;
+    }
+
+    int width, height;
+    if (!liveMosaic.copyTo(out, capacity, width, height)) return 0;
+
+    jint dims[2] = { width, height };
+    jintArray size = env->NewIntArray(2);
+    if (size == 0) return 0;
+    env->SetIntArrayRegion(size, 0, 2, dims);
+    return size;
+}
+
+JNIEXPORT void JNICALL Java_com_android_camera_Mosaic_releaseFinalMosaic(
+        JNIEnv* env, jobject thiz)
+{
+    if (resultYVU == ImageUtils::IMAGE_TYPE_NOIMAGE) return;
+    ImageUtils::freeImage(resultYVU);
+    resultYVU = ImageUtils::IMAGE_TYPE_NOIMAGE;
+}
+
 #ifdef __cplusplus
 }
 #endif
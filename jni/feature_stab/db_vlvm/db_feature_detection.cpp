@@ -26,6 +26,7 @@
 #include <iostream>
 #endif
 #include <float.h>
+#include <string.h>
 
 #define DB_SUB_PIXEL
 
@@ -1489,14 +1490,29 @@ inline void db_SubPixel(float **strength, const double xd, const double yd, doub
     return;
 }
 
-/*Extract corners from the image part from (left,top) to (right,bottom).
-Store in x and y, extracting at most satnr corners in each block of size (bw,bh).
-The pointer temp_d should point to at least 5*bw*bh positions.
-area_factor holds how many corners max to extract per 10000 pixels*/
-void db_ExtractCornersSaturated(float **strength,int left,int top,int right,int bottom,
-                                int bw,int bh,unsigned long area_factor,
-                                float threshold,double *temp_d,
-                                double *x_coord,double *y_coord,int *nr_corners)
+/*Shrink the region corners are extracted from so that sub-pixel
+refinement stays within it*/
+inline void db_CornerExtractionRegion(int *left,int *top,int *right,int *bottom)
+{
+#ifdef DB_SUB_PIXEL
+    // subpixel processing may sometimes push the corner ourside the real border
+    // increasing border size:
+    (*left)++;
+    (*top)++;
+    (*bottom)--;
+    (*right)--;
+#endif /*DB_SUB_PIXEL*/
+}
+
+/*Extract corners from the rows of blocks starting at first_y up to but not including
+stop_y of the region (left,top) to (right,bottom), which has already been shrunk by
+db_CornerExtractionRegion(). first_y should be top plus a multiple of bh. See
+db_ExtractCornersSaturated()*/
+void db_ExtractCornersSaturatedRows(float **strength,int left,int right,int bottom,
+                                    int first_y,int stop_y,
+                                    int bw,int bh,unsigned long area_factor,
+                                    float threshold,double *temp_d,
+                                    double *x_coord,double *y_coord,int *nr_corners)
 {
     double *x_temp,*y_temp,*s_temp,*select_temp;
     double loc_thresh;
@@ -1511,17 +1527,8 @@ void db_ExtractCornersSaturated(float **strength,int left,int top,int right,int
     s_temp=y_temp+bwbh;
     select_temp=s_temp+bwbh;
 
-#ifdef DB_SUB_PIXEL
-    // subpixel processing may sometimes push the corner ourside the real border
-    // increasing border size:
-    left++;
-    top++;
-    bottom--;
-    right--;
-#endif /*DB_SUB_PIXEL*/
-
     nr_points=0;
-    for(y=top;y<=bottom;y=next_y)
+    for(y=first_y;y<=bottom && y<stop_y;y=next_y)
     {
         next_y=y+bh;
         last_y=next_y-1;
@@ -1561,6 +1568,20 @@ void db_ExtractCornersSaturated(float **strength,int left,int top,int right,int
     *nr_corners=nr_points;
 }
 
+/*Extract corners from the image part from (left,top) to (right,bottom).
+Store in x and y, extracting at most satnr corners in each block of size (bw,bh).
+The pointer temp_d should point to at least 5*bw*bh positions.
+area_factor holds how many corners max to extract per 10000 pixels*/
+void db_ExtractCornersSaturated(float **strength,int left,int top,int right,int bottom,
+                                int bw,int bh,unsigned long area_factor,
+                                float threshold,double *temp_d,
+                                double *x_coord,double *y_coord,int *nr_corners)
+{
+    db_CornerExtractionRegion(&left,&top,&right,&bottom);
+    db_ExtractCornersSaturatedRows(strength,left,right,bottom,top,bottom+1,bw,bh,area_factor,
+        threshold,temp_d,x_coord,y_coord,nr_corners);
+}
+
 db_CornerDetector_f::db_CornerDetector_f()
 {
     m_w=0; m_h=0;
@@ -1646,6 +1667,8 @@ void db_CornerDetector_f::DetectCorners(const float * const *img,double *x_coord
 db_CornerDetector_u::db_CornerDetector_u()
 {
     m_w=0; m_h=0;
+    m_workers=NULL;
+    m_nr_workers=1;
 }
 
 db_CornerDetector_u::~db_CornerDetector_u()
@@ -1655,6 +1678,9 @@ db_CornerDetector_u::~db_CornerDetector_u()
 
 db_CornerDetector_u::db_CornerDetector_u(const db_CornerDetector_u& cd)
 {
+    m_w=0; m_h=0;
+    m_workers=NULL;
+    m_nr_workers=1;
     Start(cd.m_w, cd.m_h, cd.m_bw, cd.m_bh, cd.m_area_factor,
         cd.m_a_thresh, cd.m_r_thresh);
 }
@@ -1678,10 +1704,42 @@ void db_CornerDetector_u::Clean()
         delete [] m_temp_i;
         delete [] m_temp_d;
         db_FreeStrengthImage_f(m_strength_mem,m_strength,m_h);
+        FreeWorkerMemory();
     }
     m_w=0; m_h=0;
 }
 
+void db_CornerDetector_u::SetWorkers(db_WorkerGroup *workers)
+{
+    if(m_w!=0) FreeWorkerMemory();
+    m_workers=workers;
+    if(m_w!=0) AllocWorkerMemory();
+}
+
+void db_CornerDetector_u::AllocWorkerMemory()
+{
+    m_nr_workers=m_workers?m_workers->GetCount():1;
+    for(int k=1;k<m_nr_workers;k++)
+    {
+        m_worker_temp_i[k]=new int[18*128];
+        m_worker_temp_d[k]=new double[5*m_bw*m_bh];
+        m_worker_x[k]=new double[m_max_nr];
+        m_worker_y[k]=new double[m_max_nr];
+    }
+}
+
+void db_CornerDetector_u::FreeWorkerMemory()
+{
+    for(int k=1;k<m_nr_workers;k++)
+    {
+        delete [] m_worker_temp_i[k];
+        delete [] m_worker_temp_d[k];
+        delete [] m_worker_x[k];
+        delete [] m_worker_y[k];
+    }
+    m_nr_workers=1;
+}
+
 unsigned long db_CornerDetector_u::Init(int im_width,int im_height,int target_nr_corners,
                             int nr_horizontal_blocks,int nr_vertical_blocks,
                             double absolute_threshold,double relative_threshold)
@@ -1720,28 +1778,95 @@ unsigned long db_CornerDetector_u::Start(int im_width,int im_height,
     m_temp_i=new int[18*128];
     m_temp_d=new double[5*m_bw*m_bh];
     m_strength=db_AllocStrengthImage_f(&m_strength_mem,m_w,m_h);
+    AllocWorkerMemory();
 
     return(m_max_nr);
 }
 
+/*The state shared by the workers of db_CornerDetector_u::DetectCorners()*/
+struct db_CornerJob_u
+{
+    const unsigned char * const *img;
+    float **strength;
+    int w,h;
+    bool find_max;
+    /*One entry per worker*/
+    int *temp_i[DB_MAX_WORKERS];
+    double *temp_d[DB_MAX_WORKERS];
+    float max_val[DB_MAX_WORKERS];
+    double *x_coord[DB_MAX_WORKERS],*y_coord[DB_MAX_WORKERS];
+    int nr_corners[DB_MAX_WORKERS];
+    /*Corner extraction*/
+    int left,top,right,bottom,bw,bh;
+    unsigned long area_factor;
+    float threshold;
+};
+
+/*Split n items into count parts and return the first item of part index*/
+inline int db_SplitStart(int n,int index,int count)
+{
+    return((int)(((long)n*index)/count));
+}
+
+/*Compute the Harris strength of a band of rows, and its maximum if needed*/
+void db_HarrisStrengthTask_u(void *arg,int index,int count)
+{
+    db_CornerJob_u *job=(db_CornerJob_u*) arg;
+    int x,nc,last;
+    int rows=job->h-6;
+    int top=3+db_SplitStart(rows,index,count);
+    int bottom=2+db_SplitStart(rows,index+1,count);
+
+    job->max_val[index]=-FLT_MAX;
+    if(top>bottom) return;
+
+    last=job->w-4;
+    for(x=3;x<=last;x+=124)
+    {
+        nc=db_mini(128,last-x+1);
+        db_HarrisStrengthChunk_u(job->strength,job->img,x,top,bottom,job->temp_i[index],nc);
+    }
+    if(job->find_max)
+        job->max_val[index]=db_MaxImage_Aligned16_f(job->strength,3,top,job->w-6,bottom-top+1);
+}
+
+/*Extract the corners of a range of rows of blocks. Needs the strength
+of the rows around them, so runs after db_HarrisStrengthTask_u()*/
+void db_ExtractCornersTask_u(void *arg,int index,int count)
+{
+    db_CornerJob_u *job=(db_CornerJob_u*) arg;
+    int nr_block_rows=(job->bottom-job->top)/job->bh+1;
+    int first_y=job->top+job->bh*db_SplitStart(nr_block_rows,index,count);
+    int stop_y=job->top+job->bh*db_SplitStart(nr_block_rows,index+1,count);
+
+    db_ExtractCornersSaturatedRows(job->strength,job->left,job->right,job->bottom,first_y,stop_y,
+        job->bw,job->bh,job->area_factor,job->threshold,job->temp_d[index],
+        job->x_coord[index],job->y_coord[index],&job->nr_corners[index]);
+}
+
 void db_CornerDetector_u::DetectCorners(const unsigned char * const *img,double *x_coord,double *y_coord,int *nr_corners,
                                         const unsigned char * const *msk, unsigned char fgnd) const
 {
     float max_val,threshold;
 
-    db_HarrisStrength_u(m_strength,img,m_w,m_h,m_temp_i);
-
-
-    if(m_r_thresh)
+    if(m_workers && m_workers->GetCount()>1 && m_workers->GetCount()==m_nr_workers)
     {
-        max_val=db_MaxImage_Aligned16_f(m_strength,3,3,m_w-6,m_h-6);
-        threshold= (float) db_maxd(m_a_thresh,max_val*m_r_thresh);
+        DetectCornersParallel(img,x_coord,y_coord,nr_corners);
     }
-    else threshold= (float) m_a_thresh;
+    else
+    {
+        db_HarrisStrength_u(m_strength,img,m_w,m_h,m_temp_i);
 
-    db_ExtractCornersSaturated(m_strength,BORDER,BORDER,m_w-BORDER-1,m_h-BORDER-1,m_bw,m_bh,m_area_factor,threshold,
-        m_temp_d,x_coord,y_coord,nr_corners);
+        if(m_r_thresh)
+        {
+            max_val=db_MaxImage_Aligned16_f(m_strength,3,3,m_w-6,m_h-6);
+            threshold= (float) db_maxd(m_a_thresh,max_val*m_r_thresh);
+        }
+        else threshold= (float) m_a_thresh;
 
+        db_ExtractCornersSaturated(m_strength,BORDER,BORDER,m_w-BORDER-1,m_h-BORDER-1,m_bw,m_bh,m_area_factor,threshold,
+            m_temp_d,x_coord,y_coord,nr_corners);
+    }
 
     if ( msk )
     {
@@ -1762,6 +1887,62 @@ void db_CornerDetector_u::DetectCorners(const unsigned char * const *img,double
     }
 }
 
+void db_CornerDetector_u::DetectCornersParallel(const unsigned char * const *img,double *x_coord,double *y_coord,int *nr_corners) const
+{
+    db_CornerJob_u job;
+    float max_val;
+    int k,nr;
+
+    job.img=img;
+    job.strength=m_strength;
+    job.w=m_w;
+    job.h=m_h;
+    job.find_max=(m_r_thresh!=0);
+    job.temp_i[0]=m_temp_i;
+    job.temp_d[0]=m_temp_d;
+    job.x_coord[0]=x_coord;
+    job.y_coord[0]=y_coord;
+    for(k=1;k<m_nr_workers;k++)
+    {
+        job.temp_i[k]=m_worker_temp_i[k];
+        job.temp_d[k]=m_worker_temp_d[k];
+        job.x_coord[k]=m_worker_x[k];
+        job.y_coord[k]=m_worker_y[k];
+    }
+
+    m_workers->Run(db_HarrisStrengthTask_u,&job);
+
+    if(m_r_thresh)
+    {
+        max_val=job.max_val[0];
+        for(k=1;k<m_nr_workers;k++) if(job.max_val[k]>max_val) max_val=job.max_val[k];
+        job.threshold= (float) db_maxd(m_a_thresh,max_val*m_r_thresh);
+    }
+    else job.threshold= (float) m_a_thresh;
+
+    job.left=BORDER;
+    job.top=BORDER;
+    job.right=m_w-BORDER-1;
+    job.bottom=m_h-BORDER-1;
+    db_CornerExtractionRegion(&job.left,&job.top,&job.right,&job.bottom);
+    job.bw=m_bw;
+    job.bh=m_bh;
+    job.area_factor=m_area_factor;
+
+    m_workers->Run(db_ExtractCornersTask_u,&job);
+
+    /*Append the corners of the other workers in order, which gives
+    the same list as a single pass over all the blocks*/
+    nr=job.nr_corners[0];
+    for(k=1;k<m_nr_workers;k++)
+    {
+        memcpy(x_coord+nr,job.x_coord[k],job.nr_corners[k]*sizeof(double));
+        memcpy(y_coord+nr,job.y_coord[k],job.nr_corners[k]*sizeof(double));
+        nr+=job.nr_corners[k];
+    }
+    *nr_corners=nr;
+}
+
 void db_CornerDetector_u::ExtractCorners(float ** strength, double *x_coord, double *y_coord, int *nr_corners) {
     if ( m_w!=0 )
         db_ExtractCornersSaturated(strength,BORDER,BORDER,m_w-BORDER-1,m_h-BORDER-1,m_bw,m_bh,m_area_factor,float(m_a_thresh),
@@ -27,6 +27,7 @@
  */
 #include "db_utilities.h"
 #include "db_utilities_constants.h"
+#include "db_worker_group.h"
 #include <stdlib.h> //for NULL
 
 /*!
@@ -158,6 +159,16 @@ public:
      \param nr_corners  actual number of corners computed
      */
     virtual void ExtractCorners(float ** strength, double *x_coord, double *y_coord, int *nr_corners);
+
+    /*!
+     Spread DetectCorners() over a group of threads: the Harris strength is
+     computed in bands of rows and the corners are extracted in rows of blocks.
+     The corners are the same, and in the same order, as with a single thread.
+     NULL (the default) runs on the calling thread. The group should have
+     been started; its number of workers is read here.
+     \param workers the threads to use, or NULL
+     */
+    virtual void SetWorkers(db_WorkerGroup *workers);
 protected:
     virtual void Clean();
     /*The absolute threshold to this function should be 16.0 times
@@ -165,6 +176,9 @@ protected:
     unsigned long Start(int im_width,int im_height,
             int block_width,int block_height,unsigned long area_factor,
             double absolute_threshold,double relative_threshold);
+    void DetectCornersParallel(const unsigned char * const *img,double *x_coord,double *y_coord,int *nr_corners) const;
+    void AllocWorkerMemory();
+    void FreeWorkerMemory();
 
     int m_w,m_h,m_bw,m_bh;
     /*Area factor holds the maximum number of corners to detect
@@ -174,6 +188,14 @@ protected:
     int *m_temp_i;
     double *m_temp_d;
     float **m_strength,*m_strength_mem;
+
+    /*Workers other than the first have their own temporary memory
+    and corner lists*/
+    db_WorkerGroup *m_workers;
+    int m_nr_workers;
+    int *m_worker_temp_i[DB_MAX_WORKERS];
+    double *m_worker_temp_d[DB_MAX_WORKERS];
+    double *m_worker_x[DB_MAX_WORKERS],*m_worker_y[DB_MAX_WORKERS];
 };
 
 #endif /*DB_FEATURE_DETECTION_H*/
@@ -38,7 +38,7 @@
 Compute function value fp and Jacobian J of robustifier given input value f*/
 inline void db_CauchyDerivative(double J[4],double fp[2],const double f[2],double one_over_scale2)
 {
-    double x2,y2,r,r2,r2s,one_over_r2,fu,r_fu,one_over_r_fu;
+    double x2,y2,r2,r2s,one_over_r2,fu,r_fu,one_over_r_fu;
     double one_plus_r2s,half_dfu_dx,half_dfu_dy,coeff,coeff2,coeff3;
     int at_zero;
 
@@ -73,7 +73,6 @@ inline void db_CauchyDerivative(double J[4],double fp[2],const double f[2],doubl
     x2=db_sqr(f[0]);
     y2=db_sqr(f[1]);
     r2=x2+y2;
-    r=sqrt(r2);
 
     if(r2<=0.0) at_zero=1;
     else
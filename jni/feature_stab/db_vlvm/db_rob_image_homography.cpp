@@ -620,6 +620,67 @@ void db_RobCamRotation_Polish_Generic(double H[9],int point_count,int homography
         }
     }
 }
+
+/*The hypotheses to score against a chunk of the points in db_RobImageHomography()*/
+struct db_RobImageHomography_CostJob
+{
+    double *hyp_cost_array;
+    double *hyp_H_array;
+    int *hyp_perm;
+    int nr_hyp;
+    double *x_i,*xp_i;
+    int first_corr,last_corr;
+    double one_over_scale2;
+};
+
+/*Add the cost of the points first_corr to last_corr to a slice of the
+hypotheses. The cost of each hypothesis is independent of the others,
+so the slices can be scored by different threads with the same result*/
+void db_RobImageHomography_CostTask(void *arg,int index,int count)
+{
+    db_RobImageHomography_CostJob *job=(db_RobImageHomography_CostJob*) arg;
+    int first_hyp=(int)(((long)job->nr_hyp*index)/count);
+    int stop_hyp=(int)(((long)job->nr_hyp*(index+1))/count);
+    int j,c;
+    double acc;
+    double *hyp_point,*x_i_temp,*xp_i_temp;
+
+    for(j=first_hyp;j<stop_hyp;j++)
+    {
+        hyp_point=job->hyp_H_array+9*job->hyp_perm[j];
+        for(c=job->first_corr;c<=job->last_corr;)
+        {
+            /*Take log of product of ten reprojection
+            errors to reduce nr of expensive log operations*/
+            if(c+9<=job->last_corr)
+            {
+                x_i_temp=job->x_i+(c<<1);
+                xp_i_temp=job->xp_i+(c<<1);
+
+                acc=db_ExpCauchyInhomogenousHomographyError(xp_i_temp,hyp_point,x_i_temp,job->one_over_scale2);
+                acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+2,hyp_point,x_i_temp+2,job->one_over_scale2);
+                acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+4,hyp_point,x_i_temp+4,job->one_over_scale2);
+                acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+6,hyp_point,x_i_temp+6,job->one_over_scale2);
+                acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+8,hyp_point,x_i_temp+8,job->one_over_scale2);
+                acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+10,hyp_point,x_i_temp+10,job->one_over_scale2);
+                acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+12,hyp_point,x_i_temp+12,job->one_over_scale2);
+                acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+14,hyp_point,x_i_temp+14,job->one_over_scale2);
+                acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+16,hyp_point,x_i_temp+16,job->one_over_scale2);
+                acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+18,hyp_point,x_i_temp+18,job->one_over_scale2);
+                c+=10;
+            }
+            else
+            {
+                for(acc=1.0;c<=job->last_corr;c++)
+                {
+                    acc*=db_ExpCauchyInhomogenousHomographyError(job->xp_i+(c<<1),hyp_point,job->x_i+(c<<1),job->one_over_scale2);
+                }
+            }
+            job->hyp_cost_array[j]+=log(acc);
+        }
+    }
+}
+
 void db_RobImageHomography(
                               /*Best homography*/
                               double H[9],
@@ -664,7 +725,8 @@ void db_RobImageHomography(
                               // raw image coordinates
                               double *im_raw, double *im_raw_p,
                               // final matches
-                              int *finalNumE)
+                              int *finalNumE,
+                              db_WorkerGroup *workers)
 {
     /*Random seed*/
     int r_seed;
@@ -674,10 +736,6 @@ void db_RobImageHomography(
     int i,j,c,point_count,hyp_count;
     int last_hyp,new_last_hyp,last_corr;
     int pos,point_pos,last_point;
-    /*Accumulator*/
-    double acc;
-    /*Hypothesis pointer*/
-    double *hyp_point;
     /*Random sample*/
     int s[4];
     /*Pivot for hypothesis pruning*/
@@ -689,8 +747,6 @@ void db_RobImageHomography(
     /*One over the squared scale of
     Cauchy distribution*/
     double one_over_scale2;
-    /*temporary pointers*/
-    double *x_i_temp,*xp_i_temp;
     /*Temporary space for inverse calibration matrices*/
     double K_inv[9];
     double Kp_inv[9];
@@ -722,6 +778,8 @@ void db_RobImageHomography(
     /*Temporary space for quick-select
     2*nr_samples*/
     double *temp_select;
+    /*Scoring of the hypotheses*/
+    db_RobImageHomography_CostJob cost_job;
 
     /*Get inverse calibration matrices*/
     db_InvertCalibrationMatrix(K_inv,K);
@@ -936,44 +994,21 @@ void db_RobImageHomography(
             hyp_perm[i]=i;
             hyp_cost_array[i]=0.0;
         }
+        cost_job.hyp_cost_array=hyp_cost_array;
+        cost_job.hyp_H_array=hyp_H_array;
+        cost_job.hyp_perm=hyp_perm;
+        cost_job.x_i=x_i;
+        cost_job.xp_i=xp_i;
+        cost_job.one_over_scale2=one_over_scale2;
         for(i=0,last_hyp=hyp_count-1;(last_hyp>0) && (i<point_count);i+=chunk_size)
         {
             /*Update cost with the next chunk*/
             last_corr=db_mini(i+chunk_size-1,point_count-1);
-            for(j=0;j<=last_hyp;j++)
-            {
-                hyp_point=hyp_H_array+9*hyp_perm[j];
-                for(c=i;c<=last_corr;)
-                {
-                    /*Take log of product of ten reprojection
-                    errors to reduce nr of expensive log operations*/
-                    if(c+9<=last_corr)
-                    {
-                        x_i_temp=x_i+(c<<1);
-                        xp_i_temp=xp_i+(c<<1);
-
-                        acc=db_ExpCauchyInhomogenousHomographyError(xp_i_temp,hyp_point,x_i_temp,one_over_scale2);
-                        acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+2,hyp_point,x_i_temp+2,one_over_scale2);
-                        acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+4,hyp_point,x_i_temp+4,one_over_scale2);
-                        acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+6,hyp_point,x_i_temp+6,one_over_scale2);
-                        acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+8,hyp_point,x_i_temp+8,one_over_scale2);
-                        acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+10,hyp_point,x_i_temp+10,one_over_scale2);
-                        acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+12,hyp_point,x_i_temp+12,one_over_scale2);
-                        acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+14,hyp_point,x_i_temp+14,one_over_scale2);
-                        acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+16,hyp_point,x_i_temp+16,one_over_scale2);
-                        acc*=db_ExpCauchyInhomogenousHomographyError(xp_i_temp+18,hyp_point,x_i_temp+18,one_over_scale2);
-                        c+=10;
-                    }
-                    else
-                    {
-                        for(acc=1.0;c<=last_corr;c++)
-                        {
-                            acc*=db_ExpCauchyInhomogenousHomographyError(xp_i+(c<<1),hyp_point,x_i+(c<<1),one_over_scale2);
-                        }
-                    }
-                    hyp_cost_array[j]+=log(acc);
-                }
-            }
+            cost_job.first_corr=i;
+            cost_job.last_corr=last_corr;
+            cost_job.nr_hyp=last_hyp+1;
+            if(workers) workers->Run(db_RobImageHomography_CostTask,&cost_job);
+            else db_RobImageHomography_CostTask(&cost_job,0,1);
             if (chunk_size<point_count){
                 /*Prune out half of the hypotheses*/
                 new_last_hyp=(last_hyp+1)/2-1;
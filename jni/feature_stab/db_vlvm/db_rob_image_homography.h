@@ -22,6 +22,7 @@
 #include "db_utilities.h"
 #include "db_robust.h"
 #include "db_metrics.h"
+#include "db_worker_group.h"
 
 #include <stdlib.h> // for NULL
 
@@ -83,6 +84,9 @@ Calibration matrices:
  \param scale           Cauchy scale coefficient (see db_ExpCauchyReprojectionError() )
  \param nr_samples      number of times to compute a hypothesis
  \param chunk_size      size of cost chunks
+
+ \param workers         NULL - score the hypotheses on the calling thread.
+                        The result is the same with any number of workers.
 */
 DB_API void db_RobImageHomography(
                               /*Best homography*/
@@ -127,7 +131,9 @@ DB_API void db_RobImageHomography(
                               // raw image coordinates
                               double *im_raw=NULL, double *im_raw_p=NULL,
                               // final matches
-                              int *final_NumE=0);
+                              int *final_NumE=0,
+                              // threads to score the hypotheses with, see db_WorkerGroup
+                              db_WorkerGroup *workers=NULL);
 
 DB_API double db_RobImageHomography_Cost(double H[9],int point_count,double *x_i,
                                                 double *xp_i,double one_over_scale2);
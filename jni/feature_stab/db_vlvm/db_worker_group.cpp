@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+#include "db_worker_group.h"
+
+db_WorkerGroup::db_WorkerGroup()
+{
+    m_count=1;
+    m_generation=0;
+    m_pending=0;
+    m_stop=false;
+    m_task=NULL;
+    m_arg=NULL;
+    pthread_mutex_init(&m_lock,NULL);
+    pthread_cond_init(&m_start,NULL);
+    pthread_cond_init(&m_done,NULL);
+}
+
+db_WorkerGroup::~db_WorkerGroup()
+{
+    Stop();
+    pthread_cond_destroy(&m_done);
+    pthread_cond_destroy(&m_start);
+    pthread_mutex_destroy(&m_lock);
+}
+
+int db_WorkerGroup::Start(int count)
+{
+    Stop();
+
+    count=db_maxi(1,db_mini(count,DB_MAX_WORKERS));
+    m_stop=false;
+    for(m_count=1;m_count<count;m_count++)
+    {
+        Worker *w=&m_workers[m_count];
+        w->group=this;
+        w->index=m_count;
+        w->generation=m_generation;
+        if(pthread_create(&m_threads[m_count],NULL,Loop,w)!=0) break;
+    }
+    return(m_count);
+}
+
+void db_WorkerGroup::Stop()
+{
+    if(m_count<=1) return;
+
+    pthread_mutex_lock(&m_lock);
+    m_stop=true;
+    pthread_cond_broadcast(&m_start);
+    pthread_mutex_unlock(&m_lock);
+
+    for(int i=1;i<m_count;i++) pthread_join(m_threads[i],NULL);
+    m_count=1;
+}
+
+void db_WorkerGroup::Run(Task task,void *arg)
+{
+    if(m_count<=1)
+    {
+        task(arg,0,1);
+        return;
+    }
+
+    pthread_mutex_lock(&m_lock);
+    m_task=task;
+    m_arg=arg;
+    m_pending=m_count-1;
+    m_generation++;
+    pthread_cond_broadcast(&m_start);
+    pthread_mutex_unlock(&m_lock);
+
+    task(arg,0,m_count);
+
+    pthread_mutex_lock(&m_lock);
+    while(m_pending>0) pthread_cond_wait(&m_done,&m_lock);
+    pthread_mutex_unlock(&m_lock);
+}
+
+void *db_WorkerGroup::Loop(void *arg)
+{
+    Worker *w=(Worker*) arg;
+    db_WorkerGroup *g=w->group;
+    /*A task may be run before this thread first gets the lock,
+    so compare with the generation at Start() rather than the current one*/
+    unsigned int seen=w->generation;
+
+    pthread_mutex_lock(&g->m_lock);
+    while(true)
+    {
+        while(g->m_generation==seen && !g->m_stop) pthread_cond_wait(&g->m_start,&g->m_lock);
+        if(g->m_stop) break;
+        seen=g->m_generation;
+        Task task=g->m_task;
+        void *task_arg=g->m_arg;
+        int count=g->m_count;
+        pthread_mutex_unlock(&g->m_lock);
+
+        task(task_arg,w->index,count);
+
+        pthread_mutex_lock(&g->m_lock);
+        if(--g->m_pending==0) pthread_cond_signal(&g->m_done);
+    }
+    pthread_mutex_unlock(&g->m_lock);
+    return(NULL);
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+#ifndef DB_WORKER_GROUP_H
+#define DB_WORKER_GROUP_H
+
+#include "db_utilities.h"
+#include <pthread.h>
+
+/*!
+ * \defgroup WorkerGroup Worker Group
+ */
+
+#define DB_MAX_WORKERS 8
+
+/*!
+ * \class db_WorkerGroup
+ * \ingroup WorkerGroup
+ * \brief A fixed set of threads that run one task at a time.
+ *
+ * The threads are started once and wait between tasks, so a task can be
+ * run several times per frame without creating threads. The thread that
+ * calls Run() is worker 0 and takes part in the task.
+ */
+class DB_API db_WorkerGroup
+{
+public:
+    /*!
+     \param arg     the argument given to Run()
+     \param index   the index of the worker, in [0, count)
+     \param count   the number of workers
+    */
+    typedef void (*Task)(void *arg, int index, int count);
+
+    db_WorkerGroup();
+    virtual ~db_WorkerGroup();
+
+    /*!
+     Stops the current threads, if any, and starts count-1 new ones.
+     \return the number of workers, including the caller of Run(). It is
+     less than count if threads could not be created.
+    */
+    int Start(int count);
+
+    /*!
+     Stops and joins the threads. Run() then runs tasks on the caller only.
+    */
+    void Stop();
+
+    int GetCount() const { return m_count; }
+
+    /*!
+     Runs task(arg, k, GetCount()) for every worker k and returns when all of
+     them are done. Must not be called concurrently.
+    */
+    void Run(Task task, void *arg);
+
+protected:
+    static void *Loop(void *arg);
+
+    struct Worker
+    {
+        db_WorkerGroup *group;
+        int index;
+        /*The value of m_generation when the thread was started*/
+        unsigned int generation;
+    };
+
+    int m_count;
+    pthread_t m_threads[DB_MAX_WORKERS];
+    Worker m_workers[DB_MAX_WORKERS];
+
+    /*Guarded by m_lock*/
+    pthread_mutex_t m_lock;
+    pthread_cond_t m_start;
+    pthread_cond_t m_done;
+    unsigned int m_generation;
+    int m_pending;
+    bool m_stop;
+    Task m_task;
+    void *m_arg;
+
+private:
+    db_WorkerGroup(const db_WorkerGroup&);
+    db_WorkerGroup& operator=(const db_WorkerGroup&);
+};
+
+#endif /*DB_WORKER_GROUP_H*/
@@ -76,6 +76,13 @@ db_FrameToReferenceRegistration::~db_FrameToReferenceRegistration()
   Clean();
 }
 
+int db_FrameToReferenceRegistration::SetThreadCount(int nr_threads)
+{
+  int count = m_workers.Start(nr_threads);
+  m_cd.SetWorkers((count > 1) ? &m_workers : NULL);
+  return count;
+}
+
 void db_FrameToReferenceRegistration::Clean()
 {
   if ( m_reference_image )
@@ -436,7 +443,8 @@ int db_FrameToReferenceRegistration::AddFrame(const unsigned char * const * im,
   // perform the alignment:
   db_RobImageHomography(m_H_ref_to_ins, m_corners_ref, m_corners_ins, m_nr_matches, m_K, m_K, m_temp_double, m_temp_int,
             m_homography_type,NULL,m_max_iterations,m_max_nr_matches,m_scale,
-            m_nr_samples, m_chunk_size);
+            m_nr_samples, m_chunk_size, 0, NULL, NULL, NULL, NULL, NULL,
+            (m_workers.GetCount() > 1) ? &m_workers : NULL);
   // @jke - Adding code to time the functions.  TODO: Remove after test
 # if PROFILE
   iTimer2 = now_ms();
@@ -592,7 +600,8 @@ void db_FrameToReferenceRegistration::EstimateSecondaryModel(double H[9])
   // perform the alignment:
   db_RobImageHomography(m_H_ref_to_ins, m_corners_ref, m_corners_ins, m_nr_matches, m_K, m_K, m_temp_double, m_temp_int,
             m_homography_type,NULL,m_max_iterations,m_max_nr_matches,m_scale,
-            m_nr_samples, m_chunk_size);
+            m_nr_samples, m_chunk_size, 0, NULL, NULL, NULL, NULL, NULL,
+            (m_workers.GetCount() > 1) ? &m_workers : NULL);
 
   db_Copy9(H,m_H_ref_to_ins);
 }
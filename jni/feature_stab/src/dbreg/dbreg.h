@@ -288,6 +288,19 @@ public:
     */
     void SelectOutliers();
 
+    /*!
+     * Run corner detection and the scoring of the RANSAC hypotheses on nr_threads threads,
+     * including the calling one. The alignment does not depend on the number of threads.
+     * \param nr_threads   the number of threads, 1 (the default) to run on the calling thread only.
+     * \return the number of threads actually used.
+    */
+    int SetThreadCount(int nr_threads);
+
+    /*!
+     * Returns the number of threads used for alignment.
+    */
+    int GetThreadCount() const { return m_workers.GetCount(); }
+
     char *profile_string;
 
 protected:
@@ -321,6 +334,7 @@ protected:
     // feature extraction and matching:
     db_CornerDetector_u m_cd;
     db_Matcher_u        m_cm;
+    db_WorkerGroup      m_workers;
 
     // length of corner arrays:
     unsigned long m_max_nr_corners;
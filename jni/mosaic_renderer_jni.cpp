@@ -18,11 +18,13 @@
 #include <GLES2/gl2ext.h>
 #include <jni.h>
 #include <math.h>
+#include <pthread.h>
 #include <stdio.h>
 #include <stdlib.h>
 #include "db_utilities_camera.h"
 #include "mosaic/ImageUtils.h"
 #include "mosaic_renderer/FrameBuffer.h"
+#include "mosaic_renderer/FrameReader.h"
 #include "mosaic_renderer/WarpRenderer.h"
 #include "mosaic_renderer/SurfaceTextureRenderer.h"
 #include "mosaic_renderer/YVURenderer.h"
@@ -76,6 +78,10 @@ FrameBuffer gBufferInput[NR];
 YVURenderer gYVURenderer[NR];
 // Off-screen FBOs to store the low-res and high-res YVU textures for processing
 FrameBuffer gBufferInputYVU[NR];
+// Read gBufferInputYVU back into gPreviewImage, at once or one frame later
+FrameReader gReader[NR];
+// Whether gReader reads asynchronously (see setReadbackMode)
+bool gAsyncReadback = false;
 
 // Shader to translate the flip-flop FBO - gBuffer[1-current] -> gBuffer[current]
 WarpRenderer gWarper1;
@@ -125,6 +131,10 @@ bool gIsLandscapeOrientation = true;
 // State of the viewfinder. Set to false when the viewfinder hits the UI edge.
 bool gPanViewfinder = true;
 
+// Guards the transformations below. With asynchronous readback, the
+// alignment (UpdateWarpTransformation) runs while the GL thread draws.
+pthread_mutex_t gWarpLock = PTHREAD_MUTEX_INITIALIZER;
+
 // Affine transformation in GL 4x4 format (column-major) to warp the
 // last frame mosaic into the current frame coordinate system.
 GLfloat g_dAffinetransGL[16];
@@ -331,7 +341,16 @@ bool continuePanningFBO(double panOffset) {
 // pasted in by gWarper2 after translating it by g_dTranslationToFBOCenter.
 // The computed g_dAffinetransPan is such that it offsets the computed preview
 // mosaic horizontally to make the viewfinder pan within the UI layout.
+static void UpdateWarpTransformationLocked(float *trs);
+
 void UpdateWarpTransformation(float *trs)
+{
+    pthread_mutex_lock(&gWarpLock);
+    UpdateWarpTransformationLocked(trs);
+    pthread_mutex_unlock(&gWarpLock);
+}
+
+static void UpdateWarpTransformationLocked(float *trs)
 {
     double H[9], Hp[9], Htemp1[9], Htemp2[9], T[9];
 
@@ -527,8 +546,12 @@ extern "C"
             jboolean isLandscapeOrientation);
     JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_preprocess(
             JNIEnv * env, jobject obj, jfloatArray stMatrix);
+    JNIEXPORT jint JNICALL Java_com_android_camera_MosaicRenderer_setReadbackMode(
+            JNIEnv * env, jobject obj, jboolean async);
     JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_transferGPUtoCPU(
             JNIEnv * env, jobject obj);
+    JNIEXPORT jboolean JNICALL Java_com_android_camera_MosaicRenderer_finishGPUtoCPU(
+            JNIEnv * env, jobject obj);
     JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_step(
             JNIEnv * env, jobject obj);
     JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_updateMatrix(
@@ -643,6 +666,11 @@ JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_reset(
     gBufferInputYVU[HR].Init(gPreviewImageWidth[HR],
             gPreviewImageHeight[HR], GL_RGBA);
 
+    gReader[LR].Init(gPreviewImageWidth[LR], gPreviewImageHeight[LR],
+            gAsyncReadback);
+    gReader[HR].Init(gPreviewImageWidth[HR], gPreviewImageHeight[HR],
+            gAsyncReadback);
+
     // bind the surface texture
     bindSurfaceTexture(gSurfaceTextureID[0]);
 
@@ -723,57 +751,54 @@ JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_setCameraOrientati
     gCameraOrientation = orientation;
 }
 
-#ifndef now_ms
-#include <time.h>
-static double
-now_ms(void)
-{
-    //struct timespec res;
-    struct timeval res;
-    //clock_gettime(CLOCK_REALTIME, &res);
-    gettimeofday(&res, NULL);
-    return 1000.0*res.tv_sec + (double)res.tv_usec/1e3;
-}
-#endif
 
 
 
+JNIEXPORT jint JNICALL Java_com_android_camera_MosaicRenderer_setReadbackMode(
+        JNIEnv * env, jobject obj, jboolean async)
+{
+    gAsyncReadback = (bool) async;
+    gReader[LR].Init(gPreviewImageWidth[LR], gPreviewImageHeight[LR],
+            gAsyncReadback);
+    return (jint) gReader[HR].Init(gPreviewImageWidth[HR],
+            gPreviewImageHeight[HR], gAsyncReadback);
+}
+
 JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_transferGPUtoCPU(
         JNIEnv * env, jobject obj)
 {
-    double t0, t1, time_c;
-
     gYVURenderer[LR].DrawTexture();
     gYVURenderer[HR].DrawTexture();
 
+    if (gReader[HR].GetMode() != FrameReader::MODE_SYNC)
+    {
+        // Only start the reads; finishGPUtoCPU() completes them.
+        gReader[LR].Read(gBufferInputYVU[LR].GetFrameBufferName(), NULL);
+        gReader[HR].Read(gBufferInputYVU[HR].GetFrameBufferName(), NULL);
+        return;
+    }
+
     sem_wait(&gPreviewImage_semaphore);
-    // Bind to the input LR FBO and read the Low-Res data from there...
-    glBindFramebuffer(GL_FRAMEBUFFER, gBufferInputYVU[LR].GetFrameBufferName());
-    t0 = now_ms();
-    glReadPixels(0,
-                 0,
-                 gBufferInput[LR].GetWidth(),
-                 gBufferInput[LR].GetHeight(),
-                 GL_RGBA,
-                 GL_UNSIGNED_BYTE,
-                 gPreviewImage[LR]);
-
-    checkGlError("glReadPixels LR (MosaicRenderer.transferGPUtoCPU())");
-
-    // Bind to the input HR FBO and read the high-res data from there...
-    glBindFramebuffer(GL_FRAMEBUFFER, gBufferInputYVU[HR].GetFrameBufferName());
-    t0 = now_ms();
-    glReadPixels(0,
-                 0,
-                 gBufferInput[HR].GetWidth(),
-                 gBufferInput[HR].GetHeight(),
-                 GL_RGBA,
-                 GL_UNSIGNED_BYTE,
-                 gPreviewImage[HR]);
-
-    checkGlError("glReadPixels HR (MosaicRenderer.transferGPUtoCPU())");
+    // Read the Low-Res data from the input LR FBO...
+    gReader[LR].Read(gBufferInputYVU[LR].GetFrameBufferName(), gPreviewImage[LR]);
+    // ...and the high-res data from the input HR FBO.
+    gReader[HR].Read(gBufferInputYVU[HR].GetFrameBufferName(), gPreviewImage[HR]);
+    sem_post(&gPreviewImage_semaphore);
+}
 
+JNIEXPORT jboolean JNICALL Java_com_android_camera_MosaicRenderer_finishGPUtoCPU(
+        JNIEnv * env, jobject obj)
+{
+    if (!gReader[LR].HasPendingFrame() || !gReader[HR].HasPendingFrame())
+    {
+        return false;
+    }
+
+    sem_wait(&gPreviewImage_semaphore);
+    bool ok = gReader[LR].Finish(gPreviewImage[LR]);
+    ok = gReader[HR].Finish(gPreviewImage[HR]) && ok;
     sem_post(&gPreviewImage_semaphore);
+    return ok;
 }
 
 JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_step(
@@ -838,6 +863,11 @@ JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_setWarping(
         // Clear the screen to black.
         gPreview.Clear(0.0, 0.0, 0.0, 1.0);
 
+        // A frame read before the switch belongs to the other mode.
+        gReader[LR].Discard();
+        gReader[HR].Discard();
+
+        pthread_mutex_lock(&gWarpLock);
         gLastTx = 0.0f;
         gPanOffset = 0.0f;
         gPanViewfinder = true;
@@ -848,8 +878,9 @@ JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_setWarping(
         // Otherwise, the first frame after setting the flag to true will be
         // incorrectly drawn.
         if ((bool) flag) {
-            UpdateWarpTransformation(g_dIdent3x3);
+            UpdateWarpTransformationLocked(g_dIdent3x3);
         }
+        pthread_mutex_unlock(&gWarpLock);
     }
 
     gWarpImage = (bool)flag;
@@ -858,10 +889,12 @@ JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_setWarping(
 JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_updateMatrix(
         JNIEnv * env, jobject obj)
 {
+    pthread_mutex_lock(&gWarpLock);
     for(int i=0; i<16; i++)
     {
         g_dAffinetransGL[i] = g_dAffinetrans[i];
         g_dAffinetransPanGL[i] = g_dAffinetransPan[i];
         g_dTranslationToFBOCenterGL[i] = g_dTranslationToFBOCenter[i];
     }
+    pthread_mutex_unlock(&gWarpLock);
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Runs the benchmarks that must not allocate with the GC profiler and
+ * fails if any of them allocates. Exits with 0 on success, 1 if a
+ * benchmark allocates and 2 if the profiler did not report an allocation
+ * rate.
+ */
+public class AllocationCheck {
+    // Steady-state hot paths: they run per preview frame, per orientation
+    // event or per parameter update.
+    private static final String[] ZERO_ALLOCATION = {
+        "UtilBenchmark.getOptimalPreviewSize",
+        "UtilBenchmark.computeSampleSize",
+        "UtilBenchmark.prepareMatrix",
+        "UtilBenchmark.roundOrientation",
+        "MosaicFrameProcessorBenchmark.calculateTranslationRate",
+        "ComboPreferencesBenchmark.getGlobalKey",
+        "ComboPreferencesBenchmark.getLocalKey",
+        "ComboPreferencesBenchmark.getLocalKeyMissing",
+        "ComboPreferencesBenchmark.getBoolean",
+    };
+
+    // The profiler counts a few bytes per op of noise from the harness.
+    private static final double MAX_BYTES_PER_OP = 1.0;
+    private static final String ALLOC_RATE_NORM = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder builder = new OptionsBuilder();
+        for (String name : ZERO_ALLOCATION) {
+            builder.include(AllocationCheck.class.getPackage().getName() + "." + name + "$");
+        }
+        Options options = builder
+                .addProfiler(GCProfiler.class)
+                .warmupIterations(2)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(1))
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        int failures = 0;
+        for (RunResult run : results) {
+            String name = run.getParams().getBenchmark();
+            name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+            Result alloc = findAllocRate(run.getSecondaryResults());
+            if (alloc == null) {
+                System.err.println(name + ": no allocation rate; is the GC profiler "
+                        + "supported by this JVM?");
+                System.exit(2);
+            }
+            double bytes = alloc.getScore();
+            boolean ok = bytes <= MAX_BYTES_PER_OP;
+            System.out.printf("%-80s %8.2f B/op %s%n", name + paramsOf(run), bytes,
+                    ok ? "ok" : "ALLOCATES");
+            if (!ok) failures++;
+        }
+        if (failures > 0) {
+            System.err.println(failures + " benchmark(s) allocate on a zero-allocation path");
+            System.exit(1);
+        }
+    }
+
+    // Older versions of JMH prefix the key with a middle dot.
+    private static Result findAllocRate(Map<String, Result> results) {
+        for (Map.Entry<String, Result> e : results.entrySet()) {
+            if (e.getKey().endsWith(ALLOC_RATE_NORM)) return e.getValue();
+        }
+        return null;
+    }
+
+    private static String paramsOf(RunResult run) {
+        StringBuilder params = new StringBuilder();
+        for (String key : run.getParams().getParamsKeys()) {
+            params.append(params.length() == 0 ? " (" : ", ");
+            params.append(key).append('=').append(run.getParams().getParam(key));
+        }
+        return (params.length() == 0) ? "" : params.append(')').toString();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.benchmark;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.android.camera.CameraSettings;
+import com.android.camera.ComboPreferences;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preference lookups as the camera settings do them on every parameter
+ * update. The preferences hold what a device has after a few weeks of use.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComboPreferencesBenchmark {
+    private static final String KEY_FLASH_MODE = "pref_camera_flashmode_key";
+    private static final String KEY_EXPOSURE = "pref_camera_exposure_key";
+
+    private ComboPreferences mPreferences;
+
+    @Setup
+    public void setUp() {
+        Context context = new Context();
+        mPreferences = new ComboPreferences(context);
+        mPreferences.setLocalId(context, 0);
+
+        SharedPreferences.Editor global = mPreferences.getGlobal().edit();
+        global.putString(CameraSettings.KEY_CAMERA_ID, "0");
+        global.putString(CameraSettings.KEY_RECORD_LOCATION, "on");
+        global.putBoolean(CameraSettings.KEY_CAMERA_FIRST_USE_HINT_SHOWN, false);
+        global.putString(CameraSettings.KEY_VIDEO_TIME_LAPSE_FRAME_INTERVAL, "0");
+        global.putString(CameraSettings.KEY_VIDEO_EFFECT, "none");
+        global.putInt("pref_version_key", 5);
+        global.apply();
+
+        SharedPreferences.Editor local = mPreferences.getLocal().edit();
+        local.putString(KEY_FLASH_MODE, "auto");
+        local.putString("pref_camera_whitebalance_key", "auto");
+        local.putString("pref_camera_scenemode_key", "auto");
+        local.putString("pref_camera_focusmode_key", "continuous-picture");
+        local.putString("pref_camera_picturesize_key", "3264x2448");
+        local.putString("pref_camera_jpegquality_key", "superfine");
+        local.putString("pref_video_quality_key", "6");
+        local.putInt("pref_local_version_key", 2);
+        local.apply();
+    }
+
+    // A key that is always global: no local lookup.
+    @Benchmark
+    public String getGlobalKey() {
+        return mPreferences.getString(CameraSettings.KEY_RECORD_LOCATION, "none");
+    }
+
+    // A per-camera key that is set for this camera.
+    @Benchmark
+    public String getLocalKey() {
+        return mPreferences.getString(KEY_FLASH_MODE, "off");
+    }
+
+    // A per-camera key that is not set: falls back to the global value.
+    @Benchmark
+    public String getLocalKeyMissing() {
+        return mPreferences.getString(KEY_EXPOSURE, "0");
+    }
+
+    @Benchmark
+    public boolean getBoolean() {
+        return mPreferences.getBoolean(CameraSettings.KEY_CAMERA_FIRST_USE_HINT_SHOWN, true);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.benchmark;
+
+import com.android.camera.Exif;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the orientation of a new picture, as PhotoModule does for every
+ * shot before saving it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExifBenchmark {
+    // phone: little-endian with GPS and a thumbnail, like most Qualcomm
+    // devices. motorola: big-endian, no GPS. jfif: a JFIF APP0 before the
+    // EXIF. none: no EXIF at all, so every segment up to SOS is skipped.
+    @Param({"phone", "motorola", "jfif", "none"})
+    public String picture;
+
+    private byte[] mJpeg;
+
+    @Setup
+    public void setUp() {
+        if (picture.equals("phone")) {
+            mJpeg = JpegHeaders.build(ByteOrder.LITTLE_ENDIAN, 6, true, true, false);
+        } else if (picture.equals("motorola")) {
+            mJpeg = JpegHeaders.build(ByteOrder.BIG_ENDIAN, 8, false, true, false);
+        } else if (picture.equals("jfif")) {
+            mJpeg = JpegHeaders.build(ByteOrder.LITTLE_ENDIAN, 3, true, false, true);
+        } else {
+            mJpeg = JpegHeaders.buildWithoutExif();
+        }
+    }
+
+    @Benchmark
+    public int getOrientation() {
+        return Exif.getOrientation(mJpeg);
+    }
+}
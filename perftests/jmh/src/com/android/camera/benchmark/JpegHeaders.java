@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.benchmark;
+
+import com.android.camera.ExifIndex;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * Builds JPEG files laid out like camera output: SOI, an optional JFIF
+ * APP0, an EXIF APP1 with the tags a phone writes (IFD0, Exif IFD, GPS IFD
+ * and a thumbnail in IFD1), the tables, SOS and the entropy-coded data.
+ * Pixel data is filler; the parsers stop at SOS.
+ */
+class JpegHeaders {
+    private static final int TAG_MAKE = 0x010F;
+    private static final int TAG_MODEL = 0x0110;
+    private static final int TAG_X_RESOLUTION = 0x011A;
+    private static final int TAG_Y_RESOLUTION = 0x011B;
+    private static final int TAG_RESOLUTION_UNIT = 0x0128;
+    private static final int TAG_SOFTWARE = 0x0131;
+    private static final int TAG_Y_CB_CR_POSITIONING = 0x0213;
+    private static final int TAG_COMPRESSION = 0x0103;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+
+    private static final int THUMBNAIL_LENGTH = 14 * 1024;
+    private static final int IMAGE_DATA_LENGTH = 64 * 1024;
+
+    private static class Entry {
+        final int tag;
+        final int type;
+        final int count;
+        final byte[] value;
+
+        Entry(int tag, int type, int count, byte[] value) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+    }
+
+    private static class Ifd {
+        final ArrayList<Entry> entries = new ArrayList<Entry>();
+        int offset;
+
+        int size() {
+            int size = 2 + 12 * entries.size() + 4;
+            for (Entry e : entries) {
+                if (e.value.length > 4) size += (e.value.length + 1) & ~1;
+            }
+            return size;
+        }
+    }
+
+    private final ByteOrder mOrder;
+
+    private JpegHeaders(ByteOrder order) {
+        mOrder = order;
+    }
+
+    // A picture from a phone: the orientation, GPS and a thumbnail.
+    static byte[] build(ByteOrder order, int exifOrientation, boolean gps,
+            boolean thumbnail, boolean jfif) {
+        return new JpegHeaders(order).build(exifOrientation, gps, thumbnail, jfif);
+    }
+
+    // A picture without EXIF, e.g. from an editor.
+    static byte[] buildWithoutExif() {
+        ByteBuffer jpeg = ByteBuffer.allocate(IMAGE_DATA_LENGTH + 1024);
+        jpeg.putShort((short) 0xFFD8);
+        putJfif(jpeg);
+        putTablesAndData(jpeg);
+        return toArray(jpeg);
+    }
+
+    private byte[] build(int exifOrientation, boolean gps, boolean thumbnail, boolean jfif) {
+        Ifd ifd0 = new Ifd();
+        ascii(ifd0, TAG_MAKE, "LGE");
+        ascii(ifd0, TAG_MODEL, "Nexus 4");
+        shorts(ifd0, ExifIndex.TAG_ORIENTATION, exifOrientation);
+        rationals(ifd0, TAG_X_RESOLUTION, 72, 1);
+        rationals(ifd0, TAG_Y_RESOLUTION, 72, 1);
+        shorts(ifd0, TAG_RESOLUTION_UNIT, 2);
+        ascii(ifd0, TAG_SOFTWARE, "JDQ39");
+        ascii(ifd0, ExifIndex.TAG_DATE_TIME, "2013:05:14 17:42:09");
+        shorts(ifd0, TAG_Y_CB_CR_POSITIONING, 1);
+        Entry exifPointer = longs(ifd0, ExifIndex.TAG_EXIF_IFD, 0);
+        Entry gpsPointer = gps ? longs(ifd0, ExifIndex.TAG_GPS_IFD, 0) : null;
+
+        Ifd exif = new Ifd();
+        rationals(exif, 0x829A, 1, 120);  // ExposureTime
+        rationals(exif, 0x829D, 27, 10);  // FNumber
+        shorts(exif, 0x8827, 100);  // ISOSpeedRatings
+        undefined(exif, 0x9000, "0220".getBytes());  // ExifVersion
+        ascii(exif, ExifIndex.TAG_DATE_TIME_ORIGINAL, "2013:05:14 17:42:09");
+        ascii(exif, 0x9004, "2013:05:14 17:42:09");  // DateTimeDigitized
+        undefined(exif, 0x9101, new byte[] {1, 2, 3, 0});  // ComponentsConfiguration
+        add(exif, ExifIndex.TYPE_SRATIONAL, 0x9201, 6907, 1000);  // ShutterSpeedValue
+        rationals(exif, 0x9202, 2860, 1000);  // ApertureValue
+        add(exif, ExifIndex.TYPE_SRATIONAL, 0x9203, 512, 100);  // BrightnessValue
+        add(exif, ExifIndex.TYPE_SRATIONAL, 0x9204, 0, 1);  // ExposureBiasValue
+        shorts(exif, 0x9207, 2);  // MeteringMode
+        shorts(exif, 0x9209, 0);  // Flash
+        rationals(exif, 0x920A, 460, 100);  // FocalLength
+        ascii(exif, 0x9290, "471");  // SubSecTime
+        undefined(exif, 0xA000, "0100".getBytes());  // FlashpixVersion
+        shorts(exif, 0xA001, 1);  // ColorSpace
+        longs(exif, 0xA002, 3264);  // PixelXDimension
+        longs(exif, 0xA003, 2448);  // PixelYDimension
+        shorts(exif, 0xA403, 0);  // WhiteBalance
+
+        Ifd gpsIfd = null;
+        if (gps) {
+            gpsIfd = new Ifd();
+            add(gpsIfd, ExifIndex.TYPE_BYTE, 0x0000, new byte[] {2, 2, 0, 0}, 4);
+            ascii(gpsIfd, ExifIndex.TAG_GPS_LATITUDE_REF, "N");
+            rationals(gpsIfd, ExifIndex.TAG_GPS_LATITUDE, 37, 1, 25, 1, 1946, 100);
+            ascii(gpsIfd, ExifIndex.TAG_GPS_LONGITUDE_REF, "W");
+            rationals(gpsIfd, ExifIndex.TAG_GPS_LONGITUDE, 122, 1, 5, 1, 1033, 100);
+            add(gpsIfd, ExifIndex.TYPE_BYTE, 0x0005, new byte[] {0, 0, 0, 0}, 1);
+            rationals(gpsIfd, 0x0006, 12, 1);  // GPSAltitude
+            rationals(gpsIfd, 0x0007, 0, 1, 42, 1, 9, 1);  // GPSTimeStamp
+            undefined(gpsIfd, 0x001B, "ASCII\0\0\0NETWORK".getBytes());
+            ascii(gpsIfd, 0x001D, "2013:05:15");  // GPSDateStamp
+        }
+
+        Ifd ifd1 = null;
+        Entry thumbnailPointer = null;
+        if (thumbnail) {
+            ifd1 = new Ifd();
+            shorts(ifd1, TAG_COMPRESSION, 6);
+            rationals(ifd1, TAG_X_RESOLUTION, 72, 1);
+            rationals(ifd1, TAG_Y_RESOLUTION, 72, 1);
+            shorts(ifd1, TAG_RESOLUTION_UNIT, 2);
+            thumbnailPointer = longs(ifd1, TAG_JPEG_INTERCHANGE_FORMAT, 0);
+            longs(ifd1, TAG_JPEG_INTERCHANGE_FORMAT_LENGTH, THUMBNAIL_LENGTH);
+        }
+
+        // Lay out the IFDs one after the other, then fix the pointers.
+        int offset = 8;
+        Ifd[] ifds = {ifd0, exif, gpsIfd, ifd1};
+        for (Ifd ifd : ifds) {
+            if (ifd == null) continue;
+            ifd.offset = offset;
+            offset += ifd.size();
+        }
+        setLong(exifPointer, exif.offset);
+        if (gpsPointer != null) setLong(gpsPointer, gpsIfd.offset);
+        int thumbnailOffset = offset;
+        if (thumbnailPointer != null) {
+            setLong(thumbnailPointer, thumbnailOffset);
+            offset += THUMBNAIL_LENGTH;
+        }
+
+        ByteBuffer tiff = ByteBuffer.allocate(offset).order(mOrder);
+        byte byteOrder = (mOrder == ByteOrder.LITTLE_ENDIAN) ? (byte) 'I' : (byte) 'M';
+        tiff.put(byteOrder).put(byteOrder).putShort((short) 42).putInt(8);
+        putIfd(tiff, ifd0, (ifd1 != null) ? ifd1.offset : 0);
+        putIfd(tiff, exif, 0);
+        if (gpsIfd != null) putIfd(tiff, gpsIfd, 0);
+        if (ifd1 != null) {
+            putIfd(tiff, ifd1, 0);
+            tiff.put((byte) 0xFF).put((byte) 0xD8);
+            tiff.position(thumbnailOffset + THUMBNAIL_LENGTH - 2);
+            tiff.put((byte) 0xFF).put((byte) 0xD9);
+        }
+
+        ByteBuffer jpeg = ByteBuffer.allocate(offset + IMAGE_DATA_LENGTH + 1024);
+        jpeg.putShort((short) 0xFFD8);
+        if (jfif) putJfif(jpeg);
+        jpeg.putShort((short) 0xFFE1);
+        jpeg.putShort((short) (2 + 6 + offset));
+        jpeg.put(new byte[] {'E', 'x', 'i', 'f', 0, 0});
+        jpeg.put(tiff.array());
+        putTablesAndData(jpeg);
+        return toArray(jpeg);
+    }
+
+    private void putIfd(ByteBuffer b, Ifd ifd, int next) {
+        int data = ifd.offset + 2 + 12 * ifd.entries.size() + 4;
+        b.position(ifd.offset);
+        b.putShort((short) ifd.entries.size());
+        for (Entry e : ifd.entries) {
+            b.putShort((short) e.tag).putShort((short) e.type).putInt(e.count);
+            if (e.value.length > 4) {
+                b.putInt(data);
+                int pos = b.position();
+                b.position(data);
+                b.put(e.value);
+                data += (e.value.length + 1) & ~1;
+                b.position(pos);
+            } else {
+                b.put(e.value);
+                for (int i = e.value.length; i < 4; i++) b.put((byte) 0);
+            }
+        }
+        b.putInt(next);
+        b.position(data);
+    }
+
+    private static void putJfif(ByteBuffer b) {
+        b.putShort((short) 0xFFE0).putShort((short) 16);
+        b.put(new byte[] {'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+    }
+
+    // DQT, SOF0, DHT and SOS with their real lengths, then the image data.
+    private static void putTablesAndData(ByteBuffer b) {
+        putSegment(b, 0xFFDB, 2 * 65);
+        putSegment(b, 0xFFC0, 15);
+        putSegment(b, 0xFFC4, 416);
+        putSegment(b, 0xFFDA, 10);
+        for (int i = 0; i < IMAGE_DATA_LENGTH; i++) b.put((byte) (i * 31 % 255));
+        b.putShort((short) 0xFFD9);
+    }
+
+    private static void putSegment(ByteBuffer b, int marker, int payload) {
+        b.putShort((short) marker).putShort((short) (payload + 2));
+        b.position(b.position() + payload);
+    }
+
+    private static byte[] toArray(ByteBuffer b) {
+        byte[] result = new byte[b.position()];
+        System.arraycopy(b.array(), 0, result, 0, result.length);
+        return result;
+    }
+
+    private void ascii(Ifd ifd, int tag, String value) {
+        byte[] bytes = (value + "\0").getBytes();
+        ifd.entries.add(new Entry(tag, ExifIndex.TYPE_ASCII, bytes.length, bytes));
+    }
+
+    private void undefined(Ifd ifd, int tag, byte[] value) {
+        ifd.entries.add(new Entry(tag, ExifIndex.TYPE_UNDEFINED, value.length, value));
+    }
+
+    private void shorts(Ifd ifd, int tag, int value) {
+        ByteBuffer b = ByteBuffer.allocate(2).order(mOrder);
+        b.putShort((short) value);
+        ifd.entries.add(new Entry(tag, ExifIndex.TYPE_SHORT, 1, b.array()));
+    }
+
+    private Entry longs(Ifd ifd, int tag, int value) {
+        ByteBuffer b = ByteBuffer.allocate(4).order(mOrder);
+        b.putInt(value);
+        Entry e = new Entry(tag, ExifIndex.TYPE_LONG, 1, b.array());
+        ifd.entries.add(e);
+        return e;
+    }
+
+    private void setLong(Entry e, int value) {
+        ByteBuffer.wrap(e.value).order(mOrder).putInt(value);
+    }
+
+    private void rationals(Ifd ifd, int tag, int... values) {
+        add(ifd, ExifIndex.TYPE_RATIONAL, tag, values);
+    }
+
+    // Values are numerator, denominator pairs.
+    private void add(Ifd ifd, int type, int tag, int... values) {
+        ByteBuffer b = ByteBuffer.allocate(4 * values.length).order(mOrder);
+        for (int v : values) b.putInt(v);
+        ifd.entries.add(new Entry(tag, type, values.length / 2, b.array()));
+    }
+
+    private void add(Ifd ifd, int type, int tag, byte[] value, int count) {
+        ifd.entries.add(new Entry(tag, type, count, value));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.benchmark;
+
+import com.android.camera.Mosaic;
+import com.android.camera.MosaicFrameProcessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame work of the panorama preview on the Java side: reading the
+ * frame transform and updating the moving average of the panning rate.
+ * The mosaicer is the Java stand-in, so the native alignment is not
+ * included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MosaicFrameProcessorBenchmark {
+    private static final int PREVIEW_WIDTH = 640;
+    private static final int PREVIEW_HEIGHT = 480;
+
+    private MosaicFrameProcessor mProcessor;
+    private int mFrames;
+
+    @Setup
+    public void setUp() {
+        mProcessor = MosaicFrameProcessor.getInstance();
+        mProcessor.initialize(PREVIEW_WIDTH, PREVIEW_HEIGHT,
+                PREVIEW_WIDTH * PREVIEW_HEIGHT * 3 / 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mProcessor.clear();
+    }
+
+    @Benchmark
+    public void calculateTranslationRate() {
+        // Start a new pan when the last one is done, like PanoramaModule.
+        if (++mFrames == Mosaic.PAN_FRAMES) {
+            mFrames = 0;
+            mProcessor.reset();
+        }
+        mProcessor.calculateTranslationRate();
+    }
+}
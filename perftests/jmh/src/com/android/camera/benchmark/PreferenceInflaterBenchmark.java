@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.benchmark;
+
+import android.content.Context;
+
+import com.android.camera.CameraPreference;
+import com.android.camera.PreferenceInflater;
+import com.android.camera.R;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inflating the settings of the photo and video modules, done on each
+ * module switch. The XML is parsed once in setup, so this measures the
+ * inflater and the preference constructors, not the XML parser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreferenceInflaterBenchmark {
+    @Param({"camera_preferences", "video_preferences"})
+    public String xml;
+
+    private PreferenceInflater mInflater;
+    private int mResId;
+
+    @Setup
+    public void setUp() throws Exception {
+        mInflater = new PreferenceInflater(new Context());
+        mResId = R.xml.class.getField(xml).getInt(null);
+    }
+
+    @Benchmark
+    public CameraPreference inflate() {
+        return mInflater.inflate(mResId);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.benchmark;
+
+import android.app.Activity;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.hardware.Camera.Size;
+
+import com.android.camera.Util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark {
+    // getSupportedPreviewSizes() of a Nexus 4 and of a 1080p phone, in the
+    // order the drivers report them.
+    private static final int[][] PREVIEW_SIZES = {
+        {1280, 720, 800, 480, 768, 432, 720, 480, 640, 480, 576, 432, 480, 320,
+                384, 288, 352, 288, 320, 240, 240, 160, 176, 144},
+        {1920, 1080, 1440, 1080, 1280, 720, 1056, 864, 960, 720, 800, 480,
+                720, 480, 640, 480, 352, 288, 320, 240, 176, 144},
+    };
+
+    @State(Scope.Thread)
+    public static class PreviewSizes {
+        @Param({"0", "1"})
+        public int device;
+
+        // The picture aspect ratio: 4:3 or 16:9.
+        @Param({"1.3333333333333333", "1.7777777777777777"})
+        public double targetRatio;
+
+        Activity activity;
+        List<Size> sizes;
+
+        @Setup
+        public void setUp() {
+            activity = new Activity();
+            sizes = new ArrayList<Size>();
+            int[] s = PREVIEW_SIZES[device];
+            for (int i = 0; i < s.length; i += 2) sizes.add(new Size(s[i], s[i + 1]));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Picture {
+        // 8 and 13 megapixels.
+        @Param({"3264x2448", "4128x3096"})
+        public String size;
+
+        BitmapFactory.Options options;
+
+        @Setup
+        public void setUp() {
+            options = new BitmapFactory.Options();
+            int x = size.indexOf('x');
+            options.outWidth = Integer.parseInt(size.substring(0, x));
+            options.outHeight = Integer.parseInt(size.substring(x + 1));
+        }
+    }
+
+    private final Matrix mMatrix = new Matrix();
+    private int mOrientation;
+    private int mOrientationHistory = -1;
+
+    @Benchmark
+    public Size getOptimalPreviewSize(PreviewSizes s) {
+        return Util.getOptimalPreviewSize(s.activity, s.sizes, s.targetRatio);
+    }
+
+    // As PhotoModule does for the thumbnail of a new picture.
+    @Benchmark
+    public int computeSampleSize(Picture p) {
+        return Util.computeSampleSize(p.options, -1, 50 * 1024);
+    }
+
+    // As FocusOverlayManager does for each focus area, with a reused matrix.
+    @Benchmark
+    public Matrix prepareMatrix() {
+        Util.prepareMatrix(mMatrix, false, 90, 1920, 1080);
+        return mMatrix;
+    }
+
+    // The orientation listener reports every few degrees while the phone
+    // turns; the history follows, like in PhotoModule.
+    @Benchmark
+    public int roundOrientation() {
+        mOrientation = (mOrientation + 7) % 360;
+        mOrientationHistory = Util.roundOrientation(mOrientation, mOrientationHistory);
+        return mOrientationHistory;
+    }
+}
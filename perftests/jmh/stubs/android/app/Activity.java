@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.view.Display;
+import android.view.WindowManager;
+
+public class Activity extends Context {
+    private final WindowManager mWindowManager;
+    private Intent mIntent = new Intent();
+
+    // A 1080p phone in landscape.
+    public Activity() {
+        this(1920, 1080);
+    }
+
+    public Activity(int displayWidth, int displayHeight) {
+        final Display display = new Display(displayWidth, displayHeight);
+        mWindowManager = new WindowManager() {
+            @Override
+            public Display getDefaultDisplay() {
+                return display;
+            }
+        };
+        putSystemService(WINDOW_SERVICE, mWindowManager);
+    }
+
+    public WindowManager getWindowManager() {
+        return mWindowManager;
+    }
+
+    public Intent getIntent() {
+        return mIntent;
+    }
+
+    public void setIntent(Intent intent) {
+        mIntent = intent;
+    }
+
+    public void finish() {
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app;
+
+import android.content.Context;
+import android.content.DialogInterface;
+
+public class AlertDialog implements DialogInterface {
+    @Override
+    public void dismiss() {
+    }
+
+    public static class Builder {
+        public Builder(Context context) {
+        }
+
+        public Builder setCancelable(boolean cancelable) { return this; }
+        public Builder setIcon(int iconId) { return this; }
+        public Builder setTitle(int titleId) { return this; }
+        public Builder setMessage(int messageId) { return this; }
+        public Builder setNeutralButton(int textId, OnClickListener listener) { return this; }
+        public AlertDialog show() { return new AlertDialog(); }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+// The in-memory part of the platform implementation: a map behind a lock,
+// with listeners held weakly. Nothing is written to disk.
+public class SharedPreferencesImpl implements SharedPreferences {
+    private static final Object CONTENT = new Object();
+
+    private final HashMap<String, Object> mMap = new HashMap<String, Object>();
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> mListeners =
+            new WeakHashMap<OnSharedPreferenceChangeListener, Object>();
+
+    @Override
+    public Map<String, ?> getAll() {
+        synchronized (this) {
+            return new HashMap<String, Object>(mMap);
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        synchronized (this) {
+            String v = (String) mMap.get(key);
+            return v != null ? v : defValue;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        synchronized (this) {
+            Set<String> v = (Set<String>) mMap.get(key);
+            return v != null ? v : defValues;
+        }
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        synchronized (this) {
+            Integer v = (Integer) mMap.get(key);
+            return v != null ? v : defValue;
+        }
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        synchronized (this) {
+            Long v = (Long) mMap.get(key);
+            return v != null ? v : defValue;
+        }
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        synchronized (this) {
+            Float v = (Float) mMap.get(key);
+            return v != null ? v : defValue;
+        }
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        synchronized (this) {
+            Boolean v = (Boolean) mMap.get(key);
+            return v != null ? v : defValue;
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        synchronized (this) {
+            return mMap.containsKey(key);
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        synchronized (this) {
+            mListeners.put(listener, CONTENT);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        synchronized (this) {
+            mListeners.remove(listener);
+        }
+    }
+
+    private class EditorImpl implements Editor {
+        private final HashMap<String, Object> mModified = new HashMap<String, Object>();
+        private boolean mClear;
+
+        @Override
+        public Editor putString(String key, String value) { return put(key, value); }
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            return put(key, (values == null) ? null : new HashSet<String>(values));
+        }
+        @Override
+        public Editor putInt(String key, int value) { return put(key, value); }
+        @Override
+        public Editor putLong(String key, long value) { return put(key, value); }
+        @Override
+        public Editor putFloat(String key, float value) { return put(key, value); }
+        @Override
+        public Editor putBoolean(String key, boolean value) { return put(key, value); }
+        @Override
+        public Editor remove(String key) { return put(key, this); }
+
+        @Override
+        public Editor clear() {
+            synchronized (this) {
+                mClear = true;
+                return this;
+            }
+        }
+
+        @Override
+        public boolean commit() {
+            HashSet<String> changed = new HashSet<String>();
+            OnSharedPreferenceChangeListener[] listeners;
+            SharedPreferencesImpl prefs = SharedPreferencesImpl.this;
+            synchronized (prefs) {
+                synchronized (this) {
+                    if (mClear) {
+                        changed.addAll(mMap.keySet());
+                        mMap.clear();
+                        mClear = false;
+                    }
+                    for (Map.Entry<String, Object> e : mModified.entrySet()) {
+                        // "this" marks a removal, null too.
+                        Object v = e.getValue();
+                        if (v == this || v == null) {
+                            if (mMap.remove(e.getKey()) == null) continue;
+                        } else {
+                            mMap.put(e.getKey(), v);
+                        }
+                        changed.add(e.getKey());
+                    }
+                    mModified.clear();
+                }
+                listeners = mListeners.keySet().toArray(
+                        new OnSharedPreferenceChangeListener[0]);
+            }
+            for (String key : changed) {
+                for (OnSharedPreferenceChangeListener l : listeners) {
+                    if (l != null) l.onSharedPreferenceChanged(prefs, key);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+
+        private Editor put(String key, Object value) {
+            synchronized (this) {
+                mModified.put(key, value);
+                return this;
+            }
+        }
+    }
+}
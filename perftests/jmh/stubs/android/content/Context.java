@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.app.SharedPreferencesImpl;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.util.AttributeSet;
+
+import java.util.HashMap;
+
+// A context with the app's resources and in-memory preferences. The
+// platform one is abstract; this one can be created directly.
+public class Context {
+    public static final int MODE_PRIVATE = 0;
+    public static final String WINDOW_SERVICE = "window";
+    public static final String TELEPHONY_SERVICE = "phone";
+    public static final String DEVICE_POLICY_SERVICE = "device_policy";
+
+    private static Resources sResources;
+
+    private final HashMap<String, SharedPreferences> mPreferences =
+            new HashMap<String, SharedPreferences>();
+    private final HashMap<String, Object> mServices = new HashMap<String, Object>();
+    private final ContentResolver mResolver = new ContentResolver();
+    private final Resources.Theme mTheme;
+
+    public Context() {
+        mTheme = getResources().new Theme();
+    }
+
+    // Loading the resources reads the whole res/ directory; it is done once.
+    public Resources getResources() {
+        synchronized (Context.class) {
+            if (sResources == null) sResources = new Resources();
+            return sResources;
+        }
+    }
+
+    public Resources.Theme getTheme() {
+        return mTheme;
+    }
+
+    public String getPackageName() {
+        return "com.android.gallery3d";
+    }
+
+    public ClassLoader getClassLoader() {
+        return getClass().getClassLoader();
+    }
+
+    public ContentResolver getContentResolver() {
+        return mResolver;
+    }
+
+    public final String getString(int resId) {
+        return getResources().getString(resId);
+    }
+
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        synchronized (mPreferences) {
+            SharedPreferences prefs = mPreferences.get(name);
+            if (prefs == null) {
+                prefs = new SharedPreferencesImpl();
+                mPreferences.put(name, prefs);
+            }
+            return prefs;
+        }
+    }
+
+    public Object getSystemService(String name) {
+        synchronized (mServices) {
+            return mServices.get(name);
+        }
+    }
+
+    // Not on the platform: lets the benchmarks supply system services.
+    public void putSystemService(String name, Object service) {
+        synchronized (mServices) {
+            mServices.put(name, service);
+        }
+    }
+
+    public final TypedArray obtainStyledAttributes(AttributeSet set, int[] attrs,
+            int defStyleAttr, int defStyleRes) {
+        return getResources().obtainAttributes(set, attrs);
+    }
+
+    public void startActivity(Intent intent) {
+    }
+
+    public void sendBroadcast(Intent intent) {
+    }
+}
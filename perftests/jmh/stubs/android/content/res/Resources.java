@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import android.util.AttributeSet;
+import android.util.TypedValue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The app resources, read from the res/ directory of the source tree
+ * ({@code -Dcamera.res} overrides its location). Only the default
+ * configuration (values/ and xml/) is loaded.
+ *
+ * <p>Ids come from the fields of the app's R class when it has one for the
+ * resource, and are assigned on first use otherwise. XML resources are
+ * parsed when the resources are loaded; {@link #getXml} hands out a cursor
+ * over the parsed events, so inflating does not measure the XML parser.
+ */
+public class Resources {
+    public static final String RES_DIR_PROPERTY = "camera.res";
+    private static final String DEFAULT_RES_DIR = "../../res";
+    private static final String R_CLASS = "com.android.camera.R";
+    private static final int FIRST_DYNAMIC_ID = 0x7f100000;
+
+    private final File mDir;
+    private final HashMap<String, Integer> mIds = new HashMap<String, Integer>();
+    private final HashMap<Integer, String> mNames = new HashMap<Integer, String>();
+    private final HashMap<String, String> mStrings = new HashMap<String, String>();
+    private final HashMap<String, String[]> mArrays = new HashMap<String, String[]>();
+    private final HashMap<String, XmlResourceParser.Event[]> mXmls =
+            new HashMap<String, XmlResourceParser.Event[]>();
+    private int mNextId = FIRST_DYNAMIC_ID;
+
+    public Resources() {
+        mDir = new File(System.getProperty(RES_DIR_PROPERTY, DEFAULT_RES_DIR));
+        try {
+            readIds();
+            File[] values = new File(mDir, "values").listFiles();
+            if (values == null) {
+                throw new IllegalStateException("no resources in " + mDir.getAbsolutePath()
+                        + "; set -D" + RES_DIR_PROPERTY);
+            }
+            for (File f : values) {
+                if (f.getName().endsWith(".xml")) readValues(f);
+            }
+            File[] xmls = new File(mDir, "xml").listFiles();
+            if (xmls != null) {
+                for (File f : xmls) {
+                    String name = f.getName();
+                    mXmls.put("xml/" + name.substring(0, name.length() - 4), readXml(f));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String getString(int id) {
+        String s = mStrings.get(getName(id));
+        if (s == null) throw new NotFoundException("String resource ID #0x"
+                + Integer.toHexString(id));
+        return s;
+    }
+
+    public CharSequence[] getTextArray(int id) {
+        String[] items = mArrays.get(getName(id));
+        if (items == null) throw new NotFoundException("Array resource ID #0x"
+                + Integer.toHexString(id));
+        CharSequence[] texts = new CharSequence[items.length];
+        for (int i = 0; i < items.length; i++) texts[i] = resolveString(items[i]);
+        return texts;
+    }
+
+    public String[] getStringArray(int id) {
+        CharSequence[] texts = getTextArray(id);
+        String[] strings = new String[texts.length];
+        for (int i = 0; i < texts.length; i++) strings[i] = texts[i].toString();
+        return strings;
+    }
+
+    public TypedArray obtainTypedArray(int id) {
+        String[] items = mArrays.get(getName(id));
+        if (items == null) throw new NotFoundException("Array resource ID #0x"
+                + Integer.toHexString(id));
+        return new TypedArray(this, items);
+    }
+
+    public TypedArray obtainAttributes(AttributeSet set, int[] attrs) {
+        String[] values = new String[attrs.length];
+        for (int i = 0; i < attrs.length; i++) {
+            // "attr/name"
+            values[i] = set.getAttributeValue(null, getName(attrs[i]).substring(5));
+        }
+        return new TypedArray(this, values);
+    }
+
+    public XmlResourceParser getXml(int id) {
+        XmlResourceParser.Event[] events = mXmls.get(getName(id));
+        if (events == null) throw new NotFoundException("XML resource ID #0x"
+                + Integer.toHexString(id));
+        return new XmlResourceParser(events);
+    }
+
+    // Returns the id of a "@type/name" reference, or 0 if the value is not
+    // a reference.
+    public int getReferenceId(String value) {
+        if (value == null || !value.startsWith("@")) return 0;
+        String name = value.substring(1);
+        int slash = name.indexOf(':');
+        if (slash >= 0) name = name.substring(slash + 1);
+        return getId(name);
+    }
+
+    // Returns the type of a raw attribute value, as TypedArray.peekValue
+    // reports it: strings and references to strings are strings.
+    int getValueType(String value) {
+        if (value == null) return TypedValue.TYPE_NULL;
+        if (value.startsWith("@") && !value.startsWith("@string/")) {
+            return TypedValue.TYPE_REFERENCE;
+        }
+        return TypedValue.TYPE_STRING;
+    }
+
+    // Strings can refer to other strings.
+    String resolveString(String value) {
+        while (value != null && value.startsWith("@string/")) {
+            value = mStrings.get(value.substring(1));
+        }
+        return value;
+    }
+
+    String getName(int id) {
+        String name = mNames.get(id);
+        if (name == null) throw new NotFoundException("Resource ID #0x"
+                + Integer.toHexString(id));
+        return name;
+    }
+
+    private synchronized int getId(String name) {
+        Integer id = mIds.get(name);
+        if (id == null) {
+            id = mNextId++;
+            mIds.put(name, id);
+            mNames.put(id, name);
+        }
+        return id;
+    }
+
+    private void readIds() {
+        Class<?>[] types;
+        try {
+            types = Class.forName(R_CLASS).getClasses();
+        } catch (ClassNotFoundException e) {
+            return;
+        }
+        for (Class<?> type : types) {
+            for (Field f : type.getFields()) {
+                if (f.getType() != int.class || !Modifier.isStatic(f.getModifiers())) continue;
+                try {
+                    String name = type.getSimpleName() + "/" + f.getName();
+                    mIds.put(name, f.getInt(null));
+                    mNames.put(f.getInt(null), name);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    private void readValues(File file) throws IOException, XMLStreamException {
+        InputStream in = new FileInputStream(file);
+        try {
+            XMLStreamReader r = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            String arrayName = null;
+            ArrayList<String> items = new ArrayList<String>();
+            while (r.hasNext()) {
+                int event = r.next();
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    if (event == XMLStreamConstants.END_ELEMENT && arrayName != null
+                            && r.getLocalName().endsWith("array")) {
+                        mArrays.put("array/" + arrayName, items.toArray(new String[0]));
+                        getId("array/" + arrayName);
+                        arrayName = null;
+                        items.clear();
+                    }
+                    continue;
+                }
+                String tag = r.getLocalName();
+                if (tag.equals("string")) {
+                    String name = r.getAttributeValue(null, "name");
+                    mStrings.put("string/" + name, unescape(r.getElementText()));
+                    getId("string/" + name);
+                } else if (tag.endsWith("array")) {
+                    arrayName = r.getAttributeValue(null, "name");
+                } else if (tag.equals("item") && arrayName != null) {
+                    items.add(unescape(r.getElementText()));
+                }
+            }
+            r.close();
+        } finally {
+            in.close();
+        }
+    }
+
+    private XmlResourceParser.Event[] readXml(File file)
+            throws IOException, XMLStreamException {
+        InputStream in = new FileInputStream(file);
+        try {
+            XMLStreamReader r = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            ArrayList<XmlResourceParser.Event> events =
+                    new ArrayList<XmlResourceParser.Event>();
+            while (r.hasNext()) {
+                int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    int n = r.getAttributeCount();
+                    String[] names = new String[n];
+                    String[] values = new String[n];
+                    for (int i = 0; i < n; i++) {
+                        names[i] = r.getAttributeLocalName(i);
+                        values[i] = r.getAttributeValue(i);
+                    }
+                    events.add(new XmlResourceParser.Event(
+                            r.getLocalName(), names, values, r.getLocation().getLineNumber()));
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    events.add(new XmlResourceParser.Event(
+                            r.getLocalName(), null, null, r.getLocation().getLineNumber()));
+                }
+            }
+            r.close();
+            return events.toArray(new XmlResourceParser.Event[events.size()]);
+        } finally {
+            in.close();
+        }
+    }
+
+    // aapt drops the quotes and backslashes of string values.
+    private static String unescape(String s) {
+        s = s.trim();
+        if (s.length() >= 2 && s.startsWith("\"") && s.endsWith("\"")) {
+            s = s.substring(1, s.length() - 1);
+        }
+        return s.replace("\\'", "'").replace("\\\"", "\"").replace("\\n", "\n");
+    }
+
+    public final class Theme {
+        public boolean resolveAttribute(int resid, TypedValue outValue, boolean resolveRefs) {
+            return false;
+        }
+    }
+
+    public static class NotFoundException extends RuntimeException {
+        public NotFoundException(String name) {
+            super(name);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import android.util.TypedValue;
+
+// The raw values of some attributes or array items, resolved on access.
+public class TypedArray {
+    private final Resources mResources;
+    private final String[] mValues;
+
+    TypedArray(Resources resources, String[] values) {
+        mResources = resources;
+        mValues = values;
+    }
+
+    public int length() {
+        return mValues.length;
+    }
+
+    public String getString(int index) {
+        return mResources.resolveString(mValues[index]);
+    }
+
+    public CharSequence[] getTextArray(int index) {
+        int id = mResources.getReferenceId(mValues[index]);
+        return (id == 0) ? null : mResources.getTextArray(id);
+    }
+
+    public int getResourceId(int index, int defValue) {
+        int id = mResources.getReferenceId(mValues[index]);
+        return (id == 0) ? defValue : id;
+    }
+
+    public TypedValue peekValue(int index) {
+        String value = mValues[index];
+        if (value == null) return null;
+        TypedValue tv = new TypedValue();
+        tv.type = mResources.getValueType(value);
+        tv.resourceId = mResources.getReferenceId(value);
+        if (tv.type == TypedValue.TYPE_STRING) tv.string = mResources.resolveString(value);
+        return tv;
+    }
+
+    public void recycle() {
+    }
+}
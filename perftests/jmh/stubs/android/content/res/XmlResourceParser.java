@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import android.util.AttributeSet;
+
+import org.xmlpull.v1.XmlPullParser;
+
+// A cursor over the element events of a parsed XML resource. Text is
+// dropped; preference XML has none.
+public class XmlResourceParser implements XmlPullParser, AttributeSet {
+    static class Event {
+        final String name;
+        // Null for an end tag.
+        final String[] attrNames;
+        final String[] attrValues;
+        final int line;
+
+        Event(String name, String[] attrNames, String[] attrValues, int line) {
+            this.name = name;
+            this.attrNames = attrNames;
+            this.attrValues = attrValues;
+            this.line = line;
+        }
+    }
+
+    private final Event[] mEvents;
+    private int mIndex = -1;
+    private int mDepth;
+    private int mType = START_DOCUMENT;
+
+    XmlResourceParser(Event[] events) {
+        mEvents = events;
+    }
+
+    @Override
+    public int next() {
+        // The depth of an end tag is that of its start tag.
+        if (mType == END_TAG) mDepth--;
+        if (++mIndex >= mEvents.length) {
+            mIndex = mEvents.length;
+            return mType = END_DOCUMENT;
+        }
+        if (mEvents[mIndex].attrNames != null) {
+            mDepth++;
+            return mType = START_TAG;
+        }
+        return mType = END_TAG;
+    }
+
+    @Override
+    public int getEventType() {
+        return mType;
+    }
+
+    @Override
+    public String getName() {
+        return (mType == START_TAG || mType == END_TAG) ? mEvents[mIndex].name : null;
+    }
+
+    @Override
+    public int getDepth() {
+        return mDepth;
+    }
+
+    @Override
+    public String getPositionDescription() {
+        int line = (mIndex >= 0 && mIndex < mEvents.length) ? mEvents[mIndex].line : -1;
+        return "Binary XML file line #" + line;
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return (mType == START_TAG) ? mEvents[mIndex].attrNames.length : -1;
+    }
+
+    @Override
+    public String getAttributeName(int index) {
+        return mEvents[mIndex].attrNames[index];
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return mEvents[mIndex].attrValues[index];
+    }
+
+    @Override
+    public String getAttributeValue(String namespace, String name) {
+        if (mType != START_TAG) return null;
+        String[] names = mEvents[mIndex].attrNames;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return mEvents[mIndex].attrValues[i];
+        }
+        return null;
+    }
+
+    public void close() {
+    }
+}
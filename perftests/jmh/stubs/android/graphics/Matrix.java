@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.graphics;
+
+// An affine transform, like the platform one without the perspective row.
+// The post* calls apply the new transform after the current one.
+public class Matrix {
+    // | a b c |
+    // | d e f |
+    private float mA = 1, mB, mC;
+    private float mD, mE = 1, mF;
+
+    public void reset() {
+        set(1, 0, 0, 0, 1, 0);
+    }
+
+    public void setScale(float sx, float sy) {
+        set(sx, 0, 0, 0, sy, 0);
+    }
+
+    public boolean postScale(float sx, float sy) {
+        set(mA * sx, mB * sx, mC * sx, mD * sy, mE * sy, mF * sy);
+        return true;
+    }
+
+    public boolean postTranslate(float dx, float dy) {
+        mC += dx;
+        mF += dy;
+        return true;
+    }
+
+    public boolean postRotate(float degrees) {
+        double rad = Math.toRadians(degrees);
+        float sin = (float) Math.sin(rad);
+        float cos = (float) Math.cos(rad);
+        set(cos * mA - sin * mD, cos * mB - sin * mE, cos * mC - sin * mF,
+                sin * mA + cos * mD, sin * mB + cos * mE, sin * mC + cos * mF);
+        return true;
+    }
+
+    public boolean postRotate(float degrees, float px, float py) {
+        postTranslate(-px, -py);
+        postRotate(degrees);
+        return postTranslate(px, py);
+    }
+
+    public void mapPoints(float[] pts) {
+        for (int i = 0; i + 1 < pts.length; i += 2) {
+            float x = pts[i], y = pts[i + 1];
+            pts[i] = mA * x + mB * y + mC;
+            pts[i + 1] = mD * x + mE * y + mF;
+        }
+    }
+
+    public boolean mapRect(RectF rect) {
+        float[] pts = {rect.left, rect.top, rect.right, rect.bottom};
+        mapPoints(pts);
+        rect.set(Math.min(pts[0], pts[2]), Math.min(pts[1], pts[3]),
+                Math.max(pts[0], pts[2]), Math.max(pts[1], pts[3]));
+        return true;
+    }
+
+    public boolean invert(Matrix inverse) {
+        float det = mA * mE - mB * mD;
+        if (det == 0) return false;
+        float a = mE / det, b = -mB / det, d = -mD / det, e = mA / det;
+        inverse.set(a, b, -(a * mC + b * mF), d, e, -(d * mC + e * mF));
+        return true;
+    }
+
+    public void getValues(float[] values) {
+        values[0] = mA; values[1] = mB; values[2] = mC;
+        values[3] = mD; values[4] = mE; values[5] = mF;
+        values[6] = 0; values[7] = 0; values[8] = 1;
+    }
+
+    private void set(float a, float b, float c, float d, float e, float f) {
+        mA = a; mB = b; mC = c;
+        mD = d; mE = e; mF = f;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Camera {
+    private Camera() {
+    }
+
+    public static int getNumberOfCameras() {
+        return 2;
+    }
+
+    // Camera 0 is a back camera mounted at 90 degrees, camera 1 a front
+    // camera at 270, like most phones.
+    public static void getCameraInfo(int cameraId, CameraInfo info) {
+        info.facing = (cameraId == 0) ? CameraInfo.CAMERA_FACING_BACK
+                : CameraInfo.CAMERA_FACING_FRONT;
+        info.orientation = (cameraId == 0) ? 90 : 270;
+    }
+
+    public static class CameraInfo {
+        public static final int CAMERA_FACING_BACK = 0;
+        public static final int CAMERA_FACING_FRONT = 1;
+
+        public int facing;
+        public int orientation;
+    }
+
+    // Static here so the benchmarks can make sizes without a camera.
+    public static class Size {
+        public int width;
+        public int height;
+
+        public Size(int w, int h) {
+            width = w;
+            height = h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Size)) return false;
+            Size s = (Size) obj;
+            return width == s.width && height == s.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return width * 32713 + height;
+        }
+    }
+
+    public static class Parameters {
+        public static final String FOCUS_MODE_AUTO = "auto";
+
+        private final HashMap<String, String> mMap = new HashMap<String, String>();
+
+        public String get(String key) {
+            return mMap.get(key);
+        }
+
+        public void set(String key, String value) {
+            mMap.put(key, value);
+        }
+
+        public void remove(String key) {
+            mMap.remove(key);
+        }
+
+        public String flatten() {
+            StringBuilder flattened = new StringBuilder();
+            for (Map.Entry<String, String> e : mMap.entrySet()) {
+                if (flattened.length() > 0) flattened.append(';');
+                flattened.append(e.getKey()).append('=').append(e.getValue());
+            }
+            return flattened.toString();
+        }
+
+        public List<String> getSupportedSceneModes() {
+            return split(get("scene-mode-values"));
+        }
+
+        public List<String> getSupportedFocusModes() {
+            return split(get("focus-mode-values"));
+        }
+
+        public int getMaxNumMeteringAreas() {
+            return getInt("max-num-metering-areas");
+        }
+
+        public int getMaxNumFocusAreas() {
+            return getInt("max-num-focus-areas");
+        }
+
+        public void removeGpsData() {
+            remove("gps-latitude");
+            remove("gps-longitude");
+            remove("gps-altitude");
+            remove("gps-timestamp");
+            remove("gps-processing-method");
+        }
+
+        public void setGpsLatitude(double latitude) {
+            set("gps-latitude", Double.toString(latitude));
+        }
+
+        public void setGpsLongitude(double longitude) {
+            set("gps-longitude", Double.toString(longitude));
+        }
+
+        public void setGpsAltitude(double altitude) {
+            set("gps-altitude", Double.toString(altitude));
+        }
+
+        public void setGpsTimestamp(long timestamp) {
+            set("gps-timestamp", Long.toString(timestamp));
+        }
+
+        public void setGpsProcessingMethod(String method) {
+            set("gps-processing-method", method);
+        }
+
+        private int getInt(String key) {
+            String value = get(key);
+            return (value == null) ? 0 : Integer.parseInt(value);
+        }
+
+        private static List<String> split(String str) {
+            if (str == null) return null;
+            List<String> list = new ArrayList<String>();
+            for (String s : str.split(",")) list.add(s);
+            return list;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location;
+
+public class Location {
+    private final String mProvider;
+    private double mLatitude;
+    private double mLongitude;
+    private double mAltitude;
+    private boolean mHasAltitude;
+    private long mTime;
+
+    public Location(String provider) {
+        mProvider = provider;
+    }
+
+    public String getProvider() { return mProvider; }
+    public double getLatitude() { return mLatitude; }
+    public void setLatitude(double latitude) { mLatitude = latitude; }
+    public double getLongitude() { return mLongitude; }
+    public void setLongitude(double longitude) { mLongitude = longitude; }
+    public boolean hasAltitude() { return mHasAltitude; }
+    public double getAltitude() { return mAltitude; }
+    public void setAltitude(double altitude) { mAltitude = altitude; mHasAltitude = true; }
+    public long getTime() { return mTime; }
+    public void setTime(long time) { mTime = time; }
+}
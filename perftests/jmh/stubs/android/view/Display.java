@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.view;
+
+import android.graphics.Point;
+import android.util.DisplayMetrics;
+
+public class Display {
+    private final int mWidth;
+    private final int mHeight;
+
+    public Display(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public void getSize(Point outSize) {
+        outSize.x = mWidth;
+        outSize.y = mHeight;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public void getMetrics(DisplayMetrics outMetrics) {
+        outMetrics.widthPixels = mWidth;
+        outMetrics.heightPixels = mHeight;
+        outMetrics.density = 3;
+        outMetrics.densityDpi = 480;
+    }
+
+    public int getRotation() {
+        return Surface.ROTATION_0;
+    }
+}
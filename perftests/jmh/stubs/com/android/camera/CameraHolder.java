@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.hardware.Camera;
+import android.hardware.Camera.CameraInfo;
+
+// The camera info of the stubbed android.hardware.Camera. Opening a camera
+// fails.
+public class CameraHolder {
+    private static CameraHolder sHolder;
+
+    private final CameraInfo[] mInfo;
+
+    public static synchronized CameraHolder instance() {
+        if (sHolder == null) sHolder = new CameraHolder();
+        return sHolder;
+    }
+
+    private CameraHolder() {
+        mInfo = new CameraInfo[Camera.getNumberOfCameras()];
+        for (int i = 0; i < mInfo.length; i++) {
+            mInfo[i] = new CameraInfo();
+            Camera.getCameraInfo(i, mInfo[i]);
+        }
+    }
+
+    public int getNumberOfCameras() {
+        return mInfo.length;
+    }
+
+    public CameraInfo[] getCameraInfo() {
+        return mInfo;
+    }
+
+    public CameraManager.CameraProxy open(int cameraId) throws CameraHardwareException {
+        throw new CameraHardwareException(new RuntimeException("no camera"));
+    }
+
+    public int getBackCameraId() {
+        return 0;
+    }
+
+    public int getFrontCameraId() {
+        return 1;
+    }
+}
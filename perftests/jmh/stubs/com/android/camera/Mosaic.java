@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stands in for the JNI mosaicer. setSourceImageFromGPU() replays a pan
+ * of {@link #PAN_FRAMES} frames: the camera moves right at a rate that
+ * speeds up and slows down, with some vertical shake, like a hand-held
+ * sweep. The result array is reused; the real one is allocated by the
+ * native code, which is outside what the benchmarks measure.
+ */
+public class Mosaic {
+    public interface ProgressListener {
+        public void onProgress(int progress);
+    }
+
+    public static final int BLENDTYPE_FULL = 0;
+    public static final int BLENDTYPE_PAN = 1;
+    public static final int BLENDTYPE_CYLINDERPAN = 2;
+    public static final int BLENDTYPE_HORIZONTAL = 3;
+    public static final int STRIPTYPE_THIN = 0;
+    public static final int STRIPTYPE_WIDE = 1;
+
+    public static final int MOSAIC_RET_OK = 1;
+    public static final int MOSAIC_RET_ERROR = -1;
+    public static final int MOSAIC_RET_CANCELLED = -2;
+    public static final int MOSAIC_RET_LOW_TEXTURE = -3;
+    public static final int MOSAIC_RET_FEW_INLIERS = 2;
+
+    public static final int PAN_FRAMES = 100;
+
+    // The layout MosaicFrameProcessor reads: a 3x3 transform, the frame
+    // count and the return code.
+    private static final int RESULT_LENGTH = 11;
+    private static final int X_INDEX = 2;
+    private static final int Y_INDEX = 5;
+    private static final int FRAME_COUNT_INDEX = 9;
+    private static final int RET_CODE_INDEX = 10;
+
+    private static final float[] PAN_X = new float[PAN_FRAMES];
+    private static final float[] PAN_Y = new float[PAN_FRAMES];
+
+    static {
+        float x = 0;
+        for (int i = 0; i < PAN_FRAMES; i++) {
+            // In low-res pixels: 160x120 frames, 1 to 7 pixels per frame.
+            x += 4 + 3 * (float) Math.sin(i * Math.PI / 25);
+            PAN_X[i] = x;
+            PAN_Y[i] = 2 * (float) Math.sin(i * 0.7);
+        }
+    }
+
+    private final float[] mResult = new float[RESULT_LENGTH];
+    private int mFrame;
+
+    public void allocateMosaicMemory(int width, int height) {
+    }
+
+    public void freeMosaicMemory() {
+    }
+
+    public void setFrameBudget(long bytes) {
+    }
+
+    public int getMaxFrames() {
+        return PAN_FRAMES;
+    }
+
+    public void setSpillFile(String path) {
+    }
+
+    public int suspend() {
+        return 0;
+    }
+
+    public int resume(String path, int width, int height) {
+        return 0;
+    }
+
+    public float[] setSourceImageFromGPU() {
+        int i = mFrame % PAN_FRAMES;
+        mFrame++;
+        mResult[0] = 1;
+        mResult[4] = 1;
+        mResult[8] = 1;
+        mResult[X_INDEX] = PAN_X[i];
+        mResult[Y_INDEX] = PAN_Y[i];
+        mResult[FRAME_COUNT_INDEX] = i + 1;
+        mResult[RET_CODE_INDEX] = MOSAIC_RET_OK;
+        return mResult;
+    }
+
+    public void setBlendingType(int type) {
+    }
+
+    public void setStripType(int type) {
+    }
+
+    public void setBlendThreads(int count) {
+    }
+
+    public void setAlignThreads(int count) {
+    }
+
+    public void setMinStripWidth(float fraction) {
+    }
+
+    public int createMosaic(boolean value, ProgressListener listener) {
+        return MOSAIC_RET_OK;
+    }
+
+    public int[] getFinalMosaic() {
+        return null;
+    }
+
+    public byte[] getFinalMosaicNV21() {
+        return null;
+    }
+
+    public int[] getFinalMosaicSize() {
+        return null;
+    }
+
+    public int getFinalMosaicNV21Strip(byte[] strip, int top, int rows) {
+        return 0;
+    }
+
+    public void releaseFinalMosaic() {
+    }
+
+    public int[] copyLiveMosaic(ByteBuffer buffer) {
+        return null;
+    }
+
+    public void reset() {
+        mFrame = 0;
+    }
+
+    public int reportProgress(boolean hires, boolean cancelComputation) {
+        return 100;
+    }
+}
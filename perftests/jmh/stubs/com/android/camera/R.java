@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+// The resources the benchmarked classes refer to. Resources maps these ids
+// to names by reflection; everything else gets an id on first use.
+public final class R {
+    public static final class attr {
+        public static final int title = 0x7f010000;
+        public static final int key = 0x7f010001;
+        public static final int defaultValue = 0x7f010002;
+        public static final int entryValues = 0x7f010003;
+        public static final int entries = 0x7f010004;
+        public static final int singleIcon = 0x7f010005;
+        public static final int icons = 0x7f010006;
+        public static final int largeIcons = 0x7f010007;
+        public static final int images = 0x7f010008;
+    }
+
+    public static final class string {
+        public static final int image_file_name_format = 0x7f020000;
+        public static final int camera_error_title = 0x7f020001;
+        public static final int dialog_ok = 0x7f020002;
+    }
+
+    public static final class xml {
+        public static final int camera_preferences = 0x7f030000;
+        public static final int video_preferences = 0x7f030001;
+    }
+
+    public static final class styleable {
+        public static final int[] CameraPreference = {attr.title};
+        public static final int CameraPreference_title = 0;
+        public static final int[] ListPreference = {
+            attr.key, attr.defaultValue, attr.entryValues, attr.entries
+        };
+        public static final int ListPreference_key = 0;
+        public static final int ListPreference_defaultValue = 1;
+        public static final int ListPreference_entryValues = 2;
+        public static final int ListPreference_entries = 3;
+        public static final int[] IconListPreference = {
+            attr.singleIcon, attr.icons, attr.largeIcons, attr.images
+        };
+        public static final int IconListPreference_singleIcon = 0;
+        public static final int IconListPreference_icons = 1;
+        public static final int IconListPreference_largeIcons = 2;
+        public static final int IconListPreference_images = 3;
+    }
+}
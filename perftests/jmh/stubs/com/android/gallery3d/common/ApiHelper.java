@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.common;
+
+import android.os.Build;
+
+// The API levels of the stubbed platform: everything the camera checks for
+// is there.
+public class ApiHelper {
+    public static interface VERSION_CODES {
+        public static final int HONEYCOMB_MR2 = 13;
+        public static final int ICE_CREAM_SANDWICH = 14;
+        public static final int JELLY_BEAN = 16;
+        public static final int JELLY_BEAN_MR1 = 17;
+    }
+
+    public static final boolean HAS_CAMERA_METERING_AREA = true;
+    public static final boolean HAS_CAMERA_FOCUS_AREA = true;
+    public static final boolean HAS_GET_CAMERA_DISABLED = true;
+    public static final boolean AT_LEAST_16 = Build.VERSION.SDK_INT >= 16;
+}
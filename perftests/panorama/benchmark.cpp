@@ -14,22 +14,110 @@
  * limitations under the License.
  */
 
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
 #include <time.h>
+#include <unistd.h>
+#include <sys/resource.h>
 #include <sys/types.h>
 #include <sys/stat.h>
-#include <unistd.h>
 
 #include "mosaic/Mosaic.h"
+#include "mosaic/MosaicArena.h"
 #include "mosaic/ImageUtils.h"
 
 #define MAX_FRAMES 200
-#define KERNEL_ITERATIONS 10
+#define MAX_ITERATIONS 1000
+#define DEFAULT_ITERATIONS 10
+#define DEFAULT_TOLERANCE 1.25
+
+// Exit codes, so scripts can tell a slow build from a broken one.
+#define EXIT_OK 0
+#define EXIT_USAGE 1
+#define EXIT_GOLDEN_MISMATCH 2
+#define EXIT_REGRESSION 3
 
 const int blendingType = Blend::BLEND_TYPE_HORZ;
 const int stripType = Blend::STRIP_TYPE_WIDE;
 
+ImageType rgbFrames[MAX_FRAMES];
 ImageType yvuFrames[MAX_FRAMES];
 
+// The timed stages. FillFramePyramid and PerformFinalBlending are part of
+// DoMergeAndBlend; total is the whole iteration.
+enum {
+    STAGE_RGB2YVU,
+    STAGE_ALIGN,
+    STAGE_COMPUTE_BLEND_PARAMETERS,
+    STAGE_FILL_FRAME_PYRAMID,
+    STAGE_DO_MERGE_AND_BLEND,
+    STAGE_PERFORM_FINAL_BLENDING,
+    STAGE_TOTAL,
+    STAGE_COUNT
+};
+
+const char *stageNames[STAGE_COUNT] = {
+    "rgb2yvu",
+    "align_add_frame",
+    "compute_blend_parameters",
+    "fill_frame_pyramid",
+    "do_merge_and_blend",
+    "perform_final_blending",
+    "total",
+};
+
+// Seconds, per stage and iteration.
+double samples[STAGE_COUNT][MAX_ITERATIONS];
+
+struct Summary {
+    double min;
+    double median;
+    double p95;
+};
+
+static double now()
+{
+    struct timespec t;
+    clock_gettime(CLOCK_MONOTONIC, &t);
+    return t.tv_sec + t.tv_nsec / 1e9;
+}
+
+static int compareDoubles(const void *a, const void *b)
+{
+    double x = *(const double *) a;
+    double y = *(const double *) b;
+    return (x < y) ? -1 : (x > y) ? 1 : 0;
+}
+
+// Nearest-rank percentile of n sorted values.
+static double percentile(const double *sorted, int n, int p)
+{
+    int rank = (p * n + 99) / 100;
+    if (rank < 1) rank = 1;
+    return sorted[rank - 1];
+}
+
+static Summary summarize(const double *values, int n)
+{
+    double sorted[MAX_ITERATIONS];
+    memcpy(sorted, values, n * sizeof(double));
+    qsort(sorted, n, sizeof(double), compareDoubles);
+
+    Summary s;
+    s.min = sorted[0];
+    s.median = percentile(sorted, n, 50);
+    s.p95 = percentile(sorted, n, 95);
+    return s;
+}
+
+static long peakRssKb()
+{
+    struct rusage usage;
+    if (getrusage(RUSAGE_SELF, &usage) != 0) return -1;
+    return usage.ru_maxrss;  // kilobytes on Linux
+}
+
 int loadImages(const char* basename, int &width, int &height)
 {
     char filename[512];
@@ -39,32 +127,158 @@ int loadImages(const char* basename, int &width, int &height)
     for (i = 0; i < MAX_FRAMES; i++) {
         sprintf(filename, "%s_%03d.ppm", basename, i + 1);
         if (stat(filename, &filestat) != 0) break;
-        ImageType rgbFrame = ImageUtils::readBinaryPPM(filename, width, height);
+        rgbFrames[i] = ImageUtils::readBinaryPPM(filename, width, height);
         yvuFrames[i] = ImageUtils::allocateImage(width, height,
                                 ImageUtils::IMAGE_TYPE_NUM_CHANNELS);
-        ImageUtils::rgb2yvu(yvuFrames[i], rgbFrame, width, height);
-        ImageUtils::freeImage(rgbFrame);
     }
     return i;
 }
 
-int main(int argc, char **argv)
+// Compares the mosaic with the golden image. Returns true if they have the
+// same size and no channel differs by more than maxDiff.
+bool checkGolden(const char *golden, ImageType imageRGB, int width, int height,
+        int maxDiff, int &worstDiff, long &differingPixels)
 {
-    struct timespec t1, t2, t3;
+    int goldenWidth = 0, goldenHeight = 0;
+    ImageType goldenRGB = ImageUtils::readBinaryPPM(golden, goldenWidth,
+            goldenHeight);
 
-    int width, height;
-    float totalElapsedTime = 0;
+    worstDiff = 0;
+    differingPixels = 0;
+    if (goldenRGB == NULL) return false;
+    if (goldenWidth != width || goldenHeight != height) {
+        fprintf(stderr, "Golden image is %dx%d, mosaic is %dx%d\n",
+                goldenWidth, goldenHeight, width, height);
+        ImageUtils::freeImage(goldenRGB);
+        return false;
+    }
+
+    long pixels = (long) width * height;
+    for (long i = 0; i < pixels; i++) {
+        int pixelDiff = 0;
+        for (int c = 0; c < 3; c++) {
+            int d = abs(imageRGB[3 * i + c] - goldenRGB[3 * i + c]);
+            if (d > pixelDiff) pixelDiff = d;
+        }
+        if (pixelDiff > 0) differingPixels++;
+        if (pixelDiff > worstDiff) worstDiff = pixelDiff;
+    }
 
-    const char *basename;
-    const char *filename;
+    ImageUtils::freeImage(goldenRGB);
+    return worstDiff <= maxDiff;
+}
+
+// Reads the median of a stage from a JSON report written by this program.
+// Returns a negative value if it is not there.
+double readBaselineMedian(const char *json, const char *stage)
+{
+    char key[128];
+    snprintf(key, sizeof(key), "\"%s\":", stage);
+    const char *p = strstr(json, key);
+    if (p == NULL) return -1;
+    p = strstr(p, "\"median\":");
+    if (p == NULL) return -1;
+    return atof(p + strlen("\"median\":"));
+}
+
+char *readFile(const char *filename)
+{
+    FILE *f = fopen(filename, "r");
+    if (f == NULL) return NULL;
+    fseek(f, 0, SEEK_END);
+    long size = ftell(f);
+    fseek(f, 0, SEEK_SET);
+    char *data = (char *) malloc(size + 1);
+    size = fread(data, 1, size, f);
+    data[size] = '\0';
+    fclose(f);
+    return data;
+}
 
-    if (argc != 3) {
-        printf("Usage: %s input_dir output_filename\n", argv[0]);
-        return 0;
-    } else {
-        basename = argv[1];
-        filename = argv[2];
+void writeJson(FILE *out, int frames, int blendedFrames, int iterations,
+        int threads, int alignThreads, float minStripWidth, int mosaicWidth, int mosaicHeight,
+        const MosaicArena::Stats &arena, const char *golden, bool goldenMatch,
+        int worstDiff, long differingPixels)
+{
+    fprintf(out, "{\n");
+    fprintf(out, "  \"frames\": %d,\n", frames);
+    fprintf(out, "  \"blended_frames\": %d,\n", blendedFrames);
+    fprintf(out, "  \"iterations\": %d,\n", iterations);
+    fprintf(out, "  \"threads\": %d,\n", threads);
+    fprintf(out, "  \"align_threads\": %d,\n", alignThreads);
+    fprintf(out, "  \"min_strip_width\": %g,\n", minStripWidth);
+    fprintf(out, "  \"mosaic\": { \"width\": %d, \"height\": %d },\n",
+            mosaicWidth, mosaicHeight);
+    fprintf(out, "  \"peak_rss_kb\": %ld,\n", peakRssKb());
+    fprintf(out, "  \"arena\": { \"peak_kb\": %zu, \"allocations\": %ld, "
+            "\"reused\": %ld },\n", arena.peakBytes / 1024, arena.allocations,
+            arena.reuseHits);
+    fprintf(out, "  \"stages\": {\n");
+    for (int s = 0; s < STAGE_COUNT; s++) {
+        Summary sum = summarize(samples[s], iterations);
+        fprintf(out, "    \"%s\": { \"min\": %.6f, \"median\": %.6f, "
+                "\"p95\": %.6f }%s\n", stageNames[s], sum.min, sum.median,
+                sum.p95, (s == STAGE_COUNT - 1) ? "" : ",");
+    }
+    fprintf(out, "  }");
+    if (golden != NULL) {
+        fprintf(out, ",\n  \"golden\": { \"path\": \"%s\", \"match\": %s, "
+                "\"max_diff\": %d, \"differing_pixels\": %ld }", golden,
+                goldenMatch ? "true" : "false", worstDiff, differingPixels);
+    }
+    fprintf(out, "\n}\n");
+}
+
+void usage(const char *name)
+{
+    printf("Usage: %s [options] input_basename output_filename\n"
+           "  -n iterations   number of iterations (default %d)\n"
+           "  -t threads      blending threads (default 1)\n"
+           "  -a threads      alignment threads (default 1)\n"
+           "  -s fraction     minimum strip width, of the frame width (default 0)\n"
+           "  -j file         write a JSON report to file, - for stdout\n"
+           "  -g golden.ppm   fail if the mosaic differs from this image\n"
+           "  -d max_diff     largest channel difference -g accepts (default 0)\n"
+           "  -b base.json    fail if a stage median is slower than in this report\n"
+           "  -r ratio        slowdown -b accepts (default %.2f)\n",
+           name, DEFAULT_ITERATIONS, DEFAULT_TOLERANCE);
+}
+
+int main(int argc, char **argv)
+{
+    int iterations = DEFAULT_ITERATIONS;
+    int threads = 1;
+    int alignThreads = 1;
+    float minStripWidth = 0.0f;
+    const char *jsonFile = NULL;
+    const char *golden = NULL;
+    int maxDiff = 0;
+    const char *baseline = NULL;
+    double tolerance = DEFAULT_TOLERANCE;
+
+    int opt;
+    while ((opt = getopt(argc, argv, "n:t:a:s:j:g:d:b:r:")) != -1) {
+        switch (opt) {
+            case 'n': iterations = atoi(optarg); break;
+            case 't': threads = atoi(optarg); break;
+            case 'a': alignThreads = atoi(optarg); break;
+            case 's': minStripWidth = atof(optarg); break;
+            case 'j': jsonFile = optarg; break;
+            case 'g': golden = optarg; break;
+            case 'd': maxDiff = atoi(optarg); break;
+            case 'b': baseline = optarg; break;
+            case 'r': tolerance = atof(optarg); break;
+            default: usage(argv[0]); return EXIT_USAGE;
+        }
     }
+    if (argc - optind != 2 || iterations < 1 || iterations > MAX_ITERATIONS) {
+        usage(argv[0]);
+        return EXIT_USAGE;
+    }
+    const char *basename = argv[optind];
+    const char *filename = argv[optind + 1];
+
+    int width, height;
 
     // Load the images outside the computational kernel
     int totalFrames = loadImages(basename, width, height);
@@ -72,60 +286,138 @@ int main(int argc, char **argv)
     if (totalFrames == 0) {
         printf("Image files not found. Make sure %s exists.\n",
                basename);
-        return 1;
+        return EXIT_USAGE;
     }
 
     printf("%d frames loaded\n", totalFrames);
 
+    int mosaicWidth = 0, mosaicHeight = 0;
+    int blendedFrames = 0;
+    bool goldenMatch = true;
+    int worstDiff = 0;
+    long differingPixels = 0;
+
+    // Like the app, keep the memory of the mosaic from one run to the next.
+    MosaicArena arena;
 
     // Interesting stuff is here
-    for (int iteration = 0; iteration < KERNEL_ITERATIONS; iteration++)  {
-        Mosaic mosaic;
+    for (int iteration = 0; iteration < iterations; iteration++)  {
+        double t0 = now();
+        for (int i = 0; i < totalFrames; i++) {
+            ImageUtils::rgb2yvu(yvuFrames[i], rgbFrames[i], width, height);
+        }
+        double t1 = now();
+
+        Mosaic mosaic(&arena);
 
         mosaic.initialize(blendingType, stripType, width, height, -1, false, 0);
+        mosaic.setBlendThreads(threads);
+        mosaic.setAlignThreads(alignThreads);
+        mosaic.setMinStripWidth(minStripWidth);
 
-        clock_gettime(CLOCK_MONOTONIC, &t1);
+        double t2 = now();
         for (int i = 0; i < totalFrames; i++) {
             mosaic.addFrame(yvuFrames[i]);
         }
-        clock_gettime(CLOCK_MONOTONIC, &t2);
+        double t3 = now();
 
         float progress = 0.0;
         bool cancelComputation = false;
 
         mosaic.createMosaic(progress, cancelComputation);
 
-        int mosaicWidth, mosaicHeight;
         ImageType resultYVU = mosaic.getMosaic(mosaicWidth, mosaicHeight);
+        double t4 = now();
+        blendedFrames = mosaic.getBlender()->getBlendedFrameCount();
 
-        ImageType imageRGB = ImageUtils::allocateImage(
-            mosaicWidth, mosaicHeight, ImageUtils::IMAGE_TYPE_NUM_CHANNELS);
-
-        clock_gettime(CLOCK_MONOTONIC, &t3);
-
-        float elapsedTime =
-            (t3.tv_sec - t1.tv_sec) + (t3.tv_nsec - t1.tv_nsec)/1e9;
-        float addImageTime =
-            (t2.tv_sec - t1.tv_sec) + (t2.tv_nsec - t1.tv_nsec)/1e9;
-        float stitchImageTime =
-            (t3.tv_sec - t2.tv_sec) + (t3.tv_nsec - t2.tv_nsec)/1e9;
+        const Blend::StageTimes &times = mosaic.getBlender()->getStageTimes();
+        samples[STAGE_RGB2YVU][iteration] = t1 - t0;
+        samples[STAGE_ALIGN][iteration] = t3 - t2;
+        samples[STAGE_COMPUTE_BLEND_PARAMETERS][iteration] =
+                times.computeBlendParameters;
+        samples[STAGE_FILL_FRAME_PYRAMID][iteration] = times.fillFramePyramid;
+        samples[STAGE_DO_MERGE_AND_BLEND][iteration] = times.doMergeAndBlend;
+        samples[STAGE_PERFORM_FINAL_BLENDING][iteration] =
+                times.performFinalBlending;
+        samples[STAGE_TOTAL][iteration] = (t1 - t0) + (t4 - t2);
 
-        totalElapsedTime += elapsedTime;
-
-        printf("Iteration %d: %dx%d moasic created: "
-               "%.2f seconds (%.2f + %.2f)\n",
+        printf("Iteration %d: %dx%d mosaic created: "
+               "%.2f seconds (%.2f + %.2f), %d frames blended\n",
                iteration, mosaicWidth, mosaicHeight,
-               elapsedTime, addImageTime, stitchImageTime);
+               samples[STAGE_TOTAL][iteration], t3 - t2, t4 - t3,
+               blendedFrames);
 
-        // Write the output only once for correctness check
+        // Write and check the output only once for correctness
         if (iteration == 0) {
+            ImageType imageRGB = ImageUtils::allocateImage(
+                mosaicWidth, mosaicHeight, ImageUtils::IMAGE_TYPE_NUM_CHANNELS);
             ImageUtils::yvu2rgb(imageRGB, resultYVU, mosaicWidth,
                                 mosaicHeight);
             ImageUtils::writeBinaryPPM(imageRGB, filename, mosaicWidth,
                                        mosaicHeight);
+            if (golden != NULL) {
+                goldenMatch = checkGolden(golden, imageRGB, mosaicWidth,
+                        mosaicHeight, maxDiff, worstDiff, differingPixels);
+            }
+            ImageUtils::freeImage(imageRGB);
+        }
+    }
+
+    printf("\n%-26s %10s %10s %10s\n", "stage (seconds)", "min", "median", "p95");
+    for (int s = 0; s < STAGE_COUNT; s++) {
+        Summary sum = summarize(samples[s], iterations);
+        printf("%-26s %10.4f %10.4f %10.4f\n", stageNames[s], sum.min,
+                sum.median, sum.p95);
+    }
+    printf("Peak RSS: %ld KB\n", peakRssKb());
+    MosaicArena::Stats arenaStats = arena.getStats();
+    printf("Arena: peak %zu KB, %ld allocations, %ld reused\n",
+            arenaStats.peakBytes / 1024, arenaStats.allocations,
+            arenaStats.reuseHits);
+
+    if (jsonFile != NULL) {
+        FILE *out = (strcmp(jsonFile, "-") == 0) ? stdout : fopen(jsonFile, "w");
+        if (out == NULL) {
+            fprintf(stderr, "Cannot write %s\n", jsonFile);
+            return EXIT_USAGE;
+        }
+        writeJson(out, totalFrames, blendedFrames, iterations, threads,
+                alignThreads, minStripWidth, mosaicWidth,
+                mosaicHeight, arenaStats, golden, goldenMatch, worstDiff, differingPixels);
+        if (out != stdout) fclose(out);
+    }
+
+    int ret = EXIT_OK;
+
+    if (golden != NULL) {
+        if (goldenMatch) {
+            printf("Output matches %s\n", golden);
+        } else {
+            printf("FAIL: output differs from %s (max diff %d, %ld pixels)\n",
+                    golden, worstDiff, differingPixels);
+            ret = EXIT_GOLDEN_MISMATCH;
+        }
+    }
+
+    if (baseline != NULL) {
+        char *json = readFile(baseline);
+        if (json == NULL) {
+            fprintf(stderr, "Cannot read %s\n", baseline);
+            return EXIT_USAGE;
+        }
+        for (int s = 0; s < STAGE_COUNT; s++) {
+            double base = readBaselineMedian(json, stageNames[s]);
+            double median = summarize(samples[s], iterations).median;
+            // Ignore differences below a millisecond; they are noise.
+            if (base <= 0 || median - base < 0.001) continue;
+            if (median > base * tolerance) {
+                printf("FAIL: %s median %.4fs is %.0f%% slower than %.4fs\n",
+                        stageNames[s], median, (median / base - 1) * 100, base);
+                if (ret == EXIT_OK) ret = EXIT_REGRESSION;
+            }
         }
+        free(json);
     }
-    printf("Total elapsed time: %.2f seconds\n", totalElapsedTime);
 
-    return 0;
+    return ret;
 }
@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+// Checks that every FrameConvert level gives exactly the output of the
+// scalar conversions feature_mos_jni.cpp used before, and times them:
+//
+//   convert_test [-n iterations] [input_basename]
+//
+// Random images of several sizes are always checked. With input frames,
+// they are converted to NV21 and YVUA like camera frames, checked, and
+// each level is timed over all of them.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+#include <sys/stat.h>
+
+#include "mosaic/FrameConvert.h"
+#include "mosaic/ImageUtils.h"
+
+#define MAX_FRAMES 200
+#define DEFAULT_ITERATIONS 20
+// Bytes after each output buffer, to catch writes past the end.
+#define SLACK 64
+
+#define EXIT_OK 0
+#define EXIT_USAGE 1
+#define EXIT_MISMATCH 2
+
+// The reference conversions, as they were in feature_mos_jni.cpp.
+
+static void YUV420toYVU24_NEW(ImageType yvu24, ImageType yuv420sp, int width,
+        int height)
+{
+    int frameSize = width * height;
+
+    ImageType ovp = yvu24 + frameSize;
+    ImageType oup = yvu24 + frameSize + frameSize;
+
+    memcpy(yvu24, yuv420sp, frameSize * sizeof(unsigned char));
+
+    for (int j = 0; j < height; j += 2)
+    {
+        unsigned char u = 0, v = 0;
+        int uvp = frameSize + (j >> 1) * width;
+        ovp = yvu24 + frameSize + j * width;
+        oup = ovp + frameSize;
+
+        ImageType iuvp = yuv420sp + uvp;
+
+        for (int i = 0; i < width; i += 2)
+        {
+            v = *iuvp++;
+            u = *iuvp++;
+
+            *ovp++ = v;
+            *oup++ = u;
+
+            *ovp++ = v;
+            *oup++ = u;
+
+        }
+        memcpy(ovp, ovp - width, width * sizeof(unsigned char));
+        memcpy(oup, oup - width, width * sizeof(unsigned char));
+    }
+}
+
+#define H2L_FACTOR 4
+
+static void GenerateQuarterResImagePlanar(ImageType im, int input_w, int input_h,
+        ImageType &out)
+{
+    ImageType imp;
+    ImageType outp;
+
+    for (int j = 0; j < input_h; j += H2L_FACTOR)
+    {
+        imp = im + j * input_w;
+        outp = out + (j / H2L_FACTOR) * (input_w / H2L_FACTOR);
+
+        for (int i = 0; i < input_w; i += H2L_FACTOR)
+        {
+            *outp++ = *(imp + i);
+        }
+    }
+
+    for (int j = input_h; j < 2 * input_h; j += H2L_FACTOR)
+    {
+        imp = im + j * input_w;
+        outp = out + (j / H2L_FACTOR) * (input_w / H2L_FACTOR);
+
+        for (int i = 0; i < input_w; i += H2L_FACTOR)
+        {
+            *outp++ = *(imp + i);
+        }
+    }
+
+    for (int j = 2 * input_h; j < 3 * input_h; j += H2L_FACTOR)
+    {
+        imp = im + j * input_w;
+        outp = out + (j / H2L_FACTOR) * (input_w / H2L_FACTOR);
+
+        for (int i = 0; i < input_w; i += H2L_FACTOR)
+        {
+            *outp++ = *(imp + i);
+        }
+    }
+}
+
+static void decodeYUV444SP(unsigned char* rgb, unsigned char* yuv420sp, int width,
+        int height)
+{
+    int frameSize = width * height;
+
+    for (int j = 0, yp = 0; j < height; j++)
+    {
+        int vp = frameSize + j * width, u = 0, v = 0;
+        int up = vp + frameSize;
+
+        for (int i = 0; i < width; i++, yp++, vp++, up++)
+        {
+            int y = (0xff & ((int) yuv420sp[yp])) - 16;
+            if (y < 0) y = 0;
+
+            v = (0xff & yuv420sp[vp]) - 128;
+            u = (0xff & yuv420sp[up]) - 128;
+
+            int y1192 = 1192 * y;
+            int r = (y1192 + 1634 * v);
+            int g = (y1192 - 833 * v - 400 * u);
+            int b = (y1192 + 2066 * u);
+
+            if (r < 0) r = 0; else if (r > 262143) r = 262143;
+            if (g < 0) g = 0; else if (g > 262143) g = 262143;
+            if (b < 0) b = 0; else if (b > 262143) b = 262143;
+
+            int p = j*width*3+i*3;
+            rgb[p+0] = (r<<6 & 0xFF0000)>>16;
+            rgb[p+1] = (g>>2 & 0xFF00)>>8;
+            rgb[p+2] =  b>>10 & 0xFF;
+        }
+    }
+}
+
+static void ConvertYVUAiToPlanarYVU(unsigned char *planar, unsigned char *in, int width,
+        int height)
+{
+    int planeSize = width * height;
+    unsigned char* Yptr = planar;
+    unsigned char* Vptr = planar + planeSize;
+    unsigned char* Uptr = Vptr + planeSize;
+
+    for (int i = 0; i < planeSize; i++)
+    {
+        *Yptr++ = *in++;
+        *Vptr++ = *in++;
+        *Uptr++ = *in++;
+        in++;   // Alpha
+    }
+}
+
+enum {
+    CONVERT_NV21,
+    CONVERT_DOWNSAMPLE,
+    CONVERT_RGB,
+    CONVERT_YVUA,
+    CONVERT_COUNT
+};
+
+static const char *convertNames[CONVERT_COUNT] = {
+    "yvu420spToYvu444",
+    "downsample",
+    "yvu444ToRgb",
+    "yvuaToYvu444",
+};
+
+static int inputSize(int convert, int width, int height)
+{
+    switch (convert) {
+        case CONVERT_NV21: return width * height * 3 / 2;
+        case CONVERT_YVUA: return width * height * 4;
+        default: return width * height * 3;
+    }
+}
+
+static int outputSize(int convert, int width, int height)
+{
+    switch (convert) {
+        // The last row is written from its start at (3 * height - 1) / 4
+        // rows of width / 4, with ceil(width / 4) pixels.
+        case CONVERT_DOWNSAMPLE:
+            return (3 * height - 1) / 4 * (width / 4) + (width + 3) / 4;
+        default: return width * height * 3;
+    }
+}
+
+static void runReference(int convert, ImageType out, ImageType in, int width, int height)
+{
+    switch (convert) {
+        case CONVERT_NV21: YUV420toYVU24_NEW(out, in, width, height); break;
+        case CONVERT_DOWNSAMPLE: GenerateQuarterResImagePlanar(in, width, height, out); break;
+        case CONVERT_RGB: decodeYUV444SP(out, in, width, height); break;
+        case CONVERT_YVUA: ConvertYVUAiToPlanarYVU(out, in, width, height); break;
+    }
+}
+
+static void run(int convert, ImageType out, ImageType in, int width, int height)
+{
+    switch (convert) {
+        case CONVERT_NV21: FrameConvert::yvu420spToYvu444(out, in, width, height); break;
+        case CONVERT_DOWNSAMPLE: FrameConvert::downsample(out, in, width, height, 4); break;
+        case CONVERT_RGB: FrameConvert::yvu444ToRgb(out, in, width, height); break;
+        case CONVERT_YVUA: FrameConvert::yvuaToYvu444(out, in, width, height); break;
+    }
+}
+
+// Runs the reference and the current level on the same input, into
+// buffers with the same fill, and compares them including the slack.
+static bool check(int convert, ImageType in, int width, int height)
+{
+    int size = outputSize(convert, width, height) + SLACK;
+    ImageType expected = new unsigned char[size];
+    ImageType actual = new unsigned char[size];
+    memset(expected, 0x5a, size);
+    memset(actual, 0x5a, size);
+
+    runReference(convert, expected, in, width, height);
+    run(convert, actual, in, width, height);
+
+    bool same = true;
+    for (int i = 0; i < size; i++) {
+        if (expected[i] != actual[i]) {
+            printf("FAIL %s %s %dx%d: byte %d is %d, expected %d\n",
+                   FrameConvert::getLevelName(FrameConvert::getLevel()),
+                   convertNames[convert], width, height, i, actual[i], expected[i]);
+            same = false;
+            break;
+        }
+    }
+    delete[] expected;
+    delete[] actual;
+    return same;
+}
+
+static const int randomSizes[][2] = {
+    { 640, 480 }, { 160, 120 }, { 1280, 720 }, { 642, 362 }, { 18, 6 },
+    { 2, 2 }, { 16, 2 }, { 34, 10 },
+    // Odd sizes; NV21 frames always have even ones.
+    { 641, 361 }, { 17, 5 }, { 3, 1 },
+};
+
+static bool checkRandom()
+{
+    bool ok = true;
+    srand(1);
+    for (size_t s = 0; s < sizeof(randomSizes) / sizeof(randomSizes[0]); s++) {
+        int width = randomSizes[s][0];
+        int height = randomSizes[s][1];
+        for (int c = 0; c < CONVERT_COUNT; c++) {
+            if (c == CONVERT_NV21 && ((width | height) & 1)) continue;
+            int size = inputSize(c, width, height);
+            ImageType in = new unsigned char[size];
+            for (int i = 0; i < size; i++) in[i] = rand() & 0xff;
+            ok &= check(c, in, width, height);
+            delete[] in;
+        }
+    }
+    return ok;
+}
+
+struct Frame {
+    ImageType nv21;
+    ImageType yvu;
+    ImageType yvua;
+    ImageType quarter;
+};
+
+static int loadFrames(const char *basename, Frame *frames, int &width, int &height)
+{
+    char filename[512];
+    struct stat filestat;
+    int n;
+
+    for (n = 0; n < MAX_FRAMES; n++) {
+        sprintf(filename, "%s_%03d.ppm", basename, n + 1);
+        if (stat(filename, &filestat) != 0) break;
+        ImageType rgb = ImageUtils::readBinaryPPM(filename, width, height);
+        int planeSize = width * height;
+
+        Frame &f = frames[n];
+        f.yvu = new unsigned char[planeSize * 3];
+        ImageUtils::rgb2yvu(f.yvu, rgb, width, height);
+        delete[] rgb;
+
+        // NV21 keeps the chroma of the top left pixel of each 2x2 block.
+        f.nv21 = new unsigned char[planeSize * 3 / 2];
+        memcpy(f.nv21, f.yvu, planeSize);
+        ImageType uv = f.nv21 + planeSize;
+        for (int j = 0; j < height; j += 2) {
+            for (int i = 0; i < width; i += 2) {
+                *uv++ = f.yvu[planeSize + j * width + i];
+                *uv++ = f.yvu[2 * planeSize + j * width + i];
+            }
+        }
+
+        f.yvua = new unsigned char[planeSize * 4];
+        for (int i = 0; i < planeSize; i++) {
+            f.yvua[4 * i] = f.yvu[i];
+            f.yvua[4 * i + 1] = f.yvu[planeSize + i];
+            f.yvua[4 * i + 2] = f.yvu[2 * planeSize + i];
+            f.yvua[4 * i + 3] = 0xff;
+        }
+
+        f.quarter = new unsigned char[outputSize(CONVERT_DOWNSAMPLE, width, height)];
+        GenerateQuarterResImagePlanar(f.yvu, width, height, f.quarter);
+    }
+    return n;
+}
+
+// The input of each conversion in the capture path: NV21 from the camera,
+// YVUA read back from the GPU, and the quarter-res image for the preview.
+static ImageType frameInput(const Frame &f, int convert)
+{
+    switch (convert) {
+        case CONVERT_NV21: return f.nv21;
+        case CONVERT_RGB: return f.quarter;
+        case CONVERT_YVUA: return f.yvua;
+        default: return f.yvu;
+    }
+}
+
+static double now()
+{
+    struct timespec res;
+    clock_gettime(CLOCK_MONOTONIC, &res);
+    return res.tv_sec + (double) res.tv_nsec / 1e9;
+}
+
+int main(int argc, char **argv)
+{
+    int iterations = DEFAULT_ITERATIONS;
+    int opt;
+    while ((opt = getopt(argc, argv, "n:")) != -1) {
+        switch (opt) {
+            case 'n': iterations = atoi(optarg); break;
+            default:
+                printf("Usage: %s [-n iterations] [input_basename]\n", argv[0]);
+                return EXIT_USAGE;
+        }
+    }
+    if (argc - optind > 1 || iterations < 1) {
+        printf("Usage: %s [-n iterations] [input_basename]\n", argv[0]);
+        return EXIT_USAGE;
+    }
+
+    static Frame frames[MAX_FRAMES];
+    int width = 0, height = 0;
+    int frameCount = 0;
+    if (optind < argc) {
+        frameCount = loadFrames(argv[optind], frames, width, height);
+        if (frameCount == 0) {
+            printf("Image files not found. Make sure %s exists.\n", argv[optind]);
+            return EXIT_USAGE;
+        }
+        printf("%d frames loaded (%dx%d)\n", frameCount, width, height);
+    }
+
+    bool ok = true;
+    double ms[FrameConvert::LEVEL_COUNT][CONVERT_COUNT];
+    bool supported[FrameConvert::LEVEL_COUNT];
+
+    for (int l = 0; l < FrameConvert::LEVEL_COUNT; l++) {
+        FrameConvert::Level level = (FrameConvert::Level) l;
+        supported[l] = FrameConvert::setLevel(level);
+        if (!supported[l]) continue;
+
+        ok &= checkRandom();
+
+        for (int c = 0; c < CONVERT_COUNT; c++) {
+            // The preview is converted at quarter resolution.
+            int w = (c == CONVERT_RGB) ? width / 4 : width;
+            int h = (c == CONVERT_RGB) ? height / 4 : height;
+            ImageType out = new unsigned char[outputSize(c, w, h)];
+            for (int i = 0; i < frameCount; i++) {
+                ok &= check(c, frameInput(frames[i], c), w, h);
+            }
+
+            double t0 = now();
+            for (int n = 0; n < iterations; n++) {
+                for (int i = 0; i < frameCount; i++) {
+                    run(c, out, frameInput(frames[i], c), w, h);
+                }
+            }
+            ms[l][c] = (now() - t0) * 1000 / iterations;
+            delete[] out;
+        }
+    }
+
+    if (frameCount > 0) {
+        printf("\nms per %d frames    ", frameCount);
+        for (int l = 0; l < FrameConvert::LEVEL_COUNT; l++) {
+            if (supported[l]) printf("%9s", FrameConvert::getLevelName((FrameConvert::Level) l));
+        }
+        printf("\n");
+        for (int c = 0; c < CONVERT_COUNT; c++) {
+            printf("%-20s", convertNames[c]);
+            for (int l = 0; l < FrameConvert::LEVEL_COUNT; l++) {
+                if (supported[l]) printf("%9.2f", ms[l][c]);
+            }
+            printf("\n");
+        }
+    }
+
+    printf("%s\n", ok ? "All levels match the reference" : "MISMATCH");
+    return ok ? EXIT_OK : EXIT_MISMATCH;
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Stands in for the EGL header on the host; softgl.cpp implements it.
+
+#ifndef HOST_EGL_EGL_H
+#define HOST_EGL_EGL_H
+
+// The platform headers under the NDK EGL header bring in string.h, and the
+// renderer relies on it.
+#include <string.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+typedef void (*__eglMustCastToProperFunctionPointerType)(void);
+
+__eglMustCastToProperFunctionPointerType eglGetProcAddress(const char* procname);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif
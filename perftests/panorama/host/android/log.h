@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Stands in for the NDK logging header when the mosaic library is built for
+// the host. Errors and info go to stderr; verbose logs are dropped.
+
+#ifndef HOST_ANDROID_LOG_H
+#define HOST_ANDROID_LOG_H
+
+#include <stdio.h>
+
+#define ANDROID_LOG_INFO 4
+#define ANDROID_LOG_ERROR 6
+#define ANDROID_LOG_SILENT 8
+
+#define __android_log_print(prio, tag, ...) \
+    ((prio) == ANDROID_LOG_SILENT ? 0 : \
+     (fprintf(stderr, "%s: ", tag), fprintf(stderr, __VA_ARGS__), \
+      fputc('\n', stderr)))
+
+#endif
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// A software stand-in for the GLES2 and EGL calls of the mosaic renderer,
+// so the renderer and its readback can run on a host without a GPU. See
+// softgl.h.
+
+#include <map>
+#include <stdio.h>
+#include <string.h>
+#include <time.h>
+#include <vector>
+
+#include <EGL/egl.h>
+#include <GLES2/gl2.h>
+
+#include "softgl.h"
+
+#define GL_PIXEL_PACK_BUFFER 0x88EB
+
+namespace {
+
+struct Texture {
+    int width;
+    int height;
+    std::vector<unsigned char> pixels;
+    double readyMs;     // when the last draw into it is done
+};
+
+struct Buffer {
+    std::vector<unsigned char> data;
+    double readyMs;     // when the last read into it is done
+};
+
+int sMajorVersion = 2;
+char sVersion[32] = "OpenGL ES 2.0 softgl";
+unsigned char sStamp = 0;
+double sDrawMs = 0;
+double sTransferMs = 0;
+double sStallMs = 0;
+
+GLuint sNextName = 1;
+std::map<GLuint, Texture> sTextures;
+std::map<GLuint, GLuint> sFramebufferTextures;
+std::map<GLuint, Buffer> sBuffers;
+GLuint sBoundTexture = 0;
+GLuint sBoundFramebuffer = 0;
+GLuint sBoundPackBuffer = 0;
+
+double nowMs()
+{
+    struct timespec t;
+    clock_gettime(CLOCK_MONOTONIC, &t);
+    return t.tv_sec * 1000.0 + t.tv_nsec / 1e6;
+}
+
+// Blocks until the GPU is done, like a driver would.
+void waitFor(double readyMs)
+{
+    double start = nowMs();
+    if (readyMs <= start) return;
+    double wait = readyMs - start;
+    struct timespec t;
+    t.tv_sec = (time_t) (wait / 1000);
+    t.tv_nsec = (long) ((wait - t.tv_sec * 1000.0) * 1e6);
+    nanosleep(&t, NULL);
+    sStallMs += nowMs() - start;
+}
+
+Texture* boundTarget()
+{
+    std::map<GLuint, GLuint>::iterator fb = sFramebufferTextures.find(sBoundFramebuffer);
+    if (fb == sFramebufferTextures.end()) return NULL;
+    std::map<GLuint, Texture>::iterator tex = sTextures.find(fb->second);
+    return tex == sTextures.end() ? NULL : &tex->second;
+}
+
+void fillTarget(unsigned char value)
+{
+    Texture* target = boundTarget();
+    if (target == NULL) return;
+    memset(&target->pixels[0], value, target->pixels.size());
+    target->readyMs = nowMs() + sDrawMs;
+}
+
+void genNames(GLsizei n, GLuint* names)
+{
+    for (GLsizei i = 0; i < n; i++) names[i] = sNextName++;
+}
+
+void* mapBufferRange(GLenum target, GLintptr offset, GLsizeiptr length, GLbitfield access)
+{
+    if (target != GL_PIXEL_PACK_BUFFER) return NULL;
+    Buffer& buffer = sBuffers[sBoundPackBuffer];
+    if (offset + length > (GLsizeiptr) buffer.data.size()) return NULL;
+    waitFor(buffer.readyMs);
+    return &buffer.data[offset];
+}
+
+GLboolean unmapBuffer(GLenum target)
+{
+    return GL_TRUE;
+}
+
+}
+
+void softglSetVersion(int major)
+{
+    sMajorVersion = major;
+    sprintf(sVersion, "OpenGL ES %d.0 softgl", major);
+}
+
+void softglSetStamp(unsigned char stamp)
+{
+    sStamp = stamp;
+}
+
+void softglSetLatency(double drawMs, double transferMs)
+{
+    sDrawMs = drawMs;
+    sTransferMs = transferMs;
+}
+
+double softglGetStallMs()
+{
+    return sStallMs;
+}
+
+void softglResetStall()
+{
+    sStallMs = 0;
+}
+
+extern "C" {
+
+__eglMustCastToProperFunctionPointerType eglGetProcAddress(const char* procname)
+{
+    if (sMajorVersion < 3) return NULL;
+    if (strcmp(procname, "glMapBufferRange") == 0) {
+        return (__eglMustCastToProperFunctionPointerType) mapBufferRange;
+    }
+    if (strcmp(procname, "glUnmapBuffer") == 0) {
+        return (__eglMustCastToProperFunctionPointerType) unmapBuffer;
+    }
+    return NULL;
+}
+
+void glActiveTexture(GLenum texture) {}
+void glAttachShader(GLuint program, GLuint shader) {}
+
+void glBindBuffer(GLenum target, GLuint buffer)
+{
+    if (target == GL_PIXEL_PACK_BUFFER) sBoundPackBuffer = buffer;
+}
+
+void glBindFramebuffer(GLenum target, GLuint framebuffer)
+{
+    sBoundFramebuffer = framebuffer;
+}
+
+void glBindTexture(GLenum target, GLuint texture)
+{
+    sBoundTexture = texture;
+}
+
+void glBufferData(GLenum target, GLsizeiptr size, const GLvoid* data, GLenum usage)
+{
+    if (target != GL_PIXEL_PACK_BUFFER) return;
+    Buffer& buffer = sBuffers[sBoundPackBuffer];
+    buffer.data.assign(size, 0);
+    buffer.readyMs = 0;
+}
+
+GLenum glCheckFramebufferStatus(GLenum target)
+{
+    return GL_FRAMEBUFFER_COMPLETE;
+}
+
+void glClear(GLbitfield mask)
+{
+    fillTarget(0);
+}
+
+void glClearColor(GLclampf red, GLclampf green, GLclampf blue, GLclampf alpha) {}
+void glCompileShader(GLuint shader) {}
+
+GLuint glCreateProgram(void)
+{
+    return sNextName++;
+}
+
+GLuint glCreateShader(GLenum type)
+{
+    return sNextName++;
+}
+
+void glDeleteBuffers(GLsizei n, const GLuint* buffers)
+{
+    for (GLsizei i = 0; i < n; i++) sBuffers.erase(buffers[i]);
+}
+
+void glDeleteProgram(GLuint program) {}
+void glDeleteShader(GLuint shader) {}
+void glDisable(GLenum cap) {}
+
+void glDrawElements(GLenum mode, GLsizei count, GLenum type, const GLvoid* indices)
+{
+    fillTarget(sStamp);
+}
+
+void glEnableVertexAttribArray(GLuint index) {}
+
+void glFramebufferTexture2D(GLenum target, GLenum attachment, GLenum textarget,
+        GLuint texture, GLint level)
+{
+    sFramebufferTextures[sBoundFramebuffer] = texture;
+}
+
+void glGenBuffers(GLsizei n, GLuint* buffers)
+{
+    genNames(n, buffers);
+}
+
+void glGenFramebuffers(GLsizei n, GLuint* framebuffers)
+{
+    genNames(n, framebuffers);
+}
+
+void glGenTextures(GLsizei n, GLuint* textures)
+{
+    genNames(n, textures);
+}
+
+int glGetAttribLocation(GLuint program, const GLchar* name)
+{
+    return 0;
+}
+
+GLenum glGetError(void)
+{
+    return GL_NO_ERROR;
+}
+
+void glGetProgramInfoLog(GLuint program, GLsizei bufsize, GLsizei* length, GLchar* infolog)
+{
+    if (length != NULL) *length = 0;
+    if (bufsize > 0) infolog[0] = '\0';
+}
+
+void glGetProgramiv(GLuint program, GLenum pname, GLint* params)
+{
+    *params = (pname == GL_LINK_STATUS) ? GL_TRUE : 0;
+}
+
+void glGetShaderInfoLog(GLuint shader, GLsizei bufsize, GLsizei* length, GLchar* infolog)
+{
+    if (length != NULL) *length = 0;
+    if (bufsize > 0) infolog[0] = '\0';
+}
+
+void glGetShaderiv(GLuint shader, GLenum pname, GLint* params)
+{
+    *params = (pname == GL_COMPILE_STATUS) ? GL_TRUE : 0;
+}
+
+const GLubyte* glGetString(GLenum name)
+{
+    return (const GLubyte*) (name == GL_VERSION ? sVersion : "softgl");
+}
+
+int glGetUniformLocation(GLuint program, const GLchar* name)
+{
+    return 0;
+}
+
+void glLinkProgram(GLuint program) {}
+void glPixelStorei(GLenum pname, GLint param) {}
+
+void glReadPixels(GLint x, GLint y, GLsizei width, GLsizei height, GLenum format,
+        GLenum type, GLvoid* pixels)
+{
+    Texture* source = boundTarget();
+    if (source == NULL || width > source->width || height > source->height) return;
+    size_t size = (size_t) width * height * 4;
+
+    if (sBoundPackBuffer != 0) {
+        // The copy is queued behind the draw; pixels is an offset.
+        Buffer& buffer = sBuffers[sBoundPackBuffer];
+        size_t offset = (size_t) pixels;
+        if (offset + size > buffer.data.size()) return;
+        memcpy(&buffer.data[offset], &source->pixels[0], size);
+        double start = source->readyMs > nowMs() ? source->readyMs : nowMs();
+        buffer.readyMs = start + sTransferMs;
+        return;
+    }
+
+    waitFor(source->readyMs + sTransferMs);
+    memcpy(pixels, &source->pixels[0], size);
+}
+
+void glShaderSource(GLuint shader, GLsizei count, const GLchar** string, const GLint* length) {}
+
+void glTexImage2D(GLenum target, GLint level, GLint internalformat, GLsizei width,
+        GLsizei height, GLint border, GLenum format, GLenum type, const GLvoid* pixels)
+{
+    Texture& texture = sTextures[sBoundTexture];
+    texture.width = width;
+    texture.height = height;
+    texture.pixels.assign((size_t) width * height * 4, 0);
+    texture.readyMs = 0;
+}
+
+void glTexParameterf(GLenum target, GLenum pname, GLfloat param) {}
+void glTexParameteri(GLenum target, GLenum pname, GLint param) {}
+void glUniform1i(GLint location, GLint x) {}
+void glUniformMatrix4fv(GLint location, GLsizei count, GLboolean transpose, const GLfloat* value) {}
+void glUseProgram(GLuint program) {}
+void glVertexAttribPointer(GLuint indx, GLint size, GLenum type, GLboolean normalized,
+        GLsizei stride, const GLvoid* ptr) {}
+void glViewport(GLint x, GLint y, GLsizei width, GLsizei height) {}
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Controls the software GL of the host build (softgl.cpp). It has no
+// rasterizer: a draw fills its whole target with the current frame stamp,
+// and is done "on the GPU" a fixed latency after it is issued. Reading a
+// frame buffer waits for that, unless the read goes to a pixel buffer, in
+// which case mapping the buffer waits. That is enough to check which frame
+// a readback returns and how long the caller is blocked.
+
+#ifndef HOST_SOFTGL_H
+#define HOST_SOFTGL_H
+
+// GL_VERSION reports "OpenGL ES <major>.0"; pixel buffers need 3.
+void softglSetVersion(int major);
+// The byte the following draws write into every channel of their target.
+void softglSetStamp(unsigned char stamp);
+// The time the GPU takes for a draw, and to copy a frame into a buffer.
+void softglSetLatency(double drawMs, double transferMs);
+// The time spent waiting for the GPU since the last reset.
+double softglGetStallMs();
+void softglResetStall();
+
+#endif
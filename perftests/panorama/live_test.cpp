@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+// Builds the live low-res mosaic of the input frames, as the app does while
+// capturing, checks it and compares its cost with the low-res stitch:
+//
+//   live_test [-n iterations] [-o preview.ppm] input_basename
+//
+// The frames are scaled down like the app's low-res frames and aligned
+// once. The test checks that every aligned frame is on the canvas, that
+// the canvas covers the frames, and that a canvas too small for the sweep
+// shrinks to about the same picture.
+
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+#include <sys/stat.h>
+
+#include "mosaic/FrameConvert.h"
+#include "mosaic/ImageUtils.h"
+#include "mosaic/LiveMosaic.h"
+#include "mosaic/Mosaic.h"
+
+#define MAX_FRAMES 200
+#define DEFAULT_ITERATIONS 10
+// As in feature_mos_jni.cpp.
+#define H2L_FACTOR 4
+#define THRESH_STILL 5.0f
+#define CANVAS_FACTOR 4
+// Mean channel difference allowed between a shrunk canvas and the full one
+// scaled down. The frames drawn after a shrink are sampled, not averaged.
+#define MAX_MEAN_DIFF 10.0
+
+#define EXIT_OK 0
+#define EXIT_USAGE 1
+#define EXIT_MISMATCH 2
+
+static ImageType frames[MAX_FRAMES];
+static float transforms[MAX_FRAMES][9];
+
+static double now()
+{
+    struct timespec t;
+    clock_gettime(CLOCK_MONOTONIC, &t);
+    return t.tv_sec + t.tv_nsec * 1e-9;
+}
+
+// Loads the frames as low-res YVU. Returns their number.
+static int loadFrames(const char *basename, int &width, int &height)
+{
+    char filename[512];
+    struct stat filestat;
+    int n;
+    for (n = 0; n < MAX_FRAMES; n++) {
+        sprintf(filename, "%s_%03d.ppm", basename, n + 1);
+        if (stat(filename, &filestat) != 0) break;
+        int w, h;
+        ImageType rgb = ImageUtils::readBinaryPPM(filename, w, h);
+        ImageType yvu = ImageUtils::allocateImage(w, h, ImageUtils::IMAGE_TYPE_NUM_CHANNELS);
+        ImageUtils::rgb2yvu(yvu, rgb, w, h);
+        width = w / H2L_FACTOR;
+        height = h / H2L_FACTOR;
+        frames[n] = ImageUtils::allocateImage(width, height, ImageUtils::IMAGE_TYPE_NUM_CHANNELS);
+        FrameConvert::downsample(frames[n], yvu, w, h, H2L_FACTOR);
+        ImageUtils::freeImage(rgb);
+        ImageUtils::freeImage(yvu);
+    }
+    return n;
+}
+
+// Aligns the frames like the low-res mosaic of the app and keeps the
+// accepted ones, with their transform, in order. Returns their number.
+static int alignFrames(int count, int width, int height)
+{
+    Mosaic mosaic;
+    mosaic.initialize(Blend::BLEND_TYPE_HORZ, Blend::STRIP_TYPE_WIDE, width, height, -1,
+            false, THRESH_STILL);
+    int accepted = 0;
+    for (int i = 0; i < count; i++) {
+        int ret = mosaic.addFrame(frames[i]);
+        if (ret != Mosaic::MOSAIC_RET_OK && ret != Mosaic::MOSAIC_RET_FEW_INLIERS) continue;
+        double trs[3][3];
+        mosaic.getAligner()->getLastTRS(trs);
+        for (int k = 0; k < 9; k++) transforms[accepted][k] = (float) trs[k / 3][k % 3];
+        frames[accepted++] = frames[i];
+    }
+    return accepted;
+}
+
+// The size of the bounding box of the frames in the mosaic.
+static void getMosaicSize(int count, int width, int height, double &w, double &h)
+{
+    double minX = 1e30, minY = 1e30, maxX = -1e30, maxY = -1e30;
+    for (int i = 0; i < count; i++) {
+        const float *m = transforms[i];
+        for (int c = 0; c < 4; c++) {
+            double x = (c & 1) ? width : 0, y = (c & 2) ? height : 0;
+            double z = m[6] * x + m[7] * y + m[8];
+            double X = (m[0] * x + m[1] * y + m[2]) / z;
+            double Y = (m[3] * x + m[4] * y + m[5]) / z;
+            if (X < minX) minX = X;
+            if (X > maxX) maxX = X;
+            if (Y < minY) minY = Y;
+            if (Y > maxY) maxY = Y;
+        }
+    }
+    w = maxX - minX;
+    h = maxY - minY;
+}
+
+static void build(LiveMosaic &live, int count)
+{
+    live.reset();
+    for (int i = 0; i < count; i++) live.addFrame(frames[i], transforms[i]);
+}
+
+static unsigned char *copyPreview(LiveMosaic &live, int &width, int &height)
+{
+    if (!live.copyTo(NULL, 0, width, height)) return NULL;
+    size_t size = (size_t) width * height * 4;
+    unsigned char *rgba = (unsigned char *) malloc(size);
+    live.copyTo(rgba, size, width, height);
+    return rgba;
+}
+
+static void writePreview(const char *filename, const unsigned char *rgba, int width, int height)
+{
+    ImageType rgb = ImageUtils::allocateImage(width, height, ImageUtils::IMAGE_TYPE_NUM_CHANNELS);
+    for (int i = 0; i < width * height; i++) memcpy(rgb + 3 * i, rgba + 4 * i, 3);
+    ImageUtils::writeBinaryPPM(rgb, filename, width, height);
+    ImageUtils::freeImage(rgb);
+}
+
+// Compares small with big scaled down by factor, where both are opaque.
+// Their grids may be up to a pixel of small apart, so each offset of big is
+// tried. Returns the smallest mean channel difference, or -1 if they do not
+// overlap.
+static double compareScaled(const unsigned char *small, int sw, int sh,
+        const unsigned char *big, int bw, int bh, int factor)
+{
+    double best = -1.0;
+    for (int oy = 0; oy < factor; oy++) {
+        for (int ox = 0; ox < factor; ox++) {
+            double sum = 0.0;
+            long n = 0;
+            for (int y = 0; y < sh && (y + 1) * factor + oy <= bh; y++) {
+                for (int x = 0; x < sw && (x + 1) * factor + ox <= bw; x++) {
+                    const unsigned char *s = small + 4 * (y * sw + x);
+                    if (s[3] != 255) continue;
+                    int box[3] = { 0, 0, 0 };
+                    bool opaque = true;
+                    for (int j = 0; j < factor; j++) {
+                        for (int i = 0; i < factor; i++) {
+                            const unsigned char *b =
+                                    big + 4 * ((y * factor + oy + j) * bw + x * factor + ox + i);
+                            opaque = opaque && b[3] == 255;
+                            for (int c = 0; c < 3; c++) box[c] += b[c];
+                        }
+                    }
+                    if (!opaque) continue;
+                    for (int c = 0; c < 3; c++)
+                        sum += fabs(s[c] - box[c] / (double) (factor * factor));
+                    n += 3;
+                }
+            }
+            if (n > 0 && (best < 0.0 || sum / n < best)) best = sum / n;
+        }
+    }
+    return best;
+}
+
+static void usage(const char *name)
+{
+    printf("Usage: %s [-n iterations] [-o preview.ppm] input_basename\n", name);
+}
+
+int main(int argc, char **argv)
+{
+    int iterations = DEFAULT_ITERATIONS;
+    const char *output = NULL;
+    int opt;
+    while ((opt = getopt(argc, argv, "n:o:")) != -1) {
+        switch (opt) {
+            case 'n': iterations = atoi(optarg); break;
+            case 'o': output = optarg; break;
+            default: usage(argv[0]); return EXIT_USAGE;
+        }
+    }
+    if (argc - optind != 1 || iterations < 1) {
+        usage(argv[0]);
+        return EXIT_USAGE;
+    }
+
+    int width = 0, height = 0;
+    int loaded = loadFrames(argv[optind], width, height);
+    if (loaded == 0) {
+        printf("Image files not found. Make sure %s exists.\n", argv[optind]);
+        return EXIT_USAGE;
+    }
+    int count = alignFrames(loaded, width, height);
+    printf("%d of %d frames aligned (%dx%d)\n", count, loaded, width, height);
+
+    int ret = EXIT_OK;
+    double mosaicW, mosaicH;
+    getMosaicSize(count, width, height, mosaicW, mosaicH);
+
+    // The canvas of the app, which holds the whole sweep.
+    LiveMosaic live;
+    live.initialize(width, height, CANVAS_FACTOR * width, CANVAS_FACTOR * height);
+    double best = 1e30;
+    for (int it = 0; it < iterations; it++) {
+        double t0 = now();
+        build(live, count);
+        double t = now() - t0;
+        if (t < best) best = t;
+    }
+    int fullW, fullH;
+    unsigned char *full = copyPreview(live, fullW, fullH);
+    int fullScale = live.getScale();
+    printf("Live mosaic %dx%d at 1/%d: %.3f ms per frame, %.2f ms in all\n", fullW, fullH,
+            fullScale, best * 1000 / count, best * 1000);
+    if (live.getFrameCount() != count) {
+        printf("FAIL: %d frames on the canvas, %d aligned\n", live.getFrameCount(), count);
+        ret = EXIT_MISMATCH;
+    }
+    if (full == NULL || fabs(fullW * fullScale - mosaicW) > 2 * fullScale + 1 ||
+            fabs(fullH * fullScale - mosaicH) > 2 * fullScale + 1) {
+        printf("FAIL: the canvas covers %dx%d, the frames %.0fx%.0f\n", fullW * fullScale,
+                fullH * fullScale, mosaicW, mosaicH);
+        ret = EXIT_MISMATCH;
+    }
+
+    // A canvas that only fits a fraction of the sweep has to move and
+    // shrink the content as the frames come.
+    LiveMosaic small;
+    small.initialize(width, height, width * 3 / 2, height * 3 / 2);
+    build(small, count);
+    int smallW, smallH;
+    unsigned char *shrunk = copyPreview(small, smallW, smallH);
+    int factor = small.getScale() / fullScale;
+    double diff = (shrunk == NULL || factor < 2) ? -1.0 :
+            compareScaled(shrunk, smallW, smallH, full, fullW, fullH, factor);
+    printf("Small canvas %dx%d at 1/%d: mean difference %.2f\n", smallW, smallH,
+            small.getScale(), diff);
+    if (factor < 2 || diff < 0.0 || diff > MAX_MEAN_DIFF) {
+        printf("FAIL: the small canvas does not show the sweep\n");
+        ret = EXIT_MISMATCH;
+    }
+
+    // The low-res stitch, which the app still makes for the review image.
+    Mosaic mosaic;
+    mosaic.initialize(Blend::BLEND_TYPE_HORZ, Blend::STRIP_TYPE_WIDE, width, height, -1,
+            false, THRESH_STILL);
+    for (int i = 0; i < count; i++) mosaic.addFrame(frames[i]);
+    float progress = 0.0f;
+    bool cancel = false;
+    double t0 = now();
+    mosaic.createMosaic(progress, cancel);
+    printf("Low-res stitch: %.2f ms\n", (now() - t0) * 1000);
+
+    if (output != NULL && full != NULL) writePreview(output, full, fullW, fullH);
+    if (ret == EXIT_OK) printf("Live mosaic OK\n");
+    free(full);
+    free(shrunk);
+    return ret;
+}
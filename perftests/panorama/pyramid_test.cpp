@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+// Checks that every PyramidShort level builds exactly the pyramids of the
+// scalar filters Pyramid.cpp had before, and times them:
+//
+//   pyramid_test [-n iterations]
+//
+// Random pyramids of several sizes are checked, with pixel values like
+// Blend's and with any 16-bit value. The timing runs the work of one
+// frame in Blend::FillFramePyramid (BorderReduce and BorderExpand(-1) of
+// the Y, U and V pyramids of a frame) and of Blend::PerformFinalBlending
+// (BorderExpand(1) of the three mosaic pyramids) at the sizes of the
+// perftest input, of a 720p camera and of a long 720p sweep.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+
+#include "mosaic/Blend.h"
+#include "mosaic/Pyramid.h"
+
+#define DEFAULT_ITERATIONS 10
+
+#define EXIT_OK 0
+#define EXIT_USAGE 1
+#define EXIT_MISMATCH 2
+
+// The reference filters, as they were in Pyramid.cpp.
+
+static void BorderExpandOdd(PyramidShort *in, PyramidShort *out, PyramidShort *scr,
+        int mode)
+{
+    int i,j;
+    int off = in->border / 2;
+
+    // Vertical Filter
+    for (j = -off; j < in->height + off; j++) {
+        int j2 = j * 2;
+        int limit = scr->width + scr->border;
+        for (i = -scr->border; i < limit; i++) {
+            int t1 = in->ptr[j][i];
+            int t2 = in->ptr[j+1][i];
+            scr->ptr[j2][i] = (short)
+                ((6 * t1 + (in->ptr[j-1][i] + t2) + 4) >> 3);
+            scr->ptr[j2+1][i] = (short)((t1 + t2 + 1) >> 1);
+        }
+    }
+
+    PyramidShort::BorderSpread(scr, 0, 0, 3, 3);
+
+    // Horizontal Filter
+    int limit = out->height + out->border;
+    for (j = -out->border; j < limit; j++) {
+        for (i = -off; i < scr->width + off; i++) {
+            int i2 = i * 2;
+            int t1 = scr->ptr[j][i];
+            int t2 = scr->ptr[j][i+1];
+            out->ptr[j][i2] = (short) (out->ptr[j][i2] +
+                    (mode * ((6 * t1 +
+                              scr->ptr[j][i-1] + t2 + 4) >> 3)));
+            out->ptr[j][i2+1] = (short) (out->ptr[j][i2+1] +
+                    (mode * ((t1 + t2 + 1) >> 1)));
+        }
+    }
+
+}
+
+static int BorderExpand(PyramidShort *pyr, int nlev, int mode)
+{
+    PyramidShort *tpyr = pyr + nlev - 1;
+    PyramidShort *scr = PyramidShort::allocateImage(pyr[1].width, pyr[0].height, pyr->border);
+    if (scr == NULL) return 0;
+
+    if (mode > 0) {
+        // Expand and add (reconstruct from Laplacian)
+        for (; tpyr > pyr; tpyr--) {
+            scr->width = tpyr[0].width;
+            scr->height = tpyr[-1].height;
+            BorderExpandOdd(tpyr, tpyr - 1, scr, 1);
+        }
+    }
+    else if (mode < 0) {
+        // Expand and subtract (build Laplacian)
+        while ((pyr++) < tpyr) {
+            scr->width = pyr[0].width;
+            scr->height = pyr[-1].height;
+            BorderExpandOdd(pyr, pyr - 1, scr, -1);
+        }
+    }
+
+    PyramidShort::freeImage(scr);
+    return 1;
+}
+
+static void BorderReduceOdd(PyramidShort *in, PyramidShort *out, PyramidShort *scr)
+{
+    ImageTypeShortBase *s, *ns, *ls, *p, *np;
+
+    int off = scr->border - 2;
+    s = scr->ptr[-scr->border] - (off >> 1);
+    ns = s + scr->pitch;
+    ls = scr->ptr[scr->height + scr->border - 1] + scr->pitch - (off >> 1);
+    int width = scr->width + scr->border;
+    p = in->ptr[-scr->border] - off;
+    np = p + in->pitch;
+
+    // treat it as if the whole thing were the image
+    for (; s < ls; s = ns, ns += scr->pitch, p = np, np += in->pitch) {
+        for (int w = width; w--; s++, p += 2) {
+            *s = (short)((((int) p[-2]) + ((int) p[2]) + 8 +    // 1
+                        ((((int) p[-1]) + ((int) p[1])) << 2) + // 4
+                        ((int) *p) * 6) >> 4);          // 6
+        }
+    }
+
+    PyramidShort::BorderSpread(scr, 5, 4 + ((in->width ^ 1) & 1), 0, 0); //
+
+    s = out->ptr[-(off >> 1)] - out->border;
+    ns = s + out->pitch;
+    ls = s + out->pitch * (out->height + off);
+    p = scr->ptr[-off] - out->border;
+    int pitch = scr->pitch;
+    int pitch2 = pitch << 1;
+    np = p + pitch2;
+    for (; s < ls; s = ns, ns += out->pitch, p = np, np += pitch2) {
+        for (int w = out->pitch; w--; s++, p++) {
+            *s = (short)((((int) p[-pitch2]) + ((int) p[pitch2]) + 8 + // 1
+                        ((((int) p[-pitch]) + ((int) p[pitch])) << 2) + // 4
+                        ((int) *p) * 6) >> 4);              // 6
+        }
+    }
+    PyramidShort::BorderSpread(out, 0, 0, 5, 5);
+
+}
+
+static int BorderReduce(PyramidShort *pyr, int nlev)
+{
+    PyramidShort *scr = PyramidShort::allocateImage(pyr[1].width, pyr[0].height, pyr->border);
+    if (scr == NULL)
+        return 0;
+
+    PyramidShort::BorderSpread(pyr, pyr->border, pyr->border, pyr->border, pyr->border);
+    while (--nlev) {
+        BorderReduceOdd(pyr, pyr + 1, scr);
+        pyr++;
+        scr->width = pyr[1].width;
+        scr->height = pyr[0].height;
+    }
+
+    PyramidShort::freeImage(scr);
+    return 1;
+}
+
+// A packed pyramid and the extent of its storage, borders included.
+struct Pyramid {
+    PyramidShort *pyr;
+    int levels;
+    ImageTypeShort data;
+    int size;
+};
+
+static Pyramid allocate(int width, int height, int levels)
+{
+    Pyramid p;
+    int lines;
+    p.pyr = PyramidShort::allocatePyramidPacked(levels, width, height, BORDER);
+    p.levels = levels;
+    p.data = p.pyr->ptr[-BORDER] - BORDER;
+    p.size = PyramidShort::calcStorage(width, height, 2 * BORDER, levels, &lines);
+    return p;
+}
+
+// Fills the image of the first level; range 0 gives any 16-bit value.
+static void fill(Pyramid &p, int range)
+{
+    PyramidShort *pyr = p.pyr;
+    for (int j = 0; j < pyr->height; j++) {
+        for (int i = 0; i < pyr->width; i++) {
+            pyr->ptr[j][i] = range ? rand() % range : (short) rand();
+        }
+    }
+}
+
+static void copy(Pyramid &to, const Pyramid &from)
+{
+    memcpy(to.data, from.data, from.size * sizeof(short));
+}
+
+enum {
+    OP_FRAME,   // BorderReduce and BorderExpand(-1), as for each frame
+    OP_MOSAIC,  // BorderExpand(1), as for the mosaic
+    OP_COUNT
+};
+
+static const char *opNames[OP_COUNT] = {
+    "frame",
+    "mosaic",
+};
+
+static void runReference(int op, Pyramid &p)
+{
+    if (op == OP_FRAME) {
+        BorderReduce(p.pyr, p.levels);
+        BorderExpand(p.pyr, p.levels, -1);
+    } else {
+        BorderExpand(p.pyr, p.levels, 1);
+    }
+}
+
+static void run(int op, Pyramid &p)
+{
+    if (op == OP_FRAME) {
+        PyramidShort::BorderReduce(p.pyr, p.levels);
+        PyramidShort::BorderExpand(p.pyr, p.levels, -1);
+    } else {
+        PyramidShort::BorderExpand(p.pyr, p.levels, 1);
+    }
+}
+
+// Runs the reference and the current level on copies of the same pyramid
+// and compares all of their storage. The mosaic is checked on the Laplacian
+// pyramid of the frame, like in the blender.
+static bool check(int width, int height, int levels, int range)
+{
+    Pyramid input = allocate(width, height, levels);
+    Pyramid expected = allocate(width, height, levels);
+    Pyramid actual = allocate(width, height, levels);
+    fill(input, range);
+
+    bool same = true;
+    for (int op = 0; op < OP_COUNT && same; op++) {
+        copy(expected, input);
+        copy(actual, input);
+        runReference(op, expected);
+        run(op, actual);
+
+        for (int i = 0; i < input.size; i++) {
+            if (expected.data[i] != actual.data[i]) {
+                printf("FAIL %s %s %dx%d %d levels, range %d: short %d is %d, expected %d\n",
+                       FrameConvert::getLevelName(PyramidShort::getLevel()),
+                       opNames[op], width, height, levels, range, i,
+                       actual.data[i], expected.data[i]);
+                same = false;
+                break;
+            }
+        }
+        // The next operation starts from this one's result.
+        copy(input, expected);
+    }
+
+    PyramidShort::freeImage(input.pyr);
+    PyramidShort::freeImage(expected.pyr);
+    PyramidShort::freeImage(actual.pyr);
+    return same;
+}
+
+static const int checkSizes[][3] = {
+    { 640, 360, BLEND_RANGE_DEFAULT }, { 1500, 408, BLEND_RANGE_DEFAULT },
+    { 1280, 720, BLEND_RANGE_DEFAULT }, { 641, 361, BLEND_RANGE_DEFAULT },
+    { 100, 67, 4 }, { 37, 23, 3 }, { 64, 64, 2 }, { 17, 9, 2 },
+};
+
+static bool checkRandom()
+{
+    bool ok = true;
+    srand(1);
+    for (size_t s = 0; s < sizeof(checkSizes) / sizeof(checkSizes[0]); s++) {
+        // Pixels, and anything 16 bits can hold.
+        ok &= check(checkSizes[s][0], checkSizes[s][1], checkSizes[s][2], 256);
+        ok &= check(checkSizes[s][0], checkSizes[s][1], checkSizes[s][2], 0);
+    }
+    return ok;
+}
+
+// What is timed: the pyramids of a frame at the size of the perftest
+// input and of a 720p camera, and of the mosaic of the perftest input and
+// of a long 720p sweep.
+struct Timed {
+    const char *name;
+    int op;
+    int width;
+    int height;
+};
+
+static const Timed timed[] = {
+    { "frame 640x360", OP_FRAME, 640, 360 },
+    { "frame 1280x720", OP_FRAME, 1280, 720 },
+    { "mosaic 1500x408", OP_MOSAIC, 1500, 408 },
+    { "mosaic 5000x1000", OP_MOSAIC, 5000, 1000 },
+};
+#define TIMED_COUNT ((int) (sizeof(timed) / sizeof(timed[0])))
+
+static double now()
+{
+    struct timespec res;
+    clock_gettime(CLOCK_MONOTONIC, &res);
+    return res.tv_sec + (double) res.tv_nsec / 1e9;
+}
+
+// ms for the Y, U and V pyramids, the best of the iterations.
+static double measure(const Timed &t, int iterations, bool reference)
+{
+    Pyramid input = allocate(t.width, t.height, BLEND_RANGE_DEFAULT);
+    Pyramid work = allocate(t.width, t.height, BLEND_RANGE_DEFAULT);
+    srand(2);
+    fill(input, 256);
+    if (t.op == OP_MOSAIC) run(OP_FRAME, input);
+
+    double best = 0;
+    for (int n = 0; n < iterations; n++) {
+        double elapsed = 0;
+        for (int plane = 0; plane < 3; plane++) {
+            copy(work, input);
+            double t0 = now();
+            if (reference) {
+                runReference(t.op, work);
+            } else {
+                run(t.op, work);
+            }
+            elapsed += now() - t0;
+        }
+        if (n == 0 || elapsed < best) best = elapsed;
+    }
+
+    PyramidShort::freeImage(input.pyr);
+    PyramidShort::freeImage(work.pyr);
+    return best * 1000;
+}
+
+int main(int argc, char **argv)
+{
+    int iterations = DEFAULT_ITERATIONS;
+    int opt;
+    while ((opt = getopt(argc, argv, "n:")) != -1) {
+        switch (opt) {
+            case 'n': iterations = atoi(optarg); break;
+            default:
+                printf("Usage: %s [-n iterations]\n", argv[0]);
+                return EXIT_USAGE;
+        }
+    }
+    if (argc > optind || iterations < 1) {
+        printf("Usage: %s [-n iterations]\n", argv[0]);
+        return EXIT_USAGE;
+    }
+
+    bool ok = true;
+    double referenceMs[TIMED_COUNT];
+    double ms[FrameConvert::LEVEL_COUNT][TIMED_COUNT];
+    bool supported[FrameConvert::LEVEL_COUNT];
+
+    for (int t = 0; t < TIMED_COUNT; t++) {
+        referenceMs[t] = measure(timed[t], iterations, true);
+    }
+    for (int l = 0; l < FrameConvert::LEVEL_COUNT; l++) {
+        FrameConvert::Level level = (FrameConvert::Level) l;
+        supported[l] = PyramidShort::setLevel(level);
+        if (!supported[l]) continue;
+
+        ok &= checkRandom();
+        for (int t = 0; t < TIMED_COUNT; t++) {
+            ms[l][t] = measure(timed[t], iterations, false);
+        }
+    }
+
+    // The reference is the old scalar code, which filtered all of scr
+    // before reading it back.
+    printf("ms per Y, U and V   reference");
+    for (int l = 0; l < FrameConvert::LEVEL_COUNT; l++) {
+        if (supported[l]) printf("%9s", FrameConvert::getLevelName((FrameConvert::Level) l));
+    }
+    printf("\n");
+    for (int t = 0; t < TIMED_COUNT; t++) {
+        printf("%-20s%9.2f", timed[t].name, referenceMs[t]);
+        for (int l = 0; l < FrameConvert::LEVEL_COUNT; l++) {
+            if (supported[l]) printf("%9.2f", ms[l][t]);
+        }
+        printf("\n");
+    }
+
+    printf("%s\n", ok ? "All levels match the reference" : "MISMATCH");
+    return ok ? EXIT_OK : EXIT_MISMATCH;
+}
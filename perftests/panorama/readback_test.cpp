@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+// Runs the capture path of the mosaic renderer against the software GL of
+// host/softgl.cpp and checks the readback modes of MosaicRenderer:
+//
+//   readback_test [-n frames] [-l draw_latency_ms]
+//
+// For each mode it feeds frames like MosaicPreviewRenderer does while
+// capturing, checks that gPreviewImage holds the expected frame (the
+// current one in sync mode, the previous one otherwise) and prints how long
+// the GL thread waited for the GPU per frame.
+
+#include <semaphore.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+
+#include <jni.h>
+
+#include "mosaic_renderer_jni.h"
+#include "mosaic_renderer/FrameReader.h"
+#include "softgl.h"
+
+#define DEFAULT_FRAMES 30
+#define DEFAULT_LATENCY_MS 4.0
+// About a camera frame interval, so the GPU finishes between frames.
+#define FRAME_INTERVAL_US 20000
+
+#define WIDTH_HR 640
+#define HEIGHT_HR 360
+
+#define EXIT_OK 0
+#define EXIT_USAGE 1
+#define EXIT_MISMATCH 2
+
+extern "C" {
+    JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* reserved);
+    JNIEXPORT jint JNICALL Java_com_android_camera_MosaicRenderer_init(
+            JNIEnv * env, jobject obj);
+    JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_reset(
+            JNIEnv * env, jobject obj,  jint width, jint height,
+            jboolean isLandscapeOrientation);
+    JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_preprocess(
+            JNIEnv * env, jobject obj, jfloatArray stMatrix);
+    JNIEXPORT jint JNICALL Java_com_android_camera_MosaicRenderer_setReadbackMode(
+            JNIEnv * env, jobject obj, jboolean async);
+    JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_transferGPUtoCPU(
+            JNIEnv * env, jobject obj);
+    JNIEXPORT jboolean JNICALL Java_com_android_camera_MosaicRenderer_finishGPUtoCPU(
+            JNIEnv * env, jobject obj);
+    JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_step(
+            JNIEnv * env, jobject obj);
+    JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_updateMatrix(
+            JNIEnv * env, jobject obj);
+    JNIEXPORT void JNICALL Java_com_android_camera_MosaicRenderer_setWarping(
+            JNIEnv * env, jobject obj, jboolean flag);
+}
+
+// The renderer only uses the float array calls of JNIEnv.
+static jfloat *JNICALL getFloats(JNIEnv*, jfloatArray array, jboolean*)
+{
+    return (jfloat *) array;
+}
+
+static void JNICALL releaseFloats(JNIEnv*, jfloatArray, jfloat*, jint)
+{
+}
+
+static const char *modeNames[] = { "sync", "deferred", "pixel_buffer" };
+
+// Checks that the LR and HR images are filled with the stamp.
+static bool checkPreviewImages(unsigned char stamp)
+{
+    for (int r = 0; r < NR; r++) {
+        int size = gPreviewImageWidth[r] * gPreviewImageHeight[r] * 4;
+        for (int i = 0; i < size; i++) {
+            if (gPreviewImage[r][i] != stamp) {
+                printf("FAIL: %s byte %d is %d, expected %d\n",
+                       r == LR ? "LR" : "HR", i, gPreviewImage[r][i], stamp);
+                return false;
+            }
+        }
+    }
+    return true;
+}
+
+// One capture of the given number of frames; returns false if a frame is
+// wrong. The mode in use is returned in mode.
+static bool capture(JNIEnv *env, bool async, int frames, int &mode, double &stallMs)
+{
+    float stMatrix[16];
+    memset(stMatrix, 0, sizeof(stMatrix));
+    stMatrix[0] = stMatrix[5] = stMatrix[10] = stMatrix[15] = 1;
+
+    mode = Java_com_android_camera_MosaicRenderer_setReadbackMode(env, NULL, async);
+    Java_com_android_camera_MosaicRenderer_setWarping(env, NULL, false);
+    Java_com_android_camera_MosaicRenderer_setWarping(env, NULL, true);
+
+    bool ok = true;
+    softglResetStall();
+    for (int frame = 1; frame <= frames; frame++) {
+        unsigned char stamp = (unsigned char) frame;
+
+        // What MosaicPreviewRenderer.doAlignFrame() does.
+        bool ready = async && Java_com_android_camera_MosaicRenderer_finishGPUtoCPU(env, NULL);
+        softglSetStamp(stamp);
+        Java_com_android_camera_MosaicRenderer_preprocess(env, NULL, (jfloatArray) stMatrix);
+        Java_com_android_camera_MosaicRenderer_transferGPUtoCPU(env, NULL);
+        Java_com_android_camera_MosaicRenderer_updateMatrix(env, NULL);
+        Java_com_android_camera_MosaicRenderer_step(env, NULL);
+
+        if (!async) {
+            ok &= checkPreviewImages(stamp);
+        } else if (frame == 1) {
+            if (ready) {
+                printf("FAIL: %s returned a frame before any was read\n", modeNames[mode]);
+                ok = false;
+            }
+        } else if (!ready) {
+            printf("FAIL: %s returned no frame for frame %d\n", modeNames[mode], frame - 1);
+            ok = false;
+        } else {
+            ok &= checkPreviewImages(stamp - 1);
+        }
+        usleep(FRAME_INTERVAL_US);
+    }
+    stallMs = softglGetStallMs() / frames;
+
+    // A frame read before capture stops is not returned after a restart.
+    Java_com_android_camera_MosaicRenderer_setWarping(env, NULL, false);
+    Java_com_android_camera_MosaicRenderer_setWarping(env, NULL, true);
+    if (async && Java_com_android_camera_MosaicRenderer_finishGPUtoCPU(env, NULL)) {
+        printf("FAIL: %s returned a frame from the last capture\n", modeNames[mode]);
+        ok = false;
+    }
+    return ok;
+}
+
+int main(int argc, char **argv)
+{
+    int frames = DEFAULT_FRAMES;
+    double latencyMs = DEFAULT_LATENCY_MS;
+    int opt;
+    while ((opt = getopt(argc, argv, "n:l:")) != -1) {
+        switch (opt) {
+            case 'n': frames = atoi(optarg); break;
+            case 'l': latencyMs = atof(optarg); break;
+            default:
+                printf("Usage: %s [-n frames] [-l draw_latency_ms]\n", argv[0]);
+                return EXIT_USAGE;
+        }
+    }
+    if (frames < 2 || frames > 255) {
+        printf("Usage: %s [-n frames] [-l draw_latency_ms]\n", argv[0]);
+        return EXIT_USAGE;
+    }
+
+    static JNINativeInterface_ functions;
+    memset(&functions, 0, sizeof(functions));
+    functions.GetFloatArrayElements = getFloats;
+    functions.ReleaseFloatArrayElements = releaseFloats;
+    JNIEnv_ envs;
+    envs.functions = &functions;
+    JNIEnv *env = &envs;
+
+    JNI_OnLoad(NULL, NULL);
+    AllocateTextureMemory(WIDTH_HR, HEIGHT_HR, WIDTH_HR / H2L_FACTOR,
+            HEIGHT_HR / H2L_FACTOR);
+    softglSetLatency(latencyMs, latencyMs / 4);
+
+    bool ok = true;
+    double syncStallMs = 0;
+    for (int version = 2; version <= 3; version++) {
+        softglSetVersion(version);
+        Java_com_android_camera_MosaicRenderer_init(env, NULL);
+        Java_com_android_camera_MosaicRenderer_reset(env, NULL, 1280, 720, true);
+
+        for (int async = 0; async <= 1; async++) {
+            int mode;
+            double stallMs;
+            ok &= capture(env, async, frames, mode, stallMs);
+            int expected = !async ? FrameReader::MODE_SYNC
+                    : version >= 3 ? FrameReader::MODE_PIXEL_BUFFER
+                    : FrameReader::MODE_DEFERRED;
+            if (mode != expected) {
+                printf("FAIL: GLES %d used %s, expected %s\n", version,
+                       modeNames[mode], modeNames[expected]);
+                ok = false;
+            }
+            if (!async) syncStallMs = stallMs;
+            printf("GLES %d %-13s GPU wait per frame %6.2f ms\n", version,
+                   modeNames[mode], stallMs);
+            // The point of the asynchronous modes.
+            if (async && stallMs > syncStallMs / 2) {
+                printf("FAIL: %s waits as long as sync\n", modeNames[mode]);
+                ok = false;
+            }
+        }
+    }
+
+    printf("%s\n", ok ? "All readback modes return the expected frames" : "MISMATCH");
+    return ok ? EXIT_OK : EXIT_MISMATCH;
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import java.io.OutputStream;
+
+/**
+ * Like {@link java.io.ByteArrayOutputStream}, but the buffer comes from a
+ * {@link BufferArena} and is handed out as is instead of being copied: the
+ * data is {@code getBuffer()[0, size())}. The owner of the buffer recycles
+ * it with {@link #release()} or by passing it to the arena.
+ */
+public class ArenaOutputStream extends OutputStream {
+    private final BufferArena mArena;
+    private byte[] mBuffer;
+    private int mSize;
+
+    public ArenaOutputStream(BufferArena arena, int initialCapacity) {
+        mArena = arena;
+        mBuffer = arena.obtainArray(initialCapacity);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(mSize + 1);
+        mBuffer[mSize++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if ((off | len) < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureCapacity(mSize + len);
+        System.arraycopy(b, off, mBuffer, mSize, len);
+        mSize += len;
+    }
+
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    // Discards the data but keeps the buffer, e.g. to encode the next strip.
+    public void reset() {
+        mSize = 0;
+    }
+
+    // Gives the buffer back to the arena. The stream cannot be used
+    // afterwards.
+    public void release() {
+        mArena.recycle(mBuffer);
+        mBuffer = null;
+        mSize = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mBuffer.length) return;
+        // Grow by at least half, like ByteArrayOutputStream doubles.
+        byte[] bigger = mArena.obtainArray(
+                Math.max(capacity, mBuffer.length + (mBuffer.length >> 1)));
+        System.arraycopy(mBuffer, 0, bigger, 0, mSize);
+        mArena.recycle(mBuffer);
+        mBuffer = bigger;
+    }
+}
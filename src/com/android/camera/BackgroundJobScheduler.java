@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs jobs on one background thread, one at a time, highest priority first.
+ *
+ * <p>Jobs of the same priority run in the order they were submitted. Each job
+ * has a {@link CancellationToken}. Cancelling a queued job takes it off the
+ * queue; a running job sees its token cancelled, and can have the token call
+ * code that does not check it, such as the native mosaic library, with
+ * {@link CancellationToken#setOnCancelListener}. The progress a job reports
+ * with {@link Job#publishProgress} is passed to its {@link ProgressListener}
+ * on the thread the scheduler was created on.
+ */
+public class BackgroundJobScheduler {
+    private static final String TAG = "BackgroundJobScheduler";
+
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
+
+    public interface ProgressListener {
+        // Called on the thread the scheduler was created on.
+        public void onProgress(Job job, int progress);
+    }
+
+    /**
+     * Tells a job it should stop. Cancelling cannot be undone.
+     */
+    public static class CancellationToken {
+        private boolean mCancelled;
+        private Runnable mOnCancel;
+
+        public synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        public void cancel() {
+            Runnable r;
+            synchronized (this) {
+                if (mCancelled) return;
+                mCancelled = true;
+                r = mOnCancel;
+            }
+            if (r != null) r.run();
+        }
+
+        // Has r run, on the thread that cancels the token, when the token is
+        // cancelled; at once if it already is. Replaces the last one; null
+        // for none.
+        public void setOnCancelListener(Runnable r) {
+            synchronized (this) {
+                mOnCancel = r;
+                if (!mCancelled) return;
+            }
+            if (r != null) r.run();
+        }
+    }
+
+    public abstract static class Job {
+        private final String mName;
+        private final int mPriority;
+        private final CancellationToken mToken = new CancellationToken();
+        private ProgressListener mListener;
+
+        // Set by submit().
+        private BackgroundJobScheduler mScheduler;
+        private long mSequence;
+        // Guarded by the scheduler.
+        private boolean mDone;
+        private int mProgress = -1;
+
+        protected Job(String name, int priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        // Does the work, on the thread of the scheduler. It should return
+        // early once token is cancelled.
+        protected abstract void run(CancellationToken token);
+
+        // Called instead of run() if the job is cancelled before it starts,
+        // on the thread that cancels it.
+        protected void onCancelled() {
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getPriority() {
+            return mPriority;
+        }
+
+        public CancellationToken getToken() {
+            return mToken;
+        }
+
+        // Sets the listener of the progress of the job; call before submit().
+        public void setProgressListener(ProgressListener l) {
+            mListener = l;
+        }
+
+        // Reports the progress of the job, from 0 to 100. Only changes are
+        // passed on.
+        protected final void publishProgress(int progress) {
+            BackgroundJobScheduler scheduler = mScheduler;
+            if (scheduler != null) scheduler.onProgress(this, progress);
+        }
+
+        public void cancel() {
+            BackgroundJobScheduler scheduler = mScheduler;
+            if (scheduler != null) {
+                scheduler.cancel(this);
+            } else {
+                mToken.cancel();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mName + "#" + mSequence;
+        }
+    }
+
+    // What the executor queues: higher priority first, then first submitted.
+    private static class Entry implements Runnable, Comparable<Entry> {
+        final Job mJob;
+
+        Entry(Job job) {
+            mJob = job;
+        }
+
+        @Override
+        public void run() {
+            mJob.mScheduler.runJob(mJob);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (mJob.mPriority != other.mJob.mPriority) {
+                return (mJob.mPriority > other.mJob.mPriority) ? -1 : 1;
+            }
+            return (mJob.mSequence < other.mJob.mSequence) ? -1
+                    : (mJob.mSequence > other.mJob.mSequence) ? 1 : 0;
+        }
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mHandler;
+
+    // Guarded by "this".
+    private long mNextSequence;
+    private int mPending;
+    private Job mRunning;
+    private boolean mStopped;
+
+    public BackgroundJobScheduler(final String name) {
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(
+                                        Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, name);
+                    }
+                });
+        Looper looper = Looper.myLooper();
+        mHandler = (looper == null) ? null : new Handler(looper);
+    }
+
+    // Queues the job and returns at once. A job can be submitted only once.
+    public void submit(Job job) {
+        synchronized (this) {
+            if (mStopped) throw new IllegalStateException("scheduler shut down");
+            if (job.mScheduler != null) throw new IllegalStateException(job + " submitted");
+            job.mScheduler = this;
+            job.mSequence = mNextSequence++;
+            mPending++;
+        }
+        Log.v(TAG, "queued " + job + " priority " + job.mPriority);
+        mExecutor.execute(new Entry(job));
+    }
+
+    // Cancels the token of the job. If it has not started, it is taken off
+    // the queue and never runs.
+    public void cancel(Job job) {
+        job.mToken.cancel();
+        if (removeQueued(job)) {
+            Log.v(TAG, "cancelled queued " + job);
+            job.onCancelled();
+        }
+    }
+
+    // Cancels all the submitted jobs that are not done.
+    public void cancelAll() {
+        Object[] queued = mExecutor.getQueue().toArray();
+        Job running;
+        synchronized (this) {
+            running = mRunning;
+        }
+        if (running != null) cancel(running);
+        for (Object o : queued) {
+            cancel(((Entry) o).mJob);
+        }
+    }
+
+    // The number of jobs submitted and not done, including the running one.
+    public synchronized int getPendingCount() {
+        return mPending;
+    }
+
+    public synchronized boolean isIdle() {
+        return mPending == 0;
+    }
+
+    /**
+     * Blocks until every submitted job is done or cancelled, or until
+     * timeoutMs passes. Returns false on timeout.
+     */
+    public synchronized boolean waitIdle(long timeoutMs) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMs;
+        while (mPending > 0) {
+            long left = end - System.currentTimeMillis();
+            if (left <= 0) return false;
+            wait(left);
+        }
+        return true;
+    }
+
+    // Cancels the queued jobs and stops the thread once the running job
+    // returns. The scheduler cannot be used afterwards.
+    public void shutdown() {
+        synchronized (this) {
+            mStopped = true;
+        }
+        for (Object o : mExecutor.getQueue().toArray()) {
+            cancel(((Entry) o).mJob);
+        }
+        mExecutor.shutdown();
+    }
+
+    private boolean removeQueued(Job job) {
+        synchronized (this) {
+            if (job.mDone || mRunning == job) return false;
+            job.mDone = true;
+        }
+        // The job is not running and cannot start: runJob() checks mDone.
+        for (Object o : mExecutor.getQueue().toArray()) {
+            if (((Entry) o).mJob == job) {
+                mExecutor.remove((Runnable) o);
+                break;
+            }
+        }
+        onJobDone(job);
+        return true;
+    }
+
+    // Runs in the scheduler thread.
+    private void runJob(Job job) {
+        synchronized (this) {
+            if (job.mDone) return;
+            mRunning = job;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            job.run(job.mToken);
+        } finally {
+            Log.v(TAG, job + (job.mToken.isCancelled() ? " cancelled after " : " done in ")
+                    + (System.currentTimeMillis() - start) + "ms");
+            synchronized (this) {
+                mRunning = null;
+                job.mDone = true;
+            }
+            onJobDone(job);
+        }
+    }
+
+    private void onJobDone(Job job) {
+        synchronized (this) {
+            mPending--;
+            notifyAll();  // for waitIdle()
+        }
+    }
+
+    // Runs in the scheduler thread.
+    private void onProgress(final Job job, final int progress) {
+        final ProgressListener l = job.mListener;
+        synchronized (this) {
+            if (job.mDone || progress == job.mProgress) return;
+            job.mProgress = progress;
+        }
+        if (l == null) return;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                l.onProgress(job, progress);
+            }
+        });
+    }
+
+    private void post(Runnable r) {
+        if (mHandler == null) {
+            r.run();
+        } else {
+            mHandler.post(r);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * A pool of large byte arrays and direct byte buffers, so image-sized
+ * buffers are reused instead of being allocated (and collected) per shot.
+ *
+ * <p>Sizes are rounded up to a size class. There are four classes per power
+ * of two, from {@link #MIN_SIZE} to {@link #MAX_SIZE}, so a buffer is at most
+ * 25% larger than requested. Larger requests are allocated directly and
+ * never pooled. The pool keeps at most {@code maxPooledBytes} of idle
+ * buffers; buffers recycled beyond that are dropped.
+ *
+ * <p>The arena tracks the bytes it has handed out and holds, and the peak of
+ * their sum. A buffer that does not have the exact size of a class is not
+ * from the arena; recycling it does nothing. The arena remembers the
+ * class-sized buffers it has handed out until they are recycled, so
+ * recycling one twice, or recycling a class-sized buffer it did not hand out,
+ * throws {@link IllegalStateException} instead of letting two users share a
+ * buffer. A class-sized buffer that is never recycled is never collected.
+ */
+public class BufferArena {
+    public static final int MIN_SIZE = 16 * 1024;
+    public static final int MAX_SIZE = 64 * 1024 * 1024;
+    public static final long DEFAULT_MAX_POOLED_BYTES = 32 * 1024 * 1024;
+
+    private static final int[] CLASS_SIZES;
+
+    static {
+        ArrayList<Integer> sizes = new ArrayList<Integer>();
+        for (int shift = 12; (4 << shift) <= MAX_SIZE; shift++) {
+            for (int k = 0; k < 4; k++) {
+                int size = (4 + k) << shift;
+                if (size >= MIN_SIZE && size <= MAX_SIZE) sizes.add(size);
+            }
+        }
+        CLASS_SIZES = new int[sizes.size()];
+        for (int i = 0; i < CLASS_SIZES.length; i++) CLASS_SIZES[i] = sizes.get(i);
+    }
+
+    private static final BufferArena sShared = new BufferArena(DEFAULT_MAX_POOLED_BYTES);
+
+    // Shared by the save pipeline, the panorama encoder and the thumbnail
+    // decoder.
+    public static BufferArena getShared() {
+        return sShared;
+    }
+
+    private final long mMaxPooledBytes;
+    private final ArrayList<ArrayList<byte[]>> mArrays;
+    private final ArrayList<ArrayList<ByteBuffer>> mDirect;
+
+    // Guarded by "this".
+    // The class-sized buffers that are handed out. ByteBuffer.equals()
+    // compares the content, so this is an identity set.
+    private final Set<Object> mLeased =
+            Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private long mPooledBytes;
+    private long mLeasedBytes;
+    private long mPeakResidentBytes;
+    private int mHits;
+    private int mMisses;
+
+    public BufferArena(long maxPooledBytes) {
+        mMaxPooledBytes = maxPooledBytes;
+        mArrays = new ArrayList<ArrayList<byte[]>>(CLASS_SIZES.length);
+        mDirect = new ArrayList<ArrayList<ByteBuffer>>(CLASS_SIZES.length);
+        for (int i = 0; i < CLASS_SIZES.length; i++) {
+            mArrays.add(new ArrayList<byte[]>());
+            mDirect.add(new ArrayList<ByteBuffer>());
+        }
+    }
+
+    // Returns the size of the buffers used for a request of the given size.
+    public static int getClassSize(int size) {
+        int i = getClass(size);
+        return (i < 0) ? size : CLASS_SIZES[i];
+    }
+
+    // Returns an array of at least the given length. Its content is
+    // undefined.
+    public byte[] obtainArray(int minLength) {
+        int i = getClass(minLength);
+        if (i < 0) return new byte[minLength];
+        byte[] a;
+        synchronized (this) {
+            ArrayList<byte[]> free = mArrays.get(i);
+            a = free.isEmpty() ? null : free.remove(free.size() - 1);
+            onObtain(CLASS_SIZES[i], a != null);
+            if (a != null) {
+                mLeased.add(a);
+                return a;
+            }
+        }
+        a = new byte[CLASS_SIZES[i]];
+        synchronized (this) {
+            mLeased.add(a);
+        }
+        return a;
+    }
+
+    // Returns a cleared direct buffer with at least the given capacity.
+    public ByteBuffer obtainDirect(int minCapacity) {
+        int i = getClass(minCapacity);
+        if (i < 0) return ByteBuffer.allocateDirect(minCapacity);
+        ByteBuffer b;
+        synchronized (this) {
+            ArrayList<ByteBuffer> free = mDirect.get(i);
+            b = free.isEmpty() ? null : free.remove(free.size() - 1);
+            onObtain(CLASS_SIZES[i], b != null);
+            if (b != null) {
+                mLeased.add(b);
+                return b;
+            }
+        }
+        b = ByteBuffer.allocateDirect(CLASS_SIZES[i]);
+        synchronized (this) {
+            mLeased.add(b);
+        }
+        return b;
+    }
+
+    public void recycle(byte[] a) {
+        if (a == null) return;
+        int i = findClass(a.length);
+        if (i < 0) return;
+        synchronized (this) {
+            if (onRecycle(a, a.length)) mArrays.get(i).add(a);
+        }
+    }
+
+    public void recycle(ByteBuffer b) {
+        if (b == null || !b.isDirect()) return;
+        int i = findClass(b.capacity());
+        if (i < 0) return;
+        synchronized (this) {
+            if (onRecycle(b, b.capacity())) {
+                b.clear();
+                mDirect.get(i).add(b);
+            }
+        }
+    }
+
+    // Drops all the idle buffers, e.g. when the activity is paused.
+    public synchronized void trim() {
+        for (int i = 0; i < CLASS_SIZES.length; i++) {
+            mArrays.get(i).clear();
+            mDirect.get(i).clear();
+        }
+        mPooledBytes = 0;
+    }
+
+    public synchronized long getPooledBytes() {
+        return mPooledBytes;
+    }
+
+    public synchronized long getLeasedBytes() {
+        return mLeasedBytes;
+    }
+
+    // The peak of the bytes handed out plus the bytes held idle.
+    public synchronized long getPeakResidentBytes() {
+        return mPeakResidentBytes;
+    }
+
+    public synchronized void resetPeak() {
+        mPeakResidentBytes = mPooledBytes + mLeasedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BufferArena leased=" + mLeasedBytes / 1024 + "KB pooled="
+                + mPooledBytes / 1024 + "KB peak=" + mPeakResidentBytes / 1024
+                + "KB hits=" + mHits + " misses=" + mMisses;
+    }
+
+    private void onObtain(int size, boolean hit) {
+        if (hit) {
+            mHits++;
+            mPooledBytes -= size;
+        } else {
+            mMisses++;
+        }
+        mLeasedBytes += size;
+        mPeakResidentBytes = Math.max(mPeakResidentBytes,
+                mPooledBytes + mLeasedBytes);
+    }
+
+    // Returns true if the buffer should be kept.
+    private boolean onRecycle(Object buffer, int size) {
+        if (!mLeased.remove(buffer)) {
+            throw new IllegalStateException(
+                    "Buffer of " + size + " bytes is not leased from this arena");
+        }
+        mLeasedBytes -= size;
+        if (mPooledBytes + size > mMaxPooledBytes) return false;
+        mPooledBytes += size;
+        return true;
+    }
+
+    // The smallest class that fits the size, or -1 if it is too large.
+    private static int getClass(int size) {
+        if (size > MAX_SIZE) return -1;
+        int i = Arrays.binarySearch(CLASS_SIZES, Math.max(size, 0));
+        return (i >= 0) ? i : -(i + 1);
+    }
+
+    // The class of exactly the size, or -1.
+    private static int findClass(int size) {
+        int i = Arrays.binarySearch(CLASS_SIZES, size);
+        return (i >= 0) ? i : -1;
+    }
+}
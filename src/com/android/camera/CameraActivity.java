@@ -37,6 +37,9 @@ import com.android.camera.ui.CameraSwitcher;
 import com.android.gallery3d.app.PhotoPage;
 import com.android.gallery3d.util.LightCycleHelper;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class CameraActivity extends ActivityBase
         implements CameraSwitcher.CameraSwitchListener {
     public static final int PHOTO_MODULE_INDEX = 0;
@@ -465,6 +468,20 @@ public class CameraActivity extends ActivityBase
                 ((PhotoModule)mCurrentModule).mCaptureStartTime : -1;
     }
 
+    // Returns the latency in ms of a CaptureMetrics stage at the given
+    // percentile, over all the shots since the metrics were last reset.
+    public double getLatencyPercentile(int stage, double percentile) {
+        return CaptureMetrics.getPercentileMillis(stage, percentile);
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer,
+            String[] args) {
+        super.dump(prefix, fd, writer, args);
+        CaptureMetrics.dump(prefix, writer);
+        writer.println(prefix + BufferArena.getShared());
+    }
+
     public boolean isRecording() {
         return (mCurrentModule instanceof VideoModule) ?
                 ((VideoModule) mCurrentModule).isRecording() : false;
@@ -35,12 +35,15 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.view.SurfaceHolder;
 import android.util.Log;
 
 import com.android.gallery3d.common.ApiHelper;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 public class CameraManager {
     private static final String TAG = "CameraManager";
@@ -51,6 +54,8 @@ public class CameraManager {
     private ConditionVariable mSig = new ConditionVariable();
 
     private Parameters mParameters;
+    // What the camera is known to hold; see CameraParametersCache.
+    private final CameraParametersCache mParametersCache = new CameraParametersCache();
     private IOException mReconnectException;
 
     private static final int RELEASE = 1;
@@ -80,6 +85,20 @@ public class CameraManager {
     private static final int ENABLE_SHUTTER_SOUND = 25;
     private static final int SET_HISTOGRAM_MODE = 26;
     private static final int SEND_HISTOGRAM_DATA = 27;
+    private static final int ADD_CALLBACK_BUFFERS = 28;
+    private static final int ASYNC_COMMAND = 29;
+
+    // Strict mode: log and count every call that blocks the main thread on
+    // the camera thread. Turn it on with
+    // "adb shell setprop debug.camera.strictmode 1" and restart the app.
+    private static final boolean STRICT_MODE =
+            SystemProperties.getBoolean("debug.camera.strictmode", false);
+    private final MainThreadBlockMonitor mBlockMonitor =
+            new MainThreadBlockMonitor("camera thread", STRICT_MODE);
+
+    // Which queued command a setParametersCommand() or
+    // addCallbackBufferAsync() call can be merged into.
+    private final CommandCoalescer<Command> mCoalescer = new CommandCoalescer<Command>();
 
     private Handler mCameraHandler;
     private CameraProxy mCameraProxy;
@@ -110,6 +129,17 @@ public class CameraManager {
             mCamera.stopFaceDetection();
         }
 
+        private void setParameters(Parameters params) {
+            String flattened = params.flatten();
+            try {
+                mCamera.setParameters(params);
+            } catch (RuntimeException e) {
+                mParametersCache.onSetParametersFailed();
+                throw e;
+            }
+            mParametersCache.onSetParameters(flattened);
+        }
+
         @TargetApi(ApiHelper.VERSION_CODES.ICE_CREAM_SANDWICH)
         private void setFaceDetectionListener(FaceDetectionListener listener) {
             mCamera.setFaceDetectionListener(listener);
@@ -129,14 +159,49 @@ public class CameraManager {
             mCamera.enableShutterSound(enable);
         }
 
+        // Everything sent to the camera thread passes through here, so a
+        // command is only merged into while nothing has been queued after it.
+        @Override
+        public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+            Command cmd = (msg.what == ASYNC_COMMAND) ? (Command) msg.obj : null;
+            synchronized (mCoalescer) {
+                boolean sent = super.sendMessageAtTime(msg, uptimeMillis);
+                mCoalescer.onQueued(cmd, (cmd != null) ? cmd.mWhat : 0);
+                return sent;
+            }
+        }
+
         /*
          * This method does not deal with the build version check.  Everyone should
          * check first before sending message to this handler.
          */
         @Override
         public void handleMessage(final Message msg) {
+            if (msg.what == ASYNC_COMMAND) {
+                Command cmd = (Command) msg.obj;
+                Object obj;
+                synchronized (mCoalescer) {
+                    mCoalescer.onStarted(cmd);
+                    obj = cmd.mObj;
+                }
+                try {
+                    execute(cmd.mWhat, cmd.mArg1, obj);
+                    cmd.complete(null);
+                } catch (RuntimeException e) {
+                    cmd.complete(e);
+                    throw e;
+                }
+                return;
+            }
+            if (execute(msg.what, msg.arg1, msg.obj)) mSig.open();
+        }
+
+        // Returns false if the caller does not wait for the message, so
+        // there is no need to call mSig.open().
+        @SuppressWarnings("unchecked")
+        private boolean execute(int what, int arg1, Object obj) {
             try {
-                switch (msg.what) {
+                switch (what) {
                     case RELEASE:
                         mCamera.release();
                         mCamera = null;
@@ -161,20 +226,24 @@ public class CameraManager {
                         break;
 
                     case SET_PREVIEW_TEXTURE_ASYNC:
-                        setPreviewTexture(msg.obj);
-                        return;  // no need to call mSig.open()
+                        setPreviewTexture(obj);
+                        return false;
 
                     case SET_PREVIEW_DISPLAY_ASYNC:
                         try {
-                            mCamera.setPreviewDisplay((SurfaceHolder) msg.obj);
+                            mCamera.setPreviewDisplay((SurfaceHolder) obj);
                         } catch(IOException e) {
                             throw new RuntimeException(e);
                         }
-                        return;  // no need to call mSig.open()
+                        return false;
 
                     case START_PREVIEW_ASYNC:
                         mCamera.startPreview();
-                        return;  // no need to call mSig.open()
+                        if (obj != null) {
+                            CaptureMetrics.recordMillis(CaptureMetrics.START_PREVIEW,
+                                    SystemClock.uptimeMillis() - (Long) obj);
+                        }
+                        return false;
 
                     case STOP_PREVIEW:
                         mCamera.stopPreview();
@@ -182,15 +251,21 @@ public class CameraManager {
 
                     case SET_PREVIEW_CALLBACK_WITH_BUFFER:
                         mCamera.setPreviewCallbackWithBuffer(
-                            (PreviewCallback) msg.obj);
+                            (PreviewCallback) obj);
                         break;
 
                     case ADD_CALLBACK_BUFFER:
-                        mCamera.addCallbackBuffer((byte[]) msg.obj);
+                        mCamera.addCallbackBuffer((byte[]) obj);
+                        break;
+
+                    case ADD_CALLBACK_BUFFERS:
+                        for (byte[] buffer : (ArrayList<byte[]>) obj) {
+                            mCamera.addCallbackBuffer(buffer);
+                        }
                         break;
 
                     case AUTO_FOCUS:
-                        mCamera.autoFocus((AutoFocusCallback) msg.obj);
+                        mCamera.autoFocus((AutoFocusCallback) obj);
                         break;
 
                     case CANCEL_AUTO_FOCUS:
@@ -198,20 +273,20 @@ public class CameraManager {
                         break;
 
                     case SET_AUTO_FOCUS_MOVE_CALLBACK:
-                        setAutoFocusMoveCallback(mCamera, msg.obj);
+                        setAutoFocusMoveCallback(mCamera, obj);
                         break;
 
                     case SET_DISPLAY_ORIENTATION:
-                        mCamera.setDisplayOrientation(msg.arg1);
+                        mCamera.setDisplayOrientation(arg1);
                         break;
 
                     case SET_ZOOM_CHANGE_LISTENER:
                         mCamera.setZoomChangeListener(
-                            (OnZoomChangeListener) msg.obj);
+                            (OnZoomChangeListener) obj);
                         break;
 
                     case SET_FACE_DETECTION_LISTENER:
-                        setFaceDetectionListener((FaceDetectionListener) msg.obj);
+                        setFaceDetectionListener((FaceDetectionListener) obj);
                         break;
 
                     case START_FACE_DETECTION:
@@ -223,44 +298,45 @@ public class CameraManager {
                         break;
 
                     case SET_ERROR_CALLBACK:
-                        mCamera.setErrorCallback((ErrorCallback) msg.obj);
+                        mCamera.setErrorCallback((ErrorCallback) obj);
                         break;
 
                     case SET_PARAMETERS:
-                        mCamera.setParameters((Parameters) msg.obj);
+                        setParameters((Parameters) obj);
                         break;
 
                     case GET_PARAMETERS:
                         mParameters = mCamera.getParameters();
+                        mParametersCache.onGetParameters(mParameters.flatten());
                         mAquireLock--;
                         break;
 
                     case SET_PARAMETERS_ASYNC:
-                        mCamera.setParameters((Parameters) msg.obj);
-                        return;  // no need to call mSig.open()
+                        setParameters((Parameters) obj);
+                        return false;
 
                     case SET_PREVIEW_CALLBACK:
-                        mCamera.setPreviewCallback((PreviewCallback) msg.obj);
+                        mCamera.setPreviewCallback((PreviewCallback) obj);
                         break;
 
                     case ENABLE_SHUTTER_SOUND:
-                        enableShutterSound((msg.arg1 == 1) ? true : false);
+                        enableShutterSound((arg1 == 1) ? true : false);
                         break;
 
                     case WAIT_FOR_IDLE:
                         // do nothing
                         break;
                     case SET_HISTOGRAM_MODE:
-                        mCamera.setHistogramMode((CameraDataCallback) msg.obj);
+                        mCamera.setHistogramMode((CameraDataCallback) obj);
                         break;
                     case SEND_HISTOGRAM_DATA:
                         mCamera.sendHistogramData();
                         break;
                     default:
-                        throw new RuntimeException("Invalid CameraProxy message=" + msg.what);
+                        throw new RuntimeException("Invalid CameraProxy message=" + what);
                 }
             } catch (RuntimeException e) {
-                if (msg.what != RELEASE && mCamera != null) {
+                if (what != RELEASE && mCamera != null) {
                     try {
                         mCamera.release();
                     } catch (Exception ex) {
@@ -271,10 +347,83 @@ public class CameraManager {
                 }
                 throw e;
             }
-            mSig.open();
+            return true;
         }
     }
 
+    /**
+     * A handle to a command that was queued to the camera thread without
+     * waiting for it. Commands run in the order they were queued; a later
+     * call may be merged into a command that is still the newest in the
+     * queue, in which case both calls return the same handle.
+     */
+    public class Command {
+        private final int mWhat;
+        private final int mArg1;
+        // Guarded by mCoalescer; only changed before the command starts.
+        private Object mObj;
+        private boolean mDone;
+        private RuntimeException mException;
+
+        private Command(int what, int arg1, Object obj) {
+            mWhat = what;
+            mArg1 = arg1;
+            mObj = obj;
+        }
+
+        private synchronized void complete(RuntimeException e) {
+            mException = e;
+            mDone = true;
+            notifyAll();
+        }
+
+        public synchronized boolean isDone() {
+            return mDone;
+        }
+
+        // Returns the exception the command failed with, or null.
+        public synchronized RuntimeException getException() {
+            return mException;
+        }
+
+        // Blocks until the command is done.
+        public void waitDone() {
+            long start = System.nanoTime();
+            synchronized (this) {
+                while (!mDone) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        // ignore.
+                    }
+                }
+            }
+            onCallerBlocked(start);
+        }
+    }
+
+    private Command sendCommand(int what, int arg1, Object obj) {
+        Command cmd = new Command(what, arg1, obj);
+        mCameraHandler.obtainMessage(ASYNC_COMMAND, cmd).sendToTarget();
+        return cmd;
+    }
+
+    // Blocks the calling thread until the camera thread opens mSig.
+    private void blockCaller() {
+        long start = System.nanoTime();
+        mSig.block();
+        onCallerBlocked(start);
+    }
+
+    private void onCallerBlocked(long start) {
+        mBlockMonitor.onBlocked(Looper.myLooper() == Looper.getMainLooper(), start);
+    }
+
+    // The main thread waits counted in strict mode; see STRICT_MODE.
+    public MainThreadBlockMonitor getMainThreadBlockMonitor() {
+        return mBlockMonitor;
+    }
+
     @TargetApi(ApiHelper.VERSION_CODES.JELLY_BEAN)
     private void setAutoFocusMoveCallback(android.hardware.Camera camera,
             Object cb) {
@@ -291,6 +440,7 @@ public class CameraManager {
         // CalledFromWrongThreadException: Only the original thread that created
         // a view hierarchy can touch its views.
         mCamera = android.hardware.Camera.open(cameraId);
+        mParametersCache.clear();
         if (mCamera != null) {
             mCameraProxy = new CameraProxy();
             return mCameraProxy;
@@ -309,15 +459,17 @@ public class CameraManager {
         }
 
         public void release() {
+            mParametersCache.clear();
             mSig.close();
             mCameraHandler.sendEmptyMessage(RELEASE);
-            mSig.block();
+            blockCaller();
         }
 
         public void reconnect() throws IOException {
             mSig.close();
             mCameraHandler.sendEmptyMessage(RECONNECT);
-            mSig.block();
+            blockCaller();
+            mParametersCache.invalidate();
             if (mReconnectException != null) {
                 throw mReconnectException;
             }
@@ -326,13 +478,15 @@ public class CameraManager {
         public void unlock() {
             mSig.close();
             mCameraHandler.sendEmptyMessage(UNLOCK);
-            mSig.block();
+            blockCaller();
+            mParametersCache.invalidate();
         }
 
         public void lock() {
             mSig.close();
             mCameraHandler.sendEmptyMessage(LOCK);
-            mSig.block();
+            blockCaller();
+            mParametersCache.invalidate();
         }
 
         @TargetApi(ApiHelper.VERSION_CODES.HONEYCOMB)
@@ -345,54 +499,89 @@ public class CameraManager {
         }
 
         public void startPreviewAsync() {
+            mParametersCache.invalidateReads();
             mCameraHandler.sendEmptyMessage(START_PREVIEW_ASYNC);
         }
 
+        // Like startPreviewAsync(), and records the time from since, an
+        // uptimeMillis() value, until the camera has started the preview as
+        // CaptureMetrics.START_PREVIEW.
+        public void startPreviewAsync(long since) {
+            mParametersCache.invalidateReads();
+            mCameraHandler.obtainMessage(START_PREVIEW_ASYNC, Long.valueOf(since)).sendToTarget();
+        }
+
         public void stopPreview() {
+            mParametersCache.invalidateReads();
             mSig.close();
             mCameraHandler.sendEmptyMessage(STOP_PREVIEW);
-            mSig.block();
+            blockCaller();
         }
 
         public void setPreviewCallback(final PreviewCallback cb) {
             mSig.close();
             mCameraHandler.obtainMessage(SET_PREVIEW_CALLBACK, cb).sendToTarget();
-            mSig.block();
+            blockCaller();
         }
 
         public void setPreviewCallbackWithBuffer(final PreviewCallback cb) {
             mSig.close();
             mCameraHandler.obtainMessage(SET_PREVIEW_CALLBACK_WITH_BUFFER, cb).sendToTarget();
-            mSig.block();
+            blockCaller();
         }
 
         public void addCallbackBuffer(byte[] callbackBuffer) {
             mSig.close();
             mCameraHandler.obtainMessage(ADD_CALLBACK_BUFFER, callbackBuffer).sendToTarget();
-            mSig.block();
+            blockCaller();
+        }
+
+        // Buffers added back to back are handed to the camera in one turn of
+        // the camera thread. Adding a buffer that is still queued is a no-op.
+        public Command addCallbackBufferAsync(byte[] callbackBuffer) {
+            synchronized (mCoalescer) {
+                Command cmd = mCoalescer.mergeTarget(ADD_CALLBACK_BUFFERS);
+                if (cmd == null) {
+                    ArrayList<byte[]> buffers = new ArrayList<byte[]>();
+                    buffers.add(callbackBuffer);
+                    return sendCommand(ADD_CALLBACK_BUFFERS, 0, buffers);
+                }
+                @SuppressWarnings("unchecked")
+                ArrayList<byte[]> buffers = (ArrayList<byte[]>) cmd.mObj;
+                if (!buffers.contains(callbackBuffer)) buffers.add(callbackBuffer);
+                return cmd;
+            }
+        }
+
+        public Command autoFocusAsync(AutoFocusCallback cb) {
+            mParametersCache.invalidateReads();
+            return sendCommand(AUTO_FOCUS, 0, cb);
         }
 
         public void autoFocus(AutoFocusCallback cb) {
+            mParametersCache.invalidateReads();
             mSig.close();
             mCameraHandler.obtainMessage(AUTO_FOCUS, cb).sendToTarget();
-            mSig.block();
+            blockCaller();
         }
 
         public void cancelAutoFocus() {
+            mParametersCache.invalidateReads();
             mSig.close();
             mCameraHandler.sendEmptyMessage(CANCEL_AUTO_FOCUS);
-            mSig.block();
+            blockCaller();
         }
 
         @TargetApi(ApiHelper.VERSION_CODES.JELLY_BEAN)
         public void setAutoFocusMoveCallback(AutoFocusMoveCallback cb) {
             mSig.close();
             mCameraHandler.obtainMessage(SET_AUTO_FOCUS_MOVE_CALLBACK, cb).sendToTarget();
-            mSig.block();
+            blockCaller();
         }
 
         public void takePicture(final ShutterCallback shutter, final PictureCallback raw,
                 final PictureCallback postview, final PictureCallback jpeg) {
+            mParametersCache.invalidateReads();
             mSig.close();
             // Too many parameters, so use post for simplicity
             mCameraHandler.post(new Runnable() {
@@ -402,12 +591,13 @@ public class CameraManager {
                     mSig.open();
                 }
             });
-            mSig.block();
+            blockCaller();
         }
 
         public void takePicture2(final ShutterCallback shutter, final PictureCallback raw,
                 final PictureCallback postview, final PictureCallback jpeg,
                 final int cameraState, final int focusState) {
+            mParametersCache.invalidateReads();
             mSig.close();
             // Too many parameters, so use post for simplicity
             mCameraHandler.post(new Runnable() {
@@ -423,94 +613,148 @@ public class CameraManager {
                     mSig.open();
                 }
             });
-            mSig.block();
+            blockCaller();
         }
 
         public void setDisplayOrientation(int degrees) {
             mSig.close();
             mCameraHandler.obtainMessage(SET_DISPLAY_ORIENTATION, degrees, 0)
                     .sendToTarget();
-            mSig.block();
+            blockCaller();
         }
 
         public void setZoomChangeListener(OnZoomChangeListener listener) {
             mSig.close();
             mCameraHandler.obtainMessage(SET_ZOOM_CHANGE_LISTENER, listener).sendToTarget();
-            mSig.block();
+            blockCaller();
         }
 
         @TargetApi(ApiHelper.VERSION_CODES.ICE_CREAM_SANDWICH)
         public void setFaceDetectionListener(FaceDetectionListener listener) {
             mSig.close();
             mCameraHandler.obtainMessage(SET_FACE_DETECTION_LISTENER, listener).sendToTarget();
-            mSig.block();
+            blockCaller();
+        }
+
+        public Command startFaceDetectionAsync() {
+            return sendCommand(START_FACE_DETECTION, 0, null);
         }
 
         public void startFaceDetection() {
             mSig.close();
             mCameraHandler.sendEmptyMessage(START_FACE_DETECTION);
-            mSig.block();
+            blockCaller();
         }
 
         public void stopFaceDetection() {
             mSig.close();
             mCameraHandler.sendEmptyMessage(STOP_FACE_DETECTION);
-            mSig.block();
+            blockCaller();
         }
 
         public void setErrorCallback(ErrorCallback cb) {
             mSig.close();
             mCameraHandler.obtainMessage(SET_ERROR_CALLBACK, cb).sendToTarget();
-            mSig.block();
+            blockCaller();
         }
 
-        public void setParameters(Parameters params) {
+        // Returns false if the parameters are the same as the ones the camera
+        // already has, in which case nothing is sent.
+        public boolean setParameters(Parameters params) {
+            if (!mParametersCache.needsSet(params.flatten())) return false;
             mSig.close();
             mCameraHandler.obtainMessage(SET_PARAMETERS, params).sendToTarget();
-            mSig.block();
+            blockCaller();
+            return true;
         }
 
         public void setParametersAsync(Parameters params) {
+            if (!mParametersCache.needsSet(params.flatten())) return;
             mCameraHandler.removeMessages(SET_PARAMETERS_ASYNC);
             mCameraHandler.obtainMessage(SET_PARAMETERS_ASYNC, params).sendToTarget();
         }
 
+        // Like setParametersAsync(), but returns a handle. If the previous
+        // call is still the newest command queued, its parameters are
+        // replaced by these and the same handle is returned. Returns a handle
+        // that is already done if there is nothing to send.
+        public Command setParametersCommand(Parameters params) {
+            synchronized (mCoalescer) {
+                Command cmd = mCoalescer.mergeTarget(SET_PARAMETERS);
+                if (!mParametersCache.needsSet(params.flatten())) {
+                    if (cmd != null) return cmd;
+                    cmd = new Command(SET_PARAMETERS, 0, params);
+                    cmd.complete(null);
+                    return cmd;
+                }
+                if (cmd == null) return sendCommand(SET_PARAMETERS, 0, params);
+                cmd.mObj = params;
+                return cmd;
+            }
+        }
+
         public synchronized Parameters getParameters() {
             mSig.close();
             mAquireLock++;
             mCameraHandler.sendEmptyMessage(GET_PARAMETERS);
-            mSig.block();
+            blockCaller();
             while(mAquireLock > 0) {
               mSig.close();
-              mSig.block();
+              blockCaller();
             }
             Parameters parameters = mParameters;
             mParameters = null;
             return parameters;
         }
 
+        // Reads a single parameter. It is answered from the cache when the
+        // camera cannot have changed it since it was last read.
+        public String getParameter(String key) {
+            if (mParametersCache.isValid()) return mParametersCache.get(key);
+            return getParameters().get(key);
+        }
+
+        public int getIntParameter(String key, int defaultValue) {
+            String v = getParameter(key);
+            if (v == null) return defaultValue;
+            try {
+                return Integer.parseInt(v);
+            } catch (NumberFormatException ex) {
+                return defaultValue;
+            }
+        }
+
+        // For tests and debugging: how many parameter round trips were avoided.
+        public String getParametersStats() {
+            return mParametersCache.toString();
+        }
+
         public void enableShutterSound(boolean enable) {
             mSig.close();
             mCameraHandler.obtainMessage(
                     ENABLE_SHUTTER_SOUND, (enable ? 1 : 0), 0).sendToTarget();
-            mSig.block();
+            blockCaller();
         }
 
         public void waitForIdle() {
             mSig.close();
             mCameraHandler.sendEmptyMessage(WAIT_FOR_IDLE);
-            mSig.block();
+            blockCaller();
         }
         public void setHistogramMode(CameraDataCallback cb) {
             mSig.close();
             mCameraHandler.obtainMessage(SET_HISTOGRAM_MODE, cb).sendToTarget();
-            mSig.block();
+            blockCaller();
+        }
+
+        public Command sendHistogramDataAsync() {
+            return sendCommand(SEND_HISTOGRAM_DATA, 0, null);
         }
 
         public void sendHistogramData() {
             mSig.close();
             mCameraHandler.sendEmptyMessage(SEND_HISTOGRAM_DATA);
-            mSig.block();
+            blockCaller();
         }
     }
 }
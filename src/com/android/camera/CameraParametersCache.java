@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A snapshot of the camera parameters last sent to or read from the camera.
+ *
+ * <p>{@link CameraManager.CameraProxy} uses it to skip setParameters() calls
+ * that would not change anything and to answer single-key reads without a
+ * round trip to the camera thread. A set is skipped if it matches the last
+ * parameters sent (or read back), including sets that are still queued; the
+ * snapshot that answers reads is only updated once the camera has accepted
+ * the parameters, and a set that fails is forgotten.
+ *
+ * <p>There are two ways the snapshot gets out of date. While the camera
+ * focuses, captures or runs the preview it updates the values it reports
+ * (e.g. the focus distances), but not the settings the app sent; {@link
+ * #invalidateReads()} stops the snapshot from answering reads but still
+ * lets it skip identical sets. When the camera is reconnected or used by
+ * another client (e.g. MediaRecorder after unlock()), its settings may
+ * change too; {@link #invalidate()} forgets them, so the next set is always
+ * sent. The snapshot is also stale after a set, since the camera may adjust
+ * the values it accepts.
+ */
+public class CameraParametersCache {
+    private static final String TAG = "CameraParametersCache";
+
+    // The last parameters sent to or read from the camera, or null if the
+    // next set must be sent.
+    private String mFlattened;
+    private final HashMap<String, String> mValues = new HashMap<String, String>();
+    private boolean mStale = true;
+
+    // Statistics.
+    private int mSetsSent;
+    private int mSetsSkipped;
+    private int mKeysSent;
+    private int mFetches;
+    private int mReadsFromCache;
+
+    // Returns true if the flattened parameters differ from the last ones sent
+    // and must be sent to the camera. Reads are not answered until they are
+    // read back.
+    public synchronized boolean needsSet(String flattened) {
+        if (flattened.equals(mFlattened)) {
+            mSetsSkipped++;
+            return false;
+        }
+        mFlattened = flattened;
+        mStale = true;
+        return true;
+    }
+
+    // Called on the camera thread once the camera has accepted the
+    // parameters. The snapshot is updated to the new values.
+    public synchronized void onSetParameters(String flattened) {
+        HashMap<String, String> values = unflatten(flattened);
+        ArrayList<String> changed = new ArrayList<String>();
+        for (String key : values.keySet()) {
+            if (!TextUtils.equals(values.get(key), mValues.get(key))) changed.add(key);
+        }
+        for (String key : mValues.keySet()) {
+            if (!values.containsKey(key)) changed.add(key);
+        }
+        mSetsSent++;
+        mKeysSent += changed.size();
+        Log.v(TAG, "setParameters changed " + changed);
+
+        // The camera may adjust the values it accepts, so the snapshot is
+        // still not trusted for reads.
+        mValues.clear();
+        mValues.putAll(values);
+    }
+
+    // Called on the camera thread if the camera rejected the parameters.
+    public synchronized void onSetParametersFailed() {
+        invalidate();
+    }
+
+    public synchronized void onGetParameters(String flattened) {
+        mFetches++;
+        mFlattened = flattened;
+        mValues.clear();
+        mValues.putAll(unflatten(flattened));
+        mStale = false;
+    }
+
+    // Called when the camera may have changed the values it reports, but not
+    // the settings it was given.
+    public synchronized void invalidateReads() {
+        mStale = true;
+    }
+
+    // Called when the camera may have changed its settings, e.g. after it was
+    // reconnected or used by another client.
+    public synchronized void invalidate() {
+        mStale = true;
+        // The next setParameters() is sent even if it matches the snapshot.
+        mFlattened = null;
+    }
+
+    // Called when the camera is opened or released.
+    public synchronized void clear() {
+        mFlattened = null;
+        mValues.clear();
+        mStale = true;
+    }
+
+    // Returns true if get() can answer reads.
+    public synchronized boolean isValid() {
+        return !mStale;
+    }
+
+    // Only meaningful if isValid() returns true.
+    public synchronized String get(String key) {
+        mReadsFromCache++;
+        return mValues.get(key);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "setParameters sent=" + mSetsSent + " skipped=" + mSetsSkipped
+                + " keys sent=" + mKeysSent + ", getParameters fetched="
+                + mFetches + " reads from cache=" + mReadsFromCache;
+    }
+
+    // Same format as Camera.Parameters.flatten(): "key1=value1;key2=value2".
+    private static HashMap<String, String> unflatten(String flattened) {
+        HashMap<String, String> values = new HashMap<String, String>(128);
+        TextUtils.StringSplitter splitter = new TextUtils.SimpleStringSplitter(';');
+        splitter.setString(flattened);
+        for (String kv : splitter) {
+            int pos = kv.indexOf('=');
+            if (pos == -1) continue;
+            values.put(kv.substring(0, pos), kv.substring(pos + 1));
+        }
+        return values;
+    }
+}
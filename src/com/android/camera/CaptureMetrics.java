@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Process-wide latency histograms of the capture stages.
+ *
+ * <p>The modules record into it from whatever thread a stage ends on. The
+ * histograms are dumped by "adb shell dumpsys activity
+ * com.android.camera/.CameraActivity" and can be read or written to a file
+ * by the stress tests.
+ */
+public class CaptureMetrics {
+    private static final String TAG = "CaptureMetrics";
+
+    // From the autoFocus() call to the focus callback.
+    public static final int FOCUS = 0;
+    // From takePicture() to the shutter callback.
+    public static final int SHUTTER = 1;
+    // From the shutter callback to the raw picture callback.
+    public static final int RAW = 2;
+    // From the shutter callback to the postview callback.
+    public static final int POSTVIEW = 3;
+    // From the picture being displayed to the jpeg callback.
+    public static final int JPEG = 4;
+    // Time spent in the jpeg callback.
+    public static final int JPEG_CALLBACK = 5;
+    // Time the main thread waits for the image namer to get a uri.
+    public static final int NAMER = 6;
+    // Time to write an image file, including the EXIF patch.
+    public static final int FILE_WRITE = 7;
+    // From queueing the MediaStore update of an image to its completion.
+    public static final int MEDIASTORE_UPDATE = 8;
+    public static final int CAMERA_OPEN = 9;
+    // From the start of PhotoModule.startPreview(), which sets the
+    // parameters, until the camera thread has started the preview.
+    public static final int START_PREVIEW = 10;
+    // The stages of ImageFileWriter.write(), for every file it writes:
+    // creating the temporary file, writing the data, syncing (if asked) and
+    // closing it, and renaming it.
+    public static final int FILE_OPEN = 11;
+    public static final int FILE_DATA = 12;
+    public static final int FILE_SYNC = 13;
+    public static final int FILE_RENAME = 14;
+    public static final int STAGE_COUNT = 15;
+
+    private static final String[] STAGE_NAMES = {
+        "focus", "shutter", "raw", "postview", "jpeg", "jpeg_callback",
+        "namer", "file_write", "mediastore_update", "camera_open",
+        "start_preview", "file_open", "file_data", "file_sync", "file_rename",
+    };
+
+    private static final LatencyHistogram[] sHistograms =
+            new LatencyHistogram[STAGE_COUNT];
+
+    static {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            sHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    private CaptureMetrics() {
+    }
+
+    public static void recordMillis(int stage, long ms) {
+        sHistograms[stage].recordMillis(ms);
+    }
+
+    public static void recordNanos(int stage, long ns) {
+        sHistograms[stage].recordNanos(ns);
+    }
+
+    public static LatencyHistogram get(int stage) {
+        return sHistograms[stage];
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    // Returns the latency of the stage at the given percentile, in
+    // milliseconds.
+    public static double getPercentileMillis(int stage, double percentile) {
+        return sHistograms[stage].getPercentileMicros(percentile) / 1000.0;
+    }
+
+    public static void reset() {
+        for (LatencyHistogram h : sHistograms) h.reset();
+    }
+
+    // Prints one line per stage that has samples. All times are in ms.
+    public static void dump(String prefix, PrintWriter pw) {
+        pw.println(prefix + "Capture latency (ms):");
+        pw.println(String.format("%s  %-18s %6s %8s %8s %8s %8s %8s %8s",
+                prefix, "stage", "count", "min", "mean", "p50", "p90", "p99",
+                "max"));
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            LatencyHistogram h = sHistograms[i];
+            if (h.getCount() == 0) continue;
+            pw.println(String.format(
+                    "%s  %-18s %6d %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f",
+                    prefix, STAGE_NAMES[i], h.getCount(),
+                    h.getMinMicros() / 1000.0, h.getMeanMicros() / 1000.0,
+                    h.getPercentileMicros(50) / 1000.0,
+                    h.getPercentileMicros(90) / 1000.0,
+                    h.getPercentileMicros(99) / 1000.0,
+                    h.getMaxMicros() / 1000.0));
+        }
+    }
+
+    // Appends the dump to the file. Returns false if it cannot be written.
+    public static boolean dumpToFile(File file) {
+        PrintWriter pw = null;
+        try {
+            pw = new PrintWriter(new FileWriter(file, true));
+            dump("", pw);
+            return !pw.checkError();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write " + file, e);
+            return false;
+        } finally {
+            if (pw != null) pw.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+/**
+ * Decides when a command can be merged into one that is already queued to
+ * a single-threaded executor, such as the camera thread.
+ *
+ * <p>A command can only be merged into the newest command in the queue, and
+ * only if that command is of the same kind and has not started yet. Merging
+ * into an older command would move the new command ahead of the ones queued
+ * after it, so anything else that is queued, including a synchronous call,
+ * is a barrier.
+ *
+ * <p>The queue must call {@link #onQueued} for everything it queues and
+ * {@link #onStarted} before it runs a command. Callers merge into the
+ * command returned by {@link #mergeTarget} and read the command on the
+ * executor while holding the lock on this object, so that a command is
+ * never changed after it has started.
+ */
+public class CommandCoalescer<T> {
+    // The newest queued command, or null if it cannot be merged into.
+    private T mNewest;
+    private int mNewestKind;
+
+    // Returns the newest queued command if it is of the given kind and has
+    // not started, or null if a new command must be queued.
+    public synchronized T mergeTarget(int kind) {
+        return (mNewest != null && mNewestKind == kind) ? mNewest : null;
+    }
+
+    // Called for everything that is queued. A null command (e.g. a plain
+    // message) cannot be merged into and only ends the previous one's turn.
+    public synchronized void onQueued(T command, int kind) {
+        mNewest = command;
+        mNewestKind = kind;
+    }
+
+    // Called on the executor before it runs the command.
+    public synchronized void onStarted(T command) {
+        if (mNewest == command) mNewest = null;
+    }
+}
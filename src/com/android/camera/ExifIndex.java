@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An index of the EXIF tags of a JPEG image.
+ *
+ * <p>The APP1 segment is parsed once; IFD0, the Exif IFD and the GPS IFD are
+ * walked and every entry is recorded in a few primitive arrays. Values are
+ * not decoded until they are asked for, and they are read straight from the
+ * buffer the index was built on, so a memory-mapped file is never copied.
+ *
+ * <p>Values of existing tags can be rewritten in place, as long as the new
+ * value has the same type and size. The buffer must be writable for that.
+ *
+ * <p>References: ISO/IEC 10918-1:1993(E), JEITA CP-3451 Exif Version 2.2.
+ */
+public class ExifIndex {
+    public static final int IFD_0 = 0;
+    public static final int IFD_EXIF = 1;
+    public static final int IFD_GPS = 2;
+
+    public static final int TAG_ORIENTATION = 0x0112;
+    public static final int TAG_DATE_TIME = 0x0132;
+    public static final int TAG_EXIF_IFD = 0x8769;
+    public static final int TAG_GPS_IFD = 0x8825;
+    public static final int TAG_INTEROP_IFD = 0xA005;
+    public static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    public static final int TAG_GPS_LATITUDE_REF = 0x0001;
+    public static final int TAG_GPS_LATITUDE = 0x0002;
+    public static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+    public static final int TAG_GPS_LONGITUDE = 0x0004;
+
+    public static final int TYPE_BYTE = 1;
+    public static final int TYPE_ASCII = 2;
+    public static final int TYPE_SHORT = 3;
+    public static final int TYPE_LONG = 4;
+    public static final int TYPE_RATIONAL = 5;
+    public static final int TYPE_UNDEFINED = 7;
+    public static final int TYPE_SLONG = 9;
+    public static final int TYPE_SRATIONAL = 10;
+
+    // Indexed by type; 0 for unknown types.
+    private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+
+    private static final int INITIAL_CAPACITY = 48;
+
+    private final ByteBuffer mBuffer;
+
+    // The whole APP1 segment, from the 0xFF marker byte. -1 if there is no
+    // EXIF data.
+    private int mApp1Offset = -1;
+    private int mApp1Length;
+    // Where the TIFF header starts; IFD offsets are relative to it.
+    private int mTiffOffset;
+    // Absolute offset of the entry count of each IFD, -1 if absent.
+    private final int[] mIfdOffsets = {-1, -1, -1};
+
+    // The entries, in file order. mKeys holds (ifd << 16) | tag.
+    private int mCount;
+    private int[] mKeys = new int[INITIAL_CAPACITY];
+    private short[] mTypes = new short[INITIAL_CAPACITY];
+    private int[] mCounts = new int[INITIAL_CAPACITY];
+    // Absolute offset of the value, inline or not.
+    private int[] mValueOffsets = new int[INITIAL_CAPACITY];
+
+    private ExifIndex(ByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    public static ExifIndex parse(byte[] jpeg) {
+        return parse(ByteBuffer.wrap(jpeg));
+    }
+
+    /**
+     * Builds the index of the JPEG image that starts at the buffer's
+     * position. The buffer's position and order are not changed. Returns an
+     * empty index if the image has no valid EXIF data.
+     */
+    public static ExifIndex parse(ByteBuffer jpeg) {
+        ExifIndex index = new ExifIndex(jpeg.duplicate());
+        index.parse(jpeg.position(), jpeg.limit());
+        return index;
+    }
+
+    public static int readOrientation(byte[] jpeg) {
+        return readOrientation(ByteBuffer.wrap(jpeg));
+    }
+
+    /**
+     * Returns the orientation of the JPEG image that starts at the buffer's
+     * position, as getOrientation() of its index would. Only IFD0 is read, up
+     * to the orientation tag, and no index is built. The buffer's position
+     * and order are not changed.
+     */
+    public static int readOrientation(ByteBuffer jpeg) {
+        ByteBuffer b = jpeg.duplicate();
+        b.order(ByteOrder.BIG_ENDIAN);
+        int app1 = findApp1(b, jpeg.position(), jpeg.limit());
+        if (app1 < 0) return 0;
+        int tiff = app1 + 10;
+        int limit = app1 + 2 + (b.getShort(app1 + 2) & 0xFFFF);
+        if (!setByteOrder(b, tiff)) return 0;
+
+        int relativeOffset = b.getInt(tiff + 4);
+        int offset = tiff + relativeOffset;
+        if (relativeOffset < 8 || offset + 2 > limit) return 0;
+        int count = b.getShort(offset) & 0xFFFF;
+        offset += 2;
+        for (int i = 0; i < count && offset + 12 <= limit; i++, offset += 12) {
+            if ((b.getShort(offset) & 0xFFFF) != TAG_ORIENTATION) continue;
+            // Skip the entries that readIfd() would skip.
+            int type = b.getShort(offset + 2) & 0xFFFF;
+            int n = b.getInt(offset + 4);
+            int typeSize = (type < TYPE_SIZES.length) ? TYPE_SIZES[type] : 0;
+            if (typeSize == 0 || n < 0 || n > (limit - tiff) / typeSize) continue;
+            int valueOffset = (typeSize * n <= 4) ? offset + 8 : tiff + b.getInt(offset + 8);
+            if (valueOffset < tiff || valueOffset + typeSize * n > limit) continue;
+            switch (type) {
+                case TYPE_BYTE:
+                case TYPE_UNDEFINED:
+                    return toDegrees(b.get(valueOffset) & 0xFF);
+                case TYPE_SHORT:
+                    return toDegrees(b.getShort(valueOffset) & 0xFFFF);
+                case TYPE_LONG:
+                case TYPE_SLONG:
+                    return toDegrees(b.getInt(valueOffset));
+            }
+            return 0;
+        }
+        return 0;
+    }
+
+    // Returns the offset of the EXIF APP1 segment of the JPEG image between
+    // start and end, from its 0xFF marker byte, or -1. b must be big-endian.
+    private static int findApp1(ByteBuffer b, int start, int end) {
+        int offset = start;
+
+        while (offset + 3 < end && (b.get(offset++) & 0xFF) == 0xFF) {
+            int marker = b.get(offset) & 0xFF;
+
+            // Check if the marker is a padding.
+            if (marker == 0xFF) continue;
+            offset++;
+
+            // Check if the marker is SOI or TEM.
+            if (marker == 0xD8 || marker == 0x01) continue;
+            // Check if the marker is EOI or SOS.
+            if (marker == 0xD9 || marker == 0xDA) return -1;
+
+            // Get the length and check if it is reasonable.
+            int length = b.getShort(offset) & 0xFFFF;
+            if (length < 2 || offset + length > end) return -1;
+
+            // Stop if the marker is EXIF in APP1.
+            if (marker == 0xE1 && length >= 8
+                    && b.getInt(offset + 2) == 0x45786966
+                    && b.getShort(offset + 6) == 0) {
+                return (length < 16) ? -1 : offset - 2;
+            }
+
+            // Skip other markers.
+            offset += length;
+        }
+        return -1;
+    }
+
+    // Sets the order of b from the TIFF header at offset. Returns false if
+    // the header is not valid.
+    private static boolean setByteOrder(ByteBuffer b, int offset) {
+        int tag = b.getInt(offset);
+        if (tag == 0x49492A00) {
+            b.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (tag != 0x4D4D002A) {
+            return false;
+        }
+        return true;
+    }
+
+    private void parse(int start, int end) {
+        ByteBuffer b = mBuffer;
+        b.order(ByteOrder.BIG_ENDIAN);
+        mApp1Offset = findApp1(b, start, end);
+        if (mApp1Offset < 0) return;
+        mApp1Length = (b.getShort(mApp1Offset + 2) & 0xFFFF) + 2;
+
+        // Identify the byte order.
+        mTiffOffset = mApp1Offset + 10;
+        int limit = mApp1Offset + mApp1Length;
+        if (!setByteOrder(b, mTiffOffset)) {
+            mApp1Offset = -1;
+            return;
+        }
+
+        readIfd(IFD_0, b.getInt(mTiffOffset + 4), limit);
+        int exif = getInt(IFD_0, TAG_EXIF_IFD, 0);
+        if (exif > 0) readIfd(IFD_EXIF, exif, limit);
+        int gps = getInt(IFD_0, TAG_GPS_IFD, 0);
+        if (gps > 0) readIfd(IFD_GPS, gps, limit);
+    }
+
+    private void readIfd(int ifd, int relativeOffset, int limit) {
+        ByteBuffer b = mBuffer;
+        int offset = mTiffOffset + relativeOffset;
+        if (relativeOffset < 8 || offset + 2 > limit) return;
+        mIfdOffsets[ifd] = offset;
+
+        int count = b.getShort(offset) & 0xFFFF;
+        offset += 2;
+        for (int i = 0; i < count && offset + 12 <= limit; i++, offset += 12) {
+            int type = b.getShort(offset + 2) & 0xFFFF;
+            int n = b.getInt(offset + 4);
+            int typeSize = (type < TYPE_SIZES.length) ? TYPE_SIZES[type] : 0;
+            if (typeSize == 0 || n < 0 || n > (limit - mTiffOffset) / typeSize) {
+                continue;
+            }
+            int valueOffset = (typeSize * n <= 4)
+                    ? offset + 8 : mTiffOffset + b.getInt(offset + 8);
+            if (valueOffset < mTiffOffset || valueOffset + typeSize * n > limit) {
+                continue;
+            }
+            add((ifd << 16) | (b.getShort(offset) & 0xFFFF), (short) type, n,
+                    valueOffset);
+        }
+    }
+
+    private void add(int key, short type, int count, int valueOffset) {
+        if (mCount == mKeys.length) {
+            int capacity = mCount * 2;
+            int[] keys = new int[capacity];
+            short[] types = new short[capacity];
+            int[] counts = new int[capacity];
+            int[] valueOffsets = new int[capacity];
+            System.arraycopy(mKeys, 0, keys, 0, mCount);
+            System.arraycopy(mTypes, 0, types, 0, mCount);
+            System.arraycopy(mCounts, 0, counts, 0, mCount);
+            System.arraycopy(mValueOffsets, 0, valueOffsets, 0, mCount);
+            mKeys = keys;
+            mTypes = types;
+            mCounts = counts;
+            mValueOffsets = valueOffsets;
+        }
+        mKeys[mCount] = key;
+        mTypes[mCount] = type;
+        mCounts[mCount] = count;
+        mValueOffsets[mCount] = valueOffset;
+        mCount++;
+    }
+
+    public boolean hasExif() {
+        return mApp1Offset >= 0;
+    }
+
+    public ByteOrder getByteOrder() {
+        return mBuffer.order();
+    }
+
+    // The offset of the APP1 segment from the start of the buffer, including
+    // the marker, or -1 if there is none.
+    public int getApp1Offset() {
+        return mApp1Offset;
+    }
+
+    // The length of the APP1 segment, including the marker.
+    public int getApp1Length() {
+        return mApp1Length;
+    }
+
+    public int getTiffOffset() {
+        return mTiffOffset;
+    }
+
+    // The offset of the entry count of the IFD, or -1 if it is absent.
+    public int getIfdOffset(int ifd) {
+        return mIfdOffsets[ifd];
+    }
+
+    public int getEntryCount() {
+        return mCount;
+    }
+
+    /**
+     * The absolute offset just past the indexed IFDs, their values and the
+     * interoperability IFD, or -1 if there is no EXIF data. Nothing the index
+     * refers to comes after it; IFD1 and the thumbnail may.
+     */
+    public int getDataEnd() {
+        if (mApp1Offset < 0) return -1;
+        int end = mTiffOffset + 8;
+        for (int offset : mIfdOffsets) {
+            if (offset >= 0) end = Math.max(end, ifdEnd(offset));
+        }
+        for (int i = 0; i < mCount; i++) {
+            end = Math.max(end, mValueOffsets[i] + TYPE_SIZES[mTypes[i]] * mCounts[i]);
+        }
+        int interop = getInt(IFD_EXIF, TAG_INTEROP_IFD, 0);
+        int limit = mApp1Offset + mApp1Length;
+        if (interop > 0 && mTiffOffset + interop + 2 <= limit) {
+            int offset = mTiffOffset + interop;
+            end = Math.max(end, ifdEnd(offset));
+            // Its values are usually inline; take the others into account.
+            int count = mBuffer.getShort(offset) & 0xFFFF;
+            for (int i = 0, p = offset + 2; i < count && p + 12 <= limit; i++, p += 12) {
+                int type = mBuffer.getShort(p + 2) & 0xFFFF;
+                long size = (type < TYPE_SIZES.length)
+                        ? (long) TYPE_SIZES[type] * mBuffer.getInt(p + 4) : 0;
+                if (size > 4 && size <= limit) {
+                    end = Math.max(end, mTiffOffset + mBuffer.getInt(p + 8) + (int) size);
+                }
+            }
+        }
+        return end;
+    }
+
+    private int ifdEnd(int offset) {
+        return offset + 2 + 12 * (mBuffer.getShort(offset) & 0xFFFF) + 4;
+    }
+
+    // Returns the index of the entry, or -1.
+    public int find(int ifd, int tag) {
+        int key = (ifd << 16) | tag;
+        for (int i = 0; i < mCount; i++) {
+            if (mKeys[i] == key) return i;
+        }
+        return -1;
+    }
+
+    public boolean hasTag(int ifd, int tag) {
+        return find(ifd, tag) >= 0;
+    }
+
+    public int getType(int ifd, int tag) {
+        int i = find(ifd, tag);
+        return (i < 0) ? 0 : mTypes[i];
+    }
+
+    public int getCount(int ifd, int tag) {
+        int i = find(ifd, tag);
+        return (i < 0) ? 0 : mCounts[i];
+    }
+
+    // The absolute offset of the value in the buffer, or -1.
+    public int getValueOffset(int ifd, int tag) {
+        int i = find(ifd, tag);
+        return (i < 0) ? -1 : mValueOffsets[i];
+    }
+
+    // Returns the first value of a BYTE, SHORT or LONG tag.
+    public int getInt(int ifd, int tag, int defaultValue) {
+        int i = find(ifd, tag);
+        if (i < 0) return defaultValue;
+        int offset = mValueOffsets[i];
+        switch (mTypes[i]) {
+            case TYPE_BYTE:
+            case TYPE_UNDEFINED:
+                return mBuffer.get(offset) & 0xFF;
+            case TYPE_SHORT:
+                return mBuffer.getShort(offset) & 0xFFFF;
+            case TYPE_LONG:
+            case TYPE_SLONG:
+                return mBuffer.getInt(offset);
+        }
+        return defaultValue;
+    }
+
+    public String getString(int ifd, int tag) {
+        int i = find(ifd, tag);
+        if (i < 0 || mTypes[i] != TYPE_ASCII) return null;
+        int offset = mValueOffsets[i];
+        StringBuilder sb = new StringBuilder(mCounts[i]);
+        for (int j = 0; j < mCounts[i]; j++) {
+            char c = (char) (mBuffer.get(offset + j) & 0xFF);
+            if (c == 0) break;
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    // Returns the n-th value of a RATIONAL or SRATIONAL tag, or NaN.
+    public double getRational(int ifd, int tag, int n) {
+        int i = find(ifd, tag);
+        if (i < 0 || n >= mCounts[i]) return Double.NaN;
+        int offset = mValueOffsets[i] + 8 * n;
+        if (mTypes[i] == TYPE_RATIONAL) {
+            long num = mBuffer.getInt(offset) & 0xFFFFFFFFL;
+            long den = mBuffer.getInt(offset + 4) & 0xFFFFFFFFL;
+            return (den == 0) ? Double.NaN : (double) num / den;
+        } else if (mTypes[i] == TYPE_SRATIONAL) {
+            int num = mBuffer.getInt(offset);
+            int den = mBuffer.getInt(offset + 4);
+            return (den == 0) ? Double.NaN : (double) num / den;
+        }
+        return Double.NaN;
+    }
+
+    // Returns the degrees in clockwise. Values are 0, 90, 180, or 270.
+    public int getOrientation() {
+        return toDegrees(getInt(IFD_0, TAG_ORIENTATION, 1));
+    }
+
+    // Maps the EXIF orientation value to degrees in clockwise.
+    private static int toDegrees(int exifOrientation) {
+        switch (exifOrientation) {
+            case 3:
+                return 180;
+            case 6:
+                return 90;
+            case 8:
+                return 270;
+        }
+        return 0;
+    }
+
+    // Returns the latitude and longitude in degrees, or null.
+    public double[] getLatLong() {
+        double lat = getGpsCoordinate(TAG_GPS_LATITUDE, TAG_GPS_LATITUDE_REF, "S");
+        double lon = getGpsCoordinate(TAG_GPS_LONGITUDE, TAG_GPS_LONGITUDE_REF, "W");
+        if (Double.isNaN(lat) || Double.isNaN(lon)) return null;
+        return new double[] {lat, lon};
+    }
+
+    private double getGpsCoordinate(int tag, int refTag, String negativeRef) {
+        double value = getRational(IFD_GPS, tag, 0)
+                + getRational(IFD_GPS, tag, 1) / 60
+                + getRational(IFD_GPS, tag, 2) / 3600;
+        return negativeRef.equals(getString(IFD_GPS, refTag)) ? -value : value;
+    }
+
+    // Maps degrees in clockwise to the EXIF orientation value.
+    public static int toExifOrientation(int degrees) {
+        switch (degrees) {
+            case 90:
+                return 6;
+            case 180:
+                return 3;
+            case 270:
+                return 8;
+        }
+        return 1;
+    }
+
+    /**
+     * Rewrites the orientation in place. Returns false if the image has no
+     * SHORT orientation tag to rewrite.
+     */
+    public boolean setOrientation(int degrees) {
+        int i = find(IFD_0, TAG_ORIENTATION);
+        if (i < 0 || mTypes[i] != TYPE_SHORT) return false;
+        mBuffer.putShort(mValueOffsets[i], (short) toExifOrientation(degrees));
+        return true;
+    }
+
+    /**
+     * Rewrites an ASCII tag in place. The value is truncated or padded with
+     * NULs to the size of the existing one. Returns false if there is no such
+     * tag.
+     */
+    public boolean setString(int ifd, int tag, String value) {
+        int i = find(ifd, tag);
+        if (i < 0 || mTypes[i] != TYPE_ASCII) return false;
+        int offset = mValueOffsets[i];
+        int n = mCounts[i];
+        for (int j = 0; j < n; j++) {
+            char c = (j < n - 1 && j < value.length()) ? value.charAt(j) : 0;
+            mBuffer.put(offset + j, (byte) c);
+        }
+        return true;
+    }
+
+    /**
+     * Rewrites the GPS latitude and longitude in place. The image must
+     * already have both tags as three RATIONALs, and their references.
+     */
+    public boolean setLatLong(double latitude, double longitude) {
+        if (getCount(IFD_GPS, TAG_GPS_LATITUDE) != 3
+                || getCount(IFD_GPS, TAG_GPS_LONGITUDE) != 3
+                || getType(IFD_GPS, TAG_GPS_LATITUDE) != TYPE_RATIONAL
+                || getType(IFD_GPS, TAG_GPS_LONGITUDE) != TYPE_RATIONAL
+                || !hasTag(IFD_GPS, TAG_GPS_LATITUDE_REF)
+                || !hasTag(IFD_GPS, TAG_GPS_LONGITUDE_REF)) {
+            return false;
+        }
+        putDegrees(getValueOffset(IFD_GPS, TAG_GPS_LATITUDE), mBuffer, latitude);
+        putDegrees(getValueOffset(IFD_GPS, TAG_GPS_LONGITUDE), mBuffer, longitude);
+        setString(IFD_GPS, TAG_GPS_LATITUDE_REF, latitude < 0 ? "S" : "N");
+        setString(IFD_GPS, TAG_GPS_LONGITUDE_REF, longitude < 0 ? "W" : "E");
+        return true;
+    }
+
+    // Writes |degrees| as three RATIONALs: degrees, minutes and seconds with
+    // 1/1000 precision. The value is rounded as a whole, so 59.9995 seconds
+    // carry into the minutes, and 60 minutes into the degrees.
+    static void putDegrees(int offset, ByteBuffer b, double degrees) {
+        long total = Math.round(Math.abs(degrees) * 3600 * 1000);
+        int d = (int) (total / (3600 * 1000));
+        int min = (int) (total / (60 * 1000) % 60);
+        int ms = (int) (total % (60 * 1000));
+        b.putInt(offset, d);
+        b.putInt(offset + 4, 1);
+        b.putInt(offset + 8, min);
+        b.putInt(offset + 12, 1);
+        b.putInt(offset + 16, ms);
+        b.putInt(offset + 20, 1000);
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.location.Location;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Sets the orientation, date and GPS location of a JPEG image at save time,
+ * so they do not have to be handed to the camera before the picture is
+ * taken.
+ *
+ * <p>If the image already has all the tags, they are rewritten in place.
+ * Otherwise a new IFD0 (and GPS IFD) is appended to the TIFF block of the
+ * APP1 segment and the TIFF header is pointed at it. The original TIFF bytes
+ * are kept where they are, so every offset in them stays valid. The result is
+ * returned as segments for a gathering write; the image body is never copied.
+ *
+ * <p>An APP1 segment cannot be larger than 64 KB. If the rebuilt one would
+ * be, IFD1 and the thumbnail are dropped, and if that is not enough, the tags
+ * of the camera too. The orientation, date and location are always written,
+ * since the camera was not asked to write them.
+ */
+public class ExifPatcher {
+    private static final String TAG = "ExifPatcher";
+
+    private static final int TAG_GPS_VERSION_ID = 0x0000;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    private static final int DATE_TIME_LENGTH = 20;  // "yyyy:MM:dd HH:mm:ss\0"
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+
+    // What rebuild() keeps of the original TIFF block.
+    private static final int KEEP_ALL = 0;
+    private static final int KEEP_NO_THUMBNAIL = 1;
+    private static final int KEEP_NONE = 2;
+
+    private static final ThreadLocal<SimpleDateFormat> sDateFormat =
+            new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("yyyy:MM:dd HH:mm:ss");
+        }
+    };
+
+    // One IFD entry: tag, type, count and the 4 value bytes (or offset).
+    private static class Entry {
+        int tag;
+        int type;
+        int count;
+        byte[] inline;      // the raw 4 value bytes, in file byte order
+        byte[] data;        // out-of-line value to append, or null
+
+        Entry(int tag, int type, int count) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Returns the segments of the patched image. {@code jpeg} may be modified
+     * in place. {@code loc} can be null, in which case no GPS tags are added.
+     */
+    public static ByteBuffer[] patch(byte[] jpeg, int degrees, Location loc,
+            long dateTaken) {
+        String dateTime = sDateFormat.get().format(new Date(dateTaken));
+        ExifIndex index = ExifIndex.parse(jpeg);
+
+        if (index.hasExif() && patchInPlace(index, degrees, loc, dateTime)) {
+            return new ByteBuffer[] {ByteBuffer.wrap(jpeg)};
+        }
+        if (jpeg.length < 2 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != 0xD8) {
+            Log.w(TAG, "Not a JPEG image, left unchanged");
+            return new ByteBuffer[] {ByteBuffer.wrap(jpeg)};
+        }
+        ByteBuffer[] result = rebuild(jpeg, index, KEEP_ALL, degrees, loc, dateTime);
+        if (result == null) {
+            Log.w(TAG, "EXIF too large to patch, dropping the thumbnail");
+            result = rebuild(jpeg, index, KEEP_NO_THUMBNAIL, degrees, loc, dateTime);
+        }
+        if (result == null) {
+            Log.w(TAG, "EXIF too large to patch, dropping the camera tags");
+            result = rebuild(jpeg, index, KEEP_NONE, degrees, loc, dateTime);
+        }
+        return result;
+    }
+
+    private static boolean patchInPlace(ExifIndex index, int degrees,
+            Location loc, String dateTime) {
+        if (index.getType(ExifIndex.IFD_0, ExifIndex.TAG_ORIENTATION) != ExifIndex.TYPE_SHORT
+                || index.getCount(ExifIndex.IFD_0, ExifIndex.TAG_DATE_TIME)
+                        != DATE_TIME_LENGTH) {
+            return false;
+        }
+        if (loc != null) {
+            if (!index.setLatLong(loc.getLatitude(), loc.getLongitude())) return false;
+        } else if (index.hasTag(ExifIndex.IFD_GPS, ExifIndex.TAG_GPS_LATITUDE)) {
+            // A stale location we cannot remove in place.
+            return false;
+        }
+        index.setOrientation(degrees);
+        index.setString(ExifIndex.IFD_0, ExifIndex.TAG_DATE_TIME, dateTime);
+        return true;
+    }
+
+    // Returns null if the new APP1 segment would be too large, or if there is
+    // no thumbnail to drop for KEEP_NO_THUMBNAIL.
+    private static ByteBuffer[] rebuild(byte[] jpeg, ExifIndex index, int keep,
+            int degrees, Location loc, String dateTime) {
+        boolean hasExif = index.hasExif();
+        boolean hasTiff = hasExif && keep != KEEP_NONE;
+        ByteOrder order = hasTiff ? index.getByteOrder() : ByteOrder.BIG_ENDIAN;
+        int tiffOffset = index.getTiffOffset();
+        // The original TIFF block we keep, header included; empty if none.
+        int tiffLength = hasTiff
+                ? index.getApp1Offset() + index.getApp1Length() - tiffOffset : 0;
+        // The segments before the old APP1, such as APP0, are kept in front
+        // of the new one. The rest of the image starts after the old APP1, or
+        // after SOI.
+        int prefixEnd = hasExif ? index.getApp1Offset() : 2;
+        int bodyOffset = hasExif
+                ? index.getApp1Offset() + index.getApp1Length() : 2;
+        ByteBuffer original = ByteBuffer.wrap(jpeg).order(order);
+
+        // Copy the IFD0 entries that we do not replace. Their out-of-line
+        // values stay valid because the original TIFF bytes do not move.
+        ArrayList<Entry> ifd0 = new ArrayList<Entry>();
+        int nextIfd = 0;
+        int ifd0Offset = index.getIfdOffset(ExifIndex.IFD_0);
+        if (hasTiff && ifd0Offset >= 0) {
+            int count = original.getShort(ifd0Offset) & 0xFFFF;
+            int p = ifd0Offset + 2;
+            int limit = tiffOffset + tiffLength;
+            for (int i = 0; i < count && p + 12 <= limit; i++, p += 12) {
+                int tag = original.getShort(p) & 0xFFFF;
+                if (tag == ExifIndex.TAG_ORIENTATION || tag == ExifIndex.TAG_DATE_TIME
+                        || tag == ExifIndex.TAG_GPS_IFD) {
+                    continue;
+                }
+                Entry e = new Entry(tag, original.getShort(p + 2) & 0xFFFF,
+                        original.getInt(p + 4));
+                e.inline = new byte[4];
+                System.arraycopy(jpeg, p + 8, e.inline, 0, 4);
+                ifd0.add(e);
+            }
+            if (p + 4 <= limit) nextIfd = original.getInt(p);
+        }
+        if (keep == KEEP_NO_THUMBNAIL) {
+            int start = (nextIfd > 0) ? thumbnailStart(original, index, nextIfd) : -1;
+            if (start < 0) return null;
+            tiffLength = start - tiffOffset;
+            nextIfd = 0;
+        }
+
+        Entry orientation = new Entry(ExifIndex.TAG_ORIENTATION, ExifIndex.TYPE_SHORT, 1);
+        orientation.inline = shortValue(order, ExifIndex.toExifOrientation(degrees));
+        insertSorted(ifd0, orientation);
+
+        Entry date = new Entry(ExifIndex.TAG_DATE_TIME, ExifIndex.TYPE_ASCII,
+                DATE_TIME_LENGTH);
+        date.data = ascii(dateTime, DATE_TIME_LENGTH);
+        insertSorted(ifd0, date);
+
+        ArrayList<Entry> gps = null;
+        Entry gpsPointer = null;
+        if (loc != null) {
+            gps = new ArrayList<Entry>();
+            Entry version = new Entry(TAG_GPS_VERSION_ID, ExifIndex.TYPE_BYTE, 4);
+            version.inline = new byte[] {2, 2, 0, 0};
+            gps.add(version);
+            double lat = loc.getLatitude();
+            double lon = loc.getLongitude();
+            Entry latRef = new Entry(ExifIndex.TAG_GPS_LATITUDE_REF, ExifIndex.TYPE_ASCII, 2);
+            latRef.inline = ascii(lat < 0 ? "S" : "N", 4);
+            gps.add(latRef);
+            gps.add(degreesEntry(ExifIndex.TAG_GPS_LATITUDE, order, lat));
+            Entry lonRef = new Entry(ExifIndex.TAG_GPS_LONGITUDE_REF, ExifIndex.TYPE_ASCII, 2);
+            lonRef.inline = ascii(lon < 0 ? "W" : "E", 4);
+            gps.add(lonRef);
+            gps.add(degreesEntry(ExifIndex.TAG_GPS_LONGITUDE, order, lon));
+
+            gpsPointer = new Entry(ExifIndex.TAG_GPS_IFD, ExifIndex.TYPE_LONG, 1);
+            insertSorted(ifd0, gpsPointer);
+        }
+
+        // Lay out the appended block: IFD0, its values, then the GPS IFD and
+        // its values. Offsets are relative to the TIFF header and even.
+        int base = (hasTiff ? tiffLength : 8);
+        base += base & 1;
+        int ifd0Start = base;
+        int p = ifd0Start + ifdSize(ifd0);
+        p = assignDataOffsets(ifd0, order, p);
+        int gpsStart = p;
+        if (gps != null) {
+            gpsPointer.inline = intValue(order, gpsStart);
+            p = assignDataOffsets(gps, order, gpsStart + ifdSize(gps));
+        }
+        int appendedLength = p - (hasTiff ? tiffLength : 8);
+
+        int app1Length = 2 + 6 + (hasTiff ? tiffLength : 8) + appendedLength;
+        if (app1Length > MAX_SEGMENT_LENGTH) return null;
+
+        // APP1 marker and length, "Exif\0\0", TIFF header.
+        ByteBuffer head = ByteBuffer.allocate(4 + 6 + 8).order(ByteOrder.BIG_ENDIAN);
+        head.putShort((short) 0xFFE1);
+        head.putShort((short) app1Length);
+        head.put(new byte[] {'E', 'x', 'i', 'f', 0, 0});
+        head.order(order);
+        head.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        head.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        head.putShort((short) 42);
+        head.putInt(ifd0Start);
+        head.flip();
+
+        ByteBuffer appended = ByteBuffer.allocate(appendedLength).order(order);
+        appended.position(ifd0Start - (hasTiff ? tiffLength : 8));
+        writeIfd(appended, ifd0, nextIfd);
+        if (gps != null) {
+            appended.position(gpsStart - (hasTiff ? tiffLength : 8));
+            writeIfd(appended, gps, 0);
+        }
+        appended.clear();
+
+        ArrayList<ByteBuffer> segments = new ArrayList<ByteBuffer>(6);
+        segments.add(ByteBuffer.wrap(jpeg, 0, 2));
+        if (prefixEnd > 2) segments.add(ByteBuffer.wrap(jpeg, 2, prefixEnd - 2));
+        segments.add(head);
+        if (hasTiff) segments.add(ByteBuffer.wrap(jpeg, tiffOffset + 8, tiffLength - 8));
+        segments.add(appended);
+        segments.add(ByteBuffer.wrap(jpeg, bodyOffset, jpeg.length - bodyOffset));
+        return segments.toArray(new ByteBuffer[segments.size()]);
+    }
+
+    // Returns where IFD1 (at ifd1 in the TIFF block) and the thumbnail start,
+    // if nothing in IFD0, the Exif, GPS or interoperability IFDs refers to
+    // data after that. Returns -1 otherwise.
+    private static int thumbnailStart(ByteBuffer b, ExifIndex index, int ifd1) {
+        int tiffOffset = index.getTiffOffset();
+        int limit = index.getApp1Offset() + index.getApp1Length();
+        int start = tiffOffset + ifd1;
+        if (start + 2 > limit) return -1;
+        int count = b.getShort(start) & 0xFFFF;
+        for (int i = 0, p = start + 2; i < count && p + 12 <= limit; i++, p += 12) {
+            if ((b.getShort(p) & 0xFFFF) == TAG_JPEG_INTERCHANGE_FORMAT) {
+                start = Math.min(start, tiffOffset + b.getInt(p + 8));
+            }
+        }
+        return (start >= index.getDataEnd()) ? start : -1;
+    }
+
+    private static Entry degreesEntry(int tag, ByteOrder order, double degrees) {
+        Entry e = new Entry(tag, ExifIndex.TYPE_RATIONAL, 3);
+        ByteBuffer b = ByteBuffer.allocate(24).order(order);
+        ExifIndex.putDegrees(0, b, degrees);
+        e.data = b.array();
+        return e;
+    }
+
+    private static int ifdSize(ArrayList<Entry> entries) {
+        return 2 + 12 * entries.size() + 4;
+    }
+
+    // Gives each out-of-line value an offset starting at |p|. Returns the
+    // offset after the last one.
+    private static int assignDataOffsets(ArrayList<Entry> entries,
+            ByteOrder order, int p) {
+        for (Entry e : entries) {
+            if (e.data == null) continue;
+            e.inline = intValue(order, p);
+            p += e.data.length;
+            p += p & 1;
+        }
+        return p;
+    }
+
+    // Writes the IFD at the buffer's position, followed by its values.
+    private static void writeIfd(ByteBuffer b, ArrayList<Entry> entries, int next) {
+        b.putShort((short) entries.size());
+        for (Entry e : entries) {
+            b.putShort((short) e.tag);
+            b.putShort((short) e.type);
+            b.putInt(e.count);
+            b.put(e.inline);
+        }
+        b.putInt(next);
+        for (Entry e : entries) {
+            if (e.data == null) continue;
+            b.put(e.data);
+            // Values start at even offsets from the TIFF header; see
+            // assignDataOffsets().
+            if ((e.data.length & 1) != 0) b.put((byte) 0);
+        }
+    }
+
+    private static void insertSorted(ArrayList<Entry> entries, Entry e) {
+        int i = 0;
+        while (i < entries.size() && entries.get(i).tag < e.tag) i++;
+        entries.add(i, e);
+    }
+
+    private static byte[] shortValue(ByteOrder order, int value) {
+        return ByteBuffer.allocate(4).order(order).putShort((short) value).array();
+    }
+
+    private static byte[] intValue(ByteOrder order, int value) {
+        return ByteBuffer.allocate(4).order(order).putInt(value).array();
+    }
+
+    // The string, NUL terminated and padded to |length| bytes.
+    private static byte[] ascii(String s, int length) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < s.length() && i < length - 1; i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        return b;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes image files through a {@link FileChannel}.
+ *
+ * <p>The file is written to a temporary name, optionally forced to the
+ * storage device, and then renamed. How long each of these stages takes is
+ * recorded in {@link CaptureMetrics}. The segments of an image (e.g. its
+ * header, EXIF and body) are written in place with one gathering write,
+ * whether they wrap heap arrays or are direct, so the JPEG is never copied.
+ *
+ * <p>Data whose length is not known up front, e.g. the output of a streaming
+ * encoder, is written through an {@link Output} from {@link #open(String)}.
+ * It arrives in pieces, so it is staged through direct buffers from the
+ * shared {@link BufferArena}.
+ *
+ * <p>The writer is thread-safe; one instance is shared by all writer threads.
+ */
+public class ImageFileWriter {
+    private static final String TAG = "ImageFileWriter";
+
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private final int mBufferSize;
+    private final boolean mForce;
+    private final BufferArena mArena = BufferArena.getShared();
+
+    public ImageFileWriter() {
+        this(DEFAULT_BUFFER_SIZE, false);
+    }
+
+    /**
+     * @param bufferSize size of the direct staging buffer of an {@link Output}.
+     * @param force whether to fsync the file before it is renamed.
+     */
+    public ImageFileWriter(int bufferSize, boolean force) {
+        mBufferSize = bufferSize;
+        mForce = force;
+    }
+
+    public boolean write(String path, byte[] data) {
+        return write(path, new ByteBuffer[] {ByteBuffer.wrap(data)});
+    }
+
+    /**
+     * Writes the segments in order to {@code path}. The data is first written
+     * to {@code path + ".tmp"} and renamed, so other apps never read a
+     * partial file. Segments are consumed (their positions advance).
+     *
+     * @return true if the file was written and renamed successfully.
+     */
+    public boolean write(String path, ByteBuffer[] segments) {
+        long total = 0;
+        for (ByteBuffer b : segments) {
+            total += b.remaining();
+        }
+
+        File tmp = new File(path + ".tmp");
+        RandomAccessFile file = null;
+        try {
+            long t0 = System.nanoTime();
+            File dir = tmp.getParentFile();
+            if (dir != null && !dir.exists()) dir.mkdirs();
+            file = new RandomAccessFile(tmp, "rw");
+            FileChannel channel = file.getChannel();
+            // Drop the data of an old file with the same name, if any.
+            file.setLength(0);
+            long t1 = System.nanoTime();
+            CaptureMetrics.recordNanos(CaptureMetrics.FILE_OPEN, t1 - t0);
+
+            writeFully(channel, segments);
+            long t2 = System.nanoTime();
+            CaptureMetrics.recordNanos(CaptureMetrics.FILE_DATA, t2 - t1);
+
+            if (mForce) channel.force(false);
+            file.close();
+            file = null;
+            long t3 = System.nanoTime();
+            CaptureMetrics.recordNanos(CaptureMetrics.FILE_SYNC, t3 - t2);
+
+            if (!tmp.renameTo(new File(path))) {
+                throw new IOException("Failed to rename " + tmp);
+            }
+            CaptureMetrics.recordNanos(CaptureMetrics.FILE_RENAME, System.nanoTime() - t3);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write " + path, e);
+            tmp.delete();
+            return false;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        Log.v(TAG, "Wrote " + total + " bytes to " + path);
+        return true;
+    }
+
+    /**
+     * Opens {@code path + ".tmp"} for writing. The data is staged through one
+     * pooled direct buffer, so the caller never holds more than the piece it
+     * is writing. {@link Output#commit()} renames the file to {@code path};
+     * {@link Output#abort()} deletes it.
+     */
+    public Output open(String path) throws IOException {
+        return new Output(path);
+    }
+
+    /**
+     * A file being written by {@link #open(String)}. It is not thread-safe.
+     * Exactly one of {@link #commit()} and {@link #abort()} must be called.
+     */
+    public class Output extends OutputStream {
+        private final String mPath;
+        private final File mTmp;
+        private RandomAccessFile mFile;
+        private FileChannel mChannel;
+        private ByteBuffer mStaging;
+        private long mSize;
+
+        private Output(String path) throws IOException {
+            mPath = path;
+            mTmp = new File(path + ".tmp");
+            File dir = mTmp.getParentFile();
+            if (dir != null && !dir.exists()) dir.mkdirs();
+            mFile = new RandomAccessFile(mTmp, "rw");
+            mFile.setLength(0);
+            mChannel = mFile.getChannel();
+            mStaging = mArena.obtainDirect(mBufferSize);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!mStaging.hasRemaining()) ImageFileWriter.flush(mChannel, mStaging);
+            mStaging.put((byte) b);
+            mSize++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if ((off | len) < 0 || off + len > b.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            mSize += len;
+            while (len > 0) {
+                int n = Math.min(len, mStaging.remaining());
+                mStaging.put(b, off, n);
+                off += n;
+                len -= n;
+                if (!mStaging.hasRemaining()) ImageFileWriter.flush(mChannel, mStaging);
+            }
+        }
+
+        // The number of bytes written so far.
+        public long size() {
+            return mSize;
+        }
+
+        /**
+         * Writes out the staged data and renames the file to its final name.
+         *
+         * @return true if the file was written and renamed successfully.
+         */
+        public boolean commit() {
+            try {
+                ImageFileWriter.flush(mChannel, mStaging);
+                if (mForce) mChannel.force(false);
+                closeFile();
+                if (!mTmp.renameTo(new File(mPath))) {
+                    throw new IOException("Failed to rename " + mTmp);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write " + mPath, e);
+                abort();
+                return false;
+            }
+            Log.v(TAG, "Streamed " + mSize + " bytes to " + mPath);
+            return true;
+        }
+
+        // Drops the partial file.
+        public void abort() {
+            try {
+                closeFile();
+            } catch (IOException e) {
+            }
+            mTmp.delete();
+        }
+
+        // Closing the stream without commit() aborts it.
+        @Override
+        public void close() {
+            if (mFile != null) abort();
+        }
+
+        private void closeFile() throws IOException {
+            if (mStaging != null) {
+                mArena.recycle(mStaging);
+                mStaging = null;
+            }
+            if (mFile != null) {
+                RandomAccessFile file = mFile;
+                mFile = null;
+                file.close();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer[] segments)
+            throws IOException {
+        int first = 0;
+        while (first < segments.length) {
+            channel.write(segments, first, segments.length - first);
+            while (first < segments.length && !segments[first].hasRemaining()) {
+                first++;
+            }
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer staging)
+            throws IOException {
+        staging.flip();
+        while (staging.hasRemaining()) channel.write(staging);
+        staging.clear();
+    }
+}
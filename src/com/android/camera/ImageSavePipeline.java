@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.location.Location;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves captured images in the background.
+ *
+ * <p>A save is split in two stages: writing the file and publishing it to
+ * MediaStore. File writes run on a small pool of writer threads and the
+ * MediaStore updates run on a single publisher thread, so the file of the
+ * next image is written while the previous one is being published.
+ *
+ * <p>The pipeline is bounded by the total number of image bytes it holds, not
+ * by the number of requests. The image data of a request is dropped as soon
+ * as its file is written, so it does not wait for MediaStore.
+ * {@link #submit} never blocks; callers are expected to check
+ * {@link #isFull()} (or listen for {@link Listener#onQueueStatus}) before
+ * starting another capture.
+ */
+public class ImageSavePipeline {
+    private static final String TAG = "ImageSavePipeline";
+
+    // Enough for three 13MP JPEGs at high quality.
+    public static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 24 * 1024 * 1024;
+    public static final int DEFAULT_WRITER_THREADS = 2;
+
+    /**
+     * Does the actual work of saving. Both methods run on background threads.
+     * {@link #publish} of a request is called only after its {@link #write}
+     * returned true. It returns the uri the image is published under, or
+     * null; the MediaStore change may be applied after it returns.
+     */
+    public interface Sink {
+        boolean write(SaveRequest r);
+        Uri publish(SaveRequest r);
+    }
+
+    public interface Listener {
+        // Called on the thread the pipeline was created on.
+        public void onQueueStatus(boolean full);
+        public void onImageSaved(SaveRequest r, Uri uri);
+    }
+
+    // Each SaveRequest remembers the data needed to save an image.
+    public static class SaveRequest {
+        public byte[] data;
+        public Uri uri;
+        public String title;
+        public Location loc;
+        public int width, height;
+        public int orientation;
+        public String pictureFormat;
+        // If true, the saver writes orientation, dateTaken and loc into the
+        // EXIF data of the image.
+        public boolean patchExif;
+        public long dateTaken;
+        // Set by the sink once the file is written.
+        public int fileSize;
+
+        volatile boolean mWritten;
+    }
+
+    private final Sink mSink;
+    private final long mMaxBytes;
+    private final ExecutorService mWriters;
+    private final ExecutorService mPublisher;
+    private final Handler mHandler;
+    private Listener mListener;
+
+    // Guarded by "this".
+    private long mBytesInFlight;
+    private int mPending;
+    private boolean mFull;
+    private boolean mStopped;
+
+    public ImageSavePipeline(Sink sink) {
+        this(sink, DEFAULT_MAX_BYTES_IN_FLIGHT, DEFAULT_WRITER_THREADS);
+    }
+
+    public ImageSavePipeline(Sink sink, long maxBytesInFlight, int writerThreads) {
+        mSink = sink;
+        mMaxBytes = maxBytesInFlight;
+        mWriters = Executors.newFixedThreadPool(writerThreads,
+                new SaverThreadFactory("ImageWriter"));
+        mPublisher = Executors.newSingleThreadExecutor(
+                new SaverThreadFactory("ImagePublisher"));
+        Looper looper = Looper.myLooper();
+        mHandler = (looper == null) ? null : new Handler(looper);
+    }
+
+    public synchronized void setListener(Listener l) {
+        mListener = l;
+    }
+
+    // Returns true if the images held by the pipeline use up the byte budget.
+    // A new capture should not be started in this state.
+    public synchronized boolean isFull() {
+        return mBytesInFlight >= mMaxBytes;
+    }
+
+    public synchronized long getBytesInFlight() {
+        return mBytesInFlight;
+    }
+
+    /**
+     * Queues the request and returns immediately. The returned future yields
+     * the uri returned by {@link Sink#publish}, or null if the image could
+     * not be saved. The MediaStore row may not be up to date yet.
+     *
+     * <p>The byte budget is advisory: the request is accepted even if the
+     * pipeline is full, since the camera has already taken the picture. It is
+     * up to the caller not to start a capture while {@link #isFull()}.
+     */
+    public Future<Uri> submit(final SaveRequest r) {
+        final int size = (r.data == null) ? 0 : r.data.length;
+        final FutureTask<Uri> publishTask = new FutureTask<Uri>(new Callable<Uri>() {
+            @Override
+            public Uri call() {
+                Uri uri = null;
+                try {
+                    if (r.mWritten) uri = mSink.publish(r);
+                } finally {
+                    onRequestDone(r, uri);
+                }
+                return uri;
+            }
+        });
+
+        synchronized (this) {
+            if (mStopped) throw new IllegalStateException("pipeline finished");
+            mBytesInFlight += size;
+            mPending++;
+        }
+        updateQueueStatus();
+
+        mWriters.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    r.mWritten = (r.data != null) && mSink.write(r);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to write " + r.title, e);
+                } finally {
+                    // Even on an Error such as OutOfMemoryError, so the
+                    // request is accounted for and waitDone() returns.
+                    if (!r.mWritten) Log.v(TAG, "image not written: " + r.title);
+                    onDataDone(r, size);
+                    mPublisher.execute(publishTask);
+                }
+            }
+        });
+        return publishTask;
+    }
+
+    // Runs in writer thread.
+    private void onDataDone(SaveRequest r, int size) {
+        // Drop the reference to the image data as soon as possible.
+        r.data = null;
+        synchronized (this) {
+            mBytesInFlight -= size;
+        }
+        updateQueueStatus();
+    }
+
+    // Runs in publisher thread.
+    private void onRequestDone(final SaveRequest r, final Uri uri) {
+        synchronized (this) {
+            mPending--;
+            notifyAll();  // the main thread may wait in waitDone
+        }
+
+        final Listener l;
+        synchronized (this) {
+            l = mListener;
+        }
+        if (l == null) return;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                l.onImageSaved(r, uri);
+            }
+        });
+    }
+
+    private void updateQueueStatus() {
+        final boolean full;
+        final Listener l;
+        synchronized (this) {
+            full = mBytesInFlight >= mMaxBytes;
+            if (full == mFull) return;
+            mFull = full;
+            l = mListener;
+        }
+        if (l == null) return;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                l.onQueueStatus(full);
+            }
+        });
+    }
+
+    private void post(Runnable r) {
+        if (mHandler == null) {
+            r.run();
+        } else {
+            mHandler.post(r);
+        }
+    }
+
+    /**
+     * Blocks until every submitted request is written and published, so other
+     * programs (like Gallery) can see all the images. Called in onPause().
+     */
+    public void waitDone() {
+        synchronized (this) {
+            while (mPending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    // ignore.
+                }
+            }
+        }
+    }
+
+    // Drains the pipeline and stops its threads. The pipeline cannot be used
+    // afterwards.
+    public void finish() {
+        waitDone();
+        synchronized (this) {
+            mStopped = true;
+            mListener = null;
+        }
+        mWriters.shutdown();
+        mPublisher.shutdown();
+    }
+
+    private static class SaverThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        SaverThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, mName + "-" + mCount.incrementAndGet());
+        }
+    }
+}
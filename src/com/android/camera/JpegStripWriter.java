@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.camera;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Joins horizontal strips of an image, each encoded as a separate baseline
+ * JPEG, into one JPEG, so a large image can be encoded without ever being
+ * held in memory as a whole.
+ *
+ * <p>Every strip but the last must be a whole number of MCU rows high, and
+ * all the strips must be encoded with the same tables (same encoder, same
+ * quality, no optimized Huffman tables). The header of the first strip is
+ * written with the full height and a restart interval of one strip. After
+ * that only the entropy-coded data of each strip is written, separated by
+ * restart markers. A restart resets the DC predictions, just as the start of
+ * each strip did when it was encoded, so the data can be used as is.
+ *
+ * <p>Strips that cannot be joined this way throw an {@link IOException};
+ * whatever was written to the output by then is not a valid image.
+ *
+ * <p>References: ISO/IEC 10918-1:1993(E), B.2.4.4 and F.1.2.3.
+ */
+public class JpegStripWriter {
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_RST0 = 0xD0;
+    private static final int MARKER_SOF0 = 0xC0;
+    private static final int MARKER_SOF1 = 0xC1;
+    private static final int MARKER_DHT = 0xC4;
+    private static final int MARKER_JPG = 0xC8;
+    private static final int MARKER_DAC = 0xCC;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_DRI = 0xDD;
+
+    // MCUs of 4:2:0 images, e.g. from YuvImage, are 16 rows high.
+    public static final int MCU_HEIGHT_420 = 16;
+
+    private static final int MAX_RESTART_INTERVAL = 0xFFFF;
+
+    private final OutputStream mOut;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mStripHeight;
+
+    // The header of the first strip, with the height in SOF zeroed.
+    private byte[] mHeader;
+    private int mStrips;
+    private int mRows;
+
+    // Filled in by parse().
+    private int mSofOffset;
+    private int mSosOffset;
+    private int mDataOffset;
+    private int mMcuWidth;
+    private int mMcuHeight;
+
+    /**
+     * @param out receives the joined image.
+     * @param width width of the image and of every strip.
+     * @param height height of the whole image.
+     * @param stripHeight height of every strip but the last one.
+     */
+    public JpegStripWriter(OutputStream out, int width, int height, int stripHeight) {
+        if (width <= 0 || height <= 0 || stripHeight <= 0 || height > 0xFFFF) {
+            throw new IllegalArgumentException(
+                    "invalid size " + width + "x" + height + " / " + stripHeight);
+        }
+        mOut = out;
+        mWidth = width;
+        mHeight = height;
+        mStripHeight = stripHeight;
+    }
+
+    /**
+     * Returns the height of strips of about {@code targetBytes} NV21 bytes
+     * for a 4:2:0 image of the given width: a multiple of
+     * {@link #MCU_HEIGHT_420} that keeps the restart interval in range.
+     */
+    public static int getStripHeight(int width, int targetBytes) {
+        int rowBytes = width + width / 2;
+        int mcuRows = Math.max(1, targetBytes / (rowBytes * MCU_HEIGHT_420));
+        int mcusPerRow = (width + MCU_HEIGHT_420 - 1) / MCU_HEIGHT_420;
+        mcuRows = Math.max(1, Math.min(mcuRows, MAX_RESTART_INTERVAL / mcusPerRow));
+        return mcuRows * MCU_HEIGHT_420;
+    }
+
+    /**
+     * Appends the next strip. {@code jpeg[0, length)} is a complete JPEG file
+     * of {@code getStripHeight()} rows, or of the remaining rows for the last
+     * strip.
+     */
+    public void writeStrip(byte[] jpeg, int length) throws IOException {
+        int rows = Math.min(mStripHeight, mHeight - mRows);
+        if (rows <= 0) throw new IOException("too many strips");
+        parse(jpeg, length);
+
+        int sofWidth = readShort(jpeg, mSofOffset + 7);
+        int sofHeight = readShort(jpeg, mSofOffset + 5);
+        if (sofWidth != mWidth || sofHeight != rows) {
+            throw new IOException("strip " + mStrips + " is " + sofWidth + "x"
+                    + sofHeight + ", expected " + mWidth + "x" + rows);
+        }
+
+        if (mStrips == 0) {
+            writeFirstStrip(jpeg);
+        } else {
+            if (!isSameHeader(jpeg)) {
+                throw new IOException("strip " + mStrips + " has different tables");
+            }
+            mOut.write(0xFF);
+            mOut.write(MARKER_RST0 + ((mStrips - 1) & 7));
+        }
+        // The scan data runs up to the EOI marker at the end.
+        mOut.write(jpeg, mDataOffset, length - 2 - mDataOffset);
+        mStrips++;
+        mRows += rows;
+    }
+
+    // Ends the image. All the rows must have been written.
+    public void finish() throws IOException {
+        if (mRows != mHeight) {
+            throw new IOException("wrote " + mRows + " of " + mHeight + " rows");
+        }
+        mOut.write(0xFF);
+        mOut.write(MARKER_EOI);
+    }
+
+    public int getStripCount() {
+        return mStrips;
+    }
+
+    private void writeFirstStrip(byte[] jpeg) throws IOException {
+        if (mStripHeight % mMcuHeight != 0 && mStripHeight < mHeight) {
+            throw new IOException("strip height " + mStripHeight
+                    + " is not a multiple of the MCU height " + mMcuHeight);
+        }
+        int mcusPerRow = (mWidth + mMcuWidth - 1) / mMcuWidth;
+        int interval = mStripHeight / mMcuHeight * mcusPerRow;
+        if (interval > MAX_RESTART_INTERVAL) {
+            throw new IOException("restart interval " + interval + " is too long");
+        }
+
+        mHeader = new byte[mDataOffset];
+        System.arraycopy(jpeg, 0, mHeader, 0, mDataOffset);
+        mHeader[mSofOffset + 5] = 0;
+        mHeader[mSofOffset + 6] = 0;
+
+        // Everything up to SOS, with the full height in SOF.
+        mOut.write(jpeg, 0, mSofOffset + 5);
+        mOut.write(mHeight >> 8);
+        mOut.write(mHeight);
+        mOut.write(jpeg, mSofOffset + 7, mSosOffset - mSofOffset - 7);
+        // DRI, then SOS.
+        mOut.write(0xFF);
+        mOut.write(MARKER_DRI);
+        mOut.write(0);
+        mOut.write(4);
+        mOut.write(interval >> 8);
+        mOut.write(interval);
+        mOut.write(jpeg, mSosOffset, mDataOffset - mSosOffset);
+    }
+
+    private boolean isSameHeader(byte[] jpeg) {
+        if (mDataOffset != mHeader.length) return false;
+        for (int i = 0; i < mDataOffset; i++) {
+            if (i == mSofOffset + 5 || i == mSofOffset + 6) continue;
+            if (jpeg[i] != mHeader[i]) return false;
+        }
+        return true;
+    }
+
+    // Finds SOF and SOS, and checks that the strip is a single-scan baseline
+    // JPEG without restart markers of its own.
+    private void parse(byte[] jpeg, int length) throws IOException {
+        if (length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != MARKER_SOI
+                || (jpeg[length - 2] & 0xFF) != 0xFF
+                || (jpeg[length - 1] & 0xFF) != MARKER_EOI) {
+            throw new IOException("not a JPEG file");
+        }
+        mSofOffset = -1;
+        int pos = 2;
+        while (true) {
+            if (pos + 4 > length || (jpeg[pos] & 0xFF) != 0xFF) {
+                throw new IOException("bad marker at " + pos);
+            }
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == 0xFF) {  // Fill byte.
+                pos++;
+                continue;
+            }
+            int segmentLength = readShort(jpeg, pos + 2);
+            if (segmentLength < 2 || pos + 2 + segmentLength > length) {
+                throw new IOException("bad segment length at " + pos);
+            }
+            if (marker == MARKER_SOF0 || marker == MARKER_SOF1) {
+                mSofOffset = pos;
+                parseFrame(jpeg, pos, segmentLength);
+            } else if (marker >= MARKER_SOF0 && marker <= 0xCF && marker != MARKER_DHT
+                    && marker != MARKER_JPG && marker != MARKER_DAC) {
+                throw new IOException("not a baseline JPEG");
+            } else if (marker == MARKER_DRI) {
+                throw new IOException("strip has restart markers");
+            } else if (marker == MARKER_SOS) {
+                if (mSofOffset < 0) throw new IOException("no SOF before SOS");
+                // One interleaved scan of all the components, so the data
+                // runs up to EOI.
+                if (jpeg[pos + 4] != jpeg[mSofOffset + 9]) {
+                    throw new IOException("strip has several scans");
+                }
+                mSosOffset = pos;
+                mDataOffset = pos + 2 + segmentLength;
+                return;
+            }
+            pos += 2 + segmentLength;
+        }
+    }
+
+    private void parseFrame(byte[] jpeg, int pos, int segmentLength) throws IOException {
+        int components = jpeg[pos + 9] & 0xFF;
+        if (segmentLength != 8 + 3 * components) throw new IOException("bad SOF");
+        int maxH = 1;
+        int maxV = 1;
+        for (int i = 0; i < components; i++) {
+            int sampling = jpeg[pos + 11 + 3 * i] & 0xFF;
+            maxH = Math.max(maxH, sampling >> 4);
+            maxV = Math.max(maxV, sampling & 0xF);
+        }
+        mMcuWidth = 8 * maxH;
+        mMcuHeight = 8 * maxV;
+    }
+
+    private static int readShort(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+    }
+}
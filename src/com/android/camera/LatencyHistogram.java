@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of latencies in microseconds.
+ *
+ * <p>Values below {@link #SUB_BUCKETS} get a bucket each. Above that, every
+ * power of two is split into {@link #SUB_BUCKETS} equal buckets, so a value
+ * is known to within about 3% however large it is. Recording never locks or
+ * allocates and can be done from any thread. Reads are not atomic with
+ * respect to concurrent recording, which is fine for statistics.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values of 2^40 us (about 12 days) and up share the last bucket.
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT =
+            (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong mMax = new AtomicLong(Long.MIN_VALUE);
+
+    public void recordMicros(long us) {
+        if (us < 0) us = 0;
+        mCounts.incrementAndGet(getBucket(us));
+        mSum.addAndGet(us);
+        mCount.incrementAndGet();
+
+        long min;
+        while (us < (min = mMin.get())) {
+            if (mMin.compareAndSet(min, us)) break;
+        }
+        long max;
+        while (us > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, us)) break;
+        }
+    }
+
+    public void recordMillis(long ms) {
+        recordMicros(ms * 1000);
+    }
+
+    public void recordNanos(long ns) {
+        recordMicros(ns / 1000);
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMinMicros() {
+        return (mCount.get() == 0) ? 0 : mMin.get();
+    }
+
+    public long getMaxMicros() {
+        return (mCount.get() == 0) ? 0 : mMax.get();
+    }
+
+    public long getMeanMicros() {
+        long count = mCount.get();
+        return (count == 0) ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * Returns the value at the given percentile (0 to 100), or 0 if nothing
+     * was recorded. The result is the upper bound of the bucket holding that
+     * value, capped by the largest value recorded.
+     */
+    public long getPercentileMicros(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile " + percentile);
+        }
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(getBucketUpperBound(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) mCounts.set(i, 0);
+        mCount.set(0);
+        mSum.set(0);
+        mMin.set(Long.MAX_VALUE);
+        mMax.set(Long.MIN_VALUE);
+    }
+
+    static int getBucket(long us) {
+        if (us < SUB_BUCKETS) return (int) us;
+        int exponent = 63 - Long.numberOfLeadingZeros(us);
+        if (exponent > MAX_EXPONENT) return BUCKET_COUNT - 1;
+        int group = exponent - SUB_BUCKET_BITS + 1;
+        int sub = (int) (us >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return group * SUB_BUCKETS + sub;
+    }
+
+    // The largest value that falls into the bucket.
+    static long getBucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int group = bucket / SUB_BUCKETS;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (group - 1)) - 1;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.util.Log;
+
+/**
+ * Counts and logs the calls that block the main thread while it waits for
+ * another thread, e.g. a CameraProxy call waiting for the camera thread.
+ * It does nothing unless it is enabled.
+ */
+public class MainThreadBlockMonitor {
+    private static final String TAG = "MainThreadBlockMonitor";
+
+    private final String mName;
+    private final boolean mEnabled;
+    private int mCount;
+    private long mBlockedTime;  // in nanoseconds
+
+    public MainThreadBlockMonitor(String name, boolean enabled) {
+        mName = name;
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    // Called after a call has blocked since start, a System.nanoTime()
+    // value. The call is only counted if it was made on the main thread.
+    public void onBlocked(boolean mainThread, long start) {
+        if (!mEnabled || !mainThread) return;
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            mCount++;
+            mBlockedTime += elapsed;
+        }
+        Log.w(TAG, "Main thread blocked on " + mName + " for " + elapsed / 1000 + "us",
+                new Throwable());
+    }
+
+    // Returns the number of blocking calls made on the main thread.
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    // Returns the total time the main thread was blocked, in milliseconds.
+    public synchronized long getBlockedTime() {
+        return mBlockedTime / 1000000;
+    }
+
+    public synchronized void reset() {
+        mCount = 0;
+        mBlockedTime = 0;
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesces MediaStore inserts, updates and deletes into batches.
+ *
+ * <p>Operations are queued and applied together on a background thread a
+ * short time ({@code windowMs}) after the first one is queued, or as soon as
+ * {@link #MAX_BATCH} operations are pending. Back-to-back updates of the same
+ * uri are merged, and a delete drops the pending updates of its uri.
+ *
+ * <p>The batcher can also keep placeholder rows inserted ahead of time, so a
+ * burst capture can take a uri without waiting for the provider.
+ *
+ * <p>The provider is reached through a {@link Backend}, so the batching logic
+ * can be tested against a fake provider.
+ */
+public class MediaStoreBatcher {
+    private static final String TAG = "MediaStoreBatcher";
+
+    public static final long DEFAULT_WINDOW_MS = 30;
+    public static final int MAX_BATCH = 16;
+
+    /**
+     * Applies a batch of operations in order. Returns one uri per operation:
+     * the new row for an insert, the target uri for a successful update or
+     * delete, and null for an operation that failed.
+     */
+    public interface Backend {
+        Uri[] apply(List<Op> ops);
+    }
+
+    public interface Callback {
+        // Runs in the batcher thread.
+        public void onComplete(Op op, Uri result);
+    }
+
+    public static class Op {
+        public static final int INSERT = 0;
+        public static final int UPDATE = 1;
+        public static final int DELETE = 2;
+
+        public final int type;
+        // The table for an insert or a delete with a selection, otherwise
+        // the row.
+        public final Uri uri;
+        public final ContentValues values;
+        // The rows of a delete, if uri is the table.
+        public final String selection;
+        public final String[] selectionArgs;
+        private final ArrayList<Callback> mCallbacks = new ArrayList<Callback>(1);
+        private boolean mDone;
+        private Uri mResult;
+
+        Op(int type, Uri uri, ContentValues values, Callback callback) {
+            this(type, uri, values, null, null, callback);
+        }
+
+        Op(int type, Uri uri, ContentValues values, String selection,
+                String[] selectionArgs, Callback callback) {
+            this.type = type;
+            this.uri = uri;
+            this.values = values;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            if (callback != null) mCallbacks.add(callback);
+        }
+
+        public synchronized boolean isDone() {
+            return mDone;
+        }
+
+        // Blocks until the operation is applied and its callbacks have run.
+        // Returns the same uri as the one passed to the callback.
+        public synchronized Uri get() {
+            while (!mDone) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    // ignore.
+                }
+            }
+            return mResult;
+        }
+
+        void complete(Uri result) {
+            // The callbacks run first, so what they do is done by the time
+            // get() or flush() returns.
+            for (Callback c : mCallbacks) {
+                c.onComplete(this, result);
+            }
+            synchronized (this) {
+                mResult = result;
+                mDone = true;
+                notifyAll();
+            }
+        }
+    }
+
+    // A row inserted ahead of time. The caller owns it after
+    // takePlaceholder() and is expected to update or delete it.
+    public static class Placeholder {
+        public final Uri uri;
+        public final ContentValues values;
+
+        Placeholder(Uri uri, ContentValues values) {
+            this.uri = uri;
+            this.values = values;
+        }
+    }
+
+    private final Backend mBackend;
+    private final long mWindowMs;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    // Guarded by "this".
+    private ArrayList<Op> mPending = new ArrayList<Op>();
+    // The batch applyPending() took from mPending and is applying, or null.
+    private ArrayList<Op> mApplying;
+    private final ArrayList<Placeholder> mPlaceholders = new ArrayList<Placeholder>();
+    private int mPlaceholdersRequested;
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyPending();
+        }
+    };
+
+    public MediaStoreBatcher(Backend backend) {
+        this(backend, DEFAULT_WINDOW_MS);
+    }
+
+    public MediaStoreBatcher(Backend backend, long windowMs) {
+        mBackend = backend;
+        mWindowMs = windowMs;
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    public Op insert(Uri table, ContentValues values, Callback callback) {
+        return enqueue(new Op(Op.INSERT, table, values, callback));
+    }
+
+    public Op update(Uri uri, ContentValues values, Callback callback) {
+        synchronized (this) {
+            // Merge into a pending update of the same row.
+            for (int i = mPending.size() - 1; i >= 0; i--) {
+                Op op = mPending.get(i);
+                if (op.type == Op.UPDATE && op.uri.equals(uri)) {
+                    op.values.putAll(values);
+                    if (callback != null) op.mCallbacks.add(callback);
+                    return op;
+                }
+                // A delete with a selection may have removed the row.
+                if (op.uri.equals(uri) || op.selection != null) break;
+            }
+        }
+        return enqueue(new Op(Op.UPDATE, uri, new ContentValues(values), callback));
+    }
+
+    public Op delete(Uri uri, Callback callback) {
+        ArrayList<Op> dropped = new ArrayList<Op>();
+        synchronized (this) {
+            // The pending updates of the row are pointless now.
+            for (int i = mPending.size() - 1; i >= 0; i--) {
+                Op op = mPending.get(i);
+                if (op.type == Op.UPDATE && op.uri.equals(uri)) {
+                    dropped.add(mPending.remove(i));
+                }
+            }
+        }
+        for (Op op : dropped) op.complete(null);
+        return enqueue(new Op(Op.DELETE, uri, null, callback));
+    }
+
+    // Deletes the rows of table that match the selection. The result is
+    // table if any row was deleted.
+    public Op delete(Uri table, String selection, String[] selectionArgs,
+            Callback callback) {
+        return enqueue(new Op(Op.DELETE, table, null, selection, selectionArgs, callback));
+    }
+
+    /**
+     * Inserts a row with the given values ahead of time. It becomes available
+     * from {@link #takePlaceholder()} once the batch is applied.
+     */
+    public void reservePlaceholder(Uri table, final ContentValues values) {
+        synchronized (this) {
+            mPlaceholdersRequested++;
+        }
+        insert(table, values, new Callback() {
+            @Override
+            public void onComplete(Op op, Uri result) {
+                synchronized (MediaStoreBatcher.this) {
+                    mPlaceholdersRequested--;
+                    if (result != null) {
+                        mPlaceholders.add(new Placeholder(result, values));
+                    }
+                }
+            }
+        });
+    }
+
+    // Returns a reserved row, or null if none is ready. Never blocks.
+    public synchronized Placeholder takePlaceholder() {
+        if (mPlaceholders.isEmpty()) return null;
+        return mPlaceholders.remove(0);
+    }
+
+    // Returns the number of placeholders that are ready or being inserted.
+    public synchronized int getPlaceholderCount() {
+        return mPlaceholders.size() + mPlaceholdersRequested;
+    }
+
+    // Deletes the placeholders that were not taken.
+    public void releasePlaceholders() {
+        flush();
+        ArrayList<Placeholder> unused;
+        synchronized (this) {
+            unused = new ArrayList<Placeholder>(mPlaceholders);
+            mPlaceholders.clear();
+        }
+        for (Placeholder p : unused) delete(p.uri, null);
+    }
+
+    // Applies everything queued so far and waits until it is done, including
+    // the batch being applied, if any.
+    public void flush() {
+        Op last;
+        synchronized (this) {
+            if (!mPending.isEmpty()) {
+                // The batches are applied in order, so this one also waits
+                // for the batch being applied.
+                last = mPending.get(mPending.size() - 1);
+                mHandler.removeCallbacks(mFlushRunnable);
+                mHandler.post(mFlushRunnable);
+                mFlushScheduled = true;
+            } else if (mApplying != null) {
+                last = mApplying.get(mApplying.size() - 1);
+            } else {
+                return;
+            }
+        }
+        last.get();
+    }
+
+    // Flushes the pending operations and stops the batcher thread.
+    public void quit() {
+        releasePlaceholders();
+        flush();
+        mThread.quit();
+    }
+
+    private Op enqueue(Op op) {
+        synchronized (this) {
+            mPending.add(op);
+            if (mPending.size() >= MAX_BATCH) {
+                mHandler.removeCallbacks(mFlushRunnable);
+                mHandler.post(mFlushRunnable);
+                mFlushScheduled = true;
+            } else if (!mFlushScheduled) {
+                mHandler.postDelayed(mFlushRunnable, mWindowMs);
+                mFlushScheduled = true;
+            }
+        }
+        return op;
+    }
+
+    // Runs in batcher thread.
+    private void applyPending() {
+        ArrayList<Op> ops;
+        synchronized (this) {
+            mFlushScheduled = false;
+            if (mPending.isEmpty()) return;
+            ops = mPending;
+            mPending = new ArrayList<Op>();
+            mApplying = ops;
+        }
+        Uri[] results = null;
+        try {
+            results = mBackend.apply(ops);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to apply " + ops.size() + " operations", e);
+        }
+        // The operations complete in order, so flush() only has to wait for
+        // the last one.
+        for (int i = 0; i < ops.size(); i++) {
+            ops.get(i).complete(results == null ? null : results[i]);
+        }
+        synchronized (this) {
+            mApplying = null;
+        }
+    }
+
+    public static Backend createResolverBackend(ContentResolver resolver) {
+        return new ResolverBackend(resolver);
+    }
+
+    // Sends the batch to MediaProvider in one applyBatch() call. bulkInsert()
+    // is not used because it does not return the uris of the new rows.
+    private static class ResolverBackend implements Backend {
+        private final ContentResolver mResolver;
+
+        ResolverBackend(ContentResolver resolver) {
+            mResolver = resolver;
+        }
+
+        @Override
+        public Uri[] apply(List<Op> ops) {
+            ArrayList<ContentProviderOperation> batch =
+                    new ArrayList<ContentProviderOperation>(ops.size());
+            for (Op op : ops) {
+                switch (op.type) {
+                    case Op.INSERT:
+                        batch.add(ContentProviderOperation.newInsert(op.uri)
+                                .withValues(op.values).build());
+                        break;
+                    case Op.UPDATE:
+                        batch.add(ContentProviderOperation.newUpdate(op.uri)
+                                .withValues(op.values).build());
+                        break;
+                    case Op.DELETE:
+                        batch.add(ContentProviderOperation.newDelete(op.uri)
+                                .withSelection(op.selection, op.selectionArgs).build());
+                        break;
+                }
+            }
+
+            Uri[] results = new Uri[ops.size()];
+            try {
+                ContentProviderResult[] r = mResolver.applyBatch(
+                        MediaStore.AUTHORITY, batch);
+                for (int i = 0; i < ops.size(); i++) {
+                    Op op = ops.get(i);
+                    if (op.type == Op.INSERT) {
+                        results[i] = r[i].uri;
+                    } else if (r[i].count != null && r[i].count > 0) {
+                        results[i] = op.uri;
+                    }
+                }
+                return results;
+            } catch (Throwable th) {
+                // One bad operation fails the whole batch. Apply them one by
+                // one so the others still go through.
+                Log.e(TAG, "Failed to apply batch, retrying one by one", th);
+            }
+            for (int i = 0; i < ops.size(); i++) {
+                results[i] = applyOne(ops.get(i));
+            }
+            return results;
+        }
+
+        private Uri applyOne(Op op) {
+            try {
+                switch (op.type) {
+                    case Op.INSERT:
+                        return mResolver.insert(op.uri, op.values);
+                    case Op.UPDATE:
+                        return mResolver.update(op.uri, op.values, null, null) > 0
+                                ? op.uri : null;
+                    case Op.DELETE:
+                        return mResolver.delete(op.uri, op.selection, op.selectionArgs) > 0
+                                ? op.uri : null;
+                }
+            } catch (Throwable th) {
+                Log.e(TAG, "Failed to apply operation on " + op.uri + ": " + th);
+            }
+            return null;
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.android.camera;
 
+import java.nio.ByteBuffer;
+
 /**
  * The Java interface to JNI calls regarding mosaic stitching.
  *
@@ -34,6 +36,16 @@ package com.android.camera;
  *
  */
 public class Mosaic {
+    /**
+     * Receives the progress of createMosaic(), on the thread that called it.
+     */
+    public interface ProgressListener {
+        /**
+         * @param progress a number from 0 to 100, reported each time it changes.
+         */
+        public void onProgress(int progress);
+    }
+
     /**
      * In this mode, the images are stitched together in the same spatial arrangement as acquired
      * i.e. if the user follows a curvy trajectory, the image boundary of the resulting mosaic will
@@ -104,12 +116,61 @@ public class Mosaic {
      */
     public native void allocateMosaicMemory(int width, int height);
 
+    /**
+     * Set how much native memory the captured frames may take. The next
+     * allocateMosaicMemory sizes the number of frames of a mosaic from it.
+     * Frames are allocated as they are captured, so a short sweep only takes
+     * what it needs.
+     *
+     * @param bytes the budget in bytes, or 0 for the default number of frames
+     */
+    public native void setFrameBudget(long bytes);
+
+    /**
+     * Get the number of frames a mosaic can have, as set up by the last
+     * allocateMosaicMemory.
+     */
+    public native int getMaxFrames();
+
     /**
      * Free memory allocated by allocateMosaicMemory.
      *
      */
     public native void freeMosaicMemory();
 
+    /**
+     * Set a file to map the captured frames from instead of keeping them in
+     * memory. The frames and their alignment transforms are written to
+     * path.lr and path.hr, so the system can page them out during a long
+     * sweep and a sweep can be suspended. Applies to the next
+     * allocateMosaicMemory.
+     *
+     * @param path an app-private path, or null to keep the frames in memory
+     */
+    public native void setSpillFile(String path);
+
+    /**
+     * Keep the frames captured so far in the spill file and free the rest
+     * of the memory, as freeMosaicMemory does. The sweep can be continued
+     * or stitched after a resume.
+     *
+     * @return the number of frames kept, or 0 if there is no spill file or
+     *         no frame; the memory is still allocated then
+     */
+    public native int suspend();
+
+    /**
+     * Allocate the memory for a sweep kept by suspend and load its frames,
+     * as if they had just been captured.
+     *
+     * @param path the spill file the sweep was captured with
+     * @param width the width of the frames, to check against the sweep
+     * @param height the height of the frames, to check against the sweep
+     * @return the number of frames, or 0 if there is no such sweep; its
+     *         files are deleted then
+     */
+    public native int resume(String path, int width, int height);
+
     /**
      * Pass the input image frame to the native layer. Each time the a new
      * source image t is set, the transformation matrix from the first source
@@ -154,19 +215,56 @@ public class Mosaic {
      */
     public native void setStripType(int type);
 
+    /**
+     * Set the number of threads used to blend the final mosaic. The result
+     * does not depend on it. Applies to the mosaics created after the call.
+     *
+     * @param count the number of threads, from 1 to 8.
+     */
+    public native void setBlendThreads(int count);
+
+    /**
+     * Set the number of threads used to align each frame as it is added:
+     * corner detection runs on bands of the frame and the alignment
+     * hypotheses are scored in parallel. The result does not depend on it.
+     * Applies to the mosaics created after the call.
+     *
+     * @param count the number of threads, from 1 to 8.
+     */
+    public native void setAlignThreads(int count);
+
+    /**
+     * Set the minimum width of the strip a frame must add to the mosaic to be
+     * blended. Frames that pan less than that past the last blended frame
+     * are dropped before blending, so a slow sweep does not cost more to
+     * stitch than a fast one of the same angle. Larger values are faster but
+     * make wider strips, whose seams show more of the alignment error.
+     * Applies to the mosaics created after the call.
+     *
+     * @param fraction the width as a fraction of the frame width (height for
+     *        a vertical sweep), from 0 to 0.5. 0 keeps the selection of the
+     *        strip type.
+     */
+    public native void setMinStripWidth(float fraction);
+
     /**
      * Tell the native layer to create the final mosaic after all the input frame
      * data have been collected.
      * The case of generating high-resolution mosaic may take dozens of seconds to finish.
+     * The high-resolution frames are aligned in the background while they are
+     * set, so most of that time is spent blending.
      *
      * @param value True means generating a high-resolution mosaic -
      *        which is based on the original images set in setSourceImage().
      *        False means generating a low-resolution version -
      *        which is based on 1/4 downscaled images from the original images.
+     * @param listener called with the progress as it changes, so it does not have to be polled
+     *        with reportProgress(); may be null. An exception it throws is thrown when this
+     *        returns.
      * @return Returns a status code suggesting if the mosaic building was
      *        successful, in error, or was cancelled by the user.
      */
-    public native int createMosaic(boolean value);
+    public native int createMosaic(boolean value, ProgressListener listener);
 
     /**
      * Get the data for the created mosaic.
@@ -187,6 +285,45 @@ public class Mosaic {
      */
     public native byte[] getFinalMosaicNV21();
 
+    /**
+     * Get the size of the created mosaic.
+     *
+     * @return Returns {MosaicWidth, MosaicHeight}, or null if there is no mosaic, e.g. it has
+     *         been released.
+     */
+    public native int[] getFinalMosaicSize();
+
+    /**
+     * Copy a horizontal strip of the created mosaic in the NV21 format: the Y rows of the strip
+     * followed by its interleaved VU rows. The mosaic is not modified, so strips can be read
+     * one at a time without holding the whole image on the Java heap.
+     *
+     * @param strip the destination; must hold at least MosaicWidth * (rows + (rows + 1) / 2)
+     *        bytes.
+     * @param top the first row of the strip; must be even.
+     * @param rows the number of rows; clipped to the bottom of the mosaic.
+     * @return the number of rows copied, or 0 on error.
+     */
+    public native int getFinalMosaicNV21Strip(byte[] strip, int top, int rows);
+
+    /**
+     * Free the created mosaic. getFinalMosaicNV21() does this by itself; call this after
+     * reading the mosaic with getFinalMosaicNV21Strip().
+     */
+    public native void releaseFinalMosaic();
+
+    /**
+     * Copy the live mosaic, a low-resolution preview of the mosaic that is built as the frames
+     * are set, to be shown while capturing. Each frame is warped onto it as it is aligned;
+     * there is no blending, and the sweep is not unwarped, unlike createMosaic(false). It can be read at
+     * any time, from any thread, until reset().
+     *
+     * @param buffer a direct buffer that receives the mosaic as width * height RGBA pixels,
+     *        premultiplied, if it has room for them; may be null to get the size only.
+     * @return Returns {width, height}, or null if no frame has been set.
+     */
+    public native int[] copyLiveMosaic(ByteBuffer buffer);
+
     /**
      * Reset the state of the frame arrays which maintain the captured frame data.
      * Also re-initializes the native mosaic object to make it ready for capturing a new mosaic.
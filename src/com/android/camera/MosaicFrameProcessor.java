@@ -16,24 +16,39 @@
 
 package com.android.camera;
 
+import android.graphics.Bitmap;
 import android.util.Log;
 
+import java.nio.ByteBuffer;
+
 /**
  * Class to handle the processing of each frame by Mosaicer.
  */
 public class MosaicFrameProcessor {
     private static final String TAG = "MosaicFrameProcessor";
     private static final int NUM_FRAMES_IN_BUFFER = 2;
-    private static final int MAX_NUMBER_OF_FRAMES = 100;
     private static final int MOSAIC_RET_CODE_INDEX = 10;
     private static final int FRAME_COUNT_INDEX = 9;
     private static final int X_COORD_INDEX = 2;
     private static final int Y_COORD_INDEX = 5;
     private static final int HR_TO_LR_DOWNSAMPLE_FACTOR = 4;
     private static final int WINDOW_SIZE = 3;
+    // Blending is memory bound; more threads do not help much.
+    private static final int MAX_BLEND_THREADS = 4;
+    // Frames are aligned at preview rate next to the camera and the GL
+    // threads, so leave them a core.
+    private static final int MAX_ALIGN_THREADS = 2;
+    // The minimum strip width a frame must add to be blended, as a fraction
+    // of its width. 0 blends the frames the wide strip type selects, as
+    // before; wider strips blend slow sweeps faster but change every
+    // panorama. Compare the output of perftests/panorama with -s first.
+    private static final float MIN_STRIP_WIDTH = 0f;
 
     private Mosaic mMosaicer;
     private boolean mIsMosaicMemoryAllocated = false;
+    private long mFrameBudget;
+    private String mSpillFile;
+    private int mMaxFrames;
     private float mTranslationLastX;
     private float mTranslationLastY;
 
@@ -91,10 +106,66 @@ public class MosaicFrameProcessor {
         mPreviewHeight = previewHeight;
         mPreviewBufferSize = bufSize;
         setupMosaicer(mPreviewWidth, mPreviewHeight, mPreviewBufferSize);
-        setStripType(Mosaic.STRIPTYPE_WIDE);
+        configureMosaicer();
         reset();
     }
 
+    // Sets the file the frames of the next initialize() are mapped from.
+    // See Mosaic.setSpillFile().
+    public void setSpillFile(String path) {
+        mSpillFile = path;
+        mMosaicer.setSpillFile(path);
+    }
+
+    // Keeps the frames captured so far in the spill file and frees the
+    // memory. Returns false, leaving the memory allocated, if there is
+    // nothing to keep.
+    public boolean suspend() {
+        if (!mIsMosaicMemoryAllocated || mMosaicer.suspend() == 0) return false;
+        mIsMosaicMemoryAllocated = false;
+        synchronized (this) {
+            notify();
+        }
+        return true;
+    }
+
+    // Loads the sweep kept by suspend(), ready to be stitched with
+    // createMosaic(). Returns false if there is none for this preview size.
+    public boolean resume(int previewWidth, int previewHeight, int bufSize) {
+        if (mIsMosaicMemoryAllocated) throw new RuntimeException("MosaicFrameProcessor in use!");
+        if (mSpillFile == null) return false;
+        resetCounters();
+        configureMosaicer();
+        int frames = mMosaicer.resume(mSpillFile, previewWidth, previewHeight);
+        if (frames == 0) return false;
+        mIsMosaicMemoryAllocated = true;
+        mPreviewWidth = previewWidth;
+        mPreviewHeight = previewHeight;
+        mPreviewBufferSize = bufSize;
+        mMaxFrames = mMosaicer.getMaxFrames();
+        mTotalFrameCount = frames;
+        Log.v(TAG, "resumed " + frames + " frames");
+        return true;
+    }
+
+    private void configureMosaicer() {
+        setStripType(Mosaic.STRIPTYPE_WIDE);
+        int processors = Runtime.getRuntime().availableProcessors();
+        setBlendThreads(Math.min(processors, MAX_BLEND_THREADS));
+        setAlignThreads(Math.max(1, Math.min(processors - 1, MAX_ALIGN_THREADS)));
+        setMinStripWidth(MIN_STRIP_WIDTH);
+    }
+
+    // Sets how much native memory the frames of the next initialize() may
+    // take. See Mosaic.setFrameBudget().
+    public void setFrameBudget(long bytes) {
+        mFrameBudget = bytes;
+    }
+
+    public int getMaxFrames() {
+        return mMaxFrames;
+    }
+
     public void clear() {
         if (mIsMosaicMemoryAllocated) {
             mMosaicer.freeMosaicMemory();
@@ -113,17 +184,37 @@ public class MosaicFrameProcessor {
         mMosaicer.setStripType(type);
     }
 
+    public void setBlendThreads(int count) {
+        mMosaicer.setBlendThreads(count);
+    }
+
+    public void setAlignThreads(int count) {
+        mMosaicer.setAlignThreads(count);
+    }
+
+    public void setMinStripWidth(float fraction) {
+        mMosaicer.setMinStripWidth(fraction);
+    }
+
     private void setupMosaicer(int previewWidth, int previewHeight, int bufSize) {
         Log.v(TAG, "setupMosaicer w, h=" + previewWidth + ',' + previewHeight + ',' + bufSize);
 
         if (mIsMosaicMemoryAllocated) throw new RuntimeException("MosaicFrameProcessor in use!");
         mIsMosaicMemoryAllocated = true;
+        mMosaicer.setFrameBudget(mFrameBudget);
         mMosaicer.allocateMosaicMemory(previewWidth, previewHeight);
+        mMaxFrames = mMosaicer.getMaxFrames();
+        Log.v(TAG, "setupMosaicer maxFrames=" + mMaxFrames);
     }
 
     public void reset() {
         // reset() can be called even if MosaicFrameProcessor is not initialized.
         // Only counters will be changed.
+        resetCounters();
+        mMosaicer.reset();
+    }
+
+    private void resetCounters() {
         mFirstRun = true;
         mTotalFrameCount = 0;
         mFillIn = 0;
@@ -139,17 +230,74 @@ public class MosaicFrameProcessor {
             mDeltaX[i] = 0f;
             mDeltaY[i] = 0f;
         }
-        mMosaicer.reset();
     }
 
-    public int createMosaic(boolean highRes) {
-        return mMosaicer.createMosaic(highRes);
+    public int createMosaic(boolean highRes, Mosaic.ProgressListener listener) {
+        return mMosaicer.createMosaic(highRes, listener);
+    }
+
+    // Makes the running or next createMosaic() stop and return
+    // Mosaic.MOSAIC_RET_CANCELLED, or lets it run if cancelled is false.
+    public void setMosaicCancelled(boolean highRes, boolean cancelled) {
+        mMosaicer.reportProgress(highRes, cancelled);
     }
 
     public byte[] getFinalMosaicNV21() {
         return mMosaicer.getFinalMosaicNV21();
     }
 
+    public int[] getFinalMosaicSize() {
+        return mMosaicer.getFinalMosaicSize();
+    }
+
+    public int getFinalMosaicNV21Strip(byte[] strip, int top, int rows) {
+        return mMosaicer.getFinalMosaicNV21Strip(strip, top, rows);
+    }
+
+    public void releaseFinalMosaic() {
+        mMosaicer.releaseFinalMosaic();
+    }
+
+    // Stitches the low-res mosaic and returns it, or null if it cannot be
+    // created. It is blended like the high-res one, unlike the live mosaic,
+    // which is why the review image is not taken from the live mosaic even
+    // though this runs after the capture; see perftests/panorama/README.txt.
+    public Bitmap createLowResMosaic() {
+        if (mMosaicer.createMosaic(false, null) != Mosaic.MOSAIC_RET_OK) return null;
+        int[] image = mMosaicer.getFinalMosaic();
+        mMosaicer.releaseFinalMosaic();
+        if (image == null || image.length < 2) return null;
+        int width = image[image.length - 2];
+        int height = image[image.length - 1];
+        if (width <= 0 || height <= 0) return null;
+        return Bitmap.createBitmap(image, 0, width, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    // Copies the live mosaic of the frames processed so far into bitmap, if
+    // it has the size of the mosaic, or into a new bitmap. Returns the bitmap,
+    // or null if there is no live mosaic yet. See Mosaic.copyLiveMosaic().
+    public Bitmap copyLiveMosaic(Bitmap bitmap) {
+        int[] size = mMosaicer.copyLiveMosaic(null);
+        BufferArena arena = BufferArena.getShared();
+        // Frames may still be added, and the mosaic grow, between the calls.
+        while (size != null) {
+            int bytes = size[0] * size[1] * 4;
+            ByteBuffer buffer = arena.obtainDirect(bytes);
+            size = mMosaicer.copyLiveMosaic(buffer);
+            if (size != null && size[0] * size[1] * 4 <= buffer.capacity()) {
+                if (bitmap == null || bitmap.getWidth() != size[0]
+                        || bitmap.getHeight() != size[1]) {
+                    bitmap = Bitmap.createBitmap(size[0], size[1], Bitmap.Config.ARGB_8888);
+                }
+                bitmap.copyPixelsFromBuffer(buffer);
+                arena.recycle(buffer);
+                return bitmap;
+            }
+            arena.recycle(buffer);
+        }
+        return null;
+    }
+
     // Processes the last filled image frame through the mosaicer and
     // updates the UI to show progress.
     // When done, processes and displays the final mosaic.
@@ -169,9 +317,7 @@ public class MosaicFrameProcessor {
         if (mCurrProcessFrameIdx != mLastProcessFrameIdx) {
             mLastProcessFrameIdx = mCurrProcessFrameIdx;
 
-            // TODO: make the termination condition regarding reaching
-            // MAX_NUMBER_OF_FRAMES solely determined in the library.
-            if (mTotalFrameCount < MAX_NUMBER_OF_FRAMES) {
+            if (mTotalFrameCount < mMaxFrames) {
                 // If we are still collecting new frames for the current mosaic,
                 // process the new frame.
                 calculateTranslationRate();
@@ -48,6 +48,11 @@ public class MosaicPreviewRenderer {
     private final float[] mTransformMatrix = new float[16];
 
     private ConditionVariable mEglThreadBlockVar = new ConditionVariable();
+    // Opened once alignFrame() has the frame of the previous call.
+    private ConditionVariable mReadbackBlockVar = new ConditionVariable();
+    private final boolean mAsyncReadback;
+    private int mReadbackMode = MosaicRenderer.READBACK_SYNC;
+    private volatile boolean mFrameReady;
     private HandlerThread mEglThread;
     private EGLHandler mEglHandler;
 
@@ -66,6 +71,7 @@ public class MosaicPreviewRenderer {
         public static final int MSG_SHOW_PREVIEW_FRAME = 2;
         public static final int MSG_ALIGN_FRAME_SYNC = 3;
         public static final int MSG_RELEASE = 4;
+        public static final int MSG_ALIGN_FRAME = 5;
 
         public EGLHandler(Looper looper) {
             super(looper);
@@ -89,6 +95,13 @@ public class MosaicPreviewRenderer {
                     doAlignFrame();
                     mEglThreadBlockVar.open();
                     break;
+                case MSG_ALIGN_FRAME:
+                    // The frame read back by the previous call can be aligned
+                    // while this one is drawn.
+                    mFrameReady = MosaicRenderer.finishGPUtoCPU();
+                    mReadbackBlockVar.open();
+                    doAlignFrame();
+                    break;
                 case MSG_RELEASE:
                     doRelease();
                     break;
@@ -157,6 +170,8 @@ public class MosaicPreviewRenderer {
             mInputSurfaceTexture = new SurfaceTexture(MosaicRenderer.init());
             MosaicRenderer.reset(mWidth, mHeight, mIsLandscape);
             MosaicRenderer.setCameraOrientation(mCameraOrientation);
+            mReadbackMode = MosaicRenderer.setReadbackMode(mAsyncReadback);
+            Log.v(TAG, "Readback mode: " + mReadbackMode);
         }
 
         private void doRelease() {
@@ -188,12 +203,19 @@ public class MosaicPreviewRenderer {
 
     }
 
+    /**
+     * @param asyncReadback read the frames back from the GPU one frame later,
+     *        so aligning a frame overlaps with drawing the next one. See
+     *        {@link #alignFrame}.
+     */
     public MosaicPreviewRenderer(SurfaceTexture tex,
                                  int w,
                                  int h,
                                  boolean isLandscape,
-                                 int cameraOrientation) {
+                                 int cameraOrientation,
+                                 boolean asyncReadback) {
         mMosaicOutputSurfaceTexture = tex;
+        mAsyncReadback = asyncReadback;
         mWidth = w;
         mHeight = h;
         mIsLandscape = isLandscape;
@@ -225,6 +247,24 @@ public class MosaicPreviewRenderer {
         mEglHandler.sendMessageSync(EGLHandler.MSG_ALIGN_FRAME_SYNC);
     }
 
+    /**
+     * Draws the new frame and reads it back from the GPU. With asynchronous
+     * readback this only waits for the frame of the previous call, and the
+     * GL thread keeps drawing while the caller processes that frame.
+     *
+     * @return true if there is a frame to process.
+     */
+    public boolean alignFrame() {
+        if (mReadbackMode == MosaicRenderer.READBACK_SYNC) {
+            alignFrameSync();
+            return true;
+        }
+        mReadbackBlockVar.close();
+        mEglHandler.sendEmptyMessage(EGLHandler.MSG_ALIGN_FRAME);
+        mReadbackBlockVar.block();
+        return mFrameReady;
+    }
+
     public SurfaceTexture getInputSurfaceTexture() {
         return mInputSurfaceTexture;
     }
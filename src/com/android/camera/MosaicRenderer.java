@@ -27,6 +27,18 @@ public class MosaicRenderer
          System.loadLibrary("jni_mosaic");
      }
 
+     /**
+      * Readback modes returned by {@link #setReadbackMode}. In READBACK_SYNC,
+      * transferGPUtoCPU() waits for the frame and copies it. In the other
+      * modes it only starts the copy, and finishGPUtoCPU() completes it one
+      * frame later: from a pixel buffer object with OpenGL ES 3
+      * (READBACK_PIXEL_BUFFER), or by reading the frame buffer then
+      * (READBACK_DEFERRED) with GLES2, which has no pixel buffers.
+      */
+     public static final int READBACK_SYNC = 0;
+     public static final int READBACK_DEFERRED = 1;
+     public static final int READBACK_PIXEL_BUFFER = 2;
+
      /**
       * Function to be called in onSurfaceCreated() to initialize
       * the GL context, load and link the shaders and create the
@@ -63,13 +75,32 @@ public class MosaicRenderer
       */
      public static native void setCameraOrientation(int orientation);
 
+     /**
+      * Choose between synchronous and asynchronous transfers of the frames
+      * from the GPU. Call after reset(), on the GL thread.
+      *
+      * @param async true to read the frames back one frame later.
+      * @return the readback mode used, one of the READBACK_ constants.
+      */
+     public static native int setReadbackMode(boolean async);
+
      /**
       * This function calls glReadPixels to transfer both the low-res and high-res
       * data from the GPU memory to the CPU memory for further processing by the
-      * mosaicing library.
+      * mosaicing library. In an asynchronous readback mode, it only starts
+      * the transfer; see finishGPUtoCPU().
       */
      public static native void transferGPUtoCPU();
 
+     /**
+      * Completes the transfer started by the last transferGPUtoCPU() in an
+      * asynchronous readback mode. Call before drawing the next frame.
+      *
+      * @return true if a frame was transferred, false if there was none
+      *         (always in READBACK_SYNC, and for the first frame).
+      */
+     public static native boolean finishGPUtoCPU();
+
      /**
       * Function to be called in onDrawFrame() to update the screen with
       * the new frame data.
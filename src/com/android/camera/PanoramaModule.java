@@ -17,13 +17,13 @@
 package com.android.camera;
 
 import android.annotation.TargetApi;
+import android.app.ActivityManager;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.ImageFormat;
 import android.graphics.Matrix;
@@ -41,6 +41,7 @@ import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Message;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -63,7 +64,6 @@ import com.android.camera.ui.RotateLayout;
 import com.android.gallery3d.common.ApiHelper;
 import com.android.gallery3d.ui.GLRootView;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
@@ -88,6 +88,7 @@ public class PanoramaModule implements CameraModule,
     private static final int MSG_GENERATE_FINAL_MOSAIC_ERROR = 2;
     private static final int MSG_RESET_TO_PREVIEW = 3;
     private static final int MSG_CLEAR_SCREEN_DELAY = 4;
+    private static final int MSG_SAVE_MOSAIC_ERROR = 5;
 
     private static final int SCREEN_DELAY = 2 * 60 * 1000;
 
@@ -104,6 +105,32 @@ public class PanoramaModule implements CameraModule,
     // The unit of speed is degrees per frame.
     private static final float PANNING_SPEED_THRESHOLD = 2.5f;
 
+    // Align each captured frame while the preview draws the next one. The
+    // alignment is one frame behind; the last frame before stopping is not
+    // aligned.
+    private static final boolean ASYNC_READBACK = true;
+
+    // Encode the high-res mosaic strip by strip straight into its file, so
+    // neither the NV21 image nor the JPEG is ever on the Java heap as a
+    // whole. Each strip holds about this many bytes of NV21 data.
+    private static final boolean STREAM_FINAL_MOSAIC = true;
+    private static final int MOSAIC_STRIP_BYTES = 1024 * 1024;
+
+    // The captured frames live in native memory and may take this share of
+    // what the system can spare when the panorama starts.
+    private static final int FRAME_BUDGET_PERCENT = 40;
+
+    // Map the captured frames from an app-private file. A sweep interrupted
+    // by onPause() is then kept there and stitched on resume, and the
+    // system can page out the frames of a long sweep. Off until the cost of
+    // writing the frames back during a sweep has been measured on devices.
+    private static final boolean SPILL_SWEEP = false;
+    private static final String SPILL_FILE_NAME = "panorama_sweep";
+
+    // Refresh the live mosaic above the preview at most this often while
+    // capturing. Copying it takes about a millisecond on the UI thread.
+    private static final int LIVE_MOSAIC_INTERVAL_MS = 250;
+
     private ContentResolver mContentResolver;
 
     private GLRootView mGLRootView;
@@ -112,6 +139,9 @@ public class PanoramaModule implements CameraModule,
     private View mReviewLayout;
     private ImageView mReview;
     private View mCaptureIndicator;
+    private ImageView mLiveMosaicView;
+    private Bitmap mLiveMosaic;
+    private long mLastLiveMosaicTime;
     private PanoProgressBar mPanoProgressBar;
     private PanoProgressBar mSavingProgressBar;
     private Matrix mProgressDirectionMatrix = new Matrix();
@@ -122,7 +152,11 @@ public class PanoramaModule implements CameraModule,
     private MosaicPreviewRenderer mMosaicPreviewRenderer;
     private TextView mTooFastPrompt;
     private ShutterButton mShutterButton;
-    private Object mWaitObject = new Object();
+
+    // Runs the stitching and saving of all the panorama instances, one at a
+    // time, since they share the native mosaic. Created on the main thread.
+    private static BackgroundJobScheduler sJobScheduler;
+    private BackgroundJobScheduler.Job mHighResJob;
 
     private DateFormat mGPSDateStampFormat;
     private DateFormat mGPSTimeStampFormat;
@@ -145,6 +179,8 @@ public class PanoramaModule implements CameraModule,
     private PowerManager.WakeLock mPartialWakeLock;
     private MosaicFrameProcessor mMosaicFrameProcessor;
     private boolean mMosaicFrameProcessorInitialized;
+    // A sweep was interrupted by onPause() and is kept in the spill file.
+    private boolean mSweepSuspended;
     private AsyncTask <Void, Void, Void> mWaitProcessorTask;
     private long mTimeTaken;
     private Handler mMainHandler;
@@ -178,8 +214,18 @@ public class PanoramaModule implements CameraModule,
     private boolean mPaused;
 
     private class MosaicJpeg {
-        public MosaicJpeg(byte[] data, int width, int height) {
+        public MosaicJpeg(byte[] data, int length, int width, int height) {
             this.data = data;
+            this.length = length;
+            this.width = width;
+            this.height = height;
+            this.isValid = true;
+        }
+
+        // The JPEG has already been written to the panorama file.
+        public MosaicJpeg(int length, int width, int height) {
+            this.data = null;
+            this.length = length;
             this.width = width;
             this.height = height;
             this.isValid = true;
@@ -187,15 +233,24 @@ public class PanoramaModule implements CameraModule,
 
         public MosaicJpeg() {
             this.data = null;
+            this.length = 0;
             this.width = 0;
             this.height = 0;
             this.isValid = false;
         }
 
+        // From the shared BufferArena. Only the first length bytes are
+        // valid. Call release() when done with the data. Null if the JPEG is
+        // already in the file.
         public final byte[] data;
+        public final int length;
         public final int width;
         public final int height;
         public final boolean isValid;
+
+        public void release() {
+            BufferArena.getShared().recycle(data);
+        }
     }
 
     private class PanoOrientationEventListener extends OrientationEventListener {
@@ -250,8 +305,9 @@ public class PanoramaModule implements CameraModule,
                     if (mCaptureState == CAPTURE_STATE_VIEWFINDER) {
                         mMosaicPreviewRenderer.showPreviewFrame();
                     } else {
-                        mMosaicPreviewRenderer.alignFrameSync();
-                        mMosaicFrameProcessor.processFrame();
+                        if (mMosaicPreviewRenderer.alignFrame()) {
+                            mMosaicFrameProcessor.processFrame();
+                        }
                     }
                 }
             }
@@ -270,6 +326,11 @@ public class PanoramaModule implements CameraModule,
         mOrientationEventListener = new PanoOrientationEventListener(mActivity);
 
         mMosaicFrameProcessor = MosaicFrameProcessor.getInstance();
+        // A sweep suspended by an earlier instance can no longer be resumed.
+        deleteSpillFiles();
+        if (sJobScheduler == null) {
+            sJobScheduler = new BackgroundJobScheduler("PanoramaJobs");
+        }
 
         Resources appRes = mActivity.getResources();
         mPreparePreviewString = appRes.getString(R.string.pano_dialog_prepare_preview);
@@ -310,6 +371,16 @@ public class PanoramaModule implements CameraModule,
                         resetToPreview();
                         clearMosaicFrameProcessorIfNeeded();
                         break;
+                    case MSG_SAVE_MOSAIC_ERROR:
+                        // Stitched, but not saved. Do not get in the way of
+                        // the next panorama.
+                        if (!mPaused && !mThreadRunning
+                                && mCaptureState == CAPTURE_STATE_VIEWFINDER) {
+                            mRotateDialog.showAlertDialog(
+                                    mDialogTitle, mDialogPanoramaFailedString,
+                                    mDialogOkString, null, null, null);
+                        }
+                        break;
                     case MSG_CLEAR_SCREEN_DELAY:
                         mActivity.getWindow().clearFlags(WindowManager.LayoutParams.
                                 FLAG_KEEP_SCREEN_ON);
@@ -442,7 +513,8 @@ public class PanoramaModule implements CameraModule,
                 w,
                 h,
                 isLandscape,
-                mCameraOrientation);
+                mCameraOrientation,
+                ASYNC_READBACK);
 
         mCameraTexture = mMosaicPreviewRenderer.getInputSurfaceTexture();
         if (!mPaused && !mThreadRunning && mWaitProcessorTask == null) {
@@ -499,6 +571,7 @@ public class PanoramaModule implements CameraModule,
         mShutterButton.setImageResource(R.drawable.btn_shutter_recording);
         mCaptureState = CAPTURE_STATE_MOSAIC;
         mCaptureIndicator.setVisibility(View.VISIBLE);
+        mLastLiveMosaicTime = 0;
         showDirectionIndicators(PanoProgressBar.DIRECTION_NONE);
 
         mMosaicFrameProcessor.setProgressListener(new MosaicFrameProcessor.ProgressListener() {
@@ -543,6 +616,7 @@ public class PanoramaModule implements CameraModule,
     private void stopCapture(boolean aborted) {
         mCaptureState = CAPTURE_STATE_VIEWFINDER;
         mCaptureIndicator.setVisibility(View.GONE);
+        hideLiveMosaic();
         hideTooFastIndication();
         hideDirectionIndicators();
 
@@ -556,26 +630,31 @@ public class PanoramaModule implements CameraModule,
             // Hide shutter button, shutter icon, etc when waiting for
             // panorama to stitch
             mActivity.hideUI();
-            runBackgroundThread(new Thread() {
+            runBackgroundJob(new BackgroundJobScheduler.Job("LowResMosaic",
+                    BackgroundJobScheduler.PRIORITY_HIGH) {
                 @Override
-                public void run() {
-                    MosaicJpeg jpeg = generateFinalMosaic(false);
-
-                    if (jpeg != null && jpeg.isValid) {
-                        Bitmap bitmap = null;
-                        bitmap = BitmapFactory.decodeByteArray(jpeg.data, 0, jpeg.data.length);
-                        mMainHandler.sendMessage(mMainHandler.obtainMessage(
-                                MSG_LOW_RES_FINAL_MOSAIC_READY, bitmap));
-                    } else {
-                        mMainHandler.sendMessage(mMainHandler.obtainMessage(
-                                MSG_RESET_TO_PREVIEW));
-                    }
+                protected void run(BackgroundJobScheduler.CancellationToken token) {
+                    generateLowResMosaic();
                 }
             });
         }
         keepScreenOnAwhile();
     }
 
+    // Runs in the background. Shows the low-res mosaic, which then starts
+    // the high-res one, or goes back to the preview.
+    private void generateLowResMosaic() {
+        Bitmap bitmap = mMosaicFrameProcessor.createLowResMosaic();
+
+        if (bitmap != null) {
+            mMainHandler.sendMessage(mMainHandler.obtainMessage(
+                    MSG_LOW_RES_FINAL_MOSAIC_READY, bitmap));
+        } else {
+            mMainHandler.sendMessage(mMainHandler.obtainMessage(
+                    MSG_RESET_TO_PREVIEW));
+        }
+    }
+
     private void showTooFastIndication() {
         mTooFastPrompt.setVisibility(View.VISIBLE);
         // The PreviewArea also contains the border for "too fast" indication.
@@ -617,6 +696,38 @@ public class PanoramaModule implements CameraModule,
                 ? (int) mProgressAngle[0]
                 : (int) mProgressAngle[1];
         mPanoProgressBar.setProgress((angleInMajorDirection));
+
+        updateLiveMosaic();
+    }
+
+    // Shows the frames aligned so far above the preview, in place of the
+    // capture indication.
+    private void updateLiveMosaic() {
+        long now = SystemClock.uptimeMillis();
+        if (now - mLastLiveMosaicTime < LIVE_MOSAIC_INTERVAL_MS) return;
+        mLastLiveMosaicTime = now;
+
+        Bitmap bitmap = mMosaicFrameProcessor.copyLiveMosaic(mLiveMosaic);
+        if (bitmap == null) return;
+        if (bitmap != mLiveMosaic) {
+            mLiveMosaic = bitmap;
+            if (getCaptureOrientation() >= 180) {
+                mLiveMosaicView.setImageDrawable(new FlipBitmapDrawable(
+                        mActivity.getResources(), bitmap));
+            } else {
+                mLiveMosaicView.setImageBitmap(bitmap);
+            }
+        } else {
+            mLiveMosaicView.invalidate();
+        }
+        mCaptureIndicator.setVisibility(View.GONE);
+        mLiveMosaicView.setVisibility(View.VISIBLE);
+    }
+
+    private void hideLiveMosaic() {
+        mLiveMosaicView.setVisibility(View.GONE);
+        mLiveMosaicView.setImageDrawable(null);
+        mLiveMosaic = null;
     }
 
     private void setViews(Resources appRes) {
@@ -651,6 +762,7 @@ public class PanoramaModule implements CameraModule,
         mSavingProgressBar.setDoneColor(appRes.getColor(R.color.pano_progress_indication));
 
         mCaptureIndicator = mRootView.findViewById(R.id.pano_capture_indicator);
+        mLiveMosaicView = (ImageView) mRootView.findViewById(R.id.pano_live_mosaic);
 
         mReviewLayout = mRootView.findViewById(R.id.pano_review_layout);
         mReview = (ImageView) mRootView.findViewById(R.id.pano_reviewarea);
@@ -708,36 +820,6 @@ public class PanoramaModule implements CameraModule,
     public void onShutterButtonFocus(boolean pressed) {
     }
 
-    public void reportProgress() {
-        mSavingProgressBar.reset();
-        mSavingProgressBar.setRightIncreasing(true);
-        Thread t = new Thread() {
-            @Override
-            public void run() {
-                while (mThreadRunning) {
-                    final int progress = mMosaicFrameProcessor.reportProgress(
-                            true, mCancelComputation);
-
-                    try {
-                        synchronized (mWaitObject) {
-                            mWaitObject.wait(50);
-                        }
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException("Panorama reportProgress failed", e);
-                    }
-                    // Update the progress bar
-                    mActivity.runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            mSavingProgressBar.setProgress(progress);
-                        }
-                    });
-                }
-            }
-        };
-        t.start();
-    }
-
     private int getCaptureOrientation() {
         // The panorama image returned from the library is oriented based on the
         // natural orientation of a camera. We need to set an orientation for the image
@@ -757,39 +839,117 @@ public class PanoramaModule implements CameraModule,
     }
 
     public void saveHighResMosaic() {
-        runBackgroundThread(new Thread() {
+        mSavingProgressBar.reset();
+        mSavingProgressBar.setRightIncreasing(true);
+        mHighResJob = new HighResMosaicJob(mTimeTaken, getCaptureOrientation());
+        mHighResJob.setProgressListener(new BackgroundJobScheduler.ProgressListener() {
             @Override
-            public void run() {
-                mPartialWakeLock.acquire();
-                MosaicJpeg jpeg;
-                try {
-                    jpeg = generateFinalMosaic(true);
-                } finally {
-                    mPartialWakeLock.release();
+            public void onProgress(BackgroundJobScheduler.Job job, int progress) {
+                mSavingProgressBar.setProgress(progress);
+            }
+        });
+        // Cancelled while the low-res mosaic was prepared.
+        if (mCancelComputation) mHighResJob.cancel();
+        runBackgroundJob(mHighResJob);
+    }
+
+    // Stitches the high-res mosaic, then has it saved by a SaveMosaicJob and
+    // goes back to the preview. Only the stitching needs the frames, so the
+    // next sweep can be captured while the mosaic is saved.
+    private class HighResMosaicJob extends BackgroundJobScheduler.Job {
+        private final long mTimeTaken;
+        private final int mOrientation;
+
+        HighResMosaicJob(long timeTaken, int orientation) {
+            super("HighResMosaic", BackgroundJobScheduler.PRIORITY_NORMAL);
+            mTimeTaken = timeTaken;
+            mOrientation = orientation;
+        }
+
+        @Override
+        protected void run(BackgroundJobScheduler.CancellationToken token) {
+            if (token.isCancelled()) {
+                mMainHandler.sendEmptyMessage(MSG_RESET_TO_PREVIEW);
+                return;
+            }
+            int ret;
+            mPartialWakeLock.acquire();
+            // Pass a cancel on to the native code, which does not see the
+            // token. It is cleared first as it may be left from an earlier
+            // mosaic.
+            mMosaicFrameProcessor.setMosaicCancelled(true, false);
+            token.setOnCancelListener(new Runnable() {
+                @Override
+                public void run() {
+                    mMosaicFrameProcessor.setMosaicCancelled(true, true);
                 }
+            });
+            try {
+                ret = mMosaicFrameProcessor.createMosaic(true, new Mosaic.ProgressListener() {
+                    @Override
+                    public void onProgress(int progress) {
+                        publishProgress(progress);
+                    }
+                });
+            } finally {
+                token.setOnCancelListener(null);
+                mPartialWakeLock.release();
+            }
 
-                if (jpeg == null) {  // Cancelled by user.
-                    mMainHandler.sendEmptyMessage(MSG_RESET_TO_PREVIEW);
-                } else if (!jpeg.isValid) {  // Error when generating mosaic.
-                    mMainHandler.sendEmptyMessage(MSG_GENERATE_FINAL_MOSAIC_ERROR);
-                } else {
-                    int orientation = getCaptureOrientation();
-                    Uri uri = savePanorama(jpeg.data, jpeg.width, jpeg.height, orientation);
+            if (ret == Mosaic.MOSAIC_RET_CANCELLED) {
+                mMainHandler.sendEmptyMessage(MSG_RESET_TO_PREVIEW);
+            } else if (ret == Mosaic.MOSAIC_RET_ERROR) {
+                mMainHandler.sendEmptyMessage(MSG_GENERATE_FINAL_MOSAIC_ERROR);
+            } else {
+                // Queued before the high-res job of the next sweep, which
+                // would replace the mosaic.
+                sJobScheduler.submit(new SaveMosaicJob(mTimeTaken, mOrientation));
+                mMainHandler.sendEmptyMessage(MSG_RESET_TO_PREVIEW);
+            }
+        }
+
+        @Override
+        protected void onCancelled() {
+            mMainHandler.sendEmptyMessage(MSG_RESET_TO_PREVIEW);
+        }
+    }
+
+    // Encodes the stitched mosaic into the panorama file. It must have the
+    // same priority as HighResMosaicJob so they run in order.
+    private class SaveMosaicJob extends BackgroundJobScheduler.Job {
+        private final long mTimeTaken;
+        private final int mOrientation;
+
+        SaveMosaicJob(long timeTaken, int orientation) {
+            super("SaveMosaic", BackgroundJobScheduler.PRIORITY_NORMAL);
+            mTimeTaken = timeTaken;
+            mOrientation = orientation;
+        }
+
+        @Override
+        protected void run(BackgroundJobScheduler.CancellationToken token) {
+            MosaicJpeg jpeg;
+            mPartialWakeLock.acquire();
+            try {
+                jpeg = encodeFinalMosaic(mTimeTaken);
+                if (jpeg.isValid) {
+                    Uri uri = savePanorama(jpeg, mOrientation, mTimeTaken);
+                    jpeg.release();
                     if (uri != null) {
                         mActivity.addSecureAlbumItemIfNeeded(false, uri);
                         Util.broadcastNewPicture(mActivity, uri);
                     }
-                    mMainHandler.sendMessage(
-                            mMainHandler.obtainMessage(MSG_RESET_TO_PREVIEW));
                 }
+            } finally {
+                mPartialWakeLock.release();
             }
-        });
-        reportProgress();
+            if (!jpeg.isValid) mMainHandler.sendEmptyMessage(MSG_SAVE_MOSAIC_ERROR);
+        }
     }
 
-    private void runBackgroundThread(Thread thread) {
+    private void runBackgroundJob(BackgroundJobScheduler.Job job) {
         mThreadRunning = true;
-        thread.start();
+        sJobScheduler.submit(job);
     }
 
     private void onBackgroundThreadFinished() {
@@ -799,9 +959,7 @@ public class PanoramaModule implements CameraModule,
 
     private void cancelHighResComputation() {
         mCancelComputation = true;
-        synchronized (mWaitObject) {
-            mWaitObject.notify();
-        }
+        if (mHighResJob != null) mHighResJob.cancel();
     }
 
     // This function will be called upon the first camera frame is available.
@@ -866,22 +1024,26 @@ public class PanoramaModule implements CameraModule,
         mReviewLayout.setVisibility(View.VISIBLE);
     }
 
-    private Uri savePanorama(byte[] jpegData, int width, int height, int orientation) {
-        if (jpegData != null) {
-            String filename = PanoUtil.createName(
-                    mActivity.getResources().getString(R.string.pano_file_name_format), mTimeTaken);
+    private String getPanoramaTitle(long timeTaken) {
+        return PanoUtil.createName(
+                mActivity.getResources().getString(R.string.pano_file_name_format), timeTaken);
+    }
+
+    private Uri savePanorama(MosaicJpeg jpeg, int orientation, long timeTaken) {
+        if (jpeg.isValid) {
+            String filename = getPanoramaTitle(timeTaken);
             String filepath = Storage.generateFilepath(filename);
-            Storage.writeFile(filepath, jpegData);
+            if (jpeg.data != null) Storage.writeFile(filepath, jpeg.data, jpeg.length);
 
             // Add Exif tags.
             try {
                 ExifInterface exif = new ExifInterface(filepath);
                 exif.setAttribute(ExifInterface.TAG_GPS_DATESTAMP,
-                        mGPSDateStampFormat.format(mTimeTaken));
+                        mGPSDateStampFormat.format(timeTaken));
                 exif.setAttribute(ExifInterface.TAG_GPS_TIMESTAMP,
-                        mGPSTimeStampFormat.format(mTimeTaken));
+                        mGPSTimeStampFormat.format(timeTaken));
                 exif.setAttribute(ExifInterface.TAG_DATETIME,
-                        mDateTimeStampFormat.format(mTimeTaken));
+                        mDateTimeStampFormat.format(timeTaken));
                 exif.setAttribute(ExifInterface.TAG_ORIENTATION,
                         getExifOrientation(orientation));
                 exif.saveAttributes();
@@ -889,9 +1051,9 @@ public class PanoramaModule implements CameraModule,
                 Log.e(TAG, "Cannot set EXIF for " + filepath, e);
             }
 
-            int jpegLength = (int) (new File(filepath).length());
-            return Storage.addImage(mContentResolver, filename, mTimeTaken,
-                    null, orientation, jpegLength, filepath, width, height);
+            int fileLength = (int) (new File(filepath).length());
+            return Storage.addImage(mContentResolver, filename, timeTaken,
+                    null, orientation, fileLength, filepath, jpeg.width, jpeg.height);
         }
         return null;
     }
@@ -923,11 +1085,68 @@ public class PanoramaModule implements CameraModule,
 
     private void initMosaicFrameProcessorIfNeeded() {
         if (mPaused || mThreadRunning) return;
+        configureMosaicFrameProcessor();
         mMosaicFrameProcessor.initialize(
                 mPreviewWidth, mPreviewHeight, getPreviewBufSize());
         mMosaicFrameProcessorInitialized = true;
     }
 
+    private void configureMosaicFrameProcessor() {
+        mMosaicFrameProcessor.setFrameBudget(getFrameBudget());
+        mMosaicFrameProcessor.setSpillFile(SPILL_SWEEP
+                ? new File(mActivity.getFilesDir(), SPILL_FILE_NAME).getPath()
+                : null);
+    }
+
+    private void deleteSpillFiles() {
+        for (String suffix : new String[] {".lr", ".hr"}) {
+            File file = new File(mActivity.getFilesDir(), SPILL_FILE_NAME + suffix);
+            if (file.delete()) Log.v(TAG, "Deleted stale " + file);
+        }
+    }
+
+    // Stitches the sweep kept by onPause() as if the capture had just been
+    // stopped. Loading it aligns its low-res frames again, so it is done in
+    // the background too. Returns false if there is no such sweep.
+    private boolean resumeSuspendedSweepIfNeeded() {
+        if (!mSweepSuspended || mPaused || mThreadRunning) return false;
+        mSweepSuspended = false;
+        configureMosaicFrameProcessor();
+        mMosaicFrameProcessorInitialized = true;
+
+        final int width = mPreviewWidth;
+        final int height = mPreviewHeight;
+        final int bufSize = getPreviewBufSize();
+        mRotateDialog.showWaitingDialog(mPreparePreviewString);
+        mActivity.hideUI();
+        runBackgroundJob(new BackgroundJobScheduler.Job("ResumeSweep",
+                BackgroundJobScheduler.PRIORITY_HIGH) {
+            @Override
+            protected void run(BackgroundJobScheduler.CancellationToken token) {
+                if (mMosaicFrameProcessor.resume(width, height, bufSize)) {
+                    generateLowResMosaic();
+                } else {
+                    // Lost, or taken with another preview size.
+                    mMosaicFrameProcessor.initialize(width, height, bufSize);
+                    mMainHandler.sendMessage(mMainHandler.obtainMessage(
+                            MSG_RESET_TO_PREVIEW));
+                }
+            }
+        });
+        return true;
+    }
+
+    private long getFrameBudget() {
+        ActivityManager am = (ActivityManager) mActivity.getSystemService(
+                Context.ACTIVITY_SERVICE);
+        ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+        am.getMemoryInfo(info);
+        // Stay clear of the point where the system starts killing
+        // background apps.
+        long spare = info.availMem - info.threshold;
+        return Math.max(0, spare / 100 * FRAME_BUDGET_PERCENT);
+    }
+
     @Override
     public void onPauseBeforeSuper() {
         mPaused = true;
@@ -936,6 +1155,7 @@ public class PanoramaModule implements CameraModule,
     @Override
     public void onPauseAfterSuper() {
         mOrientationEventListener.disable();
+        BufferArena.getShared().trim();
         if (mCameraDevice == null) {
             // Camera open failed. Nothing should be done here.
             return;
@@ -943,6 +1163,10 @@ public class PanoramaModule implements CameraModule,
         // Stop the capturing first.
         if (mCaptureState == CAPTURE_STATE_MOSAIC) {
             stopCapture(true);
+            // Keep the frames to stitch them on resume rather than losing
+            // the sweep.
+            mSweepSuspended = SPILL_SWEEP && mMosaicFrameProcessorInitialized
+                    && mMosaicFrameProcessor.suspend();
             reset();
         }
 
@@ -1039,7 +1263,7 @@ public class PanoramaModule implements CameraModule,
             if (!mThreadRunning) mGLRootView.setVisibility(View.VISIBLE);
             // Camera must be initialized before MosaicFrameProcessor is
             // initialized. The preview size has to be decided by camera device.
-            initMosaicFrameProcessorIfNeeded();
+            if (!resumeSuspendedSweepIfNeeded()) initMosaicFrameProcessorIfNeeded();
             int w = mPreviewArea.getWidth();
             int h = mPreviewArea.getHeight();
             if (w != 0 && h != 0) {  // The layout has been calculated.
@@ -1054,19 +1278,17 @@ public class PanoramaModule implements CameraModule,
     }
 
     /**
-     * Generate the final mosaic image.
+     * Encode the created high-res mosaic.
      *
-     * @param highRes flag to indicate whether we want to get a high-res version.
-     * @return a MosaicJpeg with its isValid flag set to true if successful; null if the generation
-     *         process is cancelled; and a MosaicJpeg with its isValid flag set to false if there
-     *         is an error in generating the final mosaic.
+     * @param timeTaken when the panorama was taken, which names its file.
+     * @return a MosaicJpeg with its isValid flag set to true if successful, and to false if
+     *         there is an error in encoding the mosaic.
      */
-    public MosaicJpeg generateFinalMosaic(boolean highRes) {
-        int mosaicReturnCode = mMosaicFrameProcessor.createMosaic(highRes);
-        if (mosaicReturnCode == Mosaic.MOSAIC_RET_CANCELLED) {
-            return null;
-        } else if (mosaicReturnCode == Mosaic.MOSAIC_RET_ERROR) {
-            return new MosaicJpeg();
+    private MosaicJpeg encodeFinalMosaic(long timeTaken) {
+        if (STREAM_FINAL_MOSAIC) {
+            MosaicJpeg jpeg = streamFinalMosaic(timeTaken);
+            if (jpeg != null) return jpeg;
+            // The mosaic is still there; encode it as a whole instead.
         }
 
         byte[] imageData = mMosaicFrameProcessor.getFinalMosaicNV21();
@@ -1090,15 +1312,70 @@ public class PanoramaModule implements CameraModule,
         }
 
         YuvImage yuvimage = new YuvImage(imageData, ImageFormat.NV21, width, height, null);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        yuvimage.compressToJpeg(new Rect(0, 0, width, height), 100, out);
-        try {
-            out.close();
-        } catch (Exception e) {
-            Log.e(TAG, "Exception in storing final mosaic", e);
+        // The encoded data stays in the arena buffer; it is not copied out.
+        // Quality 100 JPEG is typically a third of the NV21 size.
+        ArenaOutputStream out = new ArenaOutputStream(BufferArena.getShared(), len / 3);
+        if (!yuvimage.compressToJpeg(new Rect(0, 0, width, height), 100, out)) {
+            Log.e(TAG, "Failed to compress final mosaic");
+            out.release();
             return new MosaicJpeg();
         }
-        return new MosaicJpeg(out.toByteArray(), width, height);
+        return new MosaicJpeg(out.getBuffer(), out.size(), width, height);
+    }
+
+    /**
+     * Encodes the created mosaic into the panorama file one strip at a time.
+     * Only one NV21 strip and its JPEG are in memory at any time.
+     *
+     * @return a valid MosaicJpeg without data if the file is written; null if
+     *         the strips could not be encoded or joined. The mosaic is only
+     *         released on success.
+     */
+    private MosaicJpeg streamFinalMosaic(long timeTaken) {
+        int[] size = mMosaicFrameProcessor.getFinalMosaicSize();
+        if (size == null || size[0] <= 0 || size[1] <= 0) return null;
+        int width = size[0];
+        int height = size[1];
+        int stripHeight = Math.min(
+                JpegStripWriter.getStripHeight(width, MOSAIC_STRIP_BYTES), height);
+        Log.v(TAG, "Streaming mosaic W = " + width + ", H = " + height
+                + ", strip = " + stripHeight);
+
+        BufferArena arena = BufferArena.getShared();
+        byte[] strip = arena.obtainArray(width * (stripHeight + (stripHeight + 1) / 2));
+        int[] strides = new int[] {width, width};
+        ArenaOutputStream stripJpeg = new ArenaOutputStream(arena, strip.length / 3);
+        ImageFileWriter.Output out = null;
+        try {
+            out = Storage.openFile(Storage.generateFilepath(getPanoramaTitle(timeTaken)));
+            JpegStripWriter writer = new JpegStripWriter(out, width, height, stripHeight);
+            for (int top = 0; top < height; top += stripHeight) {
+                int rows = mMosaicFrameProcessor.getFinalMosaicNV21Strip(
+                        strip, top, stripHeight);
+                if (rows <= 0) throw new IOException("Cannot read mosaic rows " + top);
+                YuvImage yuvimage = new YuvImage(strip, ImageFormat.NV21, width, rows,
+                        strides);
+                stripJpeg.reset();
+                if (!yuvimage.compressToJpeg(new Rect(0, 0, width, rows), 100, stripJpeg)) {
+                    throw new IOException("Failed to compress rows " + top);
+                }
+                writer.writeStrip(stripJpeg.getBuffer(), stripJpeg.size());
+            }
+            writer.finish();
+            int length = (int) out.size();
+            boolean written = out.commit();
+            out = null;
+            if (!written) return null;
+            mMosaicFrameProcessor.releaseFinalMosaic();
+            return new MosaicJpeg(length, width, height);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot stream the final mosaic", e);
+            return null;
+        } finally {
+            if (out != null) out.abort();
+            stripJpeg.release();
+            arena.recycle(strip);
+        }
     }
 
     private void startCameraPreview() {
@@ -28,6 +28,7 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -52,6 +53,8 @@ import android.os.Message;
 import android.os.MessageQueue;
 import android.os.SystemClock;
 import android.provider.MediaStore;
+import android.provider.MediaStore.Images;
+import android.provider.MediaStore.Images.ImageColumns;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.KeyEvent;
@@ -74,6 +77,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.android.camera.CameraManager.CameraProxy;
+import com.android.camera.ImageSavePipeline.SaveRequest;
 import com.android.camera.ui.AbstractSettingPopup;
 import com.android.camera.ui.FaceView;
 import com.android.camera.ui.PieRenderer;
@@ -93,6 +97,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Formatter;
@@ -243,12 +248,15 @@ public class PhotoModule
     // A view group that contains all the small indicators.
     private View mOnScreenIndicators;
 
-    // We use a thread in ImageSaver to do the work of saving images. This
-    // reduces the shot-to-shot time.
-    private ImageSaver mImageSaver;
+    // We use the threads in ImageSavePipeline to do the work of saving images.
+    // This reduces the shot-to-shot time.
+    private ImageSavePipeline mImageSaver;
     // Similarly, we use a thread to generate the name of the picture and insert
     // it into MediaStore while picture taking is still in progress.
     private ImageNamer mImageNamer;
+    // Both of them reach MediaStore through the batcher, which coalesces the
+    // provider calls of back-to-back shots.
+    private MediaStoreBatcher mMediaBatcher;
 
     private Runnable mDoSnapRunnable = new Runnable() {
         @Override
@@ -279,6 +287,12 @@ public class PhotoModule
     private int mDisplayOrientation;
     // The value for android.hardware.Camera.Parameters.setRotation.
     private int mJpegRotation;
+    // If true, rotation, date and location are written into the JPEG by the
+    // image saver instead of being handed to the camera before the capture.
+    // This takes a setParameters() out of the shutter path.
+    private static final boolean PATCH_EXIF_ENABLED =
+            SystemProperties.getBoolean("persist.camera.exif.patch", true);
+    private boolean mPatchExif;
     private boolean mFirstTimeInitialized;
     private boolean mIsImageCaptureIntent;
 
@@ -371,7 +385,10 @@ public class PhotoModule
                 // We need to check whether the activity is paused before long
                 // operations to ensure that onPause() can be done ASAP.
                 if (mCancelled) return;
+                long openStart = SystemClock.uptimeMillis();
                 mCameraDevice = Util.openCamera(mActivity, mCameraId);
+                CaptureMetrics.recordMillis(CaptureMetrics.CAMERA_OPEN,
+                        SystemClock.uptimeMillis() - openStart);
                 mParameters = mCameraDevice.getParameters();
                 // Wait until all the initialization needed by startPreview are
                 // done.
@@ -713,8 +730,11 @@ public class PhotoModule
         mShutterButton.setOnShutterButtonListener(this);
         mShutterButton.setVisibility(View.VISIBLE);
 
-        mImageSaver = new ImageSaver();
+        mMediaBatcher = new MediaStoreBatcher(
+                MediaStoreBatcher.createResolverBackend(mContentResolver));
         mImageNamer = new ImageNamer();
+        mImageSaver = new ImageSavePipeline(
+                new ImageSaver(mImageNamer.getPool()));
 
         mGraphView = (GraphView)mRootView.findViewById(R.id.graph_view);
         if(mGraphView == null){
@@ -758,8 +778,11 @@ public class PhotoModule
                 mPreferences, mContentResolver);
         mLocationManager.recordLocation(recordLocation);
 
-        mImageSaver = new ImageSaver();
+        mMediaBatcher = new MediaStoreBatcher(
+                MediaStoreBatcher.createResolverBackend(mContentResolver));
         mImageNamer = new ImageNamer();
+        mImageSaver = new ImageSavePipeline(
+                new ImageSaver(mImageNamer.getPool()));
         initializeZoom();
         keepMediaProviderInstance();
         hidePostCaptureAlert();
@@ -838,7 +861,7 @@ public class PhotoModule
                     mFaceView.setFaces(faces);
                 }
             });
-            mCameraDevice.startFaceDetection();
+            mCameraDevice.startFaceDetectionAsync();
         }
     }
 
@@ -968,6 +991,7 @@ public class PhotoModule
             mShutterCallbackTime = System.currentTimeMillis();
             mShutterLag = mShutterCallbackTime - mCaptureStartTime;
             Log.v(TAG, "mShutterLag = " + mShutterLag + "ms");
+            CaptureMetrics.recordMillis(CaptureMetrics.SHUTTER, mShutterLag);
         }
     }
 
@@ -1037,6 +1061,8 @@ public class PhotoModule
             Log.v(TAG, "mShutterToPostViewCallbackTime = "
                     + (mPostViewPictureCallbackTime - mShutterCallbackTime)
                     + "ms");
+            CaptureMetrics.recordMillis(CaptureMetrics.POSTVIEW,
+                    mPostViewPictureCallbackTime - mShutterCallbackTime);
         }
     }
 
@@ -1047,6 +1073,8 @@ public class PhotoModule
             mRawPictureCallbackTime = System.currentTimeMillis();
             Log.v(TAG, "mShutterToRawCallbackTime = "
                     + (mRawPictureCallbackTime - mShutterCallbackTime) + "ms");
+            CaptureMetrics.recordMillis(CaptureMetrics.RAW,
+                    mRawPictureCallbackTime - mShutterCallbackTime);
         }
     }
 
@@ -1074,8 +1102,9 @@ public class PhotoModule
             // raw picture callback.
             if(mSnapshotMode == CameraInfo.CAMERA_SUPPORT_MODE_ZSL) {
                 Log.v(TAG, "In onPictureTaken , in zslmode");
-                mParameters = mCameraDevice.getParameters();
-                mBurstSnapNum = mParameters.getInt("num-snaps-per-shutter");
+                // Answered from the parameters cache after the first picture.
+                mBurstSnapNum = mCameraDevice.getIntParameter(
+                        "num-snaps-per-shutter", mBurstSnapNum);
             }
             Log.v(TAG, "In onPictureTaken JpegPictureCallback, mReceivedSnapNum = " + mReceivedSnapNum);
             Log.v(TAG, "In onPictureTaken JpegPictureCallback, mBurstSnapNum = " + mBurstSnapNum);
@@ -1092,6 +1121,8 @@ public class PhotoModule
             }
             Log.v(TAG, "mPictureDisplayedToJpegCallbackTime = "
                     + mPictureDisplayedToJpegCallbackTime + "ms");
+            CaptureMetrics.recordMillis(CaptureMetrics.JPEG,
+                    mPictureDisplayedToJpegCallbackTime);
 
             // Only animate when in full screen capture mode
             // i.e. If monkey/a user swipes to the gallery during picture taking,
@@ -1120,7 +1151,9 @@ public class PhotoModule
             if (!mIsImageCaptureIntent) {
                 // Calculate the width and the height of the jpeg.
                 Size s = mParameters.getPictureSize();
-                int orientation = Exif.getOrientation(jpegData);
+                // The saver will set the orientation if mPatchExif is true.
+                int orientation = mPatchExif
+                        ? mJpegRotation : Exif.getOrientation(jpegData);
                 int width, height;
                 if ((mJpegRotation + orientation) % 180 == 0) {
                     width = s.width;
@@ -1143,14 +1176,23 @@ public class PhotoModule
                     }
                 }
 
-                if(mReceivedSnapNum > 1){
-                    mImageNamer.generateUri(); //added to solve zsl
-                }
+                long namerStart = System.nanoTime();
                 Uri uri = mImageNamer.getUri();
-                mActivity.addSecureAlbumItemIfNeeded(false, uri);
-                String title = mImageNamer.getTitle();
-                mImageSaver.addImage(jpegData, uri, title, mLocation,
-                        width, height, orientation);
+                CaptureMetrics.recordNanos(CaptureMetrics.NAMER,
+                        System.nanoTime() - namerStart);
+                if (uri != null) mActivity.addSecureAlbumItemIfNeeded(false, uri);
+                SaveRequest r = new SaveRequest();
+                r.data = jpegData;
+                r.uri = uri;
+                r.title = mImageNamer.getTitle();
+                r.loc = (mLocation == null) ? null : new Location(mLocation);  // make a copy
+                r.width = width;
+                r.height = height;
+                r.orientation = orientation;
+                r.pictureFormat = pictureFormat;
+                r.patchExif = mPatchExif;
+                r.dateTaken = mCaptureStartTime;
+                mImageSaver.submit(r);
             } else {
                 mJpegImageData = jpegData;
                 if (!mQuickCapture) {
@@ -1170,6 +1212,8 @@ public class PhotoModule
             mJpegCallbackFinishTime = now - mJpegPictureCallbackTime;
             Log.v(TAG, "mJpegCallbackFinishTime = "
                     + mJpegCallbackFinishTime + "ms");
+            CaptureMetrics.recordMillis(CaptureMetrics.JPEG_CALLBACK,
+                    mJpegCallbackFinishTime);
             if (mReceivedSnapNum == mBurstSnapNum) {
                 mJpegPictureCallbackTime = 0;
             }
@@ -1230,6 +1274,7 @@ public class PhotoModule
 
             mAutoFocusTime = System.currentTimeMillis() - mFocusStartTime;
             Log.v(TAG, "mAutoFocusTime = " + mAutoFocusTime + "ms");
+            CaptureMetrics.recordMillis(CaptureMetrics.FOCUS, mAutoFocusTime);
             setCameraState(IDLE);
             mFocusManager.onAutoFocus(focused, mShutterButton.isPressed());
         }
@@ -1245,234 +1290,161 @@ public class PhotoModule
         }
     }
 
-    // Each SaveRequest remembers the data needed to save an image.
-    private static class SaveRequest {
-        byte[] data;
-        Uri uri;
-        String title;
-        Location loc;
-        int width, height;
-        int orientation;
-    }
-
-    // We use a queue to store the SaveRequests that have not been completed
-    // yet. The main thread puts the request into the queue. The saver thread
-    // gets it from the queue, does the work, and removes it from the queue.
-    //
-    // The main thread needs to wait for the saver thread to finish all the work
-    // in the queue, when the activity's onPause() is called, we need to finish
-    // all the work, so other programs (like Gallery) can see all the images.
+    // Writes the images submitted to ImageSavePipeline and publishes them to
+    // MediaStore. Both methods run in the pipeline's background threads.
     //
-    // If the queue becomes too long, adding a new request will block the main
-    // thread until the queue length drops below the threshold (QUEUE_LIMIT).
-    // If we don't do this, we may face several problems: (1) We may OOM
-    // because we are holding all the jpeg data in memory. (2) We may ANR
-    // when we need to wait for saver thread finishing all the work (in
-    // onPause() or gotoGallery()) because the time to finishing a long queue
-    // of work may be too long.
-    private class ImageSaver extends Thread {
-        private static final int QUEUE_LIMIT = 3;
-
-        private ArrayList<SaveRequest> mQueue;
-        private boolean mStop;
+    // When the activity's onPause() is called, we need to finish all the
+    // work in the pipeline, so other programs (like Gallery) can see all the
+    // images. The pipeline is bounded by the bytes it holds: if it is full, we
+    // do not start a new capture (see onShutterButtonClick). If we don't do
+    // this, we may OOM because we are holding all the jpeg data in memory, or
+    // ANR when we need to wait for the pipeline in onPause().
+    private class ImageSaver implements ImageSavePipeline.Sink {
+        private final UriPool mPool;
 
-        // Runs in main thread
-        public ImageSaver() {
-            mQueue = new ArrayList<SaveRequest>();
-            start();
+        public ImageSaver(UriPool pool) {
+            mPool = pool;
         }
 
-        // Runs in main thread
-        public void addImage(final byte[] data, Uri uri, String title,
-                Location loc, int width, int height, int orientation) {
-            SaveRequest r = new SaveRequest();
-            r.data = data;
-            r.uri = uri;
-            r.title = title;
-            r.loc = (loc == null) ? null : new Location(loc);  // make a copy
-            r.width = width;
-            r.height = height;
-            r.orientation = orientation;
-            synchronized (this) {
-                while (mQueue.size() >= QUEUE_LIMIT) {
-                    try {
-                        wait();
-                    } catch (InterruptedException ex) {
-                        // ignore.
-                    }
-                }
-                mQueue.add(r);
-                notifyAll();  // Tell saver thread there is new work to do.
-            }
-        }
-
-        // Runs in saver thread
+        // Runs in writer thread
         @Override
-        public void run() {
-            while (true) {
-                SaveRequest r;
-                synchronized (this) {
-                    if (mQueue.isEmpty()) {
-                        notifyAll();  // notify main thread in waitDone
-
-                        // Note that we can only stop after we saved all images
-                        // in the queue.
-                        if (mStop) break;
-
-                        try {
-                            wait();
-                        } catch (InterruptedException ex) {
-                            // ignore.
-                        }
-                        continue;
-                    }
-                    r = mQueue.get(0);
-                }
-                storeImage(r.data, r.uri, r.title, r.loc, r.width, r.height,
-                        r.orientation);
-                synchronized (this) {
-                    mQueue.remove(0);
-                    notifyAll();  // the main thread may wait in addImage
+        public boolean write(SaveRequest r) {
+            long start = System.nanoTime();
+            boolean written;
+            if (!r.patchExif) {
+                r.fileSize = r.data.length;
+                written = Storage.writeImage(r.title, r.data, r.pictureFormat);
+            } else {
+                ByteBuffer[] segments = ExifPatcher.patch(r.data, r.orientation,
+                        r.loc, r.dateTaken);
+                r.fileSize = 0;
+                for (ByteBuffer b : segments) r.fileSize += b.remaining();
+                written = Storage.writeImage(r.title, segments, r.pictureFormat);
+            }
+            if (written) {
+                CaptureMetrics.recordNanos(CaptureMetrics.FILE_WRITE,
+                        System.nanoTime() - start);
+            } else if (r.uri != null) {
+                mPool.release(r.uri);
+            }
+            return written;
+        }
+
+        // Runs in publisher thread. The update is applied later by the
+        // batcher, together with the ones of the next shots, so the returned
+        // uri may not show the picture yet. The row leased from the pool only
+        // has a placeholder path, so the path and date are written too. If
+        // the update fails, a new row is inserted for the picture instead.
+        @Override
+        public Uri publish(SaveRequest r) {
+            final ContentValues values = Storage.getNewImageValues(r.title,
+                    r.dateTaken, r.width, r.height, r.pictureFormat);
+            values.putAll(Storage.getImageInfoValues(r.title, r.loc,
+                    r.orientation, r.fileSize, r.width, r.height,
+                    r.pictureFormat));
+            final long start = System.nanoTime();
+            final MediaStoreBatcher.Callback callback = new MediaStoreBatcher.Callback() {
+                // Runs in batcher thread
+                @Override
+                public void onComplete(MediaStoreBatcher.Op op, Uri result) {
+                    if (result == null) return;
+                    CaptureMetrics.recordNanos(CaptureMetrics.MEDIASTORE_UPDATE,
+                            System.nanoTime() - start);
+                    Util.broadcastNewPicture(mActivity, result);
                 }
-            }
-        }
-
-        // Runs in main thread
-        public void waitDone() {
-            synchronized (this) {
-                while (!mQueue.isEmpty()) {
-                    try {
-                        wait();
-                    } catch (InterruptedException ex) {
-                        // ignore.
+            };
+            if (r.uri != null) {
+                final Uri leased = r.uri;
+                // The pool commits the row once it is updated, or deletes it.
+                mPool.update(leased, values, new MediaStoreBatcher.Callback() {
+                    // Runs in batcher thread
+                    @Override
+                    public void onComplete(MediaStoreBatcher.Op op, Uri result) {
+                        if (result != null) {
+                            callback.onComplete(op, result);
+                            return;
+                        }
+                        Log.w(TAG, "Failed to update " + leased + ", inserting a new row");
+                        mMediaBatcher.insert(Images.Media.EXTERNAL_CONTENT_URI, values,
+                                new MediaStoreBatcher.Callback() {
+                            @Override
+                            public void onComplete(MediaStoreBatcher.Op op, Uri result) {
+                                callback.onComplete(op, result);
+                                if (result != null) addSecureAlbumItem(result);
+                            }
+                        });
                     }
-                }
+                });
+                return leased;
             }
-        }
 
-        // Runs in main thread
-        public void finish() {
-            waitDone();
-            synchronized (this) {
-                mStop = true;
-                notifyAll();
-            }
-            try {
-                join();
-            } catch (InterruptedException ex) {
-                // ignore.
-            }
+            // The pool was empty when the picture arrived. Inserting the row
+            // here only holds up the publisher thread.
+            Uri uri = mMediaBatcher.insert(
+                    Images.Media.EXTERNAL_CONTENT_URI, values, callback).get();
+            if (uri != null) addSecureAlbumItem(uri);
+            return uri;
         }
 
-        // Runs in saver thread
-        private void storeImage(final byte[] data, Uri uri, String title,
-                Location loc, int width, int height, int orientation) {
-            String pictureFormat = mParameters.get(KEY_PICTURE_FORMAT);
-            if(data == null) {
-                Log.v(TAG, "image data null");
-                return;
-            }
-            boolean ok = Storage.updateImage(mContentResolver, uri, title, loc,
-                    orientation, data, width, height, pictureFormat);
-            if (ok) {
-                Util.broadcastNewPicture(mActivity, uri);
-            }
+        private void addSecureAlbumItem(final Uri uri) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mActivity.addSecureAlbumItemIfNeeded(false, uri);
+                }
+            });
         }
     }
 
-    private class ImageNamer extends Thread {
-        private boolean mRequestPending;
-        private ContentResolver mResolver;
+    // Names the pictures and hands out their MediaStore rows. Runs in main
+    // thread and never waits for MediaProvider: the rows are leased from a
+    // pool that is refilled in the background. If the pool is empty (e.g. a
+    // burst right after resume), the picture gets no uri here and its row is
+    // inserted by the publisher thread instead.
+    private class ImageNamer {
+        private final UriPool mPool;
         private long mDateTaken;
-        private int mWidth, mHeight;
-        private boolean mStop;
-        private Uri mUri;
         private String mTitle;
-        private String mPictureFormat;
-        private Parameters mParams;
+
         // Runs in main thread
         public ImageNamer() {
-            start();
+            mPool = new UriPool(mMediaBatcher, Images.Media.EXTERNAL_CONTENT_URI,
+                    UriPool.DEFAULT_SIZE);
         }
 
         // Runs in main thread
-        public synchronized void prepareUri(ContentResolver resolver,
-                long dateTaken, int width, int height, int rotation) {
-            if (rotation % 180 != 0) {
-                int tmp = width;
-                width = height;
-                height = tmp;
-            }
-            mRequestPending = true;
-            mResolver = resolver;
+        public void prepareUri(long dateTaken) {
             mDateTaken = dateTaken;
-            mWidth = width;
-            mHeight = height;
-            notifyAll();
         }
 
-        // Runs in main thread
-        public synchronized Uri getUri() {
-            // wait until the request is done.
-            while (mRequestPending) {
-                try {
-                    wait();
-                } catch (InterruptedException ex) {
-                    // ignore.
-                }
-            }
+        // Runs in main thread. Makes sure there is a row for each picture of
+        // a burst.
+        public void reserveBurstUris(int count) {
+            mPool.ensureCapacity(count);
+        }
 
-            // return the uri generated
-            Uri uri = mUri;
-            mUri = null;
-            return uri;
+        // Runs in main thread. Returns the row of the next picture, or null if
+        // none is ready. Never blocks.
+        public Uri getUri() {
+            // Util.createJpegName() makes the title unique, even if all the
+            // pictures of a burst have the same date.
+            mTitle = Util.createJpegName(mDateTaken);
+            return mPool.lease();
         }
 
         // Runs in main thread, should be called after getUri().
-        public synchronized String getTitle() {
+        public String getTitle() {
             return mTitle;
         }
 
-        // Runs in namer thread
-        @Override
-        public synchronized void run() {
-            while (true) {
-                if (mStop) break;
-                if (!mRequestPending) {
-                    try {
-                        wait();
-                    } catch (InterruptedException ex) {
-                        // ignore.
-                    }
-                    continue;
-                }
-                cleanOldUri();
-                generateUri();
-                mRequestPending = false;
-                notifyAll();
-            }
-            cleanOldUri();
-        }
-
-        // Runs in main thread
-        public synchronized void finish() {
-            mStop = true;
-            notifyAll();
+        // Runs in writer or publisher thread
+        public UriPool getPool() {
+            return mPool;
         }
 
-        // Runs in namer thread
-        private void generateUri() {
-            mTitle = Util.createJpegName(mDateTaken);
-            mParams = mCameraDevice.getParameters();
-            String pictureFormat = mParams.get(KEY_PICTURE_FORMAT);
-            mUri = Storage.newImage(mResolver, mTitle, mDateTaken, mWidth, mHeight, pictureFormat);
-        }
-
-        // Runs in namer thread
-        private void cleanOldUri() {
-            if (mUri == null) return;
-            Storage.deleteImage(mResolver, mUri);
-            mUri = null;
+        // Runs in main thread, after the image saver is finished.
+        public void finish() {
+            mPool.reclaim();
         }
     }
 
@@ -1523,16 +1495,29 @@ public class PhotoModule
 
         // Set rotation and gps data.
         mJpegRotation = Util.getJpegRotation(mCameraId, mOrientation);
-        mParameters.setRotation(mJpegRotation);
         String pictureFormat = mParameters.get(KEY_PICTURE_FORMAT);
         Location loc = null;
-        if (pictureFormat != null &&
-            PIXEL_FORMAT_JPEG.equalsIgnoreCase(pictureFormat)) {
+        boolean isJpeg = pictureFormat != null &&
+            PIXEL_FORMAT_JPEG.equalsIgnoreCase(pictureFormat);
+        if (isJpeg) {
             loc = mLocationManager.getCurrentLocation();
         }
-        Util.setGpsParameters(mParameters, loc);
-        mCameraDevice.setParameters(mParameters);
-        mParameters = mCameraDevice.getParameters();
+        // The capture intent returns the camera's JPEG as is, so the camera
+        // has to rotate and tag it.
+        mPatchExif = PATCH_EXIF_ENABLED && isJpeg && !mIsImageCaptureIntent;
+        if (mPatchExif) {
+            // Always the same parameters, so the set below is skipped.
+            mParameters.setRotation(0);
+            mParameters.removeGpsData();
+        } else {
+            mParameters.setRotation(mJpegRotation);
+            Util.setGpsParameters(mParameters, loc);
+        }
+        // Nothing is sent if rotation and location did not change since the
+        // last picture; then there is nothing new to read back either.
+        if (mCameraDevice.setParameters(mParameters)) {
+            mParameters = mCameraDevice.getParameters();
+        }
 
         mCaptureStartTime = System.currentTimeMillis();
         mCameraDevice.takePicture2(mShutterCallback, mRawPictureCallback,
@@ -1554,14 +1539,13 @@ public class PhotoModule
             animateFlash();
         }
 
-        Size size = mParameters.getPictureSize();
-        mImageNamer.prepareUri(mContentResolver, mCaptureStartTime,
-                size.width, size.height, mJpegRotation);
+        mImageNamer.prepareUri(mCaptureStartTime);
 
         mFaceDetectionStarted = false;
         setCameraState(SNAPSHOT_IN_PROGRESS);
         mBurstSnapNum = mParameters.getInt("num-snaps-per-shutter");
         mReceivedSnapNum = 0;
+        if (mBurstSnapNum > 1) mImageNamer.reserveBurstUris(mBurstSnapNum);
         return true;
     }
 
@@ -1894,6 +1878,12 @@ public class PhotoModule
                     + mActivity.getStorageSpace());
             return;
         }
+        // Do not take the picture if the saver still holds too many images.
+        if (mImageSaver != null && mImageSaver.isFull()) {
+            Log.i(TAG, "Image saver is full, bytes in flight="
+                    + mImageSaver.getBytesInFlight());
+            return;
+        }
         Log.v(TAG, "onShutterButtonClick: mCameraState=" + mCameraState);
 
         //Need to disable focus for ZSL mode
@@ -2021,7 +2011,10 @@ public class PhotoModule
                 mImageSaver = null;
                 mImageNamer.finish();
                 mImageNamer = null;
+                mMediaBatcher.quit();
+                mMediaBatcher = null;
             }
+            BufferArena.getShared().trim();
         }
 
         if (mLocationManager != null) mLocationManager.recordLocation(false);
@@ -2237,7 +2230,7 @@ public class PhotoModule
     @Override
     public void autoFocus() {
         mFocusStartTime = System.currentTimeMillis();
-        mCameraDevice.autoFocus(mAutoFocusCallback);
+        mCameraDevice.autoFocusAsync(mAutoFocusCallback);
         setCameraState(FOCUSING);
     }
 
@@ -2419,6 +2412,7 @@ public class PhotoModule
     // This can be called by UI Thread or CameraStartUpThread. So this should
     // not modify the views.
     private void startPreview() {
+        long start = SystemClock.uptimeMillis();
         mCameraDevice.setErrorCallback(mErrorCallback);
 
         // ICS camera frameworks has a bug. Face detection state is not cleared
@@ -2470,7 +2464,7 @@ public class PhotoModule
         }
 
         Log.v(TAG, "startPreview");
-        mCameraDevice.startPreviewAsync();
+        mCameraDevice.startPreviewAsync(start);
 
         mFocusManager.onPreviewStarted();
 
@@ -3592,7 +3586,8 @@ class GraphView extends View {
         if(mPhotoModule!= null && mPhotoModule.mHiston) {
             mGraphCameraDevice = mPhotoModule.getCamera();
             if(mGraphCameraDevice != null){
-                mGraphCameraDevice.sendHistogramData();
+                // Called for every frame drawn; do not wait for the camera.
+                mGraphCameraDevice.sendHistogramDataAsync();
             }
         }
     }
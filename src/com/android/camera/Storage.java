@@ -36,7 +36,8 @@ import android.util.Log;
 import com.android.gallery3d.common.ApiHelper;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class Storage {
     private static final String TAG = "CameraStorage";
@@ -69,19 +70,22 @@ public class Storage {
         }
     }
 
+    // Shared by all the threads that save images, so the staging buffers are
+    // reused from shot to shot.
+    private static final ImageFileWriter sWriter = new ImageFileWriter();
+
     public static void writeFile(String path, byte[] data) {
-        FileOutputStream out = null;
-        try {
-            out = new FileOutputStream(path);
-            out.write(data);
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to write data", e);
-        } finally {
-            try {
-                out.close();
-            } catch (Exception e) {
-            }
-        }
+        sWriter.write(path, data);
+    }
+
+    // Writes the first length bytes of data, e.g. of a pooled buffer.
+    public static void writeFile(String path, byte[] data, int length) {
+        sWriter.write(path, new ByteBuffer[] {ByteBuffer.wrap(data, 0, length)});
+    }
+
+    // Opens a file to be written piece by piece, e.g. by a streaming encoder.
+    public static ImageFileWriter.Output openFile(String path) throws IOException {
+        return sWriter.open(path);
     }
 
     // Save the image and add it to media store.
@@ -139,25 +143,9 @@ public class Storage {
     // correct aspect ratio before the real values are updated in updateImage().
     public static Uri newImage(ContentResolver resolver, String title,
             long date, int width, int height, String pictureFormat) {
-        String directory = null;
-        String ext = null;
-        if (pictureFormat == null ||
-            pictureFormat.equalsIgnoreCase("jpeg")) {
-            ext = ".jpg";
-            directory = DIRECTORY;
-        } else {
-            ext = ".raw";
-            directory = RAW_DIRECTORY;
-        }
-
-        String path = directory + '/' + title + ext;
-
         // Insert into MediaStore.
-        ContentValues values = new ContentValues(4);
-        values.put(ImageColumns.DATE_TAKEN, date);
-        values.put(ImageColumns.DATA, path);
-
-        setImageSize(values, width, height);
+        ContentValues values = getNewImageValues(title, date, width, height,
+                pictureFormat);
 
         Uri uri = null;
         try {
@@ -181,50 +169,75 @@ public class Storage {
     public static boolean updateImage(ContentResolver resolver, Uri uri,
             String title, Location location, int orientation, byte[] jpeg,
             int width, int height, String pictureFormat) {
-        // Save the image.
+        if (!writeImage(title, jpeg, pictureFormat)) return false;
+        return updateImageInfo(resolver, uri, title, location, orientation,
+                jpeg.length, width, height, pictureFormat);
+    }
 
-        String directory = null;
-        String ext = null;
-        if (pictureFormat == null ||
-            pictureFormat.equalsIgnoreCase("jpeg")) {
-            ext = ".jpg";
-            directory = DIRECTORY;
-        } else {
-            ext = ".raw";
-            directory = RAW_DIRECTORY;
-        }
+    // The file half of updateImage(). It can run concurrently with
+    // updateImageInfo() of another image.
+    public static boolean writeImage(String title, byte[] jpeg,
+            String pictureFormat) {
+        String path = getDirectory(pictureFormat) + '/' + title
+                + getExtension(pictureFormat);
 
-        String path = directory + '/' + title + ext;
+        // Write to a temporary file and rename it to the final name. This
+        // avoids other apps reading incomplete data.
+        return sWriter.write(path, jpeg);
+    }
+
+    // Same as writeImage(), but the file is written from several segments,
+    // e.g. a rewritten header followed by the untouched image body.
+    public static boolean writeImage(String title, ByteBuffer[] segments,
+            String pictureFormat) {
+        String path = getDirectory(pictureFormat) + '/' + title
+                + getExtension(pictureFormat);
+        return sWriter.write(path, segments);
+    }
+
+    // The MediaStore half of updateImage().
+    public static boolean updateImageInfo(ContentResolver resolver, Uri uri,
+            String title, Location location, int orientation, int jpegLength,
+            int width, int height, String pictureFormat) {
+        // Insert into MediaStore.
+        ContentValues values = getImageInfoValues(title, location, orientation,
+                jpegLength, width, height, pictureFormat);
 
-        String tmpPath = path + ".tmp";
-        FileOutputStream out = null;
         try {
-            // Write to a temporary file and rename it to the final name. This
-            // avoids other apps reading incomplete data.
-            File dir = new File(directory);
-            if (!dir.exists()) dir.mkdirs();
-            out = new FileOutputStream(tmpPath);
-            out.write(jpeg);
-            out.close();
-            new File(tmpPath).renameTo(new File(path));
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to write image", e);
+            resolver.update(uri, values, null, null);
+        } catch (Throwable th) {
+            Log.e(TAG, "Failed to update image" + th);
             return false;
-        } finally {
-            try {
-                out.close();
-            } catch (Exception e) {
-            }
         }
 
-        // Insert into MediaStore.
+        return true;
+    }
+
+    // The values newImage() inserts.
+    public static ContentValues getNewImageValues(String title, long date,
+            int width, int height, String pictureFormat) {
+        String path = getDirectory(pictureFormat) + '/' + title
+                + getExtension(pictureFormat);
+
+        ContentValues values = new ContentValues(4);
+        values.put(ImageColumns.DATE_TAKEN, date);
+        values.put(ImageColumns.DATA, path);
+
+        setImageSize(values, width, height);
+        return values;
+    }
+
+    // The values updateImageInfo() updates.
+    public static ContentValues getImageInfoValues(String title,
+            Location location, int orientation, int jpegLength, int width,
+            int height, String pictureFormat) {
         ContentValues values = new ContentValues(9);
         values.put(ImageColumns.TITLE, title);
-        values.put(ImageColumns.DISPLAY_NAME, title + ext);
+        values.put(ImageColumns.DISPLAY_NAME, title + getExtension(pictureFormat));
         values.put(ImageColumns.MIME_TYPE, "image/jpeg");
         // Clockwise rotation in degrees. 0, 90, 180, or 270.
         values.put(ImageColumns.ORIENTATION, orientation);
-        values.put(ImageColumns.SIZE, jpeg.length);
+        values.put(ImageColumns.SIZE, jpegLength);
 
         setImageSize(values, width, height);
 
@@ -232,15 +245,19 @@ public class Storage {
             values.put(ImageColumns.LATITUDE, location.getLatitude());
             values.put(ImageColumns.LONGITUDE, location.getLongitude());
         }
+        return values;
+    }
 
-        try {
-            resolver.update(uri, values, null, null);
-        } catch (Throwable th) {
-            Log.e(TAG, "Failed to update image" + th);
-            return false;
-        }
+    private static boolean isJpeg(String pictureFormat) {
+        return pictureFormat == null || pictureFormat.equalsIgnoreCase("jpeg");
+    }
 
-        return true;
+    private static String getDirectory(String pictureFormat) {
+        return isJpeg(pictureFormat) ? DIRECTORY : RAW_DIRECTORY;
+    }
+
+    private static String getExtension(String pictureFormat) {
+        return isJpeg(pictureFormat) ? ".jpg" : ".raw";
     }
 
     public static void deleteImage(ContentResolver resolver, Uri uri) {
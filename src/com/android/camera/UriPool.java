@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.provider.MediaStore.Images.ImageColumns;
+
+import java.util.HashSet;
+
+/**
+ * Keeps MediaStore rows inserted ahead of time, so a picture can get its uri
+ * without waiting for MediaProvider.
+ *
+ * <p>The rows are placeholders: they only carry a hidden path. Whoever leases
+ * a row is expected to either update it with the real title, path and image
+ * info through {@link #update}, or give it back with {@link #release}. The
+ * pool is refilled in the background by the {@link MediaStoreBatcher} every
+ * time a row is leased.
+ *
+ * <p>The placeholders of a process that was killed before {@link #reclaim}
+ * stay in MediaStore; a new pool deletes them first.
+ */
+public class UriPool {
+    public static final int DEFAULT_SIZE = 2;
+
+    // The title of every placeholder starts with it.
+    private static final String PENDING_PREFIX = ".pending_";
+    // Matches the path of a placeholder. '_' is a LIKE wildcard, so it is
+    // escaped.
+    private static final String PENDING_SELECTION = ImageColumns.DATA + " LIKE ? ESCAPE '\\'";
+    private static final String PENDING_PATTERN = "%/" + PENDING_PREFIX.replace("_", "\\_") + "%";
+
+    private final MediaStoreBatcher mBatcher;
+    private final Uri mTable;
+
+    // Guarded by "this".
+    private int mSize;
+    private final HashSet<Uri> mLeased = new HashSet<Uri>();
+    private long mSequence;
+    private int mHits;
+    private int mMisses;
+    private boolean mReclaimed;
+
+    public UriPool(MediaStoreBatcher batcher, Uri table, int size) {
+        mBatcher = batcher;
+        mTable = table;
+        mSize = size;
+        // Queued ahead of the refill, so only the old placeholders go.
+        mBatcher.delete(table, PENDING_SELECTION, new String[] {PENDING_PATTERN}, null);
+        refill();
+    }
+
+    /**
+     * Returns a reserved row, or null if none is ready yet. Never blocks. The
+     * caller then has to insert the row of its picture by itself, preferably
+     * off the main thread.
+     */
+    public synchronized Uri lease() {
+        if (mReclaimed) return null;
+        MediaStoreBatcher.Placeholder p = mBatcher.takePlaceholder();
+        refill();
+        if (p == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        mLeased.add(p.uri);
+        return p.uri;
+    }
+
+    /**
+     * Writes the values of a picture into a leased row. Once the update is
+     * applied the row is committed; if it fails, the row is released. Then
+     * callback, if not null, is called with the result, in the batcher
+     * thread.
+     */
+    public void update(final Uri uri, ContentValues values,
+            final MediaStoreBatcher.Callback callback) {
+        mBatcher.update(uri, values, new MediaStoreBatcher.Callback() {
+            @Override
+            public void onComplete(MediaStoreBatcher.Op op, Uri result) {
+                if (result != null) {
+                    commit(uri);
+                } else {
+                    release(uri);
+                }
+                if (callback != null) callback.onComplete(op, result);
+            }
+        });
+    }
+
+    // Called once the leased row holds a picture. It is not the pool's
+    // business any more.
+    public synchronized void commit(Uri uri) {
+        mLeased.remove(uri);
+    }
+
+    // Gives back a leased row that will not be used. The row is deleted.
+    public void release(Uri uri) {
+        synchronized (this) {
+            if (!mLeased.remove(uri)) return;
+        }
+        mBatcher.delete(uri, null);
+    }
+
+    /**
+     * Makes sure that count rows are ready or being inserted, e.g. before a
+     * burst. The pool keeps that size until it is reclaimed.
+     */
+    public synchronized void ensureCapacity(int count) {
+        if (count > mSize) mSize = count;
+        refill();
+    }
+
+    // Returns the number of rows that are ready or being inserted.
+    public int getAvailableCount() {
+        return mBatcher.getPlaceholderCount();
+    }
+
+    public synchronized int getLeasedCount() {
+        return mLeased.size();
+    }
+
+    /**
+     * Deletes the rows that are not leased, and the leased ones that were
+     * neither committed nor released. Called in onPause(), after the pictures
+     * of the leased rows are saved. The pool cannot be used afterwards.
+     */
+    public void reclaim() {
+        // Apply the pending updates first, so their rows are committed.
+        mBatcher.flush();
+        Uri[] leased;
+        synchronized (this) {
+            mReclaimed = true;
+            leased = mLeased.toArray(new Uri[mLeased.size()]);
+            mLeased.clear();
+        }
+        mBatcher.releasePlaceholders();
+        for (Uri uri : leased) mBatcher.delete(uri, null);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "UriPool size=" + mSize + " hits=" + mHits + " misses=" + mMisses
+                + " leased=" + mLeased.size();
+    }
+
+    private void refill() {
+        if (mReclaimed) return;
+        for (int i = mBatcher.getPlaceholderCount(); i < mSize; i++) {
+            long now = System.currentTimeMillis();
+            String title = PENDING_PREFIX + now + "_" + (mSequence++);
+            ContentValues values = Storage.getNewImageValues(title, now, 0, 0, null);
+            mBatcher.reservePlaceholder(mTable, values);
+        }
+    }
+}
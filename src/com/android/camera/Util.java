@@ -83,6 +83,8 @@ public class Util {
     private static final String AUTO_EXPOSURE_LOCK_SUPPORTED = "auto-exposure-lock-supported";
     private static final String AUTO_WHITE_BALANCE_LOCK_SUPPORTED = "auto-whitebalance-lock-supported";
     private static final String VIDEO_SNAPSHOT_SUPPORTED = "video-snapshot-supported";
+    // Same as the scratch buffer BitmapFactory allocates by default.
+    private static final int DECODE_TEMP_STORAGE_SIZE = 16 * 1024;
     public static final String SCENE_MODE_HDR = "hdr";
     public static final String TRUE = "true";
     public static final String FALSE = "false";
@@ -257,8 +259,13 @@ public class Util {
     }
 
     public static Bitmap makeBitmap(byte[] jpegData, int maxNumOfPixels) {
+        // The decoder's scratch buffer comes from the arena, so thumbnail
+        // decoding does not allocate one per picture.
+        BufferArena arena = BufferArena.getShared();
+        byte[] tempStorage = arena.obtainArray(DECODE_TEMP_STORAGE_SIZE);
         try {
             BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inTempStorage = tempStorage;
             options.inJustDecodeBounds = true;
             BitmapFactory.decodeByteArray(jpegData, 0, jpegData.length,
                     options);
@@ -277,6 +284,8 @@ public class Util {
         } catch (OutOfMemoryError ex) {
             Log.e(TAG, "Got oom exception ", ex);
             return null;
+        } finally {
+            arena.recycle(tempStorage);
         }
     }
 
@@ -17,6 +17,7 @@
 package com.android.camera.stress;
 
 import com.android.camera.CameraActivity;
+import com.android.camera.CaptureMetrics;
 
 import android.app.Instrumentation;
 import android.os.Environment;
@@ -26,6 +27,7 @@ import android.util.Log;
 import android.view.KeyEvent;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 
 /**
@@ -71,6 +73,7 @@ public class CameraLatency extends ActivityInstrumentationTestCase2 <CameraActiv
         Log.v(TAG, "start testImageCapture test");
         Instrumentation inst = getInstrumentation();
         inst.sendKeyDownUpSync(KeyEvent.KEYCODE_DPAD_DOWN);
+        CaptureMetrics.reset();
         try {
             for (int i = 0; i < TOTAL_NUMBER_OF_IMAGECAPTURE; i++) {
                 Thread.sleep(WAIT_FOR_IMAGE_CAPTURE_TO_BE_TAKEN);
@@ -135,6 +138,23 @@ public class CameraLatency extends ActivityInstrumentationTestCase2 <CameraActiv
         } catch (Exception e) {
             fail("Camera Latency write output to file");
         }
+        assertTrue("Camera Latency write metrics to file",
+                CaptureMetrics.dumpToFile(new File(CAMERA_TEST_OUTPUT_FILE)));
+
+        // The histograms include the first shot, and every shot has a
+        // shutter and a jpeg callback.
+        CameraActivity c = getActivity();
+        int[] stages = {CaptureMetrics.SHUTTER, CaptureMetrics.JPEG,
+                CaptureMetrics.JPEG_CALLBACK, CaptureMetrics.FILE_WRITE};
+        for (int stage : stages) {
+            String name = CaptureMetrics.getStageName(stage);
+            double p50 = c.getLatencyPercentile(stage, 50);
+            double p99 = c.getLatencyPercentile(stage, 99);
+            Log.v(TAG, name + " p50 = " + p50 + " p99 = " + p99);
+            assertTrue(name + " samples",
+                    CaptureMetrics.get(stage).getCount() >= numberofRun);
+            assertTrue(name + " p50 <= p99", p50 <= p99);
+        }
         Log.v(TAG, "The Image capture wait time = " +
             WAIT_FOR_IMAGE_CAPTURE_TO_BE_TAKEN);
         Log.v(TAG, "Avg AutoFocus = " + mAvgAutoFocusTime);
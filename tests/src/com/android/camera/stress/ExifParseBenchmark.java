@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.stress;
+
+import android.os.Environment;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.camera.ExifIndex;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Measures ExifIndex parse time over a corpus of JPEG files.
+ *
+ * The corpus is every .jpg in CORPUS_DIRECTORY; push pictures from the
+ * devices of interest there first. Each file is memory-mapped once, then
+ * parsed NUMBER_OF_ITERATIONS times.
+ */
+public class ExifParseBenchmark extends TestCase {
+    private static final String TAG = "ExifParseBenchmark";
+    private static final int NUMBER_OF_ITERATIONS = 1000;
+    private static final String CORPUS_DIRECTORY =
+            Environment.getExternalStorageDirectory().toString() + "/exif_corpus/";
+    private static final String CAMERA_TEST_OUTPUT_FILE =
+            Environment.getExternalStorageDirectory().toString() + "/mediaStressOut.txt";
+
+    private ArrayList<ByteBuffer> loadCorpus() throws IOException {
+        ArrayList<ByteBuffer> corpus = new ArrayList<ByteBuffer>();
+        File[] files = new File(CORPUS_DIRECTORY).listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.toLowerCase().endsWith(".jpg");
+            }
+        });
+        if (files == null) return corpus;
+        for (File f : files) {
+            FileInputStream in = new FileInputStream(f);
+            try {
+                FileChannel channel = in.getChannel();
+                corpus.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                in.close();
+            }
+        }
+        return corpus;
+    }
+
+    @LargeTest
+    public void testParseCorpus() throws IOException {
+        ArrayList<ByteBuffer> corpus = loadCorpus();
+        if (corpus.isEmpty()) {
+            Log.w(TAG, "No JPEG files in " + CORPUS_DIRECTORY + ", skipping");
+            return;
+        }
+
+        // Warm up.
+        int tags = 0;
+        for (ByteBuffer jpeg : corpus) {
+            tags += ExifIndex.parse(jpeg).getEntryCount();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < NUMBER_OF_ITERATIONS; i++) {
+            for (ByteBuffer jpeg : corpus) {
+                ExifIndex index = ExifIndex.parse(jpeg);
+                index.getOrientation();
+                index.getLatLong();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        double perParse = (double) elapsed / (NUMBER_OF_ITERATIONS * corpus.size()) / 1000;
+
+        String result = "EXIF parse - " + corpus.size() + " files, " + tags
+                + " tags, mean per parse: " + perParse + "us\n";
+        Log.v(TAG, result);
+
+        BufferedWriter output = null;
+        try {
+            output = new BufferedWriter(new FileWriter(CAMERA_TEST_OUTPUT_FILE, true));
+            output.write(result);
+        } catch (IOException e) {
+            Log.e(TAG, "testParseCorpus IOException writing to log " + e.toString());
+        } finally {
+            if (output != null) output.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.BackgroundJobScheduler;
+import com.android.camera.BackgroundJobScheduler.CancellationToken;
+import com.android.camera.BackgroundJobScheduler.Job;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@SmallTest
+public class BackgroundJobSchedulerTest extends TestCase {
+    private static final long TIMEOUT_MS = 5000;
+
+    private final List<String> mRan = new ArrayList<String>();
+    private BackgroundJobScheduler mScheduler;
+
+    // Holds the scheduler thread until the gate is opened.
+    private class GateJob extends Job {
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mGate = new CountDownLatch(1);
+
+        GateJob() {
+            super("gate", BackgroundJobScheduler.PRIORITY_LOW);
+        }
+
+        @Override
+        protected void run(CancellationToken token) {
+            mStarted.countDown();
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                // done.
+            }
+        }
+    }
+
+    private class NamedJob extends Job {
+        boolean mCancelled;
+
+        NamedJob(String name, int priority) {
+            super(name, priority);
+        }
+
+        @Override
+        protected void run(CancellationToken token) {
+            synchronized (mRan) {
+                mRan.add(getName());
+            }
+        }
+
+        @Override
+        protected void onCancelled() {
+            mCancelled = true;
+        }
+    }
+
+    @Override
+    protected void setUp() {
+        mScheduler = new BackgroundJobScheduler("TestScheduler");
+    }
+
+    @Override
+    protected void tearDown() {
+        mScheduler.shutdown();
+    }
+
+    private GateJob blockScheduler() throws Exception {
+        GateJob gate = new GateJob();
+        mScheduler.submit(gate);
+        assertTrue(gate.mStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        return gate;
+    }
+
+    public void testPriorityOrder() throws Exception {
+        GateJob gate = blockScheduler();
+        mScheduler.submit(new NamedJob("low", BackgroundJobScheduler.PRIORITY_LOW));
+        mScheduler.submit(new NamedJob("normal1", BackgroundJobScheduler.PRIORITY_NORMAL));
+        mScheduler.submit(new NamedJob("high", BackgroundJobScheduler.PRIORITY_HIGH));
+        mScheduler.submit(new NamedJob("normal2", BackgroundJobScheduler.PRIORITY_NORMAL));
+        assertEquals(5, mScheduler.getPendingCount());
+
+        gate.mGate.countDown();
+        assertTrue(mScheduler.waitIdle(TIMEOUT_MS));
+        // Same priority: first submitted first.
+        assertEquals("[high, normal1, normal2, low]", mRan.toString());
+    }
+
+    public void testCancelQueuedJob() throws Exception {
+        GateJob gate = blockScheduler();
+        NamedJob cancelled = new NamedJob("cancelled", BackgroundJobScheduler.PRIORITY_HIGH);
+        mScheduler.submit(cancelled);
+        mScheduler.submit(new NamedJob("kept", BackgroundJobScheduler.PRIORITY_NORMAL));
+        cancelled.cancel();
+        assertTrue(cancelled.mCancelled);
+        assertTrue(cancelled.getToken().isCancelled());
+        assertEquals(2, mScheduler.getPendingCount());
+
+        gate.mGate.countDown();
+        assertTrue(mScheduler.waitIdle(TIMEOUT_MS));
+        assertEquals("[kept]", mRan.toString());
+    }
+
+    public void testCancelRunningJob() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch stop = new CountDownLatch(1);
+        Job job = new Job("running", BackgroundJobScheduler.PRIORITY_NORMAL) {
+            @Override
+            protected void run(CancellationToken token) {
+                // Like a native computation that does not check the token.
+                token.setOnCancelListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        stop.countDown();
+                    }
+                });
+                started.countDown();
+                try {
+                    stop.await();
+                } catch (InterruptedException e) {
+                    // done.
+                }
+                token.setOnCancelListener(null);
+            }
+        };
+        mScheduler.submit(job);
+        assertTrue(started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        job.cancel();
+        assertTrue(mScheduler.waitIdle(TIMEOUT_MS));
+        assertTrue(job.getToken().isCancelled());
+    }
+
+    public void testOnCancelListenerOfCancelledToken() {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        final int[] calls = new int[1];
+        token.setOnCancelListener(new Runnable() {
+            @Override
+            public void run() {
+                calls[0]++;
+            }
+        });
+        token.cancel();
+        assertEquals(1, calls[0]);
+    }
+
+    public void testProgressChangesOnly() throws Exception {
+        final List<Integer> progress = new ArrayList<Integer>();
+        Job job = new Job("progress", BackgroundJobScheduler.PRIORITY_NORMAL) {
+            @Override
+            protected void run(CancellationToken token) {
+                int[] values = {0, 0, 40, 40, 100};
+                for (int v : values) publishProgress(v);
+            }
+        };
+        job.setProgressListener(new BackgroundJobScheduler.ProgressListener() {
+            @Override
+            public void onProgress(Job j, int p) {
+                synchronized (progress) {
+                    progress.add(p);
+                }
+            }
+        });
+        mScheduler.submit(job);
+        assertTrue(mScheduler.waitIdle(TIMEOUT_MS));
+        // The test thread has no looper, so the listener is called at once.
+        synchronized (progress) {
+            assertEquals("[0, 40, 100]", progress.toString());
+        }
+    }
+
+    public void testSubmitTwice() {
+        Job job = new NamedJob("twice", BackgroundJobScheduler.PRIORITY_NORMAL);
+        mScheduler.submit(job);
+        try {
+            mScheduler.submit(job);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected.
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.ArenaOutputStream;
+import com.android.camera.BufferArena;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+@SmallTest
+public class BufferArenaTest extends TestCase {
+    private static final int MB = 1024 * 1024;
+
+    public void testSizeClasses() {
+        assertEquals(BufferArena.MIN_SIZE, BufferArena.getClassSize(1));
+        assertEquals(5 * MB, BufferArena.getClassSize(5 * MB));
+        assertEquals(6 * MB, BufferArena.getClassSize(5 * MB + 1));
+        // At most 25% larger than requested.
+        for (int size = BufferArena.MIN_SIZE; size < BufferArena.MAX_SIZE; size += 99991) {
+            int c = BufferArena.getClassSize(size);
+            assertTrue(c >= size);
+            assertTrue(c <= size + size / 4);
+        }
+        int huge = BufferArena.MAX_SIZE + 1;
+        assertEquals(huge, BufferArena.getClassSize(huge));
+    }
+
+    public void testReusesArrays() {
+        BufferArena arena = new BufferArena(64 * MB);
+        byte[] a = arena.obtainArray(5 * MB);
+        arena.recycle(a);
+        assertSame(a, arena.obtainArray(5 * MB - 100));
+        // A different class gets a different array.
+        assertNotSame(a, arena.obtainArray(7 * MB));
+    }
+
+    public void testReusesDirectBuffers() {
+        BufferArena arena = new BufferArena(64 * MB);
+        ByteBuffer b = arena.obtainDirect(256 * 1024);
+        assertTrue(b.isDirect());
+        b.put((byte) 1);
+        arena.recycle(b);
+        ByteBuffer again = arena.obtainDirect(256 * 1024);
+        assertSame(b, again);
+        assertEquals(0, again.position());
+        assertEquals(again.capacity(), again.remaining());
+    }
+
+    public void testAccounting() {
+        BufferArena arena = new BufferArena(64 * MB);
+        byte[] a = arena.obtainArray(4 * MB);
+        byte[] b = arena.obtainArray(4 * MB);
+        assertEquals(8 * MB, arena.getLeasedBytes());
+        arena.recycle(a);
+        arena.recycle(b);
+        assertEquals(0, arena.getLeasedBytes());
+        assertEquals(8 * MB, arena.getPooledBytes());
+        // Reusing pooled buffers does not raise the peak.
+        arena.recycle(arena.obtainArray(4 * MB));
+        assertEquals(8 * MB, arena.getPeakResidentBytes());
+        arena.trim();
+        assertEquals(0, arena.getPooledBytes());
+    }
+
+    public void testPoolIsBounded() {
+        BufferArena arena = new BufferArena(6 * MB);
+        byte[] a = arena.obtainArray(4 * MB);
+        byte[] b = arena.obtainArray(4 * MB);
+        arena.recycle(a);
+        arena.recycle(b);
+        assertEquals(4 * MB, arena.getPooledBytes());
+    }
+
+    public void testForeignBuffersAreIgnored() {
+        BufferArena arena = new BufferArena(64 * MB);
+        arena.recycle(new byte[12345]);
+        arena.recycle(ByteBuffer.allocate(BufferArena.MIN_SIZE));
+        assertEquals(0, arena.getPooledBytes());
+    }
+
+    public void testDoubleRecycleThrows() {
+        BufferArena arena = new BufferArena(64 * MB);
+        byte[] a = arena.obtainArray(MB);
+        arena.recycle(a);
+        try {
+            arena.recycle(a);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        ByteBuffer b = arena.obtainDirect(MB);
+        arena.recycle(b);
+        try {
+            arena.recycle(b);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(0, arena.getLeasedBytes());
+        assertEquals(2 * MB, arena.getPooledBytes());
+    }
+
+    public void testDirectBuffersAreTrackedByIdentity() {
+        BufferArena arena = new BufferArena(64 * MB);
+        // Both are zero-filled, so they are equal().
+        ByteBuffer a = arena.obtainDirect(MB);
+        ByteBuffer b = arena.obtainDirect(MB);
+        arena.recycle(a);
+        arena.recycle(b);
+        assertEquals(0, arena.getLeasedBytes());
+        assertEquals(2 * MB, arena.getPooledBytes());
+    }
+
+    public void testForeignClassSizedBufferThrows() {
+        BufferArena arena = new BufferArena(64 * MB);
+        try {
+            arena.recycle(new byte[BufferArena.MIN_SIZE]);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(0, arena.getPooledBytes());
+    }
+
+    public void testOutputStreamGrows() {
+        BufferArena arena = new BufferArena(64 * MB);
+        ArenaOutputStream out = new ArenaOutputStream(arena, 10);
+        byte[] chunk = new byte[10000];
+        for (int i = 0; i < chunk.length; i++) chunk[i] = (byte) i;
+        for (int i = 0; i < 10; i++) out.write(chunk, 0, chunk.length);
+        out.write(7);
+        assertEquals(100001, out.size());
+        byte[] data = out.getBuffer();
+        assertTrue(data.length >= 100001);
+        assertEquals(chunk[1234], data[50000 + 1234]);
+        assertEquals(7, data[100000]);
+        // Only the final buffer is still leased.
+        assertEquals(data.length, arena.getLeasedBytes());
+        out.release();
+        assertEquals(0, arena.getLeasedBytes());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.CameraParametersCache;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class CameraParametersCacheTest extends TestCase {
+    private static final String A = "rotation=0;flash-mode=auto";
+    private static final String B = "rotation=90;flash-mode=auto";
+
+    private CameraParametersCache mCache;
+
+    @Override
+    protected void setUp() {
+        mCache = new CameraParametersCache();
+    }
+
+    // Sends the parameters the way CameraProxy.setParameters() does.
+    private boolean set(String flattened) {
+        if (!mCache.needsSet(flattened)) return false;
+        mCache.onSetParameters(flattened);
+        return true;
+    }
+
+    public void testIdenticalSetIsSkipped() {
+        assertTrue(set(A));
+        assertFalse(set(A));
+        assertTrue(set(B));
+        assertTrue(set(A));
+    }
+
+    public void testQueuedSetIsNotRepeated() {
+        mCache.onGetParameters(A);
+        // B is queued but not applied yet; going back to A must still be sent.
+        assertTrue(mCache.needsSet(B));
+        assertTrue(mCache.needsSet(A));
+        mCache.onSetParameters(B);
+        mCache.onSetParameters(A);
+        assertFalse(mCache.needsSet(A));
+    }
+
+    public void testReadsWaitForReadBack() {
+        mCache.onGetParameters(A);
+        assertTrue(mCache.isValid());
+        assertEquals("0", mCache.get("rotation"));
+        assertTrue(mCache.needsSet(B));
+        assertFalse(mCache.isValid());
+        // The camera may adjust what it accepted.
+        mCache.onSetParameters(B);
+        assertFalse(mCache.isValid());
+        mCache.onGetParameters(B);
+        assertTrue(mCache.isValid());
+        assertEquals("90", mCache.get("rotation"));
+    }
+
+    public void testFailedSetIsForgotten() {
+        mCache.onGetParameters(A);
+        assertTrue(mCache.needsSet(B));
+        mCache.onSetParametersFailed();
+        assertTrue(mCache.needsSet(B));
+        assertTrue(mCache.needsSet(A));
+    }
+
+    public void testInvalidateReadsKeepsDedupe() {
+        mCache.onGetParameters(A);
+        assertTrue(mCache.isValid());
+        // E.g. autoFocus(), takePicture() and startPreview().
+        mCache.invalidateReads();
+        assertFalse(mCache.isValid());
+        assertFalse(set(A));
+    }
+
+    public void testInvalidateForcesSet() {
+        mCache.onGetParameters(A);
+        // E.g. reconnect() and lock().
+        mCache.invalidate();
+        assertFalse(mCache.isValid());
+        assertTrue(set(A));
+    }
+
+    public void testClear() {
+        assertTrue(set(A));
+        mCache.clear();
+        assertFalse(mCache.isValid());
+        assertTrue(set(A));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.CommandCoalescer;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+@SmallTest
+public class CommandCoalescerTest extends TestCase {
+    private static final int SET = 1;
+    private static final int ADD = 2;
+
+    private static class Cmd {
+        final int mKind;
+        String mValue;
+
+        Cmd(int kind, String value) {
+            mKind = kind;
+            mValue = value;
+        }
+    }
+
+    private CommandCoalescer<Cmd> mCoalescer;
+    // The queue of the executor, and what it has run so far.
+    private ArrayList<Cmd> mQueue;
+    private ArrayList<String> mRun;
+
+    @Override
+    protected void setUp() {
+        mCoalescer = new CommandCoalescer<Cmd>();
+        mQueue = new ArrayList<Cmd>();
+        mRun = new ArrayList<String>();
+    }
+
+    // Queues a command the way setParametersCommand() does: the value
+    // replaces the one of the newest queued command of the same kind.
+    private Cmd merge(int kind, String value) {
+        synchronized (mCoalescer) {
+            Cmd cmd = mCoalescer.mergeTarget(kind);
+            if (cmd != null) {
+                cmd.mValue = value;
+                return cmd;
+            }
+            cmd = new Cmd(kind, value);
+            mQueue.add(cmd);
+            mCoalescer.onQueued(cmd, kind);
+            return cmd;
+        }
+    }
+
+    // Queues something that is never merged into, like a synchronous call.
+    private void barrier(String value) {
+        mQueue.add(new Cmd(0, value));
+        mCoalescer.onQueued(null, 0);
+    }
+
+    private Cmd start() {
+        Cmd cmd = mQueue.remove(0);
+        mCoalescer.onStarted(cmd);
+        return cmd;
+    }
+
+    private void runAll() {
+        while (!mQueue.isEmpty()) mRun.add(start().mValue);
+    }
+
+    public void testBackToBackCommandsAreMerged() {
+        Cmd a = merge(SET, "a");
+        Cmd b = merge(SET, "b");
+        assertSame(a, b);
+        assertEquals(1, mQueue.size());
+        runAll();
+        assertEquals("[b]", mRun.toString());
+    }
+
+    public void testSynchronousCallIsBarrier() {
+        Cmd a = merge(SET, "a");
+        barrier("sync");
+        Cmd c = merge(SET, "c");
+        assertNotSame(a, c);
+        runAll();
+        // The newest parameters are applied last.
+        assertEquals("[a, sync, c]", mRun.toString());
+    }
+
+    public void testOtherKindIsBarrier() {
+        Cmd a = merge(SET, "a");
+        merge(ADD, "buffer");
+        Cmd c = merge(SET, "c");
+        assertNotSame(a, c);
+        runAll();
+        assertEquals("[a, buffer, c]", mRun.toString());
+    }
+
+    public void testStartedCommandIsNotMerged() {
+        Cmd a = merge(SET, "a");
+        assertSame(a, start());
+        Cmd b = merge(SET, "b");
+        assertNotSame(a, b);
+        assertEquals("a", a.mValue);
+        runAll();
+        assertEquals("[b]", mRun.toString());
+    }
+
+    public void testStartingOlderCommandKeepsNewestMergeable() {
+        merge(ADD, "buffer");
+        Cmd a = merge(SET, "a");
+        start();
+        assertSame(a, merge(SET, "b"));
+        runAll();
+        assertEquals("[b]", mRun.toString());
+    }
+}
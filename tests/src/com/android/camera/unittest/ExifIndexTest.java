@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.Exif;
+import com.android.camera.ExifIndex;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+@SmallTest
+public class ExifIndexTest extends TestCase {
+    // Builds SOI, an APP1 segment with IFD0 (orientation and GPS pointer) and
+    // a GPS IFD (latitude and longitude), then SOS and EOI.
+    static byte[] buildJpeg(ByteOrder order, int exifOrientation) {
+        ByteBuffer tiff = ByteBuffer.allocate(160).order(order);
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.putShort((short) 42);
+        tiff.putInt(8);
+        // IFD0 at 8: 2 entries, ends at 8 + 2 + 24 + 4 = 38.
+        tiff.putShort((short) 2);
+        entry(tiff, ExifIndex.TAG_ORIENTATION, ExifIndex.TYPE_SHORT, 1);
+        tiff.putShort((short) exifOrientation).putShort((short) 0);
+        entry(tiff, ExifIndex.TAG_GPS_IFD, ExifIndex.TYPE_LONG, 1);
+        tiff.putInt(38);
+        tiff.putInt(0);
+        // GPS IFD at 38: 4 entries, ends at 38 + 2 + 48 + 4 = 92.
+        tiff.putShort((short) 4);
+        entry(tiff, ExifIndex.TAG_GPS_LATITUDE_REF, ExifIndex.TYPE_ASCII, 2);
+        tiff.put((byte) 'N').put((byte) 0).putShort((short) 0);
+        entry(tiff, ExifIndex.TAG_GPS_LATITUDE, ExifIndex.TYPE_RATIONAL, 3);
+        tiff.putInt(92);
+        entry(tiff, ExifIndex.TAG_GPS_LONGITUDE_REF, ExifIndex.TYPE_ASCII, 2);
+        tiff.put((byte) 'E').put((byte) 0).putShort((short) 0);
+        entry(tiff, ExifIndex.TAG_GPS_LONGITUDE, ExifIndex.TYPE_RATIONAL, 3);
+        tiff.putInt(116);
+        tiff.putInt(0);
+        // Values at 92 and 116: 24 bytes each.
+        for (int i = 0; i < 12; i++) tiff.putInt(i % 2 == 0 ? 0 : 1);
+        int tiffLength = tiff.position();
+
+        ByteBuffer jpeg = ByteBuffer.allocate(tiffLength + 32).order(ByteOrder.BIG_ENDIAN);
+        jpeg.putShort((short) 0xFFD8);
+        jpeg.putShort((short) 0xFFE1);
+        jpeg.putShort((short) (2 + 6 + tiffLength));
+        jpeg.put(new byte[] {'E', 'x', 'i', 'f', 0, 0});
+        jpeg.put(tiff.array(), 0, tiffLength);
+        jpeg.putShort((short) 0xFFDA);
+        jpeg.putShort((short) 0xFFD9);
+        byte[] result = new byte[jpeg.position()];
+        System.arraycopy(jpeg.array(), 0, result, 0, result.length);
+        return result;
+    }
+
+    private static void entry(ByteBuffer b, int tag, int type, int count) {
+        b.putShort((short) tag).putShort((short) type).putInt(count);
+    }
+
+    public void testOrientation() {
+        assertEquals(90, Exif.getOrientation(buildJpeg(ByteOrder.BIG_ENDIAN, 6)));
+        assertEquals(270, Exif.getOrientation(buildJpeg(ByteOrder.LITTLE_ENDIAN, 8)));
+        assertEquals(180, Exif.getOrientation(buildJpeg(ByteOrder.LITTLE_ENDIAN, 3)));
+        assertEquals(0, Exif.getOrientation(new byte[] {(byte) 0xFF, (byte) 0xD8}));
+        assertEquals(0, Exif.getOrientation(null));
+    }
+
+    public void testReadOrientation() {
+        for (int value = 0; value <= 9; value++) {
+            for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN,
+                    ByteOrder.LITTLE_ENDIAN}) {
+                byte[] jpeg = buildJpeg(order, value);
+                assertEquals(ExifIndex.parse(jpeg).getOrientation(),
+                        ExifIndex.readOrientation(jpeg));
+            }
+        }
+        // Cut inside IFD0 and inside the GPS IFD.
+        byte[] jpeg = buildJpeg(ByteOrder.BIG_ENDIAN, 6);
+        for (int length : new int[] {14, 30, 60}) {
+            byte[] cut = new byte[length];
+            System.arraycopy(jpeg, 0, cut, 0, length);
+            assertEquals(ExifIndex.parse(cut).getOrientation(), ExifIndex.readOrientation(cut));
+        }
+        // From the position of a larger buffer.
+        ByteBuffer padded = ByteBuffer.allocate(jpeg.length + 8);
+        padded.position(8);
+        padded.put(jpeg).position(8);
+        assertEquals(90, ExifIndex.readOrientation(padded));
+        assertEquals(8, padded.position());
+    }
+
+    public void testIndex() {
+        ExifIndex index = ExifIndex.parse(buildJpeg(ByteOrder.LITTLE_ENDIAN, 1));
+        assertTrue(index.hasExif());
+        assertEquals(6, index.getEntryCount());
+        assertEquals(2, index.getApp1Offset());
+        assertEquals("N", index.getString(ExifIndex.IFD_GPS, ExifIndex.TAG_GPS_LATITUDE_REF));
+        assertEquals(3, index.getCount(ExifIndex.IFD_GPS, ExifIndex.TAG_GPS_LONGITUDE));
+        assertFalse(index.hasTag(ExifIndex.IFD_EXIF, ExifIndex.TAG_DATE_TIME_ORIGINAL));
+    }
+
+    public void testRewriteInPlace() {
+        byte[] jpeg = buildJpeg(ByteOrder.BIG_ENDIAN, 1);
+        // Parse from a direct buffer, like a mapped file.
+        ByteBuffer direct = ByteBuffer.allocateDirect(jpeg.length);
+        direct.put(jpeg).flip();
+        ExifIndex index = ExifIndex.parse(direct);
+        assertTrue(index.setOrientation(270));
+        assertTrue(index.setLatLong(-33.8675, 151.207));
+
+        ExifIndex reparsed = ExifIndex.parse(direct);
+        assertEquals(270, reparsed.getOrientation());
+        double[] latLong = reparsed.getLatLong();
+        assertEquals(-33.8675, latLong[0], 1e-5);
+        assertEquals(151.207, latLong[1], 1e-5);
+        assertEquals("S", reparsed.getString(ExifIndex.IFD_GPS, ExifIndex.TAG_GPS_LATITUDE_REF));
+    }
+
+    public void testLatLongRoundingCarries() {
+        ExifIndex index = ExifIndex.parse(buildJpeg(ByteOrder.BIG_ENDIAN, 1));
+        // 10 degrees 59 minutes 59.9996 seconds, and 59 minutes 59.9996
+        // seconds; the seconds round to 60.
+        assertTrue(index.setLatLong(10 + 59 / 60.0 + 59.9996 / 3600,
+                -(59 / 60.0 + 59.9996 / 3600)));
+        assertEquals(11.0, index.getRational(ExifIndex.IFD_GPS, ExifIndex.TAG_GPS_LATITUDE, 0));
+        assertEquals(0.0, index.getRational(ExifIndex.IFD_GPS, ExifIndex.TAG_GPS_LATITUDE, 1));
+        assertEquals(0.0, index.getRational(ExifIndex.IFD_GPS, ExifIndex.TAG_GPS_LATITUDE, 2));
+        assertEquals(1.0, index.getRational(ExifIndex.IFD_GPS, ExifIndex.TAG_GPS_LONGITUDE, 0));
+        assertEquals(0.0, index.getRational(ExifIndex.IFD_GPS, ExifIndex.TAG_GPS_LONGITUDE, 1));
+        assertEquals(0.0, index.getRational(ExifIndex.IFD_GPS, ExifIndex.TAG_GPS_LONGITUDE, 2));
+
+        assertTrue(index.setLatLong(37.4219999, 0));
+        assertEquals(37.0, index.getRational(ExifIndex.IFD_GPS, ExifIndex.TAG_GPS_LATITUDE, 0));
+        assertEquals(25.0, index.getRational(ExifIndex.IFD_GPS, ExifIndex.TAG_GPS_LATITUDE, 1));
+        assertEquals(19.2, index.getRational(ExifIndex.IFD_GPS, ExifIndex.TAG_GPS_LATITUDE, 2),
+                1e-9);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.ExifIndex;
+import com.android.camera.ExifPatcher;
+
+import android.location.Location;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+@SmallTest
+public class ExifPatcherTest extends TestCase {
+    private static final long DATE_TAKEN = 1356998400000L;
+    private static final byte[] BODY = {(byte) 0xFF, (byte) 0xDA, 0, 4, 1, 2,
+            (byte) 0xFF, (byte) 0xD9};
+    private static final byte[] APP0 = {(byte) 0xFF, (byte) 0xE0, 0, 7,
+            'J', 'F', 'I', 'F', 0};
+
+    private static Location location(double latitude, double longitude) {
+        Location loc = new Location("gps");
+        loc.setLatitude(latitude);
+        loc.setLongitude(longitude);
+        return loc;
+    }
+
+    private static void entry(ByteBuffer b, int tag, int type, int count) {
+        b.putShort((short) tag).putShort((short) type).putInt(count);
+    }
+
+    // Builds SOI, the optional prefix, an APP1 segment and BODY. IFD0 has the
+    // orientation and, if withDate, the date. It is followed by a
+    // makerNoteLength byte Exif IFD value if that is not 0, and by IFD1 and a
+    // thumbnailLength byte thumbnail if that is not 0.
+    private static byte[] buildJpeg(byte[] prefix, boolean withDate,
+            int makerNoteLength, int thumbnailLength) {
+        ByteBuffer tiff = ByteBuffer.allocate(0x20000).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        int entries = 1 + (withDate ? 1 : 0) + (makerNoteLength > 0 ? 1 : 0);
+        int ifd0End = 8 + 2 + 12 * entries + 4;
+        int p = ifd0End;
+        tiff.putShort((short) entries);
+        entry(tiff, ExifIndex.TAG_ORIENTATION, ExifIndex.TYPE_SHORT, 1);
+        tiff.putShort((short) 1).putShort((short) 0);
+        if (withDate) {
+            entry(tiff, ExifIndex.TAG_DATE_TIME, ExifIndex.TYPE_ASCII, 20);
+            tiff.putInt(p);
+            p += 20;
+        }
+        int exifIfd = p;
+        if (makerNoteLength > 0) {
+            entry(tiff, ExifIndex.TAG_EXIF_IFD, ExifIndex.TYPE_LONG, 1);
+            tiff.putInt(exifIfd);
+            p += 2 + 12 + 4 + makerNoteLength;
+        }
+        int ifd1 = (thumbnailLength > 0) ? p : 0;
+        tiff.putInt(ifd1);
+        if (withDate) tiff.put("2000:01:01 00:00:00\0".getBytes());
+        if (makerNoteLength > 0) {
+            tiff.putShort((short) 1);
+            entry(tiff, 0x927C, ExifIndex.TYPE_UNDEFINED, makerNoteLength);
+            tiff.putInt(exifIfd + 2 + 12 + 4);
+            tiff.putInt(0);
+            tiff.position(tiff.position() + makerNoteLength);
+        }
+        if (thumbnailLength > 0) {
+            tiff.putShort((short) 2);
+            entry(tiff, 0x0201, ExifIndex.TYPE_LONG, 1);
+            tiff.putInt(ifd1 + 2 + 24 + 4);
+            entry(tiff, 0x0202, ExifIndex.TYPE_LONG, 1);
+            tiff.putInt(thumbnailLength);
+            tiff.putInt(0);
+            tiff.position(tiff.position() + thumbnailLength);
+        }
+        int tiffLength = tiff.position();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        if (prefix != null) out.write(prefix, 0, prefix.length);
+        int length = 2 + 6 + tiffLength;
+        out.write(new byte[] {(byte) 0xFF, (byte) 0xE1, (byte) (length >> 8),
+                (byte) length, 'E', 'x', 'i', 'f', 0, 0}, 0, 10);
+        out.write(tiff.array(), 0, tiffLength);
+        out.write(BODY, 0, BODY.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] join(ByteBuffer[] segments) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ByteBuffer b : segments) {
+            out.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean endsWith(byte[] a, byte[] suffix) {
+        return a.length >= suffix.length && Arrays.equals(suffix,
+                Arrays.copyOfRange(a, a.length - suffix.length, a.length));
+    }
+
+    private static int app1Length(byte[] jpeg) {
+        ExifIndex index = ExifIndex.parse(jpeg);
+        assertTrue(index.hasExif());
+        return index.getApp1Length();
+    }
+
+    public void testPatchInPlace() {
+        byte[] jpeg = buildJpeg(null, true, 0, 0);
+        int length = jpeg.length;
+        ByteBuffer[] segments = ExifPatcher.patch(jpeg, 90, null, DATE_TAKEN);
+        assertEquals(1, segments.length);
+        byte[] result = join(segments);
+        assertEquals(length, result.length);
+        ExifIndex index = ExifIndex.parse(result);
+        assertEquals(90, index.getOrientation());
+        assertFalse("2000:01:01 00:00:00".equals(
+                index.getString(ExifIndex.IFD_0, ExifIndex.TAG_DATE_TIME)));
+    }
+
+    public void testRebuild() {
+        byte[] jpeg = buildJpeg(null, false, 0, 100);
+        byte[] result = join(ExifPatcher.patch(jpeg, 270, location(-33.8675, 151.207),
+                DATE_TAKEN));
+        ExifIndex index = ExifIndex.parse(result);
+        assertEquals(270, index.getOrientation());
+        assertEquals(20, index.getCount(ExifIndex.IFD_0, ExifIndex.TAG_DATE_TIME));
+        double[] latLong = index.getLatLong();
+        assertEquals(-33.8675, latLong[0], 1e-5);
+        assertEquals(151.207, latLong[1], 1e-5);
+        assertTrue(endsWith(result, BODY));
+    }
+
+    public void testNoExif() {
+        byte[] jpeg = new byte[2 + BODY.length];
+        jpeg[0] = (byte) 0xFF;
+        jpeg[1] = (byte) 0xD8;
+        System.arraycopy(BODY, 0, jpeg, 2, BODY.length);
+        byte[] result = join(ExifPatcher.patch(jpeg, 180, null, DATE_TAKEN));
+        ExifIndex index = ExifIndex.parse(result);
+        assertEquals(180, index.getOrientation());
+        assertNull(index.getLatLong());
+        assertEquals(2, index.getApp1Offset());
+        assertTrue(endsWith(result, BODY));
+    }
+
+    public void testApp0BeforeApp1() {
+        byte[] jpeg = buildJpeg(APP0, false, 0, 0);
+        byte[] result = join(ExifPatcher.patch(jpeg, 90, location(1, 2), DATE_TAKEN));
+        assertTrue(Arrays.equals(APP0, Arrays.copyOfRange(result, 2, 2 + APP0.length)));
+        ExifIndex index = ExifIndex.parse(result);
+        assertEquals(2 + APP0.length, index.getApp1Offset());
+        assertEquals(90, index.getOrientation());
+        assertTrue(endsWith(result, BODY));
+    }
+
+    public void testOversizeDropsThumbnail() {
+        byte[] jpeg = buildJpeg(null, false, 100, 0xFFFF - 300);
+        assertTrue(app1Length(jpeg) > 0xFFFF - 200);
+        byte[] result = join(ExifPatcher.patch(jpeg, 90, location(1, 2), DATE_TAKEN));
+        ExifIndex index = ExifIndex.parse(result);
+        assertTrue(index.getApp1Length() < 1000);
+        assertEquals(90, index.getOrientation());
+        assertNotNull(index.getLatLong());
+        // The camera tags are kept.
+        assertEquals(100, index.getCount(ExifIndex.IFD_EXIF, 0x927C));
+        assertTrue(endsWith(result, BODY));
+    }
+
+    public void testOversizeDropsCameraTags() {
+        byte[] jpeg = buildJpeg(null, false, 0xFFFF - 200, 0);
+        byte[] result = join(ExifPatcher.patch(jpeg, 270, location(1, 2), DATE_TAKEN));
+        ExifIndex index = ExifIndex.parse(result);
+        assertTrue(index.getApp1Length() < 1000);
+        assertEquals(270, index.getOrientation());
+        assertNotNull(index.getLatLong());
+        assertFalse(index.hasTag(ExifIndex.IFD_EXIF, 0x927C));
+        assertTrue(endsWith(result, BODY));
+    }
+}
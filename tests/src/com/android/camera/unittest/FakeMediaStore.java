@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.MediaStoreBatcher;
+import com.android.camera.MediaStoreBatcher.Op;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory stand-in for MediaProvider. It counts the batches it receives,
+ * which is what the batching tests care about.
+ */
+public class FakeMediaStore implements MediaStoreBatcher.Backend {
+    public final HashMap<Uri, ContentValues> rows = new HashMap<Uri, ContentValues>();
+    public int batches;
+    public int operations;
+    private long mNextId = 1;
+    // Set by blockNextApply(); the next apply() counts down mEntered and
+    // waits for mRelease before it applies anything.
+    private CountDownLatch mEntered;
+    private CountDownLatch mRelease;
+
+    // Makes the next apply() block until unblock(), so a test can act while
+    // a batch is being applied.
+    public synchronized void blockNextApply() {
+        mEntered = new CountDownLatch(1);
+        mRelease = new CountDownLatch(1);
+    }
+
+    // Waits until the blocked apply() is entered. Returns false on timeout.
+    public boolean awaitBlocked() throws InterruptedException {
+        CountDownLatch entered;
+        synchronized (this) {
+            entered = mEntered;
+        }
+        return entered.await(5, TimeUnit.SECONDS);
+    }
+
+    public synchronized void unblock() {
+        mRelease.countDown();
+    }
+
+    @Override
+    public Uri[] apply(List<Op> ops) {
+        CountDownLatch release = null;
+        synchronized (this) {
+            if (mEntered != null && mEntered.getCount() > 0) {
+                mEntered.countDown();
+                release = mRelease;
+            }
+        }
+        if (release != null) {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                // ignore.
+            }
+        }
+        return applyNow(ops);
+    }
+
+    private synchronized Uri[] applyNow(List<Op> ops) {
+        batches++;
+        operations += ops.size();
+        Uri[] results = new Uri[ops.size()];
+        for (int i = 0; i < ops.size(); i++) {
+            Op op = ops.get(i);
+            switch (op.type) {
+                case Op.INSERT:
+                    Uri uri = ContentUris.withAppendedId(op.uri, mNextId++);
+                    rows.put(uri, new ContentValues(op.values));
+                    results[i] = uri;
+                    break;
+                case Op.UPDATE:
+                    ContentValues row = rows.get(op.uri);
+                    if (row != null) {
+                        row.putAll(op.values);
+                        results[i] = op.uri;
+                    }
+                    break;
+                case Op.DELETE:
+                    if (op.selection != null) {
+                        if (deleteWhere(op.selection, op.selectionArgs)) results[i] = op.uri;
+                    } else if (rows.remove(op.uri) != null) {
+                        results[i] = op.uri;
+                    }
+                    break;
+            }
+        }
+        return results;
+    }
+
+    // Only supports "<column> LIKE ? ESCAPE '\'", which is what the app uses.
+    private boolean deleteWhere(String selection, String[] args) {
+        String column = selection.substring(0, selection.indexOf(' '));
+        String pattern = likeToRegex(args[0]);
+        boolean deleted = false;
+        for (Iterator<ContentValues> it = rows.values().iterator(); it.hasNext();) {
+            String value = it.next().getAsString(column);
+            if (value != null && value.matches(pattern)) {
+                it.remove();
+                deleted = true;
+            }
+        }
+        return deleted;
+    }
+
+    private static String likeToRegex(String like) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '\\' && i + 1 < like.length()) {
+                regex.append(Pattern.quote(String.valueOf(like.charAt(++i))));
+            } else if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.CaptureMetrics;
+import com.android.camera.ImageFileWriter;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+@SmallTest
+public class ImageFileWriterTest extends TestCase {
+    // Small, so the heap segments are staged in several pieces.
+    private static final int BUFFER_SIZE = 1024;
+
+    private File mDir;
+    private ImageFileWriter mWriter;
+
+    @Override
+    protected void setUp() throws IOException {
+        mDir = File.createTempFile("ImageFileWriterTest", "");
+        mDir.delete();
+        mWriter = new ImageFileWriter(BUFFER_SIZE, true);
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        mDir.delete();
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++) b[i] = (byte) (i * 31 + seed);
+        return b;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] b = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int n = 0;
+            while (n < b.length) n += in.read(b, n, b.length - n);
+        } finally {
+            in.close();
+        }
+        return b;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] p : parts) length += p.length;
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] p : parts) {
+            System.arraycopy(p, 0, result, offset, p.length);
+            offset += p.length;
+        }
+        return result;
+    }
+
+    public void testWriteArray() throws IOException {
+        File file = new File(mDir, "a.jpg");
+        byte[] data = bytes(5000, 1);
+        long count = CaptureMetrics.get(CaptureMetrics.FILE_RENAME).getCount();
+        assertTrue(mWriter.write(file.getPath(), data));
+        assertTrue(Arrays.equals(data, read(file)));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertEquals(count + 1, CaptureMetrics.get(CaptureMetrics.FILE_RENAME).getCount());
+    }
+
+    public void testWriteSegments() throws IOException {
+        File file = new File(mDir, "b.jpg");
+        byte[] head = bytes(10, 2);
+        byte[] body = bytes(3 * BUFFER_SIZE + 7, 3);
+        // A heap segment that is a slice of a larger array.
+        byte[] padded = concat(new byte[5], body, new byte[5]);
+        assertTrue(mWriter.write(file.getPath(), new ByteBuffer[] {
+                ByteBuffer.wrap(head), ByteBuffer.wrap(padded, 5, body.length)}));
+        assertTrue(Arrays.equals(concat(head, body), read(file)));
+    }
+
+    public void testWriteDirectSegments() throws IOException {
+        File file = new File(mDir, "c.jpg");
+        byte[] a = bytes(100, 4);
+        byte[] b = bytes(2 * BUFFER_SIZE, 5);
+        ByteBuffer da = ByteBuffer.allocateDirect(a.length);
+        da.put(a).flip();
+        ByteBuffer db = ByteBuffer.allocateDirect(b.length);
+        db.put(b).flip();
+        assertTrue(mWriter.write(file.getPath(), new ByteBuffer[] {da, db}));
+        assertTrue(Arrays.equals(concat(a, b), read(file)));
+        assertFalse(da.hasRemaining());
+    }
+
+    public void testWriteMixedSegments() throws IOException {
+        File file = new File(mDir, "m.jpg");
+        byte[] head = bytes(20, 8);
+        byte[] exif = bytes(300, 9);
+        byte[] body = bytes(2 * BUFFER_SIZE + 3, 10);
+        ByteBuffer direct = ByteBuffer.allocateDirect(exif.length);
+        direct.put(exif).flip();
+        ByteBuffer heap = ByteBuffer.wrap(body);
+        assertTrue(mWriter.write(file.getPath(), new ByteBuffer[] {
+                ByteBuffer.wrap(head), direct, heap}));
+        assertTrue(Arrays.equals(concat(head, exif, body), read(file)));
+        assertFalse(heap.hasRemaining());
+    }
+
+    public void testOverwriteLongerFile() throws IOException {
+        File file = new File(mDir, "d.jpg");
+        assertTrue(mWriter.write(file.getPath(), bytes(4000, 6)));
+        // A stale temporary file of the same name must not leave its tail.
+        assertTrue(mWriter.write(file.getPath() + ".tmp", bytes(8000, 7)));
+        byte[] data = bytes(100, 8);
+        assertTrue(mWriter.write(file.getPath(), data));
+        assertTrue(Arrays.equals(data, read(file)));
+    }
+
+    public void testWriteFailure() throws IOException {
+        // The parent is a file, so the directory cannot be created.
+        File parent = new File(mDir, "file");
+        assertTrue(mWriter.write(parent.getPath(), bytes(10, 9)));
+        assertFalse(mWriter.write(new File(parent, "e.jpg").getPath(), bytes(10, 9)));
+    }
+
+    public void testOutput() throws IOException {
+        File file = new File(mDir, "f.jpg");
+        byte[] data = bytes(5 * BUFFER_SIZE / 2, 10);
+        ImageFileWriter.Output out = mWriter.open(file.getPath());
+        out.write(data[0]);
+        out.write(data, 1, data.length - 1);
+        assertEquals(data.length, out.size());
+        assertFalse(file.exists());
+        assertTrue(out.commit());
+        assertTrue(Arrays.equals(data, read(file)));
+    }
+
+    public void testOutputAbort() throws IOException {
+        File file = new File(mDir, "g.jpg");
+        ImageFileWriter.Output out = mWriter.open(file.getPath());
+        out.write(bytes(100, 11), 0, 100);
+        out.abort();
+        assertFalse(file.exists());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.ImageSavePipeline;
+import com.android.camera.ImageSavePipeline.SaveRequest;
+
+import android.net.Uri;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+@SmallTest
+public class ImageSavePipelineTest extends TestCase {
+    private static class BlockingSink implements ImageSavePipeline.Sink {
+        final CountDownLatch mGate = new CountDownLatch(1);
+        int mPublished;
+
+        @Override
+        public boolean write(SaveRequest r) {
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                return false;
+            }
+            return !"bad".equals(r.title);
+        }
+
+        @Override
+        public synchronized Uri publish(SaveRequest r) {
+            mPublished++;
+            return r.uri;
+        }
+    }
+
+    private static SaveRequest request(String title, int size) {
+        SaveRequest r = new SaveRequest();
+        r.data = new byte[size];
+        r.title = title;
+        r.uri = Uri.parse("content://media/external/images/media/" + title);
+        return r;
+    }
+
+    public void testByteBudget() throws Exception {
+        BlockingSink sink = new BlockingSink();
+        ImageSavePipeline pipeline = new ImageSavePipeline(sink, 100, 2);
+        pipeline.submit(request("1", 60));
+        assertFalse(pipeline.isFull());
+        // Submitting never blocks, even past the budget.
+        pipeline.submit(request("2", 60));
+        assertTrue(pipeline.isFull());
+        assertEquals(120, pipeline.getBytesInFlight());
+
+        sink.mGate.countDown();
+        pipeline.waitDone();
+        assertFalse(pipeline.isFull());
+        assertEquals(0, pipeline.getBytesInFlight());
+        assertEquals(2, sink.mPublished);
+        pipeline.finish();
+    }
+
+    public void testFailedWriteIsNotPublished() throws Exception {
+        BlockingSink sink = new BlockingSink();
+        sink.mGate.countDown();
+        ImageSavePipeline pipeline = new ImageSavePipeline(sink);
+        Future<Uri> good = pipeline.submit(request("good", 10));
+        Future<Uri> bad = pipeline.submit(request("bad", 10));
+        assertEquals(Uri.parse("content://media/external/images/media/good"), good.get());
+        assertNull(bad.get());
+        pipeline.finish();
+        assertEquals(1, sink.mPublished);
+    }
+
+    public void testWriteErrorIsAccountedFor() throws Exception {
+        BlockingSink sink = new BlockingSink() {
+            @Override
+            public boolean write(SaveRequest r) {
+                throw new OutOfMemoryError("test");
+            }
+        };
+        ImageSavePipeline pipeline = new ImageSavePipeline(sink, 100, 1);
+        Future<Uri> future = pipeline.submit(request("oom", 200));
+        assertNull(future.get());
+        pipeline.waitDone();
+        assertFalse(pipeline.isFull());
+        assertEquals(0, pipeline.getBytesInFlight());
+        pipeline.finish();
+        assertEquals(0, sink.mPublished);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.camera.unittest;
+
+import com.android.camera.JpegStripWriter;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+@SmallTest
+public class JpegStripWriterTest extends TestCase {
+    private static final int WIDTH = 100;
+
+    // A minimal 4:2:0 baseline JPEG: SOI, DQT, SOF0, DHT, SOS, scan data
+    // and EOI. The tables are just placeholders.
+    private static byte[] makeStrip(int width, int height, int table, byte... data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, 0xFF, 0xD8);
+        write(out, 0xFF, 0xDB, 0, 4, 0, table);
+        write(out, 0xFF, 0xC0, 0, 17, 8, height >> 8, height & 0xFF,
+                width >> 8, width & 0xFF, 3,
+                1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1);
+        write(out, 0xFF, 0xC4, 0, 3, 0);
+        write(out, 0xFF, 0xDA, 0, 12, 3, 1, 0, 2, 0x11, 3, 0x11, 0, 63, 0);
+        out.write(data, 0, data.length);
+        write(out, 0xFF, 0xD9);
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, int... bytes) {
+        for (int b : bytes) out.write(b);
+    }
+
+    private static int indexOf(byte[] a, int first, int second) {
+        for (int i = 0; i + 1 < a.length; i++) {
+            if ((a[i] & 0xFF) == first && (a[i + 1] & 0xFF) == second) return i;
+        }
+        return -1;
+    }
+
+    public void testJoinsStrips() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JpegStripWriter writer = new JpegStripWriter(out, WIDTH, 40, 16);
+        byte[] a = makeStrip(WIDTH, 16, 0, (byte) 0x11, (byte) 0x12);
+        byte[] b = makeStrip(WIDTH, 16, 0, (byte) 0x21);
+        byte[] c = makeStrip(WIDTH, 8, 0, (byte) 0x31, (byte) 0xFF, (byte) 0x00);
+        writer.writeStrip(a, a.length);
+        writer.writeStrip(b, b.length);
+        writer.writeStrip(c, c.length);
+        writer.finish();
+        assertEquals(3, writer.getStripCount());
+
+        byte[] jpeg = out.toByteArray();
+        // The full height in SOF.
+        int sof = indexOf(jpeg, 0xFF, 0xC0);
+        assertEquals(0, jpeg[sof + 5]);
+        assertEquals(40, jpeg[sof + 6]);
+        // One strip of 16 rows is 7 MCUs of 16x16.
+        int dri = indexOf(jpeg, 0xFF, 0xDD);
+        assertTrue(dri > sof);
+        assertTrue(dri < indexOf(jpeg, 0xFF, 0xDA));
+        assertEquals(7, jpeg[dri + 5]);
+        // The scan data of each strip, separated by restart markers.
+        int data = a.length - 4;
+        byte[] tail = {0x11, 0x12, (byte) 0xFF, (byte) 0xD0, 0x21, (byte) 0xFF,
+                (byte) 0xD1, 0x31, (byte) 0xFF, 0x00, (byte) 0xFF, (byte) 0xD9};
+        assertEquals(a.length + 6 - 2 + 3 + 5 + 2, jpeg.length);
+        for (int i = 0; i < tail.length; i++) {
+            assertEquals(tail[i], jpeg[data + 6 + i]);
+        }
+    }
+
+    public void testRejectsDifferentTables() throws IOException {
+        JpegStripWriter writer = new JpegStripWriter(
+                new ByteArrayOutputStream(), WIDTH, 32, 16);
+        byte[] a = makeStrip(WIDTH, 16, 0);
+        byte[] b = makeStrip(WIDTH, 16, 1);
+        writer.writeStrip(a, a.length);
+        try {
+            writer.writeStrip(b, b.length);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    public void testRejectsWrongSize() throws IOException {
+        JpegStripWriter writer = new JpegStripWriter(
+                new ByteArrayOutputStream(), WIDTH, 32, 16);
+        byte[] a = makeStrip(WIDTH, 8, 0);
+        try {
+            writer.writeStrip(a, a.length);
+            fail();
+        } catch (IOException e) {
+        }
+        // Strips must be whole MCU rows.
+        writer = new JpegStripWriter(new ByteArrayOutputStream(), WIDTH, 32, 8);
+        try {
+            writer.writeStrip(a, a.length);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    public void testRejectsMissingRows() throws IOException {
+        JpegStripWriter writer = new JpegStripWriter(
+                new ByteArrayOutputStream(), WIDTH, 32, 16);
+        byte[] a = makeStrip(WIDTH, 16, 0);
+        writer.writeStrip(a, a.length);
+        try {
+            writer.finish();
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    public void testStripHeight() {
+        int width = 8000;
+        int height = JpegStripWriter.getStripHeight(width, 1024 * 1024);
+        assertEquals(0, height % JpegStripWriter.MCU_HEIGHT_420);
+        assertTrue(width * height * 3 / 2 <= 1024 * 1024);
+        // At least one MCU row, however small the target.
+        assertEquals(16, JpegStripWriter.getStripHeight(width, 1));
+        // The restart interval fits in 16 bits.
+        int wide = 16 * 20000;
+        assertEquals(48, JpegStripWriter.getStripHeight(wide, Integer.MAX_VALUE / 4));
+    }
+}
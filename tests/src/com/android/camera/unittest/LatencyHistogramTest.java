@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.LatencyHistogram;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class LatencyHistogramTest extends TestCase {
+    public void testEmpty() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getPercentileMicros(50));
+        assertEquals(0, h.getMinMicros());
+        assertEquals(0, h.getMaxMicros());
+    }
+
+    public void testSmallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 20; i++) h.recordMicros(i);
+        assertEquals(20, h.getCount());
+        assertEquals(1, h.getMinMicros());
+        assertEquals(20, h.getMaxMicros());
+        assertEquals(10, h.getPercentileMicros(50));
+        assertEquals(20, h.getPercentileMicros(99));
+        assertEquals(1, h.getPercentileMicros(0));
+    }
+
+    public void testPercentilesWithinPrecision() {
+        LatencyHistogram h = new LatencyHistogram();
+        // 1ms to 1000ms.
+        for (int i = 1; i <= 1000; i++) h.recordMillis(i);
+        assertWithin(500000, h.getPercentileMicros(50));
+        assertWithin(990000, h.getPercentileMicros(99));
+        assertEquals(1000000, h.getPercentileMicros(100));
+        assertEquals(500500, h.getMeanMicros());
+    }
+
+    public void testOutlierOnlyMovesTail() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) h.recordMillis(100);
+        h.recordMillis(5000);
+        assertWithin(100000, h.getPercentileMicros(50));
+        assertWithin(100000, h.getPercentileMicros(99));
+        assertEquals(5000000, h.getPercentileMicros(100));
+    }
+
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram h = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) h.recordMicros(i);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        assertEquals(40000, h.getCount());
+        assertEquals(0, h.getMinMicros());
+        assertEquals(9999, h.getMaxMicros());
+    }
+
+    public void testReset() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.recordMillis(10);
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getPercentileMicros(99));
+        h.recordMillis(3);
+        assertEquals(3000, h.getMinMicros());
+    }
+
+    // Buckets are 1/32 of a power of two wide.
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / 16);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.MainThreadBlockMonitor;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class MainThreadBlockMonitorTest extends TestCase {
+
+    public void testCountsMainThreadCalls() throws Exception {
+        MainThreadBlockMonitor monitor = new MainThreadBlockMonitor("test", true);
+        long start = System.nanoTime();
+        Thread.sleep(5);
+        monitor.onBlocked(true, start);
+        monitor.onBlocked(false, start);
+        monitor.onBlocked(true, System.nanoTime());
+        assertEquals(2, monitor.getCount());
+        assertTrue(monitor.getBlockedTime() >= 5);
+
+        monitor.reset();
+        assertEquals(0, monitor.getCount());
+        assertEquals(0, monitor.getBlockedTime());
+    }
+
+    public void testDisabledCountsNothing() {
+        MainThreadBlockMonitor monitor = new MainThreadBlockMonitor("test", false);
+        assertFalse(monitor.isEnabled());
+        monitor.onBlocked(true, System.nanoTime());
+        assertEquals(0, monitor.getCount());
+    }
+}
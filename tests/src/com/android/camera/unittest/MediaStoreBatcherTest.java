@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.MediaStoreBatcher;
+import com.android.camera.MediaStoreBatcher.Op;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class MediaStoreBatcherTest extends TestCase {
+    private static final Uri TABLE = Uri.parse("content://media/external/images/media");
+
+    private FakeMediaStore mStore;
+    private MediaStoreBatcher mBatcher;
+
+    @Override
+    protected void setUp() {
+        mStore = new FakeMediaStore();
+        // A long window, so only flush() applies the batches.
+        mBatcher = new MediaStoreBatcher(mStore, 10000);
+    }
+
+    @Override
+    protected void tearDown() {
+        mBatcher.quit();
+    }
+
+    private static ContentValues values(String key, String value) {
+        ContentValues v = new ContentValues();
+        v.put(key, value);
+        return v;
+    }
+
+    public void testCoalescesIntoOneBatch() {
+        Op a = mBatcher.insert(TABLE, values("title", "a"), null);
+        Op b = mBatcher.insert(TABLE, values("title", "b"), null);
+        mBatcher.flush();
+        assertEquals(1, mStore.batches);
+        assertNotNull(a.get());
+        assertNotNull(b.get());
+        assertFalse(a.get().equals(b.get()));
+    }
+
+    public void testMergesUpdates() {
+        Op insert = mBatcher.insert(TABLE, values("title", "a"), null);
+        mBatcher.flush();
+        Uri uri = insert.get();
+
+        Op first = mBatcher.update(uri, values("title", "b"), null);
+        Op second = mBatcher.update(uri, values("orientation", "90"), null);
+        assertSame(first, second);
+        mBatcher.flush();
+        assertEquals(2, mStore.operations);
+        assertEquals("b", mStore.rows.get(uri).getAsString("title"));
+        assertEquals("90", mStore.rows.get(uri).getAsString("orientation"));
+    }
+
+    public void testDeleteDropsPendingUpdates() {
+        Op insert = mBatcher.insert(TABLE, values("title", "a"), null);
+        mBatcher.flush();
+        Uri uri = insert.get();
+
+        Op update = mBatcher.update(uri, values("title", "b"), null);
+        mBatcher.delete(uri, null);
+        assertTrue(update.isDone());
+        assertNull(update.get());
+        mBatcher.flush();
+        assertFalse(mStore.rows.containsKey(uri));
+    }
+
+    public void testPlaceholders() {
+        mBatcher.reservePlaceholder(TABLE, values("title", "p1"));
+        mBatcher.reservePlaceholder(TABLE, values("title", "p2"));
+        assertEquals(2, mBatcher.getPlaceholderCount());
+        assertNull(mBatcher.takePlaceholder());
+        mBatcher.flush();
+
+        MediaStoreBatcher.Placeholder p = mBatcher.takePlaceholder();
+        assertEquals("p1", p.values.getAsString("title"));
+        assertTrue(mStore.rows.containsKey(p.uri));
+
+        // The one not taken is deleted on release.
+        mBatcher.releasePlaceholders();
+        mBatcher.flush();
+        assertEquals(1, mStore.rows.size());
+        assertEquals(0, mBatcher.getPlaceholderCount());
+    }
+
+    public void testFlushWaitsForBatchInFlight() throws Exception {
+        // No window, so the batch is applied as soon as it is queued.
+        final MediaStoreBatcher batcher = new MediaStoreBatcher(mStore, 0);
+        mStore.blockNextApply();
+        Op insert = batcher.insert(TABLE, values("title", "a"), null);
+        assertTrue(mStore.awaitBlocked());
+
+        // Nothing is pending any more, but the batch is not applied yet.
+        Thread flusher = new Thread() {
+            @Override
+            public void run() {
+                batcher.flush();
+            }
+        };
+        flusher.start();
+        flusher.join(200);
+        assertTrue(flusher.isAlive());
+        assertFalse(insert.isDone());
+
+        mStore.unblock();
+        flusher.join(5000);
+        assertFalse(flusher.isAlive());
+        assertTrue(insert.isDone());
+        batcher.quit();
+    }
+
+    public void testQuitWaitsForBatchInFlight() throws Exception {
+        final MediaStoreBatcher batcher = new MediaStoreBatcher(mStore, 0);
+        mStore.blockNextApply();
+        Op insert = batcher.insert(TABLE, values("title", "a"), null);
+        assertTrue(mStore.awaitBlocked());
+
+        Thread quitter = new Thread() {
+            @Override
+            public void run() {
+                batcher.quit();
+            }
+        };
+        quitter.start();
+        quitter.join(200);
+        assertTrue(quitter.isAlive());
+
+        mStore.unblock();
+        quitter.join(5000);
+        assertFalse(quitter.isAlive());
+        assertNotNull(insert.get());
+        assertEquals(1, mStore.rows.size());
+    }
+}
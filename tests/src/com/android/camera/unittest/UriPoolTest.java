@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.camera.unittest;
+
+import com.android.camera.MediaStoreBatcher;
+import com.android.camera.UriPool;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.provider.MediaStore.Images.ImageColumns;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+
+@SmallTest
+public class UriPoolTest extends TestCase {
+    private static final Uri TABLE = Uri.parse("content://media/external/images/media");
+
+    private FakeMediaStore mStore;
+    private MediaStoreBatcher mBatcher;
+
+    @Override
+    protected void setUp() {
+        mStore = new FakeMediaStore();
+        // A long window, so only flush() applies the batches.
+        mBatcher = new MediaStoreBatcher(mStore, 10000);
+    }
+
+    @Override
+    protected void tearDown() {
+        mBatcher.quit();
+    }
+
+    private static ContentValues data(String path) {
+        ContentValues values = new ContentValues();
+        values.put(ImageColumns.DATA, path);
+        return values;
+    }
+
+    public void testDeletesStalePlaceholdersOnCreation() {
+        // The placeholders of a process killed before reclaim().
+        Uri stale0 = Uri.parse(TABLE + "/98");
+        mStore.rows.put(stale0, data("/sdcard/DCIM/Camera/.pending_1368551529000_0.jpg"));
+        Uri stale1 = Uri.parse(TABLE + "/99");
+        mStore.rows.put(stale1, data("/sdcard/DCIM/Camera/.pending_1368551529000_1.jpg"));
+        Uri picture = Uri.parse(TABLE + "/100");
+        mStore.rows.put(picture, data("/sdcard/DCIM/Camera/IMG_20130514_174209.jpg"));
+        // Not a placeholder: '_' must not match any character.
+        Uri hidden = Uri.parse(TABLE + "/101");
+        mStore.rows.put(hidden, data("/sdcard/DCIM/Camera/.pendingX1.jpg"));
+
+        UriPool pool = new UriPool(mBatcher, TABLE, 2);
+        mBatcher.flush();
+        // The picture, the hidden file and the two new placeholders.
+        assertEquals(4, mStore.rows.size());
+        assertTrue(mStore.rows.containsKey(picture));
+        assertTrue(mStore.rows.containsKey(hidden));
+        assertFalse(mStore.rows.containsKey(stale0));
+        assertFalse(mStore.rows.containsKey(stale1));
+        assertEquals(2, pool.getAvailableCount());
+        assertTrue(mStore.rows.containsKey(pool.lease()));
+    }
+
+    public void testLeaseNeverBlocks() {
+        UriPool pool = new UriPool(mBatcher, TABLE, 2);
+        // The rows are not inserted yet.
+        assertNull(pool.lease());
+        mBatcher.flush();
+        assertNotNull(pool.lease());
+    }
+
+    public void testRefillsAfterLease() {
+        UriPool pool = new UriPool(mBatcher, TABLE, 2);
+        mBatcher.flush();
+        HashSet<Uri> uris = new HashSet<Uri>();
+        for (int i = 0; i < 10; i++) {
+            Uri uri = pool.lease();
+            assertNotNull(uri);
+            assertTrue(uris.add(uri));
+            pool.commit(uri);
+            mBatcher.flush();
+        }
+        assertEquals(2, pool.getAvailableCount());
+        assertEquals(0, pool.getLeasedCount());
+    }
+
+    public void testBurstCapacity() {
+        UriPool pool = new UriPool(mBatcher, TABLE, 2);
+        pool.ensureCapacity(5);
+        mBatcher.flush();
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(pool.lease());
+        }
+        assertEquals(5, pool.getLeasedCount());
+    }
+
+    public void testReleaseDeletesRow() {
+        UriPool pool = new UriPool(mBatcher, TABLE, 1);
+        mBatcher.flush();
+        Uri uri = pool.lease();
+        pool.release(uri);
+        mBatcher.flush();
+        assertFalse(mStore.rows.containsKey(uri));
+        assertEquals(0, pool.getLeasedCount());
+    }
+
+    public void testReclaimDeletesUnusedRows() {
+        UriPool pool = new UriPool(mBatcher, TABLE, 3);
+        mBatcher.flush();
+        Uri committed = pool.lease();
+        pool.commit(committed);
+        Uri leased = pool.lease();
+        pool.reclaim();
+        mBatcher.flush();
+        // Only the committed row is left.
+        assertEquals(1, mStore.rows.size());
+        assertTrue(mStore.rows.containsKey(committed));
+        assertFalse(mStore.rows.containsKey(leased));
+        assertNull(pool.lease());
+    }
+
+    private static ContentValues title(String title) {
+        ContentValues values = new ContentValues();
+        values.put("title", title);
+        return values;
+    }
+
+    public void testUpdateCommitsRow() {
+        UriPool pool = new UriPool(mBatcher, TABLE, 1);
+        mBatcher.flush();
+        Uri uri = pool.lease();
+        pool.update(uri, title("IMG_1"), null);
+        // Not committed until the update is applied.
+        assertEquals(1, pool.getLeasedCount());
+        mBatcher.flush();
+        assertEquals(0, pool.getLeasedCount());
+        assertEquals("IMG_1", mStore.rows.get(uri).getAsString("title"));
+    }
+
+    public void testFailedUpdateReleasesRow() {
+        UriPool pool = new UriPool(mBatcher, TABLE, 1);
+        mBatcher.flush();
+        Uri uri = pool.lease();
+        // The row is gone, e.g. deleted by another app.
+        mStore.rows.remove(uri);
+        final Uri[] result = {uri};
+        pool.update(uri, title("IMG_1"), new MediaStoreBatcher.Callback() {
+            @Override
+            public void onComplete(MediaStoreBatcher.Op op, Uri r) {
+                result[0] = r;
+            }
+        });
+        mBatcher.flush();
+        assertNull(result[0]);
+        assertEquals(0, pool.getLeasedCount());
+    }
+
+    public void testReclaimWaitsForUpdateInFlight() throws Exception {
+        // No window, so each batch is applied as soon as it is queued.
+        MediaStoreBatcher batcher = new MediaStoreBatcher(mStore, 0);
+        final UriPool pool = new UriPool(batcher, TABLE, 1);
+        batcher.flush();
+        Uri uri = pool.lease();
+        assertNotNull(uri);
+        // Let the refill go through first.
+        batcher.flush();
+
+        // The update is taken from the queue, and blocks while it is applied.
+        mStore.blockNextApply();
+        pool.update(uri, title("IMG_1"), null);
+        assertTrue(mStore.awaitBlocked());
+
+        Thread reclaimer = new Thread() {
+            @Override
+            public void run() {
+                pool.reclaim();
+            }
+        };
+        reclaimer.start();
+        reclaimer.join(200);
+        assertTrue(reclaimer.isAlive());
+
+        mStore.unblock();
+        reclaimer.join(5000);
+        assertFalse(reclaimer.isAlive());
+        batcher.flush();
+        // The row of the picture is kept; only the refilled one is deleted.
+        assertTrue(mStore.rows.containsKey(uri));
+        assertEquals("IMG_1", mStore.rows.get(uri).getAsString("title"));
+        assertEquals(1, mStore.rows.size());
+        batcher.quit();
+    }
+
+    public void testReclaimKeepsUpdatedRows() {
+        UriPool pool = new UriPool(mBatcher, TABLE, 1);
+        mBatcher.flush();
+        Uri uri = pool.lease();
+        pool.update(uri, title("IMG_1"), null);
+        // The update is still pending when the pool is reclaimed.
+        pool.reclaim();
+        mBatcher.flush();
+        assertTrue(mStore.rows.containsKey(uri));
+        assertEquals("IMG_1", mStore.rows.get(uri).getAsString("title"));
+    }
+}